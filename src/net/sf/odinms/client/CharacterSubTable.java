@@ -0,0 +1,147 @@
+package net.sf.odinms.client;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * One of the per-character tables that <code>MapleCharacter</code> writes on a
+ * full save (skills, keymap, inventory, etc.), together with the image of its
+ * rows as they were last written to, or read from, the database.
+ *
+ * Rows are described as a key (the values of the columns that identify a row
+ * of the character) and the list of values that make up the row. On a save,
+ * the current rows are diffed against the saved image, so that only the rows
+ * that were actually added, changed or removed are deleted and re-inserted.
+ * When there is no saved image (e.g. for a newly created character, or after a
+ * failed save), the table is rewritten completely, as it always used to be.
+ *
+ * Images are only ever accessed from within <code>MapleCharacter.saveToDB</code>
+ * and while loading, so this class is not thread-safe.
+ */
+class CharacterSubTable {
+    private final String deleteAllSql;
+    private final String deleteRowSql;
+    private final String insertSql;
+    private Map<List<Object>, List<Object>> saved = null;
+    private Map<List<Object>, List<Object>> written = null;
+
+    /**
+     * @param deleteAllSql Deletes all rows of a character; the character ID
+     *                     is the only parameter.
+     * @param deleteRowSql Deletes one row of a character; the character ID is
+     *                     the first parameter, followed by the key values.
+     * @param insertSql Inserts one row; the character ID is the first
+     *                  parameter, followed by the row values. May be
+     *                  <code>null</code>, in which case the caller inserts
+     *                  the rows returned by <code>sync</code> itself.
+     */
+    CharacterSubTable(String deleteAllSql, String deleteRowSql, String insertSql) {
+        this.deleteAllSql = deleteAllSql;
+        this.deleteRowSql = deleteRowSql;
+        this.insertSql = insertSql;
+    }
+
+    /**
+     * Brings the table up to date with <code>current</code>, within the
+     * caller's transaction. Stale rows are deleted in one batch, and, if this
+     * table has an insert statement, fresh rows are inserted in one batch.
+     *
+     * The new image only takes effect once <code>commit</code> is called.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param con The connection to write to.
+     * @param characterId The ID of the character that owns the rows.
+     * @param current The current rows, by key.
+     * @return The keys of the rows that have to be (and, if this table has an
+     *         insert statement, have been) inserted.
+     */
+    List<List<Object>> sync(Connection con,
+                            int characterId,
+                            Map<List<Object>, List<Object>> current) throws SQLException {
+        List<List<Object>> fresh = new ArrayList<>();
+        if (saved == null) {
+            try (PreparedStatement ps = con.prepareStatement(deleteAllSql)) {
+                ps.setInt(1, characterId);
+                ps.executeUpdate();
+            }
+            fresh.addAll(current.keySet());
+        } else {
+            List<List<Object>> stale = new ArrayList<>();
+            for (Map.Entry<List<Object>, List<Object>> row : saved.entrySet()) {
+                if (!row.getValue().equals(current.get(row.getKey()))) {
+                    stale.add(row.getKey());
+                }
+            }
+            for (Map.Entry<List<Object>, List<Object>> row : current.entrySet()) {
+                List<Object> savedRow = saved.get(row.getKey());
+                if (!row.getValue().equals(savedRow)) {
+                    fresh.add(row.getKey());
+                    if (savedRow == null) {
+                        // Guards against rows that exist in the database, but were never loaded.
+                        stale.add(row.getKey());
+                    }
+                }
+            }
+            if (!stale.isEmpty()) {
+                try (PreparedStatement ps = con.prepareStatement(deleteRowSql)) {
+                    for (List<Object> key : stale) {
+                        ps.setInt(1, characterId);
+                        for (int i = 0; i < key.size(); ++i) {
+                            ps.setObject(i + 2, key.get(i));
+                        }
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+        }
+        if (insertSql != null && !fresh.isEmpty()) {
+            try (PreparedStatement ps = con.prepareStatement(insertSql)) {
+                for (List<Object> key : fresh) {
+                    List<Object> row = current.get(key);
+                    ps.setInt(1, characterId);
+                    for (int i = 0; i < row.size(); ++i) {
+                        ps.setObject(i + 2, row.get(i));
+                    }
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+        written = current;
+        return fresh;
+    }
+
+    /**
+     * Makes the rows passed to the last <code>sync</code> the saved image.
+     * To be called once the transaction has been committed.
+     */
+    void commit() {
+        if (written != null) {
+            saved = written;
+            written = null;
+        }
+    }
+
+    /**
+     * Forgets the saved image, so that the next <code>sync</code> rewrites
+     * the whole table.
+     */
+    void reset() {
+        saved = null;
+        written = null;
+    }
+
+    /**
+     * Sets the saved image directly, e.g. to the rows that were just loaded.
+     */
+    void seed(Map<List<Object>, List<Object>> rows) {
+        saved = rows;
+        written = null;
+    }
+}
@@ -9,6 +9,7 @@ import net.sf.odinms.net.channel.PartyQuest;
 import net.sf.odinms.net.world.*;
 import net.sf.odinms.net.world.guild.MapleGuild;
 import net.sf.odinms.net.world.guild.MapleGuildCharacter;
+import net.sf.odinms.net.world.remote.RankingEntry;
 import net.sf.odinms.net.world.remote.WorldChannelInterface;
 import net.sf.odinms.scripting.event.EventInstanceManager;
 import net.sf.odinms.scripting.npc.NPCScriptManager;
@@ -39,10 +40,43 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
 public class MapleCharacter extends AbstractAnimatedMapleMapObject implements InventoryContainer {
     public static final double MAX_VIEW_RANGE_SQ = 850.0d * 850.0d;
+    /**
+     * Number of <code>characters</code> columns that are written on every
+     * save, i.e. every parameter of <code>UPDATE_CHARACTER_SQL</code> except
+     * for the trailing <code>id</code>.
+     */
+    public static final int CHARACTER_ROW_COLUMNS = 71;
+    public static final String UPDATE_CHARACTER_SQL =
+        "UPDATE characters SET level = ?, fame = ?, str = ?, dex = ?, luk = ?, `int` = ?, exp = ?, hp = ?, " +
+            "mp = ?, maxhp = ?, maxmp = ?, sp = ?, ap = ?, gm = ?, skincolor = ?, gender = ?, job = ?, hair = ?, " +
+            "face = ?, map = ?, meso = ?, hpApUsed = ?, mpApUsed = ?, spawnpoint = ?, party = ?, " +
+            "buddyCapacity = ?, messengerid = ?, messengerposition = ?, reborns = ?, pvpkills = ?, " +
+            "pvpdeaths = ?, clan = ?, mountlevel = ?, mountexp = ?, mounttiredness = ?, married = ?, " +
+            "partnerid = ?, zakumlvl = ?, marriagequest = ?, story = ?, storypoints = ?, questkills = ?, " +
+            "questkills2 = ?, questidd = ?, returnmap = ?, trialreturnmap = ?, monstertrialpoints = ?, " +
+            "monstertrialtier = ?, lasttrialtime = ?, deathcount = ?, highestlevelachieved = ?, suicides = ?, " +
+            "paragonlevel = ?, bossreturnmap = ?, offensestory = ?, buffstory = ?, totalparagonlevel = ?, " +
+            "expbonusend = ?, eventpoints = ?, lastelanrecharge = ?, laststrengthening = ?, deathpenalty = ?, " +
+            "deathfactor = ?, truedamage = ?, expmulti = ?, completedallquests = ?, scpqflag = ?, " +
+            "overflowexp = ?, questcompletion = ?, zakdc = ?, lastsamsara = ? WHERE id = ?";
+    private static final String INSERT_CHARACTER_SQL =
+        "INSERT INTO characters (level, fame, str, dex, luk, `int`, exp, hp, mp, maxhp, maxmp, sp, ap, gm, " +
+            "skincolor, gender, job, hair, face, map, meso, hpApUsed, mpApUsed, spawnpoint, party, " +
+            "buddyCapacity, messengerid, messengerposition, reborns, pvpkills, pvpdeaths, clan, mountlevel, " +
+            "mountexp, mounttiredness, married, partnerid, zakumlvl, marriagequest, story, storypoints, " +
+            "questkills, questkills2, questidd, returnmap, trialreturnmap, monstertrialpoints, monstertrialtier, " +
+            "lasttrialtime, deathcount, highestlevelachieved, suicides, paragonlevel, bossreturnmap, " +
+            "offensestory, buffstory, totalparagonlevel, expbonusend, eventpoints, lastelanrecharge, " +
+            "laststrengthening, deathpenalty, deathfactor, truedamage, expmulti, completedallquests, scpqflag, " +
+            "overflowexp, questcompletion, zakdc, lastsamsara, accountid, name, world) VALUES (?, ?, ?, ?, ?, ?, " +
+            "?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, " +
+            "?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, " +
+            "?, ?)";
     private static final double READING_PRIZE_PROP = 0.017d;
     public static final int[] SKILL_IDS =
     {
@@ -197,6 +231,47 @@ public class MapleCharacter extends AbstractAnimatedMapleMapObject implements In
     private final MapleCQuests quest = new MapleCQuests();
     private int story, storypoints, offensestory, buffstory;
     private final Map<Integer, Integer> questKills = new LinkedHashMap<>(4, 0.8f);
+    private final CharacterSubTable savedMacros = new CharacterSubTable(
+        "DELETE FROM skillmacros WHERE characterid = ?",
+        "DELETE FROM skillmacros WHERE characterid = ? AND position = ?",
+        "INSERT INTO skillmacros (characterid, skill1, skill2, skill3, name, shout, position) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)"
+    );
+    private final CharacterSubTable savedInventory = new CharacterSubTable(
+        "DELETE FROM inventoryitems WHERE characterid = ?",
+        "DELETE FROM inventoryitems WHERE characterid = ? AND inventorytype = ? AND position = ?",
+        null
+    );
+    private final CharacterSubTable savedQuests = new CharacterSubTable(
+        "DELETE FROM queststatus WHERE characterid = ?",
+        "DELETE FROM queststatus WHERE characterid = ? AND quest = ?",
+        null
+    );
+    private final CharacterSubTable savedSkills = new CharacterSubTable(
+        "DELETE FROM skills WHERE characterid = ?",
+        "DELETE FROM skills WHERE characterid = ? AND skillid = ?",
+        "INSERT INTO skills (characterid, skillid, skilllevel, masterlevel) VALUES (?, ?, ?, ?)"
+    );
+    private final CharacterSubTable savedKeymap = new CharacterSubTable(
+        "DELETE FROM keymap WHERE characterid = ?",
+        "DELETE FROM keymap WHERE characterid = ? AND `key` = ?",
+        "INSERT INTO keymap (characterid, `key`, `type`, `action`) VALUES (?, ?, ?, ?)"
+    );
+    private final CharacterSubTable savedLocationRows = new CharacterSubTable(
+        "DELETE FROM savedlocations WHERE characterid = ?",
+        "DELETE FROM savedlocations WHERE characterid = ? AND `locationtype` = ?",
+        "INSERT INTO savedlocations (characterid, `locationtype`, `map`) VALUES (?, ?, ?)"
+    );
+    private final CharacterSubTable savedBuddies = new CharacterSubTable(
+        "DELETE FROM buddies WHERE characterid = ? AND pending = 0",
+        "DELETE FROM buddies WHERE characterid = ? AND `buddyid` = ? AND pending = 0",
+        "INSERT INTO buddies (characterid, `buddyid`, `pending`) VALUES (?, ?, 0)"
+    );
+    private final CharacterSubTable savedQuestKills = new CharacterSubTable(
+        "DELETE FROM questkills WHERE characterid = ?",
+        "DELETE FROM questkills WHERE characterid = ? AND `monsterid` = ?",
+        "INSERT INTO questkills (`characterid`, `monsterid`, `killcount`) VALUES (?, ?, ?)"
+    );
     private int questidd, queststatus;
     private int returnmap;
     private int trialreturnmap;
@@ -635,6 +710,7 @@ public class MapleCharacter extends AbstractAnimatedMapleMapObject implements In
             rs.close();
             ps.close();
             //
+            ret.seedSavedTables();
         }
         if (ret.getInventory(MapleInventoryType.EQUIPPED).getItem((byte) -18) != null) {
             ret.maplemount =
@@ -731,6 +807,155 @@ public class MapleCharacter extends AbstractAnimatedMapleMapObject implements In
         return ret;
     }
 
+    /**
+     * Gets the values bound to the first <code>CHARACTER_ROW_COLUMNS</code>
+     * parameters of both <code>UPDATE_CHARACTER_SQL</code> and
+     * <code>INSERT_CHARACTER_SQL</code>, as they are at the time of calling.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     *
+     * @return A new array of boxed <code>Integer</code>s and <code>Long</code>s.
+     */
+    private Object[] getCharacterRowValues() {
+        Object[] values = new Object[CHARACTER_ROW_COLUMNS];
+        values[0] = level;
+        values[1] = fame;
+        values[2] = str;
+        values[3] = dex;
+        values[4] = luk;
+        values[5] = int_;
+        values[6] = level < 250 ? exp.get() : 0;
+        values[7] = hp;
+        values[8] = mp;
+        values[9] = maxhp;
+        values[10] = maxmp;
+        values[11] = remainingSp;
+        values[12] = remainingAp;
+        values[13] = gmLevel;
+        values[14] = skinColor.getId();
+        values[15] = gender;
+        values[16] = job.getId();
+        values[17] = hair;
+        values[18] = face;
+        if (map == null) {
+            values[19] = 0;
+        } else {
+            if (map.getForcedReturnId() != 999999999) {
+                values[19] = map.getForcedReturnId();
+            } else if (preEventMap > 0) {
+                values[19] = preEventMap;
+            } else {
+                values[19] = map.getId();
+            }
+        }
+        values[20] = meso.get();
+        values[21] = hpApUsed;
+        values[22] = mpApUsed;
+        if (map == null || map.getId() == 610020000 || map.getId() == 610020001) {
+            values[23] = 0;
+        } else {
+            MaplePortal closest = map.findClosestSpawnpoint(getPosition());
+            if (closest != null) {
+                values[23] = closest.getId();
+            } else {
+                values[23] = 0;
+            }
+        }
+        if (party != null) {
+            values[24] = party.getId();
+        } else {
+            values[24] = -1;
+        }
+        values[25] = buddylist.getCapacity();
+        if (messenger != null) {
+            values[26] = messenger.getId();
+            values[27] = messengerposition;
+        } else {
+            values[26] = 0;
+            values[27] = 4;
+        }
+        values[28] = reborns;
+        values[29] = pvpkills;
+        values[30] = pvpdeaths;
+        values[31] = clan;
+        if (maplemount != null) {
+            values[32] = maplemount.getLevel();
+            values[33] = maplemount.getExp();
+            values[34] = maplemount.getTiredness();
+        } else {
+            values[32] = 1;
+            values[33] = 0;
+            values[34] = 0;
+        }
+        values[35] = married ? 1 : 0;
+        values[36] = partnerid;
+        values[37] = zakumLvl > 2 ? 2 : zakumLvl;
+        values[38] = marriageQuestLevel;
+        values[39] = story;
+        values[40] = storypoints;
+        values[41] = 0;
+        values[42] = 0;
+        values[43] = questidd;
+        values[44] = returnmap;
+        values[45] = trialreturnmap;
+        values[46] = monstertrialpoints;
+        values[47] = monstertrialtier;
+        values[48] = lasttrialtime;
+        values[49] = deathcount;
+        values[50] = highestlevelachieved;
+        values[51] = suicides;
+        values[52] = paragonlevel;
+        values[53] = bossreturnmap;
+        values[54] = offensestory;
+        values[55] = buffstory;
+        values[56] = totalparagonlevel;
+        values[57] = expbonusend;
+        values[58] = eventpoints;
+        values[59] = lastelanrecharge;
+        values[60] = laststrengthening;
+        values[61] = deathpenalty;
+        values[62] = deathfactor;
+        values[63] = truedamage ? 1 : 0;
+        values[64] = expbonusmulti;
+        values[65] = completedallquests ? 1 : 0;
+        values[66] = scpqflag ? 1 : 0;
+        values[67] = overflowExp;
+        values[68] = questCompletion;
+        if (map != null && map.getId() == 280030000) { // Zakum's Altar
+            values[69] = 1;
+        } else {
+            values[69] = 0;
+        }
+        values[70] = lastSamsara;
+        return values;
+    }
+
+    /**
+     * Takes a snapshot of this character's row in the <code>characters</code>
+     * table, so that it can be written later (and from another thread) by
+     * <code>CharacterSaveService</code>.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     */
+    public CharacterRowSnapshot createRowSnapshot() {
+        return new CharacterRowSnapshot(id, getCharacterRowValues(), createRankingEntry());
+    }
+
+    /**
+     * Gets what the rankings order this character by, as it is now.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     */
+    public RankingEntry createRankingEntry() {
+        return new RankingEntry(id, job.getId(), gmLevel > 0, reborns, level, exp.get(), fame, meso.get());
+    }
+
     public void saveToDB(boolean update, boolean full) {
         Connection con = DatabaseConnection.getConnection();
         try {
@@ -738,119 +963,14 @@ public class MapleCharacter extends AbstractAnimatedMapleMapObject implements In
             con.setAutoCommit(false);
             PreparedStatement ps;
             if (update) {
-                ps = con.prepareStatement("UPDATE characters SET level = ?, fame = ?, str = ?, dex = ?, luk = ?, `int` = ?, exp = ?, hp = ?, mp = ?, maxhp = ?, maxmp = ?, sp = ?, ap = ?, gm = ?, skincolor = ?, gender = ?, job = ?, hair = ?, face = ?, map = ?, meso = ?, hpApUsed = ?, mpApUsed = ?, spawnpoint = ?, party = ?, buddyCapacity = ?, messengerid = ?, messengerposition = ?, reborns = ?, pvpkills = ?, pvpdeaths = ?, clan = ?, mountlevel = ?, mountexp = ?, mounttiredness = ?, married = ?, partnerid = ?, zakumlvl = ?, marriagequest = ?, story = ?, storypoints = ?, questkills = ?, questkills2 = ?, questidd = ?, returnmap = ?, trialreturnmap = ?, monstertrialpoints = ?, monstertrialtier = ?, lasttrialtime = ?, deathcount = ?, highestlevelachieved = ?, suicides = ?, paragonlevel = ?, bossreturnmap = ?, offensestory = ?, buffstory = ?, totalparagonlevel = ?, expbonusend = ?, eventpoints = ?, lastelanrecharge = ?, laststrengthening = ?, deathpenalty = ?, deathfactor = ?, truedamage = ?, expmulti = ?, completedallquests = ?, scpqflag = ?, overflowexp = ?, questcompletion = ?, zakdc = ?, lastsamsara = ? WHERE id = ?");
-            } else {
-                ps = con.prepareStatement("INSERT INTO characters (level, fame, str, dex, luk, `int`, exp, hp, mp, maxhp, maxmp, sp, ap, gm, skincolor, gender, job, hair, face, map, meso, hpApUsed, mpApUsed, spawnpoint, party, buddyCapacity, messengerid, messengerposition, reborns, pvpkills, pvpdeaths, clan, mountlevel, mountexp, mounttiredness, married, partnerid, zakumlvl, marriagequest, story, storypoints, questkills, questkills2, questidd, returnmap, trialreturnmap, monstertrialpoints, monstertrialtier, lasttrialtime, deathcount, highestlevelachieved, suicides, paragonlevel, bossreturnmap, offensestory, buffstory, totalparagonlevel, expbonusend, eventpoints, lastelanrecharge, laststrengthening, deathpenalty, deathfactor, truedamage, expmulti, completedallquests, scpqflag, overflowexp, questcompletion, zakdc, lastsamsara, accountid, name, world) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-            }
-            ps.setInt(1, level);
-            ps.setInt(2, fame);
-            ps.setInt(3, str);
-            ps.setInt(4, dex);
-            ps.setInt(5, luk);
-            ps.setInt(6, int_);
-            ps.setInt(7, level < 250 ? exp.get() : 0);
-            ps.setInt(8, hp);
-            ps.setInt(9, mp);
-            ps.setInt(10, maxhp);
-            ps.setInt(11, maxmp);
-            ps.setInt(12, remainingSp);
-            ps.setInt(13, remainingAp);
-            ps.setInt(14, gmLevel);
-            ps.setInt(15, skinColor.getId());
-            ps.setInt(16, gender);
-            ps.setInt(17, job.getId());
-            ps.setInt(18, hair);
-            ps.setInt(19, face);
-            if (map == null) {
-                ps.setInt(20, 0);
-            } else {
-                if (map.getForcedReturnId() != 999999999) {
-                    ps.setInt(20, map.getForcedReturnId());
-                } else if (preEventMap > 0) {
-                    ps.setInt(20, preEventMap);
-                } else {
-                    ps.setInt(20, map.getId());
-                }
-            }
-            ps.setInt(21, meso.get());
-            ps.setInt(22, hpApUsed);
-            ps.setInt(23, mpApUsed);
-            if (map == null || map.getId() == 610020000 || map.getId() == 610020001) {
-                ps.setInt(24, 0);
-            } else {
-                MaplePortal closest = map.findClosestSpawnpoint(getPosition());
-                if (closest != null) {
-                    ps.setInt(24, closest.getId());
-                } else {
-                    ps.setInt(24, 0);
-                }
-            }
-            if (party != null) {
-                ps.setInt(25, party.getId());
+                ps = con.prepareStatement(UPDATE_CHARACTER_SQL);
             } else {
-                ps.setInt(25, -1);
+                ps = con.prepareStatement(INSERT_CHARACTER_SQL);
             }
-            ps.setInt(26, buddylist.getCapacity());
-            if (messenger != null) {
-                ps.setInt(27, messenger.getId());
-                ps.setInt(28, messengerposition);
-            } else {
-                ps.setInt(27, 0);
-                ps.setInt(28, 4);
-            }
-            ps.setInt(29, reborns);
-            ps.setInt(30, pvpkills);
-            ps.setInt(31, pvpdeaths);
-            ps.setInt(32, clan);
-            if (maplemount != null) {
-                ps.setInt(33, maplemount.getLevel());
-                ps.setInt(34, maplemount.getExp());
-                ps.setInt(35, maplemount.getTiredness());
-            } else {
-                ps.setInt(33, 1);
-                ps.setInt(34, 0);
-                ps.setInt(35, 0);
-            }
-            ps.setInt(36, married ? 1 : 0);
-            ps.setInt(37, partnerid);
-            ps.setInt(38, zakumLvl > 2 ? 2 : zakumLvl);
-            ps.setInt(39, marriageQuestLevel);
-            ps.setInt(40, story);
-            ps.setInt(41, storypoints);
-            ps.setInt(42, 0);
-            ps.setInt(43, 0);
-            ps.setInt(44, questidd);
-            ps.setInt(45, returnmap);
-            ps.setInt(46, trialreturnmap);
-            ps.setInt(47, monstertrialpoints);
-            ps.setInt(48, monstertrialtier);
-            ps.setLong(49, lasttrialtime);
-            ps.setInt(50, deathcount);
-            ps.setInt(51, highestlevelachieved);
-            ps.setInt(52, suicides);
-            ps.setInt(53, paragonlevel);
-            ps.setInt(54, bossreturnmap);
-            ps.setInt(55, offensestory);
-            ps.setInt(56, buffstory);
-            ps.setInt(57, totalparagonlevel);
-            ps.setLong(58, expbonusend);
-            ps.setInt(59, eventpoints);
-            ps.setLong(60, lastelanrecharge);
-            ps.setLong(61, laststrengthening);
-            ps.setInt(62, deathpenalty);
-            ps.setInt(63, deathfactor);
-            ps.setInt(64, truedamage ? 1 : 0);
-            ps.setInt(65, expbonusmulti);
-            ps.setInt(66, completedallquests ? 1 : 0);
-            ps.setInt(67, scpqflag ? 1 : 0);
-            ps.setLong(68, overflowExp);
-            ps.setInt(69, questCompletion);
-            if (map != null && map.getId() == 280030000) { // Zakum's Altar
-                ps.setInt(70, 1);
-            } else {
-                ps.setInt(70, 0);
+            Object[] values = getCharacterRowValues();
+            for (int i = 0; i < values.length; ++i) {
+                ps.setObject(i + 1, values[i]);
             }
-            ps.setLong(71, lastSamsara);
             if (update) {
                 ps.setInt(72, id);
             } else {
@@ -882,38 +1002,26 @@ public class MapleCharacter extends AbstractAnimatedMapleMapObject implements In
                         break;
                     }
                 }
-                deleteWhereCharacterId(con, "DELETE FROM skillmacros WHERE characterid = ?");
-                for (int i = 0; i < 5; ++i) {
-                    SkillMacro macro = skillMacros[i];
-                    if (macro != null) {
-                        ps = con.prepareStatement(
-                            "INSERT INTO skillmacros " +
-                                "(characterid, skill1, skill2, skill3, name, shout, position) " +
-                                "VALUES (?, ?, ?, ?, ?, ?, ?)"
-                        );
-                        ps.setInt(1, id);
-                        ps.setInt(2, macro.getSkill1());
-                        ps.setInt(3, macro.getSkill2());
-                        ps.setInt(4, macro.getSkill3());
-                        ps.setString(5, macro.getName());
-                        ps.setInt(6, macro.getShout());
-                        ps.setInt(7, i);
-                        ps.executeUpdate();
-                        ps.close();
-                    }
-                }
-                deleteWhereCharacterId(con, "DELETE FROM inventoryitems WHERE characterid = ?");
-                ps = con.prepareStatement("INSERT INTO inventoryitems (characterid, itemid, inventorytype, position, quantity, owner, petid) VALUES (?, ?, ?, ?, ?, ?, ?)");
-                PreparedStatement pse = con.prepareStatement("INSERT INTO inventoryequipment VALUES (DEFAULT, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-                for (MapleInventory iv : inventory) {
-                    ps.setInt(3, iv.getType().getType());
-                    for (IItem item : iv.list()) {
-                        ps.setInt(1, id);
-                        ps.setInt(2, item.getItemId());
-                        ps.setInt(4, item.getPosition());
-                        ps.setInt(5, item.getQuantity());
-                        ps.setString(6, item.getOwner());
-                        ps.setInt(7, item.getPetId());
+                savedMacros.sync(con, id, macroRows());
+                Map<List<Object>, List<Object>> inventoryRows = inventoryRows();
+                List<List<Object>> freshItems = savedInventory.sync(con, id, inventoryRows);
+                if (!freshItems.isEmpty()) {
+                    ps = con.prepareStatement(
+                        "INSERT INTO inventoryitems (characterid, itemid, inventorytype, position, quantity, " +
+                            "owner, petid) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS
+                    );
+                    PreparedStatement pse = con.prepareStatement(
+                        "INSERT INTO inventoryequipment VALUES (DEFAULT, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, " +
+                            "?, ?, ?, ?, ?, ?, ?)"
+                    );
+                    ps.setInt(1, id);
+                    boolean equipsBatched = false;
+                    for (List<Object> key : freshItems) {
+                        List<Object> row = inventoryRows.get(key);
+                        for (int i = 0; i < 6; ++i) {
+                            ps.setObject(i + 2, row.get(i));
+                        }
                         ps.executeUpdate();
                         ResultSet rs = ps.getGeneratedKeys();
                         int itemid;
@@ -922,111 +1030,65 @@ public class MapleCharacter extends AbstractAnimatedMapleMapObject implements In
                         } else {
                             rs.close();
                             ps.close();
+                            pse.close();
                             throw new DatabaseException("Inserting char failed.");
                         }
                         rs.close();
-                        if (iv.getType().equals(MapleInventoryType.EQUIP) || iv.getType().equals(MapleInventoryType.EQUIPPED)) {
+                        if (row.size() > 6) {
                             pse.setInt(1, itemid);
-                            IEquip equip = (IEquip) item;
-                            pse.setInt(2, equip.getUpgradeSlots());
-                            pse.setInt(3, equip.getLevel());
-                            pse.setInt(4, equip.getStr());
-                            pse.setInt(5, equip.getDex());
-                            pse.setInt(6, equip.getInt());
-                            pse.setInt(7, equip.getLuk());
-                            pse.setInt(8, equip.getHp());
-                            pse.setInt(9, equip.getMp());
-                            pse.setInt(10, equip.getWatk());
-                            pse.setInt(11, equip.getMatk());
-                            pse.setInt(12, equip.getWdef());
-                            pse.setInt(13, equip.getMdef());
-                            pse.setInt(14, equip.getAcc());
-                            pse.setInt(15, equip.getAvoid());
-                            pse.setInt(16, equip.getHands());
-                            pse.setInt(17, equip.getSpeed());
-                            pse.setInt(18, equip.getJump());
-                            pse.setInt(19, equip.getRingId());
-                            pse.setInt(20, equip.getLocked());
-                            pse.executeUpdate();
+                            for (int i = 6; i < row.size(); ++i) {
+                                pse.setObject(i - 4, row.get(i));
+                            }
+                            pse.addBatch();
+                            equipsBatched = true;
                         }
                     }
-                }
-                ps.close();
-                pse.close();
-                deleteWhereCharacterId(con, "DELETE FROM queststatus WHERE characterid = ?");
-                ps = con.prepareStatement("INSERT INTO queststatus (`queststatusid`, `characterid`, `quest`, `status`, `time`, `forfeited`) VALUES (DEFAULT, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
-                pse = con.prepareStatement("INSERT INTO queststatusmobs VALUES (DEFAULT, ?, ?, ?)");
-                ps.setInt(1, id);
-                for (MapleQuestStatus q : quests.values()) {
-                    ps.setInt(2, q.getQuest().getId());
-                    ps.setInt(3, q.getStatus().getId());
-                    ps.setInt(4, (int) (q.getCompletionTime() / 1000));
-                    ps.setInt(5, q.getForfeited());
-                    ps.executeUpdate();
-                    ResultSet rs = ps.getGeneratedKeys();
-                    rs.next();
-                    for (int mob : q.getMobKills().keySet()) {
-                        pse.setInt(1, rs.getInt(1));
-                        pse.setInt(2, mob);
-                        pse.setInt(3, q.getMobKills(mob));
-                        pse.executeUpdate();
+                    if (equipsBatched) {
+                        pse.executeBatch();
                     }
-                    rs.close();
-                }
-                ps.close();
-                pse.close();
-                deleteWhereCharacterId(
-                    con,
-                    "DELETE FROM skills WHERE characterid = ?"
-                );
-                ps = con.prepareStatement(
-                    "INSERT INTO skills (characterid, skillid, skilllevel, masterlevel) VALUES (?, ?, ?, ?)"
-                );
-                ps.setInt(1, id);
-                for (Entry<ISkill, SkillEntry> skill_ : skills.entrySet()) {
-                    ps.setInt(2, skill_.getKey().getId());
-                    ps.setInt(3, skill_.getValue().skillevel);
-                    ps.setInt(4, skill_.getValue().masterlevel);
-                    ps.executeUpdate();
-                }
-                ps.close();
-                deleteWhereCharacterId(con, "DELETE FROM keymap WHERE characterid = ?");
-                ps = con.prepareStatement(
-                    "INSERT INTO keymap (characterid, `key`, `type`, `action`) VALUES (?, ?, ?, ?)"
-                );
-                ps.setInt(1, id);
-                for (Map.Entry<Integer, MapleKeyBinding> keybinding : keymap.entrySet()) {
-                    ps.setInt(2, keybinding.getKey());
-                    ps.setInt(3, keybinding.getValue().getType());
-                    ps.setInt(4, keybinding.getValue().getAction());
-                    ps.executeUpdate();
+                    ps.close();
+                    pse.close();
                 }
-                ps.close();
-                deleteWhereCharacterId(con, "DELETE FROM savedlocations WHERE characterid = ?");
-                ps = con.prepareStatement(
-                    "INSERT INTO savedlocations (characterid, `locationtype`, `map`) VALUES (?, ?, ?)"
-                );
-                ps.setInt(1, id);
-                for (SavedLocationType savedLocationType : SavedLocationType.values()) {
-                    if (savedLocations[savedLocationType.ordinal()] != -1) {
-                        ps.setString(2, savedLocationType.name());
-                        ps.setInt(3, savedLocations[savedLocationType.ordinal()]);
+                Map<List<Object>, List<Object>> questRows = questRows();
+                List<List<Object>> freshQuests = savedQuests.sync(con, id, questRows);
+                if (!freshQuests.isEmpty()) {
+                    ps = con.prepareStatement(
+                        "INSERT INTO queststatus (`queststatusid`, `characterid`, `quest`, `status`, `time`, " +
+                            "`forfeited`) VALUES (DEFAULT, ?, ?, ?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS
+                    );
+                    PreparedStatement pse = con.prepareStatement(
+                        "INSERT INTO queststatusmobs VALUES (DEFAULT, ?, ?, ?)"
+                    );
+                    ps.setInt(1, id);
+                    boolean mobsBatched = false;
+                    for (List<Object> key : freshQuests) {
+                        List<Object> row = questRows.get(key);
+                        for (int i = 0; i < 4; ++i) {
+                            ps.setObject(i + 2, row.get(i));
+                        }
                         ps.executeUpdate();
+                        ResultSet rs = ps.getGeneratedKeys();
+                        rs.next();
+                        for (int i = 4; i < row.size(); i += 2) {
+                            pse.setInt(1, rs.getInt(1));
+                            pse.setObject(2, row.get(i));
+                            pse.setObject(3, row.get(i + 1));
+                            pse.addBatch();
+                            mobsBatched = true;
+                        }
+                        rs.close();
                     }
-                }
-                ps.close();
-                deleteWhereCharacterId(con, "DELETE FROM buddies WHERE characterid = ? AND pending = 0");
-                ps = con.prepareStatement(
-                    "INSERT INTO buddies (characterid, `buddyid`, `pending`) VALUES (?, ?, 0)"
-                );
-                ps.setInt(1, id);
-                for (BuddylistEntry entry : buddylist.getBuddies()) {
-                    if (entry.isVisible()) {
-                        ps.setInt(2, entry.getCharacterId());
-                        ps.executeUpdate();
+                    if (mobsBatched) {
+                        pse.executeBatch();
                     }
+                    ps.close();
+                    pse.close();
                 }
-                ps.close();
+                savedSkills.sync(con, id, skillRows());
+                savedKeymap.sync(con, id, keymapRows());
+                savedLocationRows.sync(con, id, locationRows());
+                savedBuddies.sync(con, id, buddyRows());
                 // Checking DB for if votepoints/NX has been changed since the player logged in.
                 // If so, the new votepoints/NX are factored into the new total.
                 // This is to allow players to vote while online.
@@ -1092,21 +1154,16 @@ public class MapleCharacter extends AbstractAnimatedMapleMapObject implements In
                     ps.executeUpdate();
                 }
                 ps.close();
-                deleteWhereCharacterId(con, "DELETE FROM questkills WHERE characterid = ?");
-                ps = con.prepareStatement(
-                    "INSERT INTO questkills (`characterid`, `monsterid`, `killcount`) VALUES (?, ?, ?)"
-                );
-                ps.setInt(1, id);
-                for (Map.Entry<Integer, Integer> e : questKills.entrySet()) {
-                    ps.setInt(2, e.getKey());
-                    ps.setInt(3, e.getValue());
-                    ps.executeUpdate();
-                }
-                ps.close();
+                savedQuestKills.sync(con, id, questKillRows());
             }
             con.commit();
+            if (full) {
+                commitSavedTables();
+            }
         } catch (Exception e) {
             System.err.println("[Saving] Error saving character data: " + e);
+            // The saved images can no longer be trusted, so the next full save rewrites everything.
+            resetSavedTables();
             try {
                 con.rollback();
             } catch (SQLException sqle) {
@@ -1121,6 +1178,192 @@ public class MapleCharacter extends AbstractAnimatedMapleMapObject implements In
             }
         }
     }
+
+    private Map<List<Object>, List<Object>> macroRows() {
+        Map<List<Object>, List<Object>> rows = new LinkedHashMap<>();
+        for (int i = 0; i < 5; ++i) {
+            SkillMacro macro = skillMacros[i];
+            if (macro != null) {
+                rows.put(
+                    Collections.singletonList(i),
+                    Arrays.asList(
+                        macro.getSkill1(),
+                        macro.getSkill2(),
+                        macro.getSkill3(),
+                        macro.getName(),
+                        macro.getShout(),
+                        i
+                    )
+                );
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Inventory rows are keyed by inventory type and position. Equipment rows
+     * additionally carry the <code>inventoryequipment</code> values, after
+     * the six <code>inventoryitems</code> values.
+     */
+    private Map<List<Object>, List<Object>> inventoryRows() {
+        Map<List<Object>, List<Object>> rows = new LinkedHashMap<>();
+        for (MapleInventory iv : inventory) {
+            int type = iv.getType().getType();
+            boolean equips = iv.getType().equals(MapleInventoryType.EQUIP) ||
+                             iv.getType().equals(MapleInventoryType.EQUIPPED);
+            for (IItem item : iv.list()) {
+                List<Object> row = new ArrayList<>(equips ? 25 : 6);
+                row.add(item.getItemId());
+                row.add(type);
+                row.add((int) item.getPosition());
+                row.add((int) item.getQuantity());
+                row.add(item.getOwner());
+                row.add(item.getPetId());
+                if (equips) {
+                    IEquip equip = (IEquip) item;
+                    row.add((int) equip.getUpgradeSlots());
+                    row.add((int) equip.getLevel());
+                    row.add((int) equip.getStr());
+                    row.add((int) equip.getDex());
+                    row.add((int) equip.getInt());
+                    row.add((int) equip.getLuk());
+                    row.add((int) equip.getHp());
+                    row.add((int) equip.getMp());
+                    row.add((int) equip.getWatk());
+                    row.add((int) equip.getMatk());
+                    row.add((int) equip.getWdef());
+                    row.add((int) equip.getMdef());
+                    row.add((int) equip.getAcc());
+                    row.add((int) equip.getAvoid());
+                    row.add((int) equip.getHands());
+                    row.add((int) equip.getSpeed());
+                    row.add((int) equip.getJump());
+                    row.add(equip.getRingId());
+                    row.add((int) equip.getLocked());
+                }
+                rows.put(Arrays.asList(type, (int) item.getPosition()), row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Quest rows are keyed by quest ID, and carry the
+     * <code>queststatusmobs</code> values as (mob, count) pairs after the four
+     * <code>queststatus</code> values.
+     */
+    private Map<List<Object>, List<Object>> questRows() {
+        Map<List<Object>, List<Object>> rows = new LinkedHashMap<>();
+        for (MapleQuestStatus q : quests.values()) {
+            List<Object> row = new ArrayList<>(4 + 2 * q.getMobKills().size());
+            row.add(q.getQuest().getId());
+            row.add(q.getStatus().getId());
+            row.add((int) (q.getCompletionTime() / 1000));
+            row.add(q.getForfeited());
+            for (Map.Entry<Integer, Integer> mobKills : new TreeMap<>(q.getMobKills()).entrySet()) {
+                row.add(mobKills.getKey());
+                row.add(mobKills.getValue());
+            }
+            rows.put(Collections.singletonList(q.getQuest().getId()), row);
+        }
+        return rows;
+    }
+
+    private Map<List<Object>, List<Object>> skillRows() {
+        Map<List<Object>, List<Object>> rows = new LinkedHashMap<>();
+        for (Entry<ISkill, SkillEntry> skill_ : skills.entrySet()) {
+            rows.put(
+                Collections.singletonList(skill_.getKey().getId()),
+                Arrays.asList(skill_.getKey().getId(), skill_.getValue().skillevel, skill_.getValue().masterlevel)
+            );
+        }
+        return rows;
+    }
+
+    private Map<List<Object>, List<Object>> keymapRows() {
+        Map<List<Object>, List<Object>> rows = new LinkedHashMap<>();
+        for (Map.Entry<Integer, MapleKeyBinding> keybinding : keymap.entrySet()) {
+            rows.put(
+                Collections.singletonList(keybinding.getKey()),
+                Arrays.asList(
+                    keybinding.getKey(),
+                    keybinding.getValue().getType(),
+                    keybinding.getValue().getAction()
+                )
+            );
+        }
+        return rows;
+    }
+
+    private Map<List<Object>, List<Object>> locationRows() {
+        Map<List<Object>, List<Object>> rows = new LinkedHashMap<>();
+        for (SavedLocationType savedLocationType : SavedLocationType.values()) {
+            if (savedLocations[savedLocationType.ordinal()] != -1) {
+                rows.put(
+                    Collections.singletonList(savedLocationType.name()),
+                    Arrays.asList(savedLocationType.name(), savedLocations[savedLocationType.ordinal()])
+                );
+            }
+        }
+        return rows;
+    }
+
+    private Map<List<Object>, List<Object>> buddyRows() {
+        Map<List<Object>, List<Object>> rows = new LinkedHashMap<>();
+        for (BuddylistEntry entry : buddylist.getBuddies()) {
+            if (entry.isVisible()) {
+                List<Object> key = Collections.singletonList(entry.getCharacterId());
+                rows.put(key, key);
+            }
+        }
+        return rows;
+    }
+
+    private Map<List<Object>, List<Object>> questKillRows() {
+        Map<List<Object>, List<Object>> rows = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> e : questKills.entrySet()) {
+            rows.put(Collections.singletonList(e.getKey()), Arrays.asList(e.getKey(), e.getValue()));
+        }
+        return rows;
+    }
+
+    /**
+     * Takes the rows that were just loaded as the saved images of the
+     * sub-tables, so that the first full save only writes what has changed
+     * since loading.
+     */
+    private void seedSavedTables() {
+        savedMacros.seed(macroRows());
+        savedInventory.seed(inventoryRows());
+        savedQuests.seed(questRows());
+        savedSkills.seed(skillRows());
+        savedKeymap.seed(keymapRows());
+        savedLocationRows.seed(locationRows());
+        savedBuddies.seed(buddyRows());
+        savedQuestKills.seed(questKillRows());
+    }
+
+    private void commitSavedTables() {
+        savedMacros.commit();
+        savedInventory.commit();
+        savedQuests.commit();
+        savedSkills.commit();
+        savedKeymap.commit();
+        savedLocationRows.commit();
+        savedBuddies.commit();
+        savedQuestKills.commit();
+    }
+
+    private void resetSavedTables() {
+        savedMacros.reset();
+        savedInventory.reset();
+        savedQuests.reset();
+        savedSkills.reset();
+        savedKeymap.reset();
+        savedLocationRows.reset();
+        savedBuddies.reset();
+        savedQuestKills.reset();
+    }
     //
     private void resetAllQuestProgress() {
         quests.clear();
@@ -2010,13 +2253,6 @@ public class MapleCharacter extends AbstractAnimatedMapleMapObject implements In
     }
     //
 
-    private void deleteWhereCharacterId(Connection con, String sql) throws SQLException {
-        PreparedStatement ps = con.prepareStatement(sql);
-        ps.setInt(1, id);
-        ps.executeUpdate();
-        ps.close();
-    }
-
     private static void sqlException(SQLException sqle) {
         System.err.println("SQL Error: " + sqle);
     }
@@ -5777,6 +6013,67 @@ public class MapleCharacter extends AbstractAnimatedMapleMapObject implements In
         }
     }
 
+    /**
+     * Immutable copy of the non-key columns of a character's row in the
+     * <code>characters</code> table, taken at a single point in time.
+     */
+    public static class CharacterRowSnapshot {
+        private static final AtomicLong sequence = new AtomicLong();
+        private final int characterId;
+        private final Object[] values;
+        private final RankingEntry rankingEntry;
+        private final long seq;
+        private final long createdNanos;
+
+        private CharacterRowSnapshot(int characterId, Object[] values, RankingEntry rankingEntry) {
+            this.characterId = characterId;
+            this.values = values;
+            this.rankingEntry = rankingEntry;
+            this.seq = sequence.incrementAndGet();
+            this.createdNanos = System.nanoTime();
+        }
+
+        /**
+         * Gets the next snapshot sequence number without creating a snapshot,
+         * so that writes that bypass snapshots can be ordered against them.
+         */
+        public static long nextSequence() {
+            return sequence.incrementAndGet();
+        }
+
+        public int getCharacterId() {
+            return characterId;
+        }
+
+        public long getSequence() {
+            return seq;
+        }
+
+        public long getCreatedNanos() {
+            return createdNanos;
+        }
+
+        public RankingEntry getRankingEntry() {
+            return rankingEntry;
+        }
+
+        /**
+         * Binds this snapshot to <code>UPDATE_CHARACTER_SQL</code>.
+         *
+         * <ul>
+         * <li>pure?: false</li>
+         * </ul>
+         *
+         * @throws SQLException when a parameter cannot be bound.
+         */
+        public void bindUpdate(PreparedStatement ps) throws SQLException {
+            for (int i = 0; i < values.length; ++i) {
+                ps.setObject(i + 1, values[i]);
+            }
+            ps.setInt(values.length + 1, characterId);
+        }
+    }
+
     public enum FameStatus {
         OK, NOT_TODAY, NOT_THIS_MONTH
     }
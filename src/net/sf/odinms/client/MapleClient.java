@@ -4,13 +4,16 @@ import net.sf.odinms.client.messages.MessageCallback;
 import net.sf.odinms.database.DatabaseConnection;
 import net.sf.odinms.database.DatabaseException;
 import net.sf.odinms.net.channel.ChannelServer;
+import net.sf.odinms.net.channel.CharacterSaveService;
 import net.sf.odinms.net.login.LoginServer;
 import net.sf.odinms.net.world.MapleMessengerCharacter;
 import net.sf.odinms.net.world.MaplePartyCharacter;
 import net.sf.odinms.net.world.PartyOperation;
 import net.sf.odinms.net.world.PlayerCoolDownValueHolder;
 import net.sf.odinms.net.world.guild.MapleGuildCharacter;
+import net.sf.odinms.net.world.remote.AccountLoginState;
 import net.sf.odinms.net.world.remote.WorldChannelInterface;
+import net.sf.odinms.scripting.ScriptInstance;
 import net.sf.odinms.scripting.npc.NPCConversationManager;
 import net.sf.odinms.scripting.npc.NPCScriptManager;
 import net.sf.odinms.scripting.quest.QuestActionManager;
@@ -30,7 +33,6 @@ import org.apache.mina.common.IoSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.script.ScriptEngine;
 import java.rmi.RemoteException;
 import java.sql.*;
 import java.util.*;
@@ -62,7 +64,7 @@ public class MapleClient {
     private boolean guest;
     private final Map<Pair<MapleCharacter, Integer>, Integer> timesTalked = new LinkedHashMap<>(); // NPC ID, times
     private final Set<String> macs = new LinkedHashSet<>();
-    private final Map<String, ScriptEngine> engines = new LinkedHashMap<>();
+    private final Map<String, ScriptInstance> scriptInstances = new LinkedHashMap<>();
     private ScheduledFuture<?> idleTask = null;
     private int attemptedLogins = 0;
 
@@ -278,7 +280,8 @@ public class MapleClient {
     public int finishLogin(boolean success) {
         if (success) {
             synchronized (MapleClient.class) {
-                if (getLoginState() > LOGIN_NOTLOGGEDIN && getLoginState() != LOGIN_WAITING) {
+                int state = getLoginState();
+                if (state > LOGIN_NOTLOGGEDIN && state != LOGIN_WAITING) {
                     loggedIn = false;
                     return 7;
                 }
@@ -308,7 +311,10 @@ public class MapleClient {
         }
         Connection con = DatabaseConnection.getConnection();
         try {
-            PreparedStatement ps = con.prepareStatement("SELECT id, password, salt, tempban, banned, gm, macs, lastknownip, greason FROM accounts WHERE name = ?");
+            PreparedStatement ps = con.prepareStatement(
+                "SELECT id, password, salt, tempban, banned, gm, macs, lastknownip, greason, " +
+                    "UNIX_TIMESTAMP(birthday) AS birthday FROM accounts WHERE name = ?"
+            );
             ps.setString(1, login);
             ResultSet rs = ps.executeQuery();
             if (rs.next()) {
@@ -319,6 +325,7 @@ public class MapleClient {
                 String salt = rs.getString("salt");
                 greason = rs.getByte("greason");
                 tempban = getTempBanCalendar(rs);
+                setBirthday(rs.getLong("birthday"));
                 if ((banned == 0 && !ipMacBanned) || banned == -1) {
                     PreparedStatement ips = con.prepareStatement("INSERT INTO iplog (accountid, ip) VALUES (?, ?)");
                     ips.setInt(1, accId);
@@ -494,6 +501,7 @@ public class MapleClient {
         } catch (SQLException e) {
             log.error("ERROR", e);
         }
+        reportLoginState(newstate);
         if (newstate == LOGIN_NOTLOGGEDIN) {
             loggedIn = false;
             serverTransition = false;
@@ -506,7 +514,64 @@ public class MapleClient {
         }
     }
 
+    /**
+     * Tells the world server about the account's new login state, which is
+     * what the login queue counts users by. Clients whose channel has no
+     * channel server in this process (i.e. clients of the login server,
+     * which sets the channel once a world is picked) go through the login
+     * server.
+     */
+    private void reportLoginState(int state) {
+        boolean isGmAccount = gm || (player != null && player.isGM());
+        ChannelServer cserv = getChannelServer();
+        try {
+            if (cserv == null) {
+                LoginServer.getInstance().getWorldInterface().setLoginState(getAccID(), isGmAccount, state, -1);
+            } else {
+                cserv.getWorldInterface().setLoginState(getAccID(), isGmAccount, state, channel);
+            }
+        } catch (RemoteException re) {
+            if (cserv == null) {
+                LoginServer.getInstance().reconnectWorld();
+            } else {
+                cserv.reconnectWorld();
+            }
+        }
+    }
+
+    /**
+     * Gets the login state of the account, from the world server if it
+     * knows it, and from the database otherwise. An account that has been
+     * moving to a channel server for too long counts as logged off.
+     */
     public int getLoginState() {
+        AccountLoginState known = null;
+        ChannelServer cserv = getChannelServer();
+        try {
+            if (cserv == null) {
+                known = LoginServer.getInstance().getWorldInterface().getLoginState(getAccID());
+            } else {
+                known = cserv.getWorldInterface().getLoginState(getAccID());
+            }
+        } catch (RemoteException re) {
+            log.warn("Could not get the login state of account " + getAccID() + " from the world server", re);
+        }
+        if (known == null) {
+            return getLoginStateFromDB();
+        }
+        int state = known.state;
+        if (state == LOGIN_SERVER_TRANSITION && known.millisInState > 30000) { // Connecting to chanserver timeout.
+            state = LOGIN_NOTLOGGEDIN;
+            updateLoginState(LOGIN_NOTLOGGEDIN);
+            if (isGuest()) {
+                deleteAllCharacters();
+            }
+        }
+        loggedIn = state == LOGIN_LOGGEDIN;
+        return state;
+    }
+
+    private int getLoginStateFromDB() {
         Connection con = DatabaseConnection.getConnection();
         try {
             PreparedStatement ps;
@@ -518,11 +583,7 @@ public class MapleClient {
                 ps.close();
                 throw new DatabaseException("Everything sucks");
             }
-            birthday = Calendar.getInstance();
-            long blubb = rs.getLong("birthday");
-            if (blubb > 0) {
-                birthday.setTimeInMillis(blubb * 1000);
-            }
+            setBirthday(rs.getLong("birthday"));
             int state = rs.getInt("loggedin");
             if (state == LOGIN_SERVER_TRANSITION) {
                 Timestamp ts = rs.getTimestamp("lastlogin");
@@ -538,6 +599,9 @@ public class MapleClient {
             }
             rs.close();
             ps.close();
+            if (state != LOGIN_NOTLOGGEDIN) {
+                reportLoginState(state); // The world server doesn't know about it yet, e.g. because it restarted.
+            }
             loggedIn = state == LOGIN_LOGGEDIN;
             return state;
         } catch (SQLException e) {
@@ -547,6 +611,13 @@ public class MapleClient {
         }
     }
 
+    private void setBirthday(long unixTime) {
+        birthday = Calendar.getInstance();
+        if (unixTime > 0) {
+            birthday.setTimeInMillis(unixTime * 1000);
+        }
+    }
+
     public boolean checkBirthDate(Calendar date) {
         if (date.get(Calendar.YEAR) == birthday.get(Calendar.YEAR)) {
             if (date.get(Calendar.MONTH) == birthday.get(Calendar.MONTH)) {
@@ -633,7 +704,7 @@ public class MapleClient {
             chr.setMessenger(null);
             chr.getCheatTracker().dispose();
             if (!isGuest()) {
-                chr.saveToDB(true, true);
+                CharacterSaveService.getInstance().saveNow(chr, true);
             }
             chr.getMap().removePlayer(chr);
             try {
@@ -875,16 +946,16 @@ public class MapleClient {
         return gm;
     }
 
-    public void setScriptEngine(String name, ScriptEngine e) {
-        engines.put(name, e);
+    public void setScriptInstance(String name, ScriptInstance e) {
+        scriptInstances.put(name, e);
     }
 
-    public ScriptEngine getScriptEngine(String name) {
-        return engines.get(name);
+    public ScriptInstance getScriptInstance(String name) {
+        return scriptInstances.get(name);
     }
 
-    public void removeScriptEngine(String name) {
-        engines.remove(name);
+    public void removeScriptInstance(String name) {
+        scriptInstances.remove(name);
     }
 
     public ScheduledFuture<?> getIdleTask() {
@@ -9,6 +9,7 @@ import net.sf.odinms.client.messages.MessageCallback;
 import net.sf.odinms.database.DatabaseConnection;
 import net.sf.odinms.net.*;
 import net.sf.odinms.net.channel.ChannelServer;
+import net.sf.odinms.net.channel.CharacterSaveService;
 import net.sf.odinms.net.channel.handler.ChangeChannelHandler;
 import net.sf.odinms.scripting.portal.PortalScriptManager;
 import net.sf.odinms.scripting.reactor.ReactorScriptManager;
@@ -125,6 +126,55 @@ public class Admins implements Command {
                 sampler.reset();
                 break;
             }
+            case "!packetstats": {
+                PacketMetrics metrics = PacketMetrics.getInstance();
+                String mode = splitted.length > 1 ? splitted[1].toLowerCase() : "recv";
+                switch (mode) {
+                    case "on":
+                    case "off":
+                        metrics.setEnabled(mode.equals("on"));
+                        mc.dropMessage("Packet metrics are now " + mode + ".");
+                        break;
+                    case "reset":
+                        metrics.reset();
+                        if (cserv.getPacketExecutor() != null) {
+                            cserv.getPacketExecutor().resetStats();
+                        }
+                        mc.dropMessage("Packet metrics have been reset.");
+                        break;
+                    case "recv":
+                    case "send": {
+                        if (!metrics.isEnabled()) {
+                            mc.dropMessage("Packet metrics are off; turn them on with !packetstats on.");
+                        }
+                        String[] lines = mode.equals("recv") ? metrics.getReceivedStats() : metrics.getSentStats();
+                        int limit = Math.min(lines.length, getOptionalIntArg(splitted, 2, 10));
+                        for (int i = 0; i < limit; ++i) {
+                            mc.dropMessage(lines[i]);
+                        }
+                        PacketExecutor executor = cserv.getPacketExecutor();
+                        if (executor != null) {
+                            mc.dropMessage(
+                                String.format(
+                                    "Executor: queued=%d suspended=%d queue avg=%.3fms max=%.3fms run avg=%.3fms " +
+                                        "max=%.3fms",
+                                    executor.getQueuedTasks(),
+                                    executor.getSuspendedSessions(),
+                                    executor.getAverageQueueMillis(),
+                                    executor.getMaxQueueMillis(),
+                                    executor.getAverageRunMillis(),
+                                    executor.getMaxRunMillis()
+                                )
+                            );
+                        }
+                        break;
+                    }
+                    default:
+                        mc.dropMessage("Syntax: !packetstats [recv|send [count]|on|off|reset]");
+                        break;
+                }
+                break;
+            }
             case "!reloadops":
                 try {
                     ExternalCodeTableGetter.populateValues(SendPacketOpcode.getDefaultProperties(), SendPacketOpcode.values());
@@ -319,6 +369,7 @@ public class Admins implements Command {
                         ps.setInt(9, ypos);
                         ps.setInt(10, player.getMapId());
                         ps.executeUpdate();
+                        MapleMapTemplateFactory.getInstance().invalidate(player.getMapId());
                     } catch (SQLException e) {
                         mc.dropMessage("Failed to save NPC to the database");
                     }
@@ -402,7 +453,7 @@ public class Admins implements Command {
             case "!saveall":
                 for (ChannelServer chan : ChannelServer.getAllInstances()) {
                     for (MapleCharacter chr : chan.getPlayerStorage().getAllCharacters()) {
-                        chr.saveToDB(true, false);
+                        CharacterSaveService.getInstance().saveNow(chr, false);
                     }
                 }
                 mc.dropMessage("Save complete.");
@@ -695,6 +746,7 @@ public class Admins implements Command {
                             rs = ps.executeQuery();
                             rs.next();
                             PlayerNPCs pn = new PlayerNPCs(rs);
+                            MapleMapTemplateFactory.getInstance().invalidate(player.getMapId());
                             for (ChannelServer channel : ChannelServer.getAllInstances()) {
                                 MapleMap map = channel.getMapFactory().getMap(player.getMapId());
                                 map.broadcastMessage(MaplePacketCreator.SpawnPlayerNPC(pn));
@@ -730,6 +782,7 @@ public class Admins implements Command {
                 ps.setInt(1, player.getMapId());
                 ps.executeUpdate();
                 ps.close();
+                MapleMapTemplateFactory.getInstance().invalidate(player.getMapId());
                 break;
             }
             case "!pmob": {
@@ -767,6 +820,7 @@ public class Admins implements Command {
                         ps.setInt(10, player.getMapId());
                         ps.setInt(11, mobTime);
                         ps.executeUpdate();
+                        MapleMapTemplateFactory.getInstance().invalidate(player.getMapId());
                     } catch (SQLException e) {
                         mc.dropMessage("Failed to save MOB to the database");
                     }
@@ -804,6 +858,7 @@ public class Admins implements Command {
             new CommandDefinition("drop", 4),
             new CommandDefinition("startprofiling", 4),
             new CommandDefinition("stopprofiling", 4),
+            new CommandDefinition("packetstats", 4),
             new CommandDefinition("reloadops", 4),
             new CommandDefinition("closemerchants", 4),
             new CommandDefinition("shutdown", 4),
@@ -7,25 +7,22 @@ import net.sf.odinms.client.messages.CommandProcessor;
 import net.sf.odinms.client.messages.MessageCallback;
 import net.sf.odinms.database.DatabaseConnection;
 import net.sf.odinms.net.channel.ChannelServer;
+import net.sf.odinms.net.channel.CharacterSaveService;
 import net.sf.odinms.net.channel.PartyQuest;
 import net.sf.odinms.net.channel.handler.ChangeChannelHandler;
 import net.sf.odinms.net.world.remote.CheaterData;
 import net.sf.odinms.net.world.remote.WorldChannelInterface;
 import net.sf.odinms.net.world.remote.WorldLocation;
-import net.sf.odinms.provider.MapleData;
-import net.sf.odinms.provider.MapleDataProvider;
-import net.sf.odinms.provider.MapleDataProviderFactory;
-import net.sf.odinms.provider.MapleDataTool;
 import net.sf.odinms.scripting.npc.NPCScriptManager;
 import net.sf.odinms.server.*;
 import net.sf.odinms.server.life.*;
 import net.sf.odinms.server.maps.*;
 import net.sf.odinms.tools.DeathLogReader;
 import net.sf.odinms.tools.MaplePacketCreator;
+import net.sf.odinms.tools.Pair;
 import net.sf.odinms.tools.StringUtil;
 
 import java.awt.*;
-import java.io.File;
 import java.net.InetAddress;
 import java.rmi.RemoteException;
 import java.sql.Connection;
@@ -1038,7 +1035,7 @@ public class GM implements Command {
                             if (victim.getTrade() != null) {
                                 MapleTrade.cancelTrade(player);
                             }
-                            victim.saveToDB(true, true);
+                            CharacterSaveService.getInstance().saveNow(victim, true);
                             if (victim.getCheatTracker() != null) {
                                 victim.getCheatTracker().dispose();
                             }
@@ -1550,179 +1547,60 @@ public class GM implements Command {
                     } else {
                         search = StringUtil.joinStringFrom(splitted, 2).toLowerCase();
                     }
-                    MapleItemInformationProvider ii = MapleItemInformationProvider.getInstance();
-                    MapleData data;
-                    MapleDataProvider dataProvider =
-                        MapleDataProviderFactory.getDataProvider(
-                            new File(System.getProperty("net.sf.odinms.wzpath") + "/" + "String.wz")
-                        );
                     mc.dropMessage("<< Type: " + type + " | Search: " + (search != null ? search : pattern) + " >>");
-                    List<String> retNpcs = new ArrayList<>();
+                    NameSearchIndex.Type indexType = null;
+                    String plural = null;
                     switch (type) {
                         case "NPC":
                         case "NPCS":
-                            data = dataProvider.getData("Npc.img");
-                            if (search != null) {
-                                for (MapleData npcIdData : data.getChildren()) {
-                                    String npcNameFromData =
-                                        MapleDataTool.getString(npcIdData.getChildByPath("name"), "NO-NAME");
-                                    if (npcNameFromData.toLowerCase().contains(search)) {
-                                        int npcIdFromData = Integer.parseInt(npcIdData.getName());
-                                        retNpcs.add(npcIdFromData + " - " + npcNameFromData);
-                                    }
-                                }
-                            } else {
-                                for (MapleData npcIdData : data.getChildren()) {
-                                    String npcNameFromData =
-                                        MapleDataTool.getString(npcIdData.getChildByPath("name"), "NO-NAME");
-                                    if (pattern.matcher(npcNameFromData).matches()) {
-                                        int npcIdFromData = Integer.parseInt(npcIdData.getName());
-                                        retNpcs.add(npcIdFromData + " - " + npcNameFromData);
-                                    }
-                                }
-                            }
-                            if (retNpcs.isEmpty()) {
-                                mc.dropMessage("No NPCs found with the provided query.");
-                            } else {
-                                retNpcs.forEach(mc::dropMessage);
-                            }
+                            indexType = NameSearchIndex.Type.NPC;
+                            plural = "NPCs";
                             break;
                         case "MAP":
                         case "MAPS":
-                            data = dataProvider.getData("Map.img");
-                            List<String> retMaps = new ArrayList<>();
-                            if (search != null) {
-                                for (MapleData mapAreaData : data.getChildren()) {
-                                    for (MapleData mapIdData : mapAreaData.getChildren()) {
-                                        String mapNameFromData =
-                                            MapleDataTool.getString(
-                                                mapIdData.getChildByPath("streetName"),
-                                                "NO-NAME"
-                                            ) +
-                                            " - " +
-                                            MapleDataTool.getString(
-                                                mapIdData.getChildByPath("mapName"),
-                                                "NO-NAME"
-                                            );
-                                        if (mapNameFromData.toLowerCase().contains(search)) {
-                                            int mapIdFromData = Integer.parseInt(mapIdData.getName());
-                                            retMaps.add(mapIdFromData + " - " + mapNameFromData);
-                                        }
-                                    }
-                                }
-                            } else {
-                                for (MapleData mapAreaData : data.getChildren()) {
-                                    for (MapleData mapIdData : mapAreaData.getChildren()) {
-                                        String mapNameFromData =
-                                            MapleDataTool.getString(
-                                                mapIdData.getChildByPath("streetName"),
-                                                "NO-NAME"
-                                            ) +
-                                            " - " +
-                                            MapleDataTool.getString(
-                                                mapIdData.getChildByPath("mapName"),
-                                                "NO-NAME"
-                                            );
-                                        if (pattern.matcher(mapNameFromData).matches()) {
-                                            int mapIdFromData = Integer.parseInt(mapIdData.getName());
-                                            retMaps.add(mapIdFromData + " - " + mapNameFromData);
-                                        }
-                                    }
-                                }
-                            }
-                            if (retMaps.isEmpty()) {
-                                mc.dropMessage("No maps found with the provided query.");
-                            } else {
-                                retMaps.forEach(mc::dropMessage);
-                            }
+                            indexType = NameSearchIndex.Type.MAP;
+                            plural = "maps";
                             break;
                         case "MOB":
                         case "MOBS":
                         case "MONSTER":
                         case "MONSTERS":
-                            List<String> retMobs = new ArrayList<>();
-                            data = dataProvider.getData("Mob.img");
-                            if (search != null) {
-                                for (MapleData mobIdData : data.getChildren()) {
-                                    String mobNameFromData =
-                                        MapleDataTool.getString(mobIdData.getChildByPath("name"), "NO-NAME");
-                                    if (mobNameFromData.toLowerCase().contains(search)) {
-                                        int mobIdFromData = Integer.parseInt(mobIdData.getName());
-                                        retMobs.add(mobIdFromData + " - " + mobNameFromData);
-                                    }
-                                }
-                            } else {
-                                for (MapleData mobIdData : data.getChildren()) {
-                                    String mobNameFromData =
-                                        MapleDataTool.getString(mobIdData.getChildByPath("name"), "NO-NAME");
-                                    if (pattern.matcher(mobNameFromData).matches()) {
-                                        int mobIdFromData = Integer.parseInt(mobIdData.getName());
-                                        retMobs.add(mobIdFromData + " - " + mobNameFromData);
-                                    }
-                                }
-                            }
-                            if (retMobs.isEmpty()) {
-                                mc.dropMessage("No mobs found with the provided query.");
-                            } else {
-                                retMobs.forEach(mc::dropMessage);
-                            }
-                            break;
-                        case "REACTOR":
-                        case "REACTORS":
-                            mc.dropMessage("Sorry, that search type is unavailable.");
+                            indexType = NameSearchIndex.Type.MONSTER;
+                            plural = "mobs";
                             break;
                         case "ITEM":
                         case "ITEMS":
-                            List<String> retItems = new ArrayList<>();
-                            if (search != null) {
-                                for (Map.Entry<Integer, String> itemEntry : ii.getAllItems().entrySet()) {
-                                    if (itemEntry.getValue().toLowerCase().contains(search)) {
-                                        retItems.add(itemEntry.getKey() + " - " + itemEntry.getValue());
-                                    }
-                                }
-                            } else {
-                                for (Map.Entry<Integer, String> itemEntry : ii.getAllItems().entrySet()) {
-                                    if (pattern.matcher(itemEntry.getValue()).matches()) {
-                                        retItems.add(itemEntry.getKey() + " - " + itemEntry.getValue());
-                                    }
-                                }
-                            }
-                            if (retItems.isEmpty()) {
-                                mc.dropMessage("No items found with the provided query.");
-                            } else {
-                                retItems.forEach(mc::dropMessage);
-                            }
+                            indexType = NameSearchIndex.Type.ITEM;
+                            plural = "items";
                             break;
                         case "SKILL":
                         case "SKILLS":
-                            List<String> retSkills = new ArrayList<>();
-                            data = dataProvider.getData("Skill.img");
-                            if (search != null) {
-                                for (MapleData skillIdData : data.getChildren()) {
-                                    String skillNameFromData = MapleDataTool.getString(skillIdData.getChildByPath("name"), "NO-NAME");
-                                    if (skillNameFromData.toLowerCase().contains(search)) {
-                                        int skillIdFromData = Integer.parseInt(skillIdData.getName());
-                                        retSkills.add(skillIdFromData + " - " + skillNameFromData);
-                                    }
-                                }
-                            } else {
-                                for (MapleData skillIdData : data.getChildren()) {
-                                    String skillNameFromData = MapleDataTool.getString(skillIdData.getChildByPath("name"), "NO-NAME");
-                                    if (pattern.matcher(skillNameFromData).matches()) {
-                                        int skillIdFromData = Integer.parseInt(skillIdData.getName());
-                                        retSkills.add(skillIdFromData + " - " + skillNameFromData);
-                                    }
+                            indexType = NameSearchIndex.Type.SKILL;
+                            plural = "skills";
+                            break;
+                    }
+                    if (indexType == null) {
+                        mc.dropMessage("Sorry, that search type is unavailable.");
+                    } else {
+                        NameSearchIndex index = NameSearchIndex.getInstance();
+                        List<Pair<Integer, String>> matches;
+                        if (search != null) {
+                            matches = index.search(indexType, search, Integer.MAX_VALUE);
+                        } else {
+                            matches = new ArrayList<>();
+                            for (Pair<Integer, String> entry : index.getAll(indexType)) {
+                                if (pattern.matcher(entry.getRight()).matches()) {
+                                    matches.add(entry);
                                 }
                             }
-                            if (retSkills.isEmpty()) {
-                                mc.dropMessage("No skills found with the provided query.");
-                            } else {
-                                retSkills.forEach(mc::dropMessage);
+                        }
+                        if (matches.isEmpty()) {
+                            mc.dropMessage("No " + plural + " found with the provided query.");
+                        } else {
+                            for (Pair<Integer, String> match : matches) {
+                                mc.dropMessage(match.getLeft() + " - " + match.getRight());
                             }
-                            break;
-                        default:
-                            mc.dropMessage("Sorry, that search type is unavailable.");
-                            break;
+                        }
                     }
                 } else {
                     mc.dropMessage("Invalid search. Proper usage: '!search <type> [-re] <searchFor>', where <type> is MAP, USE, ETC, CASH, EQUIP, MOB (or MONSTER), or SKILL.");
@@ -1785,7 +1663,7 @@ public class GM implements Command {
                 break;
             }
             case "!cleardropcache":
-                MapleMonsterInformationProvider.getInstance().clearDrops();
+                MapleMonsterInformationProvider.getInstance().reload();
                 break;
             case "!clearshops":
                 MapleShopFactory.getInstance().clear();
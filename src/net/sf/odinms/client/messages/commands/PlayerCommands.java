@@ -6,6 +6,7 @@ import net.sf.odinms.client.messages.CommandDefinition;
 import net.sf.odinms.client.messages.MessageCallback;
 import net.sf.odinms.database.DatabaseConnection;
 import net.sf.odinms.net.channel.ChannelServer;
+import net.sf.odinms.net.channel.CharacterSaveService;
 import net.sf.odinms.net.world.remote.WorldChannelInterface;
 import net.sf.odinms.provider.MapleData;
 import net.sf.odinms.provider.MapleDataProvider;
@@ -13,10 +14,11 @@ import net.sf.odinms.provider.MapleDataProviderFactory;
 import net.sf.odinms.provider.MapleDataTool;
 import net.sf.odinms.scripting.npc.NPCScriptManager;
 import net.sf.odinms.server.MapleItemInformationProvider;
+import net.sf.odinms.server.NameSearchIndex;
 import net.sf.odinms.server.TimerManager;
 import net.sf.odinms.server.life.MapleLifeFactory;
 import net.sf.odinms.server.life.MapleMonster;
-import net.sf.odinms.server.life.MapleMonsterStats;
+import net.sf.odinms.server.life.MapleMonsterInformationProvider;
 import net.sf.odinms.server.maps.MapleMap;
 import net.sf.odinms.server.maps.MapleMapObjectType;
 import net.sf.odinms.server.quest.MapleQuest;
@@ -109,7 +111,7 @@ public class PlayerCommands implements Command {
             mc.dropMessage("Available AP: " + player.getRemainingAp());
         } else if (splitted[0].equals("@save")) {
             if (!player.getCheatTracker().Spam(900000, 0)) { // 15 minutes
-                player.saveToDB(true, true);
+                CharacterSaveService.getInstance().saveNow(player, true);
                 mc.dropMessage("Saved.");
             } else {
                 mc.dropMessage("You cannot save more than once every 15 minutes.");
@@ -360,34 +362,9 @@ public class PlayerCommands implements Command {
             } else {
                 try {
                     int searchId = Integer.parseInt(splitted[1]);
-                    Set<String> retMobs = new LinkedHashSet<>();
                     MapleItemInformationProvider ii = MapleItemInformationProvider.getInstance();
                     mc.dropMessage(ii.getName(searchId) + " (" + searchId + ") is dropped by the following mobs:");
-                    Connection con = DatabaseConnection.getConnection();
-                    PreparedStatement ps =
-                        con.prepareStatement(
-                            "SELECT monsterid FROM monsterdrops WHERE itemid = ?"
-                        );
-                    ps.setInt(1, searchId);
-                    ResultSet rs = ps.executeQuery();
-                    while (rs.next()) {
-                        int mobId = rs.getInt("monsterid");
-                        MapleMonster mob = MapleLifeFactory.getMonster(mobId);
-                        if (mob != null) {
-                            retMobs.add(mob.getName());
-                        }
-                    }
-                    rs.close();
-                    ps.close();
-                    if (!retMobs.isEmpty()) {
-                        for (String singleRetMob : retMobs) {
-                            mc.dropMessage(singleRetMob);
-                        }
-                    } else {
-                        mc.dropMessage("No mobs drop this item.");
-                    }
-                } catch (SQLException sqle) {
-                    System.err.print("@whodrops failed: " + sqle);
+                    dropWhoDrops(mc, searchId);
                 } catch (NumberFormatException nfe) {
                     try {
                         String searchstring = "";
@@ -414,42 +391,12 @@ public class PlayerCommands implements Command {
                             candidate = eqpcandidate;
                         }
 
-                        try {
-                            int searchid;
-                            if (candidate != null) {
-                                searchid = candidate.getLeft();
-                            } else {
-                                mc.dropMessage("No item could be found with the search string provided.");
-                                return;
-                            }
-                            Set<String> retMobs = new LinkedHashSet<>();
-                            mc.dropMessage(candidate.getRight() + " is dropped by the following mobs:");
-                            Connection con = DatabaseConnection.getConnection();
-                            PreparedStatement ps =
-                                con.prepareStatement(
-                                    "SELECT monsterid FROM monsterdrops WHERE itemid = ?"
-                                );
-                            ps.setInt(1, searchid);
-                            ResultSet rs = ps.executeQuery();
-                            while (rs.next()) {
-                                int mobId = rs.getInt("monsterid");
-                                MapleMonster mob = MapleLifeFactory.getMonster(mobId);
-                                if (mob != null) {
-                                    retMobs.add(mob.getName());
-                                }
-                            }
-                            rs.close();
-                            ps.close();
-                            if (!retMobs.isEmpty()) {
-                                for (String singleRetMob : retMobs) {
-                                    mc.dropMessage(singleRetMob);
-                                }
-                            } else {
-                                mc.dropMessage("No mobs drop this item.");
-                            }
-                        } catch (SQLException sqle) {
-                            System.err.print("@whodrops failed: " + sqle);
+                        if (candidate == null) {
+                            mc.dropMessage("No item could be found with the search string provided.");
+                            return;
                         }
+                        mc.dropMessage(candidate.getRight() + " is dropped by the following mobs:");
+                        dropWhoDrops(mc, candidate.getLeft());
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
@@ -488,15 +435,14 @@ public class PlayerCommands implements Command {
                                 return;
                         }
                     }
-                    Set<String> retItems = new LinkedHashSet<>();
-                    MapleMonster mob = MapleLifeFactory.getMonster(searchId);
-                    if (mob == null) {
+                    String mobName = MapleLifeFactory.getMonsterName(searchId);
+                    if (mobName == null) {
                         mc.dropMessage("There is no such monster with that ID.");
                         return;
                     }
                     if (itemTypeString != null) {
                         mc.dropMessage(
-                            mob.getName() +
+                            mobName +
                                 " (" +
                                 searchId +
                                 ") drops the following " +
@@ -504,138 +450,72 @@ public class PlayerCommands implements Command {
                                 " items:"
                         );
                     } else {
-                        mc.dropMessage(mob.getName() + " (" + searchId + ") drops the following items:");
+                        mc.dropMessage(mobName + " (" + searchId + ") drops the following items:");
                     }
-                    Connection con = DatabaseConnection.getConnection();
-                    PreparedStatement ps =
-                        con.prepareStatement(
-                            "SELECT itemid FROM monsterdrops WHERE monsterid = ?"
-                        );
-                    ps.setInt(1, searchId);
-                    ResultSet rs = ps.executeQuery();
-                    MapleItemInformationProvider ii = MapleItemInformationProvider.getInstance();
-                    while (rs.next()) {
-                        int itemId = rs.getInt("itemid");
-                        if (itemType == null || itemType == ii.getInventoryType(itemId)) {
-                            retItems.add(ii.getName(itemId));
-                        }
-                    }
-                    rs.close();
-                    ps.close();
-                    if (!retItems.isEmpty()) {
-                        StringBuilder retItemString_ = new StringBuilder();
-                        for (String singleRetItem : retItems) {
-                            retItemString_.append(singleRetItem).append(", ");
-                        }
-                        String retItemString = retItemString_.toString();
-                        mc.dropMessage(retItemString.substring(0, retItemString.length() - 2));
-                    } else {
-                        if (itemTypeString != null) {
-                            mc.dropMessage("This mob does not drop any items of the specified kind.");
-                        } else {
-                            mc.dropMessage("This mob does not drop any items.");
-                        }
-                    }
-                } catch (SQLException sqle) {
-                    System.err.print("@monsterdrops failed: " + sqle);
+                    dropMonsterDrops(mc, searchId, itemType);
                 } catch (NumberFormatException nfe) {
-                    try {
-                        int searchId = 0;
-                        String searchString = null;
-                        MapleInventoryType itemType = null;
-                        String itemTypeString = null;
-                        for (int i = 1; i < splitted.length; ++i) {
-                            if (i == 1) {
-                                searchString = splitted[i];
-                            } else {
-                                switch (splitted[i].toLowerCase()) {
-                                    case "eqp":
-                                        itemTypeString = "equip";
-                                        itemType = MapleInventoryType.EQUIP;
-                                        break;
-                                    case "use":
-                                        itemTypeString = "use";
-                                        itemType = MapleInventoryType.USE;
-                                        break;
-                                    case "etc":
-                                        itemTypeString = "etc";
-                                        itemType = MapleInventoryType.ETC;
-                                        break;
-                                    default:
-                                        itemType = null;
-                                        searchString += " " + splitted[i];
-                                        break;
-                                }
-                            }
-                        }
-                        if (searchString == null) {
-                            mc.dropMessage(
-                                "Invalid syntax. Use @monsterdrops <monsterid> [eqp/use/etc] " +
-                                    "or @monsterdrops <searchstring> [eqp/use/etc] instead."
-                            );
-                            return;
-                        }
-                        searchString = searchString.toUpperCase();
-                        Set<String> retItems = new LinkedHashSet<>();
-                        String bestMatch = null;
-                        Set<Map.Entry<Integer, MapleMonsterStats>> monsterStats =
-                            MapleLifeFactory.readMonsterStats().entrySet();
-                        for (Map.Entry<Integer, MapleMonsterStats> ms : monsterStats) {
-                            String name = ms.getValue().getName();
-                            if (name.toUpperCase().startsWith(searchString)) {
-                                if (bestMatch == null || name.length() < bestMatch.length()) {
-                                    bestMatch = name;
-                                    searchId = ms.getKey();
-                                }
-                            }
-                        }
-                        if (bestMatch != null) {
-                            if (itemTypeString != null) {
-                                mc.dropMessage(bestMatch + " drops the following " + itemTypeString + " items:");
-                            } else {
-                                mc.dropMessage(bestMatch + " drops the following items:");
-                            }
+                    int searchId = 0;
+                    String searchString = null;
+                    MapleInventoryType itemType = null;
+                    String itemTypeString = null;
+                    for (int i = 1; i < splitted.length; ++i) {
+                        if (i == 1) {
+                            searchString = splitted[i];
                         } else {
-                            mc.dropMessage(
-                                "No mobs were found that start with \"" +
-                                    searchString.toLowerCase() +
-                                    "\"."
-                            );
-                            return;
-                        }
-                        Connection con = DatabaseConnection.getConnection();
-                        PreparedStatement ps =
-                            con.prepareStatement(
-                                "SELECT itemid FROM monsterdrops WHERE monsterid = ?"
-                            );
-                        ps.setInt(1, searchId);
-                        ResultSet rs = ps.executeQuery();
-                        MapleItemInformationProvider ii = MapleItemInformationProvider.getInstance();
-                        while (rs.next()) {
-                            int itemId = rs.getInt("itemid");
-                            if (itemType == null || itemType == ii.getInventoryType(itemId)) {
-                                retItems.add(ii.getName(itemId));
+                            switch (splitted[i].toLowerCase()) {
+                                case "eqp":
+                                    itemTypeString = "equip";
+                                    itemType = MapleInventoryType.EQUIP;
+                                    break;
+                                case "use":
+                                    itemTypeString = "use";
+                                    itemType = MapleInventoryType.USE;
+                                    break;
+                                case "etc":
+                                    itemTypeString = "etc";
+                                    itemType = MapleInventoryType.ETC;
+                                    break;
+                                default:
+                                    itemType = null;
+                                    searchString += " " + splitted[i];
+                                    break;
                             }
                         }
-                        rs.close();
-                        ps.close();
-                        if (!retItems.isEmpty()) {
-                            StringBuilder retItemString_ = new StringBuilder();
-                            for (String singleRetItem : retItems) {
-                                retItemString_.append(singleRetItem).append(", ");
-                            }
-                            String retItemString = retItemString_.toString();
-                            mc.dropMessage(retItemString.substring(0, retItemString.length() - 2));
+                    }
+                    if (searchString == null) {
+                        mc.dropMessage(
+                            "Invalid syntax. Use @monsterdrops <monsterid> [eqp/use/etc] " +
+                                "or @monsterdrops <searchstring> [eqp/use/etc] instead."
+                        );
+                        return;
+                    }
+                    String bestMatch = null;
+                    List<Pair<Integer, String>> matches =
+                        NameSearchIndex.getInstance().searchPrefix(
+                            NameSearchIndex.Type.MONSTER,
+                            searchString,
+                            1,
+                            id -> MapleLifeFactory.getMonsterName(id) != null
+                        );
+                    if (!matches.isEmpty()) {
+                        searchId = matches.get(0).getLeft();
+                        bestMatch = matches.get(0).getRight();
+                    }
+                    if (bestMatch != null) {
+                        if (itemTypeString != null) {
+                            mc.dropMessage(bestMatch + " drops the following " + itemTypeString + " items:");
                         } else {
-                            if (itemTypeString != null) {
-                                mc.dropMessage("This mob does not drop any items of the specified kind.");
-                            } else {
-                                mc.dropMessage("This mob does not drop any items.");
-                            }
+                            mc.dropMessage(bestMatch + " drops the following items:");
                         }
-                    } catch (SQLException sqle) {
-                        System.err.print("@monsterdrops failed: " + sqle);
+                    } else {
+                        mc.dropMessage(
+                            "No mobs were found that start with \"" +
+                                searchString.toLowerCase() +
+                                "\"."
+                        );
+                        return;
                     }
+                    dropMonsterDrops(mc, searchId, itemType);
                 }
             }
         } else if (splitted[0].equals("@gmlevel")) {
@@ -1302,46 +1182,29 @@ public class PlayerCommands implements Command {
                     candidate = eqpcandidate;
                 }
 
-                try {
-                    int searchid;
-                    if (candidate != null) {
-                        searchid = candidate.getLeft();
-                    } else {
-                        mc.dropMessage("No item could be found with the search string provided.");
-                        return;
+                if (candidate == null) {
+                    mc.dropMessage("No item could be found with the search string provided.");
+                    return;
+                }
+                List<Pair<String, Integer>> retMobs = new ArrayList<>();
+                mc.dropMessage(candidate.getRight() + " is dropped as a quest drop by the following mobs:");
+                for (Pair<Integer, Integer> dropper :
+                    MapleMonsterInformationProvider.getInstance().getQuestDroppers(candidate.getLeft())) {
+                    String mobName = MapleLifeFactory.getMonsterName(dropper.getLeft());
+                    if (mobName != null) {
+                        retMobs.add(new Pair<>(mobName, dropper.getRight()));
                     }
-                    List<Pair<String, Integer>> retMobs = new ArrayList<>();
-                    mc.dropMessage(candidate.getRight() + " is dropped as a quest drop by the following mobs:");
-                    Connection con = DatabaseConnection.getConnection();
-                    PreparedStatement ps =
-                        con.prepareStatement(
-                            "SELECT monsterid, questid FROM monsterquestdrops WHERE itemid = ?"
+                }
+                if (!retMobs.isEmpty()) {
+                    for (Pair<String, Integer> singleRetMob : retMobs) {
+                        mc.dropMessage(
+                            singleRetMob.getLeft() +
+                                ", quest: " +
+                                MapleQuest.getInstance(singleRetMob.getRight()).getName()
                         );
-                    ps.setInt(1, searchid);
-                    ResultSet rs = ps.executeQuery();
-                    while (rs.next()) {
-                        int mobId = rs.getInt("monsterid");
-                        int questId = rs.getInt("questid");
-                        MapleMonster mob = MapleLifeFactory.getMonster(mobId);
-                        if (mob != null) {
-                            retMobs.add(new Pair<>(mob.getName(), questId));
-                        }
                     }
-                    rs.close();
-                    ps.close();
-                    if (!retMobs.isEmpty()) {
-                        for (Pair<String, Integer> singleRetMob : retMobs) {
-                            mc.dropMessage(
-                                singleRetMob.getLeft() +
-                                    ", quest: " +
-                                    MapleQuest.getInstance(singleRetMob.getRight()).getName()
-                            );
-                        }
-                    } else {
-                        mc.dropMessage("No mobs drop this item as a quest drop.");
-                    }
-                } catch (SQLException sqle) {
-                    System.err.print("@whoquestdrops failed: " + sqle);
+                } else {
+                    mc.dropMessage("No mobs drop this item as a quest drop.");
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -1349,6 +1212,50 @@ public class PlayerCommands implements Command {
         }
     }
 
+    /**
+     * Lists the names of the monsters that drop an item (each name once),
+     * for <code>@whodrops</code>.
+     */
+    private static void dropWhoDrops(MessageCallback mc, int itemId) {
+        Set<String> retMobs = new LinkedHashSet<>();
+        for (int mobId : MapleMonsterInformationProvider.getInstance().getMonstersDropping(itemId)) {
+            String mobName = MapleLifeFactory.getMonsterName(mobId);
+            if (mobName != null) {
+                retMobs.add(mobName);
+            }
+        }
+        if (!retMobs.isEmpty()) {
+            for (String singleRetMob : retMobs) {
+                mc.dropMessage(singleRetMob);
+            }
+        } else {
+            mc.dropMessage("No mobs drop this item.");
+        }
+    }
+
+    /**
+     * Lists the names of the items that a monster drops (each name once),
+     * for <code>@monsterdrops</code>.
+     *
+     * @param itemType Only list items of this type; <code>null</code> for all.
+     */
+    private static void dropMonsterDrops(MessageCallback mc, int mobId, MapleInventoryType itemType) {
+        Set<String> retItems = new LinkedHashSet<>();
+        MapleItemInformationProvider ii = MapleItemInformationProvider.getInstance();
+        for (int itemId : MapleMonsterInformationProvider.getInstance().getItemsDroppedBy(mobId)) {
+            if (itemType == null || itemType == ii.getInventoryType(itemId)) {
+                retItems.add(ii.getName(itemId));
+            }
+        }
+        if (!retItems.isEmpty()) {
+            mc.dropMessage(String.join(", ", retItems));
+        } else if (itemType != null) {
+            mc.dropMessage("This mob does not drop any items of the specified kind.");
+        } else {
+            mc.dropMessage("This mob does not drop any items.");
+        }
+    }
+
     private void compareTime(StringBuilder sb, long timeDiff) {
         double secondsAway = timeDiff / 1000L;
         double minutesAway = 0.0d;
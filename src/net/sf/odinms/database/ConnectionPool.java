@@ -0,0 +1,488 @@
+package net.sf.odinms.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of JDBC connections.
+ *
+ * Connections are validated when borrowed (if they have not been used for a
+ * while), evicted when they have been idle or alive for too long, and carry
+ * a prepared statement cache. A housekeeping thread periodically evicts idle
+ * and expired connections, and takes back connections whose borrowing thread
+ * has died without returning them, as well as connections that a
+ * <code>DatabaseConnection.getConnection</code> connection has left unused
+ * for too long (e.g. because a statement was never closed).
+ *
+ * The pool is configured from the database properties, next to
+ * <code>driver</code>, <code>url</code>, <code>user</code> and
+ * <code>password</code>:
+ *
+ * <ul>
+ * <li><code>pool.maxSize</code>: maximum number of connections, borrowed or idle (default 64).</li>
+ * <li><code>pool.borrowTimeout</code>: milliseconds to wait for a free connection (default 10000).</li>
+ * <li><code>pool.validationInterval</code>: milliseconds of disuse after which a
+ *     connection is validated before being handed out (default 5000).</li>
+ * <li><code>pool.idleTimeout</code>: milliseconds after which an idle connection is closed (default 600000).</li>
+ * <li><code>pool.maxLifetime</code>: milliseconds after which a connection is retired (default 1800000).</li>
+ * <li><code>pool.statementCacheSize</code>: prepared statements cached per connection (default 64).</li>
+ * <li><code>pool.leakTimeout</code>: milliseconds after which a connection that a
+ *     <code>getConnection</code> connection has left unused is taken back (default 300000).</li>
+ * </ul>
+ */
+public class ConnectionPool implements ConnectionPoolMBean {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+    private static final ObjectName MBEAN_NAME;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 3;
+    private static final long HOUSEKEEPING_PERIOD = 30000L;
+    private final String url, user, password;
+    private final int maxSize;
+    private final long borrowTimeout;
+    private final long validationInterval;
+    private final long idleTimeout;
+    private final long maxLifetime;
+    private final int statementCacheSize;
+    private final long leakTimeout;
+    private final Semaphore permits;
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> leased = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong borrowTimeouts = new AtomicLong();
+    private final AtomicLong connectionsCreated = new AtomicLong();
+    private final AtomicLong connectionsClosed = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong reclaimedConnections = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+    private volatile boolean shutdown = false;
+
+    static {
+        ObjectName name = null;
+        try {
+            name = new ObjectName("net.sf.odinms.database:type=ConnectionPool");
+        } catch (Exception e) {
+            log.error("Error creating MBean name ", e);
+        }
+        MBEAN_NAME = name;
+    }
+
+    public ConnectionPool(Properties props) {
+        String driver = props.getProperty("driver");
+        url = props.getProperty("url");
+        user = props.getProperty("user");
+        password = props.getProperty("password");
+        maxSize = Math.max(1, Integer.parseInt(props.getProperty("pool.maxSize", "64")));
+        borrowTimeout = Long.parseLong(props.getProperty("pool.borrowTimeout", "10000"));
+        validationInterval = Long.parseLong(props.getProperty("pool.validationInterval", "5000"));
+        idleTimeout = Long.parseLong(props.getProperty("pool.idleTimeout", "600000"));
+        maxLifetime = Long.parseLong(props.getProperty("pool.maxLifetime", "1800000"));
+        statementCacheSize = Math.max(0, Integer.parseInt(props.getProperty("pool.statementCacheSize", "64")));
+        leakTimeout = Long.parseLong(props.getProperty("pool.leakTimeout", "300000"));
+        permits = new Semaphore(maxSize, true);
+        try {
+            Class.forName(driver); // Touch the mysql driver.
+        } catch (ClassNotFoundException e) {
+            log.error("ERROR", e);
+        }
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("ConnectionPool-Housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(
+            this::housekeep,
+            HOUSEKEEPING_PERIOD,
+            HOUSEKEEPING_PERIOD,
+            TimeUnit.MILLISECONDS
+        );
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (mBeanServer.isRegistered(MBEAN_NAME)) {
+                mBeanServer.unregisterMBean(MBEAN_NAME);
+            }
+            mBeanServer.registerMBean(this, MBEAN_NAME);
+        } catch (Exception e) {
+            log.error("Error registering MBean ", e);
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool. Closing the returned connection
+     * returns it to the pool, rolling back any transaction left open, so it
+     * should be used with try-with-resources.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @return A connection that must be closed once it is no longer needed.
+     *
+     * @throws SQLException when no connection becomes free within the borrow
+     *                      timeout, or a new connection cannot be opened.
+     */
+    public Connection borrow() throws SQLException {
+        return new LeasedConnection(acquire(false));
+    }
+
+    /**
+     * Takes a connection out of the pool, leased to the calling thread. The
+     * connection must be handed back with <code>release</code>.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param threadConnection Whether the connection backs a <code>DatabaseConnection.getConnection</code>
+     *                         connection, in which case it is taken back once left unused for
+     *                         longer than the leak timeout.
+     * @return A validated connection.
+     *
+     * @throws SQLException when no connection becomes free within the borrow
+     *                      timeout, or a new connection cannot be opened.
+     */
+    PooledConnection acquire(boolean threadConnection) throws SQLException {
+        if (shutdown) {
+            throw new SQLException("Connection pool has been shut down.");
+        }
+        long startNanos = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                borrowTimeouts.incrementAndGet();
+                throw new SQLException(
+                    "Timed out after " + borrowTimeout + " ms waiting for a database connection (" +
+                        leased.size() + " of " + maxSize + " in use)."
+                );
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", ie);
+        }
+        PooledConnection pc;
+        try {
+            pc = takeIdle();
+            if (pc == null) {
+                pc = open();
+            }
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        pc.lease(Thread.currentThread(), threadConnection);
+        leased.add(pc);
+        long waited = System.nanoTime() - startNanos;
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        return pc;
+    }
+
+    /**
+     * Hands a connection taken with <code>acquire</code> back to the pool.
+     * Releasing a lease that is already over (because the connection has
+     * already been released, or reclaimed) is a no-op.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param pc The connection to release.
+     * @param lease The lease number that the connection was acquired under.
+     * @return <code>false</code> if the lease was already over.
+     */
+    boolean release(PooledConnection pc, int lease) {
+        if (!pc.unlease(lease)) {
+            return false;
+        }
+        leased.remove(pc);
+        try {
+            if (shutdown || pc.isClosed() || isExpired(pc, System.currentTimeMillis()) || !pc.reset()) {
+                destroy(pc);
+            } else {
+                pc.touch();
+                idle.offerFirst(pc);
+            }
+        } finally {
+            permits.release();
+        }
+        return true;
+    }
+
+    /**
+     * Whether the given connection should be validated before it is used
+     * again, because it has not been used for a while.
+     */
+    private boolean needsValidation(PooledConnection pc) {
+        return System.currentTimeMillis() - pc.getLastUsedMillis() >= validationInterval;
+    }
+
+    private boolean isExpired(PooledConnection pc, long now) {
+        return maxLifetime > 0L && now - pc.getCreatedMillis() >= maxLifetime;
+    }
+
+    void statementCacheHit() {
+        statementCacheHits.incrementAndGet();
+    }
+
+    void statementCacheMiss() {
+        statementCacheMisses.incrementAndGet();
+    }
+
+    /**
+     * Closes all idle connections and stops handing out new ones. Connections
+     * that are still leased are closed as they are released.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public void shutdown() {
+        shutdown = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            destroy(pc);
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(MBEAN_NAME);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Closes every connection of the pool, including the ones that are still
+     * leased.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public void closeAll() {
+        shutdown();
+        for (PooledConnection pc : new ArrayList<>(leased)) {
+            int lease = pc.getLease();
+            pc.close();
+            release(pc, lease);
+        }
+    }
+
+    private PooledConnection takeIdle() {
+        PooledConnection pc;
+        long now = System.currentTimeMillis();
+        while ((pc = idle.pollFirst()) != null) {
+            if (isExpired(pc, now)) {
+                destroy(pc);
+            } else if (needsValidation(pc) && !pc.validate(VALIDATION_TIMEOUT_SECONDS)) {
+                validationFailures.incrementAndGet();
+                destroy(pc);
+            } else {
+                return pc;
+            }
+        }
+        return null;
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection con = DriverManager.getConnection(url, user, password);
+        totalConnections.incrementAndGet();
+        connectionsCreated.incrementAndGet();
+        return new PooledConnection(this, con, statementCacheSize);
+    }
+
+    private void destroy(PooledConnection pc) {
+        pc.close();
+        totalConnections.decrementAndGet();
+        connectionsClosed.incrementAndGet();
+    }
+
+    /**
+     * Evicts idle connections that have been unused or alive for too long,
+     * and reclaims connections leased to threads that have since died, or
+     * leaked by <code>getConnection</code> connections. Lessees that have
+     * asked for it get to check whether they can give their connection back.
+     */
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            List<PooledConnection> evicted = new ArrayList<>();
+            for (PooledConnection pc : idle) {
+                if (isExpired(pc, now) || now - pc.getLastUsedMillis() >= idleTimeout) {
+                    evicted.add(pc);
+                }
+            }
+            for (PooledConnection pc : evicted) {
+                if (idle.remove(pc)) {
+                    destroy(pc);
+                }
+            }
+            for (PooledConnection pc : leased) {
+                Runnable releaseCheck = pc.getReleaseCheck();
+                if (releaseCheck != null) {
+                    releaseCheck.run();
+                }
+                int lease = pc.getLease();
+                boolean leaked = pc.isThreadConnection() && now - pc.getLastUsedMillis() >= leakTimeout;
+                if ((leaked || pc.isOwnerDead()) && release(pc, lease)) {
+                    reclaimedConnections.incrementAndGet();
+                    if (leaked) {
+                        log.warn("Reclaimed a database connection left unused for over {} ms", leakTimeout);
+                    }
+                }
+            }
+        } catch (RuntimeException re) {
+            log.error("Connection pool housekeeping error", re);
+        }
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return leased.size();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    @Override
+    public int getWaitingThreads() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    @Override
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.get();
+        return borrows == 0L ? 0.0d : totalWaitNanos.get() / 1000000.0d / borrows;
+    }
+
+    @Override
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1000000.0d;
+    }
+
+    @Override
+    public long getBorrowTimeouts() {
+        return borrowTimeouts.get();
+    }
+
+    @Override
+    public long getConnectionsCreated() {
+        return connectionsCreated.get();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return connectionsClosed.get();
+    }
+
+    @Override
+    public long getValidationFailures() {
+        return validationFailures.get();
+    }
+
+    @Override
+    public long getReclaimedConnections() {
+        return reclaimedConnections.get();
+    }
+
+    @Override
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    @Override
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    /**
+     * The connections handed out by <code>borrow</code>: closing the
+     * connection releases it to the pool, and prepared statements go through
+     * the statement cache.
+     */
+    private class LeasedConnection extends ConnectionDelegate {
+        private final PooledConnection pc;
+        private final int lease;
+        private volatile boolean returned = false;
+
+        LeasedConnection(PooledConnection pc) {
+            this.pc = pc;
+            lease = pc.getLease();
+        }
+
+        @Override
+        Connection connection() throws SQLException {
+            if (returned || !pc.isLease(lease)) {
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+            pc.touch();
+            return pc.getRaw();
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            connection();
+            return pc.prepare(this, sql, Statement.NO_GENERATED_KEYS, null);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+            connection();
+            return pc.prepare(this, sql, autoGeneratedKeys, null);
+        }
+
+        @Override
+        public void close() {
+            if (!returned) {
+                returned = true;
+                release(pc, lease);
+            }
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return returned || !pc.isLease(lease) || pc.getRaw().isClosed();
+        }
+
+        @Override
+        public void setTransactionIsolation(int level) throws SQLException {
+            connection();
+            pc.setTransactionIsolation(level);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package net.sf.odinms.database;
+
+public interface ConnectionPoolMBean {
+    int getMaxSize();
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getTotalConnections();
+
+    int getWaitingThreads();
+
+    long getBorrowCount();
+
+    double getAverageWaitMillis();
+
+    double getMaxWaitMillis();
+
+    long getBorrowTimeouts();
+
+    long getConnectionsCreated();
+
+    long getConnectionsClosed();
+
+    long getValidationFailures();
+
+    long getReclaimedConnections();
+
+    long getStatementCacheHits();
+
+    long getStatementCacheMisses();
+}
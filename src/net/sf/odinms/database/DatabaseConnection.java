@@ -1,19 +1,32 @@
 package net.sf.odinms.database;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
+import java.sql.*;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
 
+/**
+ * Entry point to the database.
+ *
+ * New code should use <code>borrowConnection</code> with try-with-resources,
+ * which takes a connection from the pool and returns it once closed.
+ *
+ * <code>getConnection</code> is kept for existing callers, which expect a
+ * connection that belongs to the calling thread and that is never closed. It
+ * returns a per-thread connection that only holds on to a pooled connection
+ * while it is actually in use: one is taken when a statement is prepared, and
+ * given back once all of the thread's statements are closed and no
+ * transaction is open, i.e. autocommit is on, or the transaction has been
+ * committed or rolled back. Autocommit and the isolation level are kept by
+ * the thread connection, and applied to every pooled connection it takes.
+ * Plain and callable statements are not wrapped, so the pooled connection
+ * behind them is given back once they are found to be closed, at the latest
+ * on the pool's next housekeeping run.
+ */
 public class DatabaseConnection {
-    private static final ThreadLocal<Connection> con = new ThreadLocalConnection();
-    private static final Logger log = LoggerFactory.getLogger(DatabaseConnection.class);
+    private static final ThreadLocal<Connection> con = ThreadLocal.withInitial(DatabaseConnection::newThreadConnection);
     private static Properties props = null;
+    private static ConnectionPool pool = null;
 
     public static Connection getConnection() {
         if (props == null) {
@@ -22,42 +35,413 @@ public class DatabaseConnection {
         return con.get();
     }
 
+    /**
+     * Borrows a connection from the pool. The connection must be closed once
+     * it is no longer needed, which returns it to the pool.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @return A pooled connection.
+     *
+     * @throws SQLException when no connection can be had within the pool's borrow timeout.
+     */
+    public static Connection borrowConnection() throws SQLException {
+        return getPool().borrow();
+    }
+
     public static boolean isInitialized() {
         return props != null;
     }
 
-    public static void setProps(Properties aProps) {
+    /**
+     * Sets the database properties. If they differ from the current ones,
+     * the current pool is shut down, and a new one is created on next use.
+     */
+    public static synchronized void setProps(Properties aProps) {
+        if (aProps.equals(props)) {
+            return;
+        }
         props = aProps;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public static synchronized ConnectionPool getPool() {
+        if (props == null) {
+            throw new RuntimeException("DatabaseConnection not initialized");
+        }
+        if (pool == null) {
+            pool = new ConnectionPool(props);
+        }
+        return pool;
     }
 
-    public static void closeAll() throws SQLException {
-        for (Connection con : ThreadLocalConnection.allConnections) {
-            con.close();
+    public static synchronized void closeAll() throws SQLException {
+        if (pool != null) {
+            pool.closeAll();
         }
     }
 
-    private static class ThreadLocalConnection extends ThreadLocal<Connection> {
-        public static final Collection<Connection> allConnections = new ArrayList<>();
+    private static Connection newThreadConnection() {
+        return new ThreadConnection();
+    }
+
+    /**
+     * The per-thread connections handed out by <code>getConnection</code>.
+     *
+     * Calls other than the ones that manage statements and transactions take
+     * a pooled connection as well, which is then held on to until the next
+     * point where it can be given back (a statement being closed, a commit,
+     * a rollback, or <code>close</code>).
+     */
+    private static class ThreadConnection extends ConnectionDelegate {
+        private ConnectionPool owner = null;
+        private PooledConnection pc = null;
+        private int lease;
+        private int openStatements = 0;
+        private final List<Statement> unwrappedStatements = new ArrayList<>();
+        private boolean autoCommit = true;
+        private boolean transactionOpen = false;
+        private int isolation = -1;
+
+        @Override
+        synchronized Connection connection() throws SQLException {
+            return current().getRaw();
+        }
+
+        @Override
+        public synchronized PreparedStatement prepareStatement(String sql) throws SQLException {
+            PooledConnection current = current();
+            try {
+                return track(current.prepare(this, sql, Statement.NO_GENERATED_KEYS, onClose(current)));
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+            PooledConnection current = current();
+            try {
+                return track(current.prepare(this, sql, autoGeneratedKeys, onClose(current)));
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized PreparedStatement prepareStatement(String sql,
+                                                               int resultSetType,
+                                                               int resultSetConcurrency) throws SQLException {
+            PooledConnection current = current();
+            try {
+                PreparedStatement ps = current.getRaw().prepareStatement(sql, resultSetType, resultSetConcurrency);
+                return track(current.wrap(this, ps, onClose(current)));
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized PreparedStatement prepareStatement(String sql,
+                                                               int resultSetType,
+                                                               int resultSetConcurrency,
+                                                               int resultSetHoldability) throws SQLException {
+            PooledConnection current = current();
+            try {
+                PreparedStatement ps = current.getRaw().prepareStatement(
+                    sql,
+                    resultSetType,
+                    resultSetConcurrency,
+                    resultSetHoldability
+                );
+                return track(current.wrap(this, ps, onClose(current)));
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+            PooledConnection current = current();
+            try {
+                PreparedStatement ps = current.getRaw().prepareStatement(sql, columnIndexes);
+                return track(current.wrap(this, ps, onClose(current)));
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+            PooledConnection current = current();
+            try {
+                PreparedStatement ps = current.getRaw().prepareStatement(sql, columnNames);
+                return track(current.wrap(this, ps, onClose(current)));
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized Statement createStatement() throws SQLException {
+            PooledConnection current = current();
+            try {
+                return trackUnwrapped(current, current.getRaw().createStatement());
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+            PooledConnection current = current();
+            try {
+                return trackUnwrapped(current, current.getRaw().createStatement(resultSetType, resultSetConcurrency));
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized Statement createStatement(int resultSetType,
+                                                      int resultSetConcurrency,
+                                                      int resultSetHoldability) throws SQLException {
+            PooledConnection current = current();
+            try {
+                Statement statement = current.getRaw().createStatement(
+                    resultSetType,
+                    resultSetConcurrency,
+                    resultSetHoldability
+                );
+                return trackUnwrapped(current, statement);
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized CallableStatement prepareCall(String sql) throws SQLException {
+            PooledConnection current = current();
+            try {
+                return trackUnwrapped(current, current.getRaw().prepareCall(sql));
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized CallableStatement prepareCall(String sql,
+                                                          int resultSetType,
+                                                          int resultSetConcurrency) throws SQLException {
+            PooledConnection current = current();
+            try {
+                return trackUnwrapped(current, current.getRaw().prepareCall(sql, resultSetType, resultSetConcurrency));
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized CallableStatement prepareCall(String sql,
+                                                          int resultSetType,
+                                                          int resultSetConcurrency,
+                                                          int resultSetHoldability) throws SQLException {
+            PooledConnection current = current();
+            try {
+                CallableStatement cs = current.getRaw().prepareCall(
+                    sql,
+                    resultSetType,
+                    resultSetConcurrency,
+                    resultSetHoldability
+                );
+                return trackUnwrapped(current, cs);
+            } catch (SQLException | RuntimeException e) {
+                releaseIfIdle();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized void setAutoCommit(boolean autoCommit) throws SQLException {
+            if (pc != null && pc.isLease(lease)) {
+                pc.getRaw().setAutoCommit(autoCommit);
+            }
+            this.autoCommit = autoCommit;
+            if (autoCommit) {
+                transactionOpen = false;
+            }
+            releaseIfIdle();
+        }
+
+        @Override
+        public synchronized boolean getAutoCommit() {
+            return autoCommit;
+        }
+
+        @Override
+        public synchronized void commit() throws SQLException {
+            if (pc != null && pc.isLease(lease)) {
+                pc.getRaw().commit();
+            }
+            transactionOpen = false;
+            releaseIfIdle();
+        }
+
+        @Override
+        public synchronized void rollback() throws SQLException {
+            if (pc != null && pc.isLease(lease)) {
+                pc.getRaw().rollback();
+            }
+            transactionOpen = false;
+            releaseIfIdle();
+        }
+
+        @Override
+        public synchronized void setTransactionIsolation(int level) throws SQLException {
+            if (pc != null && pc.isLease(lease)) {
+                pc.setTransactionIsolation(level);
+            }
+            isolation = level;
+        }
 
         @Override
-        protected Connection initialValue() {
-            String driver = props.getProperty("driver");
-            String url = props.getProperty("url");
-            String user = props.getProperty("user");
-            String password = props.getProperty("password");
+        public synchronized int getTransactionIsolation() throws SQLException {
+            if (isolation != -1) {
+                return isolation;
+            }
             try {
-                Class.forName(driver); // Touch the mysql driver.
-            } catch (ClassNotFoundException e) {
-                log.error("ERROR", e);
+                return current().getRaw().getTransactionIsolation();
+            } finally {
+                releaseIfIdle();
+            }
+        }
+
+        /**
+         * Callers that close the thread's connection only give back the
+         * pooled connection, rolling back any open transaction; the next use
+         * takes another one.
+         */
+        @Override
+        public synchronized void close() {
+            release();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        /**
+         * Gets the pooled connection backing this thread connection, taking
+         * a new one (with this connection's autocommit and isolation level
+         * applied) if there is none, or if the current one was taken back
+         * by, or belongs to an older, pool.
+         */
+        private PooledConnection current() throws SQLException {
+            ConnectionPool currentPool = getPool();
+            if (pc != null && (!pc.isLease(lease) || owner != currentPool)) {
+                release();
+            }
+            if (pc == null) {
+                PooledConnection taken = currentPool.acquire(true);
+                try {
+                    if (!autoCommit) {
+                        taken.getRaw().setAutoCommit(false);
+                    }
+                    if (isolation != -1) {
+                        taken.setTransactionIsolation(isolation);
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    currentPool.release(taken, taken.getLease());
+                    throw e;
+                }
+                owner = currentPool;
+                pc = taken;
+                lease = taken.getLease();
+            }
+            if (!autoCommit) {
+                transactionOpen = true;
+            }
+            pc.touch();
+            return pc;
+        }
+
+        private PreparedStatement track(PreparedStatement ps) {
+            ++openStatements;
+            return ps;
+        }
+
+        private Runnable onClose(PooledConnection current) {
+            int currentLease = lease;
+            return () -> statementClosed(current, currentLease);
+        }
+
+        private synchronized void statementClosed(PooledConnection closedOn, int closedLease) {
+            if (closedOn != pc || closedLease != lease || openStatements == 0) {
+                return;
+            }
+            --openStatements;
+            releaseIfIdle();
+        }
+
+        /**
+         * Keeps the pooled connection for as long as the given plain or
+         * callable statement is open. Those are handed out as they are, so
+         * they cannot say when they are closed; that is checked whenever the
+         * connection could be given back, and by the pool's housekeeping.
+         */
+        private <S extends Statement> S trackUnwrapped(PooledConnection current, S statement) {
+            unwrappedStatements.add(statement);
+            int currentLease = lease;
+            current.setReleaseCheck(() -> releaseCheck(current, currentLease));
+            return statement;
+        }
+
+        private synchronized void releaseCheck(PooledConnection checked, int checkedLease) {
+            if (checked == pc && checkedLease == lease) {
+                releaseIfIdle();
             }
+        }
+
+        private void releaseIfIdle() {
+            unwrappedStatements.removeIf(ThreadConnection::isClosed);
+            if (openStatements == 0 && unwrappedStatements.isEmpty() && !transactionOpen) {
+                release();
+            }
+        }
+
+        private static boolean isClosed(Statement statement) {
             try {
-                Connection con = DriverManager.getConnection(url, user, password);
-                allConnections.add(con);
-                return con;
-            } catch (SQLException e) {
-                log.error("ERROR", e);
-                return null;
+                return statement.isClosed();
+            } catch (SQLException sqle) {
+                return true;
+            }
+        }
+
+        private void release() {
+            if (pc != null) {
+                owner.release(pc, lease);
             }
+            pc = null;
+            openStatements = 0;
+            unwrappedStatements.clear();
+            transactionOpen = false;
         }
     }
 }
@@ -0,0 +1,331 @@
+package net.sf.odinms.database;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A physical connection owned by a <code>ConnectionPool</code>, together with
+ * its bookkeeping (age, last use, current owner) and its prepared statement
+ * cache.
+ *
+ * The statement cache has checkout semantics: preparing a statement takes it
+ * out of the cache, and closing it puts it back (with its parameters and
+ * batch cleared), so that a statement is never handed out twice at the same
+ * time, even for nested uses of the same SQL.
+ *
+ * Every lease gets a new number, so that the statements and facades of an
+ * earlier lease can tell when the connection has been released or taken
+ * back by the pool in the meantime.
+ */
+class PooledConnection {
+    private final ConnectionPool pool;
+    private final Connection raw;
+    private final long createdMillis;
+    private final Map<String, PreparedStatement> statementCache;
+    private volatile boolean leased = false;
+    private volatile int lease = 0;
+    private volatile boolean threadConnection = false;
+    private volatile Runnable releaseCheck = null;
+    private volatile long lastUsedMillis;
+    private volatile WeakReference<Thread> owner = null;
+    private volatile boolean closed = false;
+    private int defaultIsolation = -1;
+    private boolean isolationChanged = false;
+
+    PooledConnection(ConnectionPool pool, Connection raw, final int statementCacheSize) {
+        this.pool = pool;
+        this.raw = raw;
+        createdMillis = System.currentTimeMillis();
+        lastUsedMillis = createdMillis;
+        statementCache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > statementCacheSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    Connection getRaw() {
+        return raw;
+    }
+
+    long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    long getLastUsedMillis() {
+        return lastUsedMillis;
+    }
+
+    void touch() {
+        lastUsedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks this connection as leased to the given thread.
+     *
+     * @param thread The thread that takes the connection.
+     * @param threadConnection Whether the connection backs a <code>DatabaseConnection.getConnection</code>
+     *                         connection, rather than a borrowed one.
+     * @return <code>false</code> if it was already leased.
+     */
+    synchronized boolean lease(Thread thread, boolean threadConnection) {
+        if (leased) {
+            return false;
+        }
+        owner = new WeakReference<>(thread);
+        this.threadConnection = threadConnection;
+        ++lease;
+        leased = true;
+        touch();
+        return true;
+    }
+
+    /**
+     * Marks this connection as no longer leased, if it is still under the
+     * given lease.
+     *
+     * @return <code>false</code> if the lease is already over, i.e. the
+     *         connection has already been returned or taken back.
+     */
+    synchronized boolean unlease(int lease) {
+        if (!leased || this.lease != lease) {
+            return false;
+        }
+        leased = false;
+        owner = null;
+        releaseCheck = null;
+        return true;
+    }
+
+    /**
+     * Gets the number of the current (or, if not leased, the last) lease.
+     */
+    int getLease() {
+        return lease;
+    }
+
+    /**
+     * Whether this connection is still leased under the given lease number.
+     */
+    boolean isLease(int lease) {
+        return leased && this.lease == lease;
+    }
+
+    boolean isThreadConnection() {
+        return threadConnection;
+    }
+
+    /**
+     * Sets what the pool's housekeeping runs to let the current lessee give
+     * this connection back, if it can. Cleared when the lease is over.
+     */
+    void setReleaseCheck(Runnable releaseCheck) {
+        this.releaseCheck = releaseCheck;
+    }
+
+    Runnable getReleaseCheck() {
+        return releaseCheck;
+    }
+
+    /**
+     * Whether the thread that this connection is leased to has died without
+     * returning it.
+     */
+    boolean isOwnerDead() {
+        WeakReference<Thread> ref = owner;
+        if (ref == null) {
+            return false;
+        }
+        Thread thread = ref.get();
+        return thread == null || !thread.isAlive();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Checks that the connection still works, by means of
+     * <code>Connection.isValid</code>.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param timeoutSeconds How long to wait for the server to answer.
+     * @return <code>true</code> if the connection is usable, <code>false</code> otherwise.
+     */
+    boolean validate(int timeoutSeconds) {
+        try {
+            return !raw.isClosed() && raw.isValid(timeoutSeconds);
+        } catch (SQLException sqle) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the transaction isolation level of the physical connection,
+     * remembering its original level so that <code>reset</code> can restore
+     * it.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param level One of the <code>Connection</code> isolation level constants.
+     */
+    void setTransactionIsolation(int level) throws SQLException {
+        if (defaultIsolation == -1) {
+            defaultIsolation = raw.getTransactionIsolation();
+        }
+        if (level == defaultIsolation && !isolationChanged) {
+            return;
+        }
+        raw.setTransactionIsolation(level);
+        isolationChanged = level != defaultIsolation;
+    }
+
+    /**
+     * Undoes whatever the last user left behind: an open transaction,
+     * autocommit being turned off, or a changed isolation level.
+     *
+     * @return <code>false</code> if the connection turned out to be unusable.
+     */
+    boolean reset() {
+        try {
+            if (!raw.getAutoCommit()) {
+                raw.rollback();
+                raw.setAutoCommit(true);
+            }
+            if (isolationChanged) {
+                raw.setTransactionIsolation(defaultIsolation);
+                isolationChanged = false;
+            }
+            raw.clearWarnings();
+            return true;
+        } catch (SQLException sqle) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes the cached statements and the physical connection.
+     */
+    void close() {
+        closed = true;
+        synchronized (statementCache) {
+            statementCache.values().forEach(PooledConnection::closeQuietly);
+            statementCache.clear();
+        }
+        try {
+            raw.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Prepares a statement, reusing a cached one for the same SQL if there is
+     * one. The returned statement goes back into the cache when closed.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param facade The connection that the returned statement should report as its own.
+     * @param sql The SQL to prepare.
+     * @param autoGeneratedKeys One of the <code>Statement</code> generated keys constants.
+     * @param onClose Run once the returned statement is closed; may be <code>null</code>.
+     * @return A statement that goes back into the cache when closed.
+     */
+    PreparedStatement prepare(Connection facade,
+                              String sql,
+                              int autoGeneratedKeys,
+                              Runnable onClose) throws SQLException {
+        String key = autoGeneratedKeys + ":" + sql;
+        PreparedStatement ps;
+        synchronized (statementCache) {
+            ps = statementCache.remove(key);
+        }
+        if (ps != null) {
+            pool.statementCacheHit();
+        } else {
+            pool.statementCacheMiss();
+            if (autoGeneratedKeys == Statement.NO_GENERATED_KEYS) {
+                ps = raw.prepareStatement(sql);
+            } else {
+                ps = raw.prepareStatement(sql, autoGeneratedKeys);
+            }
+        }
+        return new PooledStatement(this, facade, ps, key, onClose);
+    }
+
+    /**
+     * Wraps a statement that was prepared on the physical connection without
+     * going through the cache. The returned statement closes it when closed.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param facade The connection that the returned statement should report as its own.
+     * @param ps A statement prepared on this connection.
+     * @param onClose Run once the returned statement is closed; may be <code>null</code>.
+     * @return The wrapped statement.
+     */
+    PreparedStatement wrap(Connection facade, PreparedStatement ps, Runnable onClose) {
+        return new PooledStatement(this, facade, ps, null, onClose);
+    }
+
+    /**
+     * Takes back a statement handed out by <code>prepare</code> or
+     * <code>wrap</code>, putting it back into the cache if it came from
+     * there, or closing it otherwise.
+     *
+     * @param key The statement's cache key, or <code>null</code> if it is not cached.
+     * @param ps The physical statement.
+     */
+    void returnStatement(String key, PreparedStatement ps) {
+        if (key == null) {
+            closeQuietly(ps);
+            return;
+        }
+        try {
+            if (closed || ps.isClosed()) {
+                closeQuietly(ps);
+                return;
+            }
+            ps.clearParameters();
+            ps.clearBatch();
+            ps.clearWarnings();
+        } catch (SQLException sqle) {
+            closeQuietly(ps);
+            return;
+        }
+        synchronized (statementCache) {
+            if (statementCache.containsKey(key)) {
+                closeQuietly(ps);
+            } else {
+                statementCache.put(key, ps);
+            }
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package net.sf.odinms.net;
 
 import net.sf.odinms.tools.HexTool;
+import net.sf.odinms.tools.MapleCustomEncryption;
+
+import java.util.Arrays;
 
 public class ByteArrayMaplePacket implements MaplePacket {
     public static final long serialVersionUID = -7997681658570958848L;
     private final byte[] data;
     private Runnable onSend;
+    private transient volatile boolean encoded = false;
+    private transient volatile byte[] customEncrypted;
 
     public ByteArrayMaplePacket(byte[] data) {
         this.data = data;
@@ -21,6 +26,36 @@ public class ByteArrayMaplePacket implements MaplePacket {
         return HexTool.toString(data);
     }
 
+    /**
+     * Gets the bytes of this packet with <code>MapleCustomEncryption</code>
+     * applied, which is the part of encrypting a packet that is the same for
+     * every session; only the AES step depends on the session.
+     *
+     * They are computed once this is called for the second time, i.e. once
+     * the packet turns out to be sent to more than one session (a broadcast),
+     * and kept for all sessions after that. Racing calls may compute them
+     * more than once, which is harmless.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return The encrypted bytes, which must not be modified, or <code>null</code> on the first call.
+     */
+    public byte[] getCustomEncrypted() {
+        byte[] ret = customEncrypted;
+        if (ret == null) {
+            if (!encoded) {
+                encoded = true;
+                return null;
+            }
+            ret = MapleCustomEncryption.encryptData(Arrays.copyOf(data, data.length));
+            customEncrypted = ret;
+        }
+        return ret;
+    }
+
     public Runnable getOnSend() {
         return onSend;
     }
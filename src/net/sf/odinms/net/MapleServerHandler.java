@@ -16,6 +16,7 @@ public class MapleServerHandler extends IoHandlerAdapter {
     private static final short MAPLE_VERSION = 62;
     private final PacketProcessor processor;
     private int channel = -1;
+    private PacketExecutor executor;
 
     public MapleServerHandler(PacketProcessor processor) {
         this.processor = processor;
@@ -26,11 +27,30 @@ public class MapleServerHandler extends IoHandlerAdapter {
         this.channel = channel;
     }
 
+    /**
+     * Sets the executor to run the game logic of this handler's sessions on,
+     * instead of on the thread that MINA calls the handler from. Only to be
+     * set before binding, along with <code>ThreadModel.MANUAL</code>.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param executor The executor, or <code>null</code> to run everything on MINA's threads.
+     */
+    public void setExecutor(PacketExecutor executor) {
+        this.executor = executor;
+    }
+
     @Override
     public void messageSent(IoSession session, Object message) throws Exception {
-        Runnable r = ((MaplePacket) message).getOnSend();
+        final Runnable r = ((MaplePacket) message).getOnSend();
         if (r != null) {
-            r.run();
+            if (executor != null) {
+                executor.execute(session, "OnSend", false, r);
+            } else {
+                r.run();
+            }
         }
         super.messageSent(session, message);
     }
@@ -87,6 +107,16 @@ public class MapleServerHandler extends IoHandlerAdapter {
 
     @Override
     public void sessionClosed(final IoSession session) throws Exception {
+        if (executor != null) {
+            // Disconnecting saves the character, so this goes to the blocking pool.
+            executor.execute(session, "SessionClosed", true, () -> closeSession(session));
+        } else {
+            closeSession(session);
+        }
+        super.sessionClosed(session);
+    }
+
+    private void closeSession(IoSession session) {
         synchronized (session) {
             MapleClient client = (MapleClient) session.getAttribute(MapleClient.CLIENT_KEY);
             if (client != null) {
@@ -95,12 +125,26 @@ public class MapleServerHandler extends IoHandlerAdapter {
                 session.removeAttribute(MapleClient.CLIENT_KEY);
             }
         }
-        super.sessionClosed(session);
     }
 
     @Override
-    public void messageReceived(IoSession session, Object message) throws Exception {
-        byte[] content = (byte[]) message;
+    public void messageReceived(final IoSession session, Object message) throws Exception {
+        final byte[] content = (byte[]) message;
+        if (executor == null) {
+            handleMessage(session, content);
+            return;
+        }
+        short packetId = content.length >= 2 ? (short) ((content[0] & 0xFF) | ((content[1] & 0xFF) << 8)) : -1;
+        MaplePacketHandler packetHandler = processor.getHandler(packetId);
+        executor.execute(
+            session,
+            packetHandler != null ? packetHandler.getClass().getSimpleName() : "Unhandled",
+            executor.isBlocking(packetId),
+            () -> handleMessage(session, content)
+        );
+    }
+
+    private void handleMessage(IoSession session, byte[] content) {
         SeekableLittleEndianAccessor slea = new GenericSeekableLittleEndianAccessor(new ByteArrayByteStream(content));
         short packetId = slea.readShort();
         MapleClient client = (MapleClient) session.getAttribute(MapleClient.CLIENT_KEY);
@@ -108,6 +152,9 @@ public class MapleServerHandler extends IoHandlerAdapter {
         //
         client.pongReceived();
         //
+        PacketMetrics metrics = PacketMetrics.getInstance();
+        boolean timed = metrics.isEnabled();
+        long start = timed ? System.nanoTime() : 0L;
         //if (log.isTraceEnabled() || log.isInfoEnabled()) {
             //String from = "";
             //if (client.getPlayer() != null) {
@@ -138,6 +185,9 @@ public class MapleServerHandler extends IoHandlerAdapter {
                 }
             }
         }
+        if (timed) {
+            metrics.recordReceived(packetId, content.length, System.nanoTime() - start);
+        }
     }
 
     @Override
@@ -0,0 +1,380 @@
+package net.sf.odinms.net;
+
+import org.apache.mina.common.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the game logic of a server's sessions (packet handlers, session close
+ * and on-send callbacks) off the MINA I/O threads.
+ *
+ * Work for one session always runs in the order that it was submitted in,
+ * one task at a time, while different sessions run in parallel. Handlers
+ * that block (e.g. on JDBC) are routed to a separate pool, so that they
+ * cannot hold up every other session; a session whose next task is such a
+ * handler is handed over to that pool and back, which keeps its order.
+ *
+ * Each session may have at most <code>sessionQueueCapacity</code> tasks
+ * waiting; once it has that many, reading from the session is suspended
+ * until it has worked through half of them, which pushes back on the client
+ * through TCP.
+ */
+public class PacketExecutor implements PacketExecutorMBean {
+    private static final Logger log = LoggerFactory.getLogger(PacketExecutor.class);
+    private static final String QUEUE_KEY = PacketExecutor.class.getName() + ".QUEUE";
+    /** How many tasks of one session run before other sessions get a turn. */
+    private static final int MAX_BATCH = 16;
+    private final ThreadPoolExecutor gamePool;
+    private final ThreadPoolExecutor blockingPool;
+    private final int sessionQueueCapacity;
+    private final boolean[] blockingOpcodes = new boolean[0x10000];
+    private final Map<String, HandlerStats> handlerStats = new ConcurrentHashMap<>();
+    private final AtomicInteger queuedTasks = new AtomicInteger();
+    private final AtomicInteger suspendedSessions = new AtomicInteger();
+    private final AtomicLong readSuspensions = new AtomicLong();
+    private final AtomicLong failedTasks = new AtomicLong();
+    private final HandlerStats totals = new HandlerStats();
+
+    /**
+     * @param name The name of the executor, used for its threads and its MBean, e.g. <code>Channel1</code>.
+     * @param threads The number of game logic threads; at least 1.
+     * @param blockingThreads The number of threads for blocking handlers; at least 1.
+     * @param sessionQueueCapacity How many tasks a session may have waiting before reading from it is suspended.
+     * @param blockingOpcodes The opcodes of the handlers that block.
+     */
+    public PacketExecutor(String name, int threads, int blockingThreads, int sessionQueueCapacity,
+                          Collection<Integer> blockingOpcodes) {
+        gamePool = newPool(name + "-Game", threads);
+        blockingPool = newPool(name + "-Blocking", blockingThreads);
+        this.sessionQueueCapacity = Math.max(2, sessionQueueCapacity);
+        for (int opcode : blockingOpcodes) {
+            this.blockingOpcodes[opcode & 0xFFFF] = true;
+        }
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.registerMBean(this, new ObjectName("net.sf.odinms.net:type=PacketExecutor,name=" + name));
+        } catch (Exception e) {
+            log.error("Error registering MBean ", e);
+        }
+    }
+
+    private static ThreadPoolExecutor newPool(String name, int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        // Each session has at most one task in a pool at a time, so the queue is bounded by the number of sessions.
+        return new ThreadPoolExecutor(
+            Math.max(1, threads),
+            Math.max(1, threads),
+            60L,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> {
+                Thread t = new Thread(r);
+                t.setName(name + "-Worker-" + threadNumber.incrementAndGet());
+                return t;
+            }
+        );
+    }
+
+    public boolean isBlocking(int opcode) {
+        return opcode >= 0 && blockingOpcodes[opcode & 0xFFFF];
+    }
+
+    /**
+     * Queues a task of the given session, to run after all tasks that were
+     * queued for the session before it.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param session The session that the task belongs to.
+     * @param name What to record the task's queue and run times under, e.g. the name of the handler.
+     * @param blocking Whether the task may block, and should run on the pool for blocking tasks.
+     * @param task The task.
+     */
+    public void execute(IoSession session, String name, boolean blocking, Runnable task) {
+        SessionQueue queue = (SessionQueue) session.getAttribute(QUEUE_KEY);
+        if (queue == null) {
+            synchronized (session) {
+                queue = (SessionQueue) session.getAttribute(QUEUE_KEY);
+                if (queue == null) {
+                    queue = new SessionQueue(session);
+                    session.setAttribute(QUEUE_KEY, queue);
+                }
+            }
+        }
+        queue.add(new Task(name, blocking, task));
+    }
+
+    /**
+     * Waits a while for the queued tasks to finish (among them saving the
+     * characters of the sessions that were just closed), then stops the
+     * pools.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public void shutdown() {
+        long deadline = System.currentTimeMillis() + 30000L;
+        try {
+            // Sessions move between the pools as they drain, so the pools can only be shut once they're empty.
+            while (queuedTasks.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            if (queuedTasks.get() > 0) {
+                log.warn("Packet executor did not finish its queued tasks in time");
+            }
+            gamePool.shutdown();
+            blockingPool.shutdown();
+            gamePool.awaitTermination(5L, TimeUnit.SECONDS);
+            blockingPool.awaitTermination(5L, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int getThreadCount() {
+        return gamePool.getMaximumPoolSize();
+    }
+
+    @Override
+    public int getBlockingThreadCount() {
+        return blockingPool.getMaximumPoolSize();
+    }
+
+    @Override
+    public int getSessionQueueCapacity() {
+        return sessionQueueCapacity;
+    }
+
+    @Override
+    public int getQueuedTasks() {
+        return queuedTasks.get();
+    }
+
+    @Override
+    public int getSuspendedSessions() {
+        return suspendedSessions.get();
+    }
+
+    @Override
+    public long getTaskCount() {
+        return totals.count.get();
+    }
+
+    @Override
+    public long getFailedTaskCount() {
+        return failedTasks.get();
+    }
+
+    @Override
+    public long getReadSuspensions() {
+        return readSuspensions.get();
+    }
+
+    @Override
+    public double getAverageQueueMillis() {
+        return totals.getAverageQueueMillis();
+    }
+
+    @Override
+    public double getMaxQueueMillis() {
+        return totals.maxQueueNanos.get() / 1000000.0d;
+    }
+
+    @Override
+    public double getAverageRunMillis() {
+        return totals.getAverageRunMillis();
+    }
+
+    @Override
+    public double getMaxRunMillis() {
+        return totals.maxRunNanos.get() / 1000000.0d;
+    }
+
+    /**
+     * Gets the queue and run times of each kind of task, the ones that take
+     * up the most time in total first.
+     */
+    @Override
+    public String[] getHandlerStats() {
+        List<Map.Entry<String, HandlerStats>> entries = new ArrayList<>(handlerStats.entrySet());
+        entries.sort(
+            Comparator.comparingLong((Map.Entry<String, HandlerStats> e) -> e.getValue().runNanos.get()).reversed()
+        );
+        String[] ret = new String[entries.size()];
+        for (int i = 0; i < ret.length; ++i) {
+            HandlerStats stats = entries.get(i).getValue();
+            ret[i] = String.format(
+                "%s: count=%d queue avg=%.3fms max=%.3fms run avg=%.3fms max=%.3fms",
+                entries.get(i).getKey(),
+                stats.count.get(),
+                stats.getAverageQueueMillis(),
+                stats.maxQueueNanos.get() / 1000000.0d,
+                stats.getAverageRunMillis(),
+                stats.maxRunNanos.get() / 1000000.0d
+            );
+        }
+        return ret;
+    }
+
+    @Override
+    public void resetStats() {
+        handlerStats.clear();
+        totals.reset();
+        failedTasks.set(0L);
+        readSuspensions.set(0L);
+    }
+
+    private void record(Task task, long queueNanos, long runNanos) {
+        HandlerStats stats = handlerStats.get(task.name);
+        if (stats == null) {
+            stats = handlerStats.computeIfAbsent(task.name, k -> new HandlerStats());
+        }
+        stats.record(queueNanos, runNanos);
+        totals.record(queueNanos, runNanos);
+    }
+
+    private static class Task {
+        private final String name;
+        private final boolean blocking;
+        private final Runnable runnable;
+        private final long queuedAt = System.nanoTime();
+
+        Task(String name, boolean blocking, Runnable runnable) {
+            this.name = name;
+            this.blocking = blocking;
+            this.runnable = runnable;
+        }
+    }
+
+    private static class HandlerStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong queueNanos = new AtomicLong();
+        private final AtomicLong maxQueueNanos = new AtomicLong();
+        private final AtomicLong runNanos = new AtomicLong();
+        private final AtomicLong maxRunNanos = new AtomicLong();
+
+        void record(long queued, long ran) {
+            count.incrementAndGet();
+            queueNanos.addAndGet(queued);
+            maxQueueNanos.accumulateAndGet(queued, Math::max);
+            runNanos.addAndGet(ran);
+            maxRunNanos.accumulateAndGet(ran, Math::max);
+        }
+
+        double getAverageQueueMillis() {
+            long n = count.get();
+            return n == 0L ? 0.0d : queueNanos.get() / (double) n / 1000000.0d;
+        }
+
+        double getAverageRunMillis() {
+            long n = count.get();
+            return n == 0L ? 0.0d : runNanos.get() / (double) n / 1000000.0d;
+        }
+
+        void reset() {
+            count.set(0L);
+            queueNanos.set(0L);
+            maxQueueNanos.set(0L);
+            runNanos.set(0L);
+            maxRunNanos.set(0L);
+        }
+    }
+
+    /**
+     * The tasks of one session. At most one thread drains it at a time; the
+     * <code>scheduled</code> flag is set while it is queued in or running on
+     * one of the pools.
+     */
+    private class SessionQueue implements Runnable {
+        private final IoSession session;
+        private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final AtomicBoolean suspended = new AtomicBoolean(false);
+        private volatile boolean onBlockingPool;
+
+        SessionQueue(IoSession session) {
+            this.session = session;
+        }
+
+        void add(Task task) {
+            tasks.add(task);
+            queuedTasks.incrementAndGet();
+            if (size.incrementAndGet() >= sessionQueueCapacity && suspended.compareAndSet(false, true)) {
+                suspendedSessions.incrementAndGet();
+                readSuspensions.incrementAndGet();
+                session.suspendRead();
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                submit(task.blocking);
+            }
+        }
+
+        private void submit(boolean blocking) {
+            onBlockingPool = blocking;
+            try {
+                (blocking ? blockingPool : gamePool).execute(this);
+            } catch (RejectedExecutionException ree) {
+                // Shutting down; whatever is left of this session is dropped.
+                scheduled.set(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_BATCH; ++i) {
+                Task task = tasks.peek();
+                if (task == null) {
+                    break;
+                }
+                if (task.blocking != onBlockingPool) {
+                    submit(task.blocking); // Hand the session over to the other pool; it stays scheduled.
+                    return;
+                }
+                tasks.poll();
+                queuedTasks.decrementAndGet();
+                long start = System.nanoTime();
+                try {
+                    task.runnable.run();
+                } catch (Throwable t) {
+                    failedTasks.incrementAndGet();
+                    log.error("Error running " + task.name + " for session " + session.getRemoteAddress(), t);
+                }
+                record(task, start - task.queuedAt, System.nanoTime() - start);
+                if (size.decrementAndGet() <= sessionQueueCapacity / 2 && suspended.compareAndSet(true, false)) {
+                    suspendedSessions.decrementAndGet();
+                    session.resumeRead();
+                }
+            }
+            Task next = tasks.peek();
+            if (next != null) {
+                submit(next.blocking); // Let other sessions have a turn.
+                return;
+            }
+            scheduled.set(false);
+            // A task may have been added after we looked, but before we cleared the flag.
+            next = tasks.peek();
+            if (next != null && scheduled.compareAndSet(false, true)) {
+                submit(next.blocking);
+            }
+        }
+    }
+}
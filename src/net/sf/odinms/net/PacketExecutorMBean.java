@@ -0,0 +1,18 @@
+package net.sf.odinms.net;
+
+public interface PacketExecutorMBean {
+    int getThreadCount();
+    int getBlockingThreadCount();
+    int getSessionQueueCapacity();
+    int getQueuedTasks();
+    int getSuspendedSessions();
+    long getTaskCount();
+    long getFailedTaskCount();
+    long getReadSuspensions();
+    double getAverageQueueMillis();
+    double getMaxQueueMillis();
+    double getAverageRunMillis();
+    double getMaxRunMillis();
+    String[] getHandlerStats();
+    void resetStats();
+}
@@ -0,0 +1,262 @@
+package net.sf.odinms.net;
+
+import net.sf.odinms.server.TimerManager;
+import net.sf.odinms.tools.performance.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the packets that go through the server, by opcode: how many, how
+ * many bytes, and how long they took to handle (received packets) or to
+ * encode (sent packets).
+ *
+ * Recording takes no locks, and costs nothing but a volatile read while
+ * disabled. Opcodes are only resolved to their names when the numbers are
+ * read, so reloading the opcodes doesn't disturb the counts.
+ */
+public class PacketMetrics implements PacketMetricsMBean {
+    private static final Logger log = LoggerFactory.getLogger(PacketMetrics.class);
+    private static final PacketMetrics instance = new PacketMetrics();
+    private final AtomicReferenceArray<OpcodeStats> received = new AtomicReferenceArray<>(0x10000);
+    private final AtomicReferenceArray<OpcodeStats> sent = new AtomicReferenceArray<>(0x10000);
+    private volatile boolean enabled = false;
+    private ScheduledFuture<?> dumpTask;
+
+    private PacketMetrics() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.registerMBean(this, new ObjectName("net.sf.odinms.net:type=PacketMetrics"));
+        } catch (Exception e) {
+            log.error("Error registering MBean ", e);
+        }
+    }
+
+    public static PacketMetrics getInstance() {
+        return instance;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param opcode The opcode of the packet.
+     * @param bytes The length of the packet, including the opcode.
+     * @param nanos How long the packet's handler took.
+     */
+    public void recordReceived(int opcode, int bytes, long nanos) {
+        getStats(received, opcode).record(bytes, nanos);
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param opcode The opcode of the packet.
+     * @param bytes The length of the packet, including the opcode but not the header.
+     * @param nanos How long the packet took to encode.
+     */
+    public void recordSent(int opcode, int bytes, long nanos) {
+        getStats(sent, opcode).record(bytes, nanos);
+    }
+
+    private static OpcodeStats getStats(AtomicReferenceArray<OpcodeStats> stats, int opcode) {
+        int i = opcode & 0xFFFF;
+        OpcodeStats ret = stats.get(i);
+        if (ret == null) {
+            stats.compareAndSet(i, null, new OpcodeStats());
+            ret = stats.get(i);
+        }
+        return ret;
+    }
+
+    @Override
+    public long getReceivedCount() {
+        return sum(received, false);
+    }
+
+    @Override
+    public long getReceivedBytes() {
+        return sum(received, true);
+    }
+
+    @Override
+    public long getSentCount() {
+        return sum(sent, false);
+    }
+
+    @Override
+    public long getSentBytes() {
+        return sum(sent, true);
+    }
+
+    private static long sum(AtomicReferenceArray<OpcodeStats> stats, boolean bytes) {
+        long ret = 0L;
+        for (int i = 0; i < stats.length(); ++i) {
+            OpcodeStats s = stats.get(i);
+            if (s != null) {
+                ret += bytes ? s.bytes.sum() : s.count.sum();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Gets a line per opcode with the numbers of the received packets, the
+     * opcodes whose handlers took the most time in total first.
+     */
+    @Override
+    public String[] getReceivedStats() {
+        return format(received, RecvPacketOpcode.values());
+    }
+
+    /**
+     * Gets a line per opcode with the numbers of the sent packets, the
+     * opcodes that took the most time to encode in total first.
+     */
+    @Override
+    public String[] getSentStats() {
+        return format(sent, SendPacketOpcode.values());
+    }
+
+    private static String[] format(AtomicReferenceArray<OpcodeStats> stats, WritableIntValueHolder[] opcodes) {
+        String[] names = new String[stats.length()];
+        for (WritableIntValueHolder opcode : opcodes) {
+            int value = opcode.getValue();
+            if (value >= 0 && value < names.length && names[value] == null) {
+                names[value] = ((Enum<?>) opcode).name();
+            }
+        }
+        // Each slot is read once: reset() may clear it meanwhile, and the
+        // totals may grow while sorting, so they're taken up front too.
+        List<Integer> present = new ArrayList<>();
+        OpcodeStats[] snapshot = new OpcodeStats[stats.length()];
+        long[] totals = new long[stats.length()];
+        for (int i = 0; i < stats.length(); ++i) {
+            OpcodeStats s = stats.get(i);
+            if (s != null) {
+                present.add(i);
+                snapshot[i] = s;
+                totals[i] = s.latency.getTotalNanos();
+            }
+        }
+        present.sort(Comparator.comparingLong((Integer i) -> totals[i]).reversed());
+        String[] ret = new String[present.size()];
+        for (int i = 0; i < ret.length; ++i) {
+            int opcode = present.get(i);
+            OpcodeStats s = snapshot[opcode];
+            ret[i] = String.format(
+                "%s (0x%02X): count=%d bytes=%d p50=%.1fus p99=%.1fus max=%.1fus total=%.1fms",
+                names[opcode] != null ? names[opcode] : "UNKNOWN",
+                opcode,
+                s.count.sum(),
+                s.bytes.sum(),
+                s.latency.getPercentileNanos(50.0d) / 1000.0d,
+                s.latency.getPercentileNanos(99.0d) / 1000.0d,
+                s.latency.getMaxNanos() / 1000.0d,
+                s.latency.getTotalNanos() / 1000000.0d
+            );
+        }
+        return ret;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < 0x10000; ++i) {
+            received.set(i, null);
+            sent.set(i, null);
+        }
+    }
+
+    /**
+     * Writes the numbers of all packets so far to <code>file</code> every
+     * <code>intervalMillis</code> milliseconds. Once the file grows past
+     * <code>maxBytes</code>, it is rolled over to <code>file.1</code> (and
+     * <code>file.1</code> to <code>file.2</code> and so on), keeping at most
+     * <code>keep</code> old files.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public synchronized void startDumping(final String file, long intervalMillis, final long maxBytes, final int keep) {
+        stopDumping();
+        dumpTask = TimerManager.getInstance().register(() -> {
+            try {
+                dump(new File(file), maxBytes, keep);
+            } catch (IOException ioe) {
+                log.error("Error writing packet metrics to " + file, ioe);
+            }
+        }, intervalMillis, intervalMillis);
+    }
+
+    public synchronized void stopDumping() {
+        if (dumpTask != null) {
+            dumpTask.cancel(false);
+            dumpTask = null;
+        }
+    }
+
+    private void dump(File file, long maxBytes, int keep) throws IOException {
+        if (file.length() > maxBytes) {
+            new File(file.getPath() + "." + keep).delete();
+            for (int i = keep - 1; i >= 1; --i) {
+                new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+            }
+            if (keep > 0) {
+                file.renameTo(new File(file.getPath() + ".1"));
+            } else {
+                file.delete();
+            }
+        }
+        try (PrintWriter pw = new PrintWriter(new FileWriter(file, true))) {
+            pw.println("=== " + new Date() + " ===");
+            pw.println("Received:");
+            for (String line : getReceivedStats()) {
+                pw.println("  " + line);
+            }
+            pw.println("Sent:");
+            for (String line : getSentStats()) {
+                pw.println("  " + line);
+            }
+        }
+    }
+
+    private static class OpcodeStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        void record(int length, long nanos) {
+            count.increment();
+            bytes.add(length);
+            latency.record(nanos);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package net.sf.odinms.net;
+
+public interface PacketMetricsMBean {
+    boolean isEnabled();
+    void setEnabled(boolean enabled);
+    long getReceivedCount();
+    long getReceivedBytes();
+    long getSentCount();
+    long getSentBytes();
+    String[] getReceivedStats();
+    String[] getSentStats();
+    void reset();
+}
@@ -25,7 +25,7 @@ public final class PacketProcessor {
     }
 
     public MaplePacketHandler getHandler(short packetId) {
-        if (packetId > handlers.length) {
+        if (packetId < 0 || packetId >= handlers.length) {
             return null;
         }
         MaplePacketHandler handler = handlers[packetId];
@@ -5,7 +5,10 @@ import net.sf.odinms.client.messages.CommandProcessor;
 import net.sf.odinms.database.DatabaseConnection;
 import net.sf.odinms.net.MaplePacket;
 import net.sf.odinms.net.MapleServerHandler;
+import net.sf.odinms.net.PacketExecutor;
+import net.sf.odinms.net.PacketMetrics;
 import net.sf.odinms.net.PacketProcessor;
+import net.sf.odinms.net.RecvPacketOpcode;
 import net.sf.odinms.net.channel.remote.ChannelWorldInterface;
 import net.sf.odinms.net.mina.MapleCodecFactory;
 import net.sf.odinms.net.world.MapleParty;
@@ -14,11 +17,13 @@ import net.sf.odinms.net.world.guild.MapleGuildCharacter;
 import net.sf.odinms.net.world.guild.MapleGuildSummary;
 import net.sf.odinms.net.world.remote.WorldChannelInterface;
 import net.sf.odinms.net.world.remote.WorldRegistry;
-import net.sf.odinms.provider.MapleDataProviderFactory;
+import net.sf.odinms.scripting.ScriptCache;
 import net.sf.odinms.scripting.event.EventScriptManager;
 import net.sf.odinms.server.*;
 import net.sf.odinms.server.PlayerInteraction.HiredMerchant;
+import net.sf.odinms.server.life.MapleMonsterInformationProvider;
 import net.sf.odinms.server.maps.FakeCharacter;
+import net.sf.odinms.server.maps.MapTickService;
 import net.sf.odinms.server.maps.MapleMapFactory;
 import net.sf.odinms.server.maps.MapleMapObject;
 import net.sf.odinms.server.maps.MapleMapObjectType;
@@ -27,6 +32,7 @@ import org.apache.mina.common.ByteBuffer;
 import org.apache.mina.common.CloseFuture;
 import org.apache.mina.common.IoAcceptor;
 import org.apache.mina.common.SimpleByteBufferAllocator;
+import org.apache.mina.common.ThreadModel;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.transport.socket.nio.SocketAcceptor;
 import org.apache.mina.transport.socket.nio.SocketAcceptorConfig;
@@ -34,7 +40,6 @@ import org.apache.mina.transport.socket.nio.SocketAcceptorConfig;
 import javax.management.*;
 import javax.rmi.ssl.SslRMIClientSocketFactory;
 import java.awt.*;
-import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
@@ -68,6 +73,7 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
     private ChannelWorldInterface cwi;
     private WorldChannelInterface wci;
     private IoAcceptor acceptor;
+    private PacketExecutor packetExecutor;
     private String ip;
     private boolean shutdown = false;
     private boolean finishedShutdown = false;
@@ -99,24 +105,7 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
     private int eventMap;
 
     private ChannelServer(String key) {
-        mapFactory =
-                new MapleMapFactory(
-                    MapleDataProviderFactory.getDataProvider(
-                        new File(
-                        System.getProperty(
-                                "net.sf.odinms.wzpath"
-                            ) +
-                                "/Map.wz"
-                        )
-                    ), MapleDataProviderFactory.getDataProvider(
-                        new File(
-                            System.getProperty(
-                                "net.sf.odinms.wzpath"
-                            ) +
-                                "/String.wz"
-                        )
-                    )
-                );
+        mapFactory = new MapleMapFactory();
         this.key = key;
     }
 
@@ -151,6 +140,7 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
                         worldRegistry = (WorldRegistry) registry.lookup("WorldRegistry");
                         cwi = new ChannelWorldInterfaceImpl(this);
                         wci = worldRegistry.registerChannelServer(key, cwi);
+                        reportLoginStates();
                         props = wci.getGameProperties();
                         expRate = Integer.parseInt(props.getProperty("net.sf.odinms.world.exp"));
                         mesoRate = Integer.parseInt(props.getProperty("net.sf.odinms.world.meso"));
@@ -191,6 +181,21 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
         }
     }
 
+    /**
+     * Tells the world server which accounts are logged in to this channel,
+     * since it forgets them when the channel registers (again), e.g. after
+     * the world server was restarted.
+     */
+    private void reportLoginStates() throws RemoteException {
+        Map<Integer, Boolean> gmByAccountId = new HashMap<>();
+        for (MapleCharacter chr : players.getAllCharacters()) {
+            gmByAccountId.put(chr.getClient().getAccID(), chr.getClient().isGm() || chr.isGM());
+        }
+        if (!gmByAccountId.isEmpty()) {
+            wci.setLoginStates(channel, gmByAccountId);
+        }
+    }
+
     @Override
     public void run() {
         try {
@@ -205,6 +210,9 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
             serverMessage = props.getProperty("net.sf.odinms.world.serverMessage");
             dropUndroppables = Boolean.parseBoolean(props.getProperty("net.sf.odinms.world.alldrop", "false"));
             moreThanOne = Boolean.parseBoolean(props.getProperty("net.sf.odinms.world.morethanone", "false"));
+            if (Boolean.parseBoolean(props.getProperty("net.sf.odinms.channel.scriptWarmup", "true"))) {
+                ScriptCache.getInstance().warmup();
+            }
             eventSM = new EventScriptManager(this, props.getProperty("net.sf.odinms.channel.events").split(","));
             serverName = props.getProperty("net.sf.odinms.world.serverName");
             godlyItems = Boolean.parseBoolean(props.getProperty("net.sf.odinms.world.godlyItems", "false"));
@@ -244,14 +252,82 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
         ByteBuffer.setAllocator(new SimpleByteBufferAllocator());
         acceptor = new SocketAcceptor();
         SocketAcceptorConfig cfg = new SocketAcceptorConfig();
-        //cfg.setThreadModel(ThreadModel.MANUAL); // *fingers crossed*, I hope the executor filter handles everything
-        //executor = new ThreadPoolExecutor(16, 16, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
-        //cfg.getFilterChain().addLast("executor", new ExecutorFilter(executor));
         cfg.getFilterChain().addLast("codec", new ProtocolCodecFilter(new MapleCodecFactory()));
+        int executorThreads = Integer.parseInt(props.getProperty("net.sf.odinms.channel.executorThreads", "0"));
+        if (executorThreads > 0) {
+            // Handlers run on the packet executor, so MINA needn't hand events off to a pool of its own.
+            cfg.setThreadModel(ThreadModel.MANUAL);
+            List<Integer> blockingOpcodes = new ArrayList<>();
+            String blockingOps =
+                props.getProperty(
+                    "net.sf.odinms.channel.blockingOpcodes",
+                    "CHANGE_MAP,CHANGE_CHANNEL,PLAYER_LOGGEDIN,ENTER_CASH_SHOP,ENTER_MTS,DUEY_ACTION"
+                );
+            for (String op : blockingOps.split(",")) {
+                if (!op.trim().isEmpty()) {
+                    blockingOpcodes.add(RecvPacketOpcode.valueOf(op.trim()).getValue());
+                }
+            }
+            packetExecutor =
+                new PacketExecutor(
+                    "Channel" + channel,
+                    executorThreads,
+                    Integer.parseInt(props.getProperty("net.sf.odinms.channel.blockingThreads", "4")),
+                    Integer.parseInt(props.getProperty("net.sf.odinms.channel.sessionQueueCapacity", "256")),
+                    blockingOpcodes
+                );
+        }
         //Item.loadInitialDataFromDB();
         TimerManager tMan = TimerManager.getInstance();
         tMan.start();
         tMan.register(AutobanManager.getInstance(), 60000);
+        CharacterSaveService.getInstance().start(
+            Integer.parseInt(props.getProperty("net.sf.odinms.channel.saveWriters", "2"))
+        );
+        PacketMetrics.getInstance().setEnabled(
+            Boolean.parseBoolean(props.getProperty("net.sf.odinms.channel.packetMetrics", "false"))
+        );
+        long metricsDumpMillis =
+            Long.parseLong(props.getProperty("net.sf.odinms.channel.packetMetricsDumpMillis", "0"));
+        if (metricsDumpMillis > 0L) {
+            PacketMetrics.getInstance().startDumping(
+                props.getProperty("net.sf.odinms.channel.packetMetricsFile", "packetmetrics.log"),
+                metricsDumpMillis,
+                10L * 1024L * 1024L,
+                5
+            );
+        }
+        RankingReporter.getInstance().start(
+            Long.parseLong(props.getProperty("net.sf.odinms.channel.rankingReportMillis", "60000"))
+        );
+        int mapTickThreads = Integer.parseInt(props.getProperty("net.sf.odinms.channel.mapTickThreads", "0"));
+        if (mapTickThreads > 0) {
+            MapTickService.getInstance().start(
+                mapTickThreads,
+                Long.parseLong(props.getProperty("net.sf.odinms.channel.mapTickMillis", "250"))
+            );
+        }
+        String preloadMaps = props.getProperty("net.sf.odinms.channel.preloadMaps", "").trim();
+        if (!preloadMaps.isEmpty()) {
+            List<Integer> mapIds;
+            if (preloadMaps.equalsIgnoreCase("all")) {
+                mapIds = mapFactory.getAllMapIds();
+            } else {
+                mapIds = new ArrayList<>();
+                for (String mapId : preloadMaps.split(",")) {
+                    mapIds.add(Integer.parseInt(mapId.trim()));
+                }
+            }
+            mapFactory.preloadMaps(
+                mapIds,
+                Integer.parseInt(
+                    props.getProperty(
+                        "net.sf.odinms.channel.preloadThreads",
+                        String.valueOf(Runtime.getRuntime().availableProcessors())
+                    )
+                )
+            );
+        }
         try {
             MapleServerHandler serverHandler =
                 new MapleServerHandler(
@@ -260,10 +336,16 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
                     ),
                     channel
                 );
+            serverHandler.setExecutor(packetExecutor);
             acceptor.bind(new InetSocketAddress(port), serverHandler, cfg);
             System.out.println("Channel " + getChannel() + ": Listening on port: " + port);
             wci.serverReady();
             eventSM.init();
+            long mapIdleMillis = Long.parseLong(props.getProperty("net.sf.odinms.channel.mapIdleMillis", "0"));
+            int maxLoadedMaps = Integer.parseInt(props.getProperty("net.sf.odinms.channel.maxLoadedMaps", "0"));
+            if (mapIdleMillis > 0L || maxLoadedMaps > 0) {
+                mapFactory.startEviction(mapIdleMillis, maxLoadedMaps);
+            }
         } catch (IOException e) {
             System.err.println("Binding to port " + port + " failed (ch: " + getChannel() + ") " + e);
         }
@@ -285,7 +367,7 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
                 chr.getPartyQuest().playerDisconnected(chr);
             }
             if (!chr.getClient().isGuest()) {
-                chr.saveToDB(true, true);
+                CharacterSaveService.getInstance().saveNow(chr, true);
             }
             if (chr.getCheatTracker() != null) {
                 chr.getCheatTracker().dispose();
@@ -305,6 +387,13 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
 
     public void unbind() {
         acceptor.unbindAll();
+        if (packetExecutor != null) {
+            packetExecutor.shutdown();
+        }
+    }
+
+    public PacketExecutor getPacketExecutor() {
+        return packetExecutor;
     }
 
     public boolean hasFinishedShutdown() {
@@ -348,6 +437,7 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
 
     public void removePlayer(MapleCharacter chr) {
         players.deregisterPlayer(chr);
+        CharacterSaveService.getInstance().forget(chr.getId());
         if (chr.getClan() > -1) {
             clans.deregisterPlayer(chr);
         }
@@ -490,6 +580,16 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
         return mapFactory.getLoadedMaps();
     }
 
+    @Override
+    public long getMapLoads() {
+        return mapFactory.getMapLoads();
+    }
+
+    @Override
+    public long getEvictedMaps() {
+        return mapFactory.getEvictedMaps();
+    }
+
     public EventScriptManager getEventSM() {
         return eventSM;
     }
@@ -498,6 +598,7 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
         eventSM.cancel();
         eventSM = new EventScriptManager(this, props.getProperty("net.sf.odinms.channel.events").split(","));
         eventSM.init();
+        mapFactory.pinLoadedMaps();
     }
 
     public PartyQuest getPartyQuest(String name) {
@@ -678,6 +779,16 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
                 new SslRMIClientSocketFactory()
             );
         worldRegistry = (WorldRegistry) registry.lookup("WorldRegistry");
+        Properties dbProp = new Properties();
+        try (FileReader fileReader = new FileReader("db.properties")) {
+            dbProp.load(fileReader);
+        }
+        DatabaseConnection.setProps(dbProp);
+        // Shared by every channel in this process, so loaded once before any of them starts.
+        MapleMonsterInformationProvider.getInstance().reload();
+        // Reads and indexes the names in String.wz now, rather than on the first search.
+        NameSearchIndex.getInstance();
+        MTSListings.getInstance().load();
         for (int i = 0; i < Integer.parseInt(initialProp.getProperty("net.sf.odinms.channel.count", "0")); ++i) {
             newInstance(initialProp.getProperty("net.sf.odinms.channel." + i + ".key")).run();
         }
@@ -702,9 +813,10 @@ public class ChannelServer implements Runnable, ChannelServerMBean {
                     }
                 }
                 for (MapleCharacter mc : channel.getPlayerStorage().getAllCharacters()) {
-                    mc.saveToDB(true, true);
+                    CharacterSaveService.getInstance().saveNow(mc, true);
                 }
             }
+            CharacterSaveService.getInstance().stop();
         }));
         MapleItemInformationProvider.getInstance().cacheCashEquips();
     }
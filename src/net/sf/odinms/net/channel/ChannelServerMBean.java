@@ -35,4 +35,8 @@ public interface ChannelServerMBean {
     int getConnectedClients();
 
     int getLoadedMaps();
-}
\ No newline at end of file
+
+    long getMapLoads();
+
+    long getEvictedMaps();
+}
\ No newline at end of file
@@ -0,0 +1,392 @@
+package net.sf.odinms.net.channel;
+
+import net.sf.odinms.client.MapleCharacter;
+import net.sf.odinms.client.MapleCharacter.CharacterRowSnapshot;
+import net.sf.odinms.database.DatabaseConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind persistence for the <code>characters</code> row of online
+ * characters.
+ *
+ * Routine saves (e.g. the client's periodic player update) are queued as
+ * <code>CharacterRowSnapshot</code>s and coalesced per character, so that only
+ * the newest snapshot of a character is ever written. A small pool of writer
+ * threads drains the queue and writes snapshots in JDBC batches.
+ *
+ * Saves that must hit the database before the caller continues (logout,
+ * channel change, shutdown, cash shop/MTS transitions) go through
+ * <code>saveNow</code>, which discards any pending snapshot of that character
+ * and makes sure that no older snapshot is written after it.
+ */
+public class CharacterSaveService implements CharacterSaveServiceMBean {
+    private static final Logger log = LoggerFactory.getLogger(CharacterSaveService.class);
+    private static final CharacterSaveService instance = new CharacterSaveService();
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAX_BATCH_SIZE = 64;
+    private final Map<Integer, CharacterRowSnapshot> pending = new ConcurrentHashMap<>();
+    private final BlockingQueue<Integer> dirtyIds = new LinkedBlockingQueue<>();
+    private final Map<Integer, Long> forcedSequences = new ConcurrentHashMap<>();
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    private final AtomicLong snapshotsQueued = new AtomicLong();
+    private final AtomicLong snapshotsCoalesced = new AtomicLong();
+    private final AtomicLong snapshotsWritten = new AtomicLong();
+    private final AtomicLong snapshotsDiscarded = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicLong forcedSaves = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private ExecutorService writers;
+    private int writerCount;
+    private volatile boolean running = false;
+
+    private CharacterSaveService() {
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            locks[i] = new ReentrantLock();
+        }
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.registerMBean(this, new ObjectName("net.sf.odinms.net.channel:type=CharacterSaveService"));
+        } catch (Exception e) {
+            log.error("Error registering MBean ", e);
+        }
+    }
+
+    public static CharacterSaveService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts the writer threads. Starting an already running service is a
+     * no-op.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param writerCount The number of writer threads to use; at least 1.
+     */
+    public synchronized void start(int writerCount) {
+        if (running) {
+            return;
+        }
+        this.writerCount = Math.max(1, writerCount);
+        writers = Executors.newFixedThreadPool(this.writerCount, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setName("CharacterSaveService-Writer-" + threadNumber.getAndIncrement());
+                return t;
+            }
+        });
+        running = true;
+        for (int i = 0; i < this.writerCount; ++i) {
+            writers.execute(this::writerLoop);
+        }
+    }
+
+    /**
+     * Stops the writer threads and then synchronously writes whatever is
+     * still queued, on the calling thread.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public synchronized void stop() {
+        if (!running) {
+            flush();
+            return;
+        }
+        running = false;
+        writers.shutdownNow();
+        try {
+            if (!writers.awaitTermination(10L, TimeUnit.SECONDS)) {
+                log.warn("Character save writers did not terminate in time.");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        writers = null;
+        flush();
+    }
+
+    /**
+     * Queues a write-behind save of the given character's
+     * <code>characters</code> row. The snapshot is taken right away, on the
+     * calling thread. If the service is not running, the character is saved
+     * synchronously instead.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param chr The character to save.
+     */
+    public void queueSave(MapleCharacter chr) {
+        if (!running) {
+            saveNow(chr, false);
+            return;
+        }
+        CharacterRowSnapshot snapshot = chr.createRowSnapshot();
+        snapshotsQueued.incrementAndGet();
+        if (pending.put(snapshot.getCharacterId(), snapshot) == null) {
+            dirtyIds.offer(snapshot.getCharacterId());
+        } else {
+            snapshotsCoalesced.incrementAndGet();
+        }
+    }
+
+    /**
+     * Synchronously saves the given character, discarding any of its
+     * snapshots that are still queued, since they are older than what is
+     * being written now.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param chr The character to save.
+     * @param full Whether or not to do a full save (inventory, skills,
+     *             quests, etc.) as opposed to only the character row.
+     */
+    public void saveNow(MapleCharacter chr, boolean full) {
+        int characterId = chr.getId();
+        ReentrantLock lock = lockFor(characterId);
+        lock.lock();
+        try {
+            if (pending.remove(characterId) != null) {
+                snapshotsDiscarded.incrementAndGet();
+            }
+            forcedSequences.put(characterId, CharacterRowSnapshot.nextSequence());
+            forcedSaves.incrementAndGet();
+            chr.saveToDB(true, full);
+            RankingReporter.getInstance().report(chr.createRankingEntry());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets the synchronous saves of a character that is leaving the
+     * channel, after its last save. Queued snapshots taken before those saves
+     * have already been discarded by <code>saveNow</code>.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param characterId The ID of the character.
+     */
+    public void forget(int characterId) {
+        ReentrantLock lock = lockFor(characterId);
+        lock.lock();
+        try {
+            forcedSequences.remove(characterId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Synchronously writes every queued snapshot on the calling thread.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public void flush() {
+        List<Integer> ids = new ArrayList<>();
+        while (dirtyIds.drainTo(ids, MAX_BATCH_SIZE) > 0) {
+            writeBatch(ids);
+            ids.clear();
+        }
+    }
+
+    private void writerLoop() {
+        List<Integer> ids = new ArrayList<>(MAX_BATCH_SIZE);
+        while (running) {
+            try {
+                Integer first = dirtyIds.poll(1L, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                ids.add(first);
+                dirtyIds.drainTo(ids, MAX_BATCH_SIZE - 1);
+                writeBatch(ids);
+            } catch (InterruptedException ie) {
+                // Anything still queued is written by stop().
+                return;
+            } catch (RuntimeException re) {
+                log.error("Character save writer error", re);
+            } finally {
+                ids.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the pending snapshots of the given characters in one batch.
+     * The lock stripes involved are taken in ascending order, so concurrent
+     * batches and <code>saveNow</code> calls cannot deadlock.
+     */
+    private void writeBatch(List<Integer> ids) {
+        SortedSet<Integer> stripes = new TreeSet<>();
+        ids.forEach(id -> stripes.add(stripeOf(id)));
+        stripes.forEach(stripe -> locks[stripe].lock());
+        // The snapshots are taken out while holding the locks, so that a
+        // saveNow (or forget) can't happen between taking and writing them.
+        List<CharacterRowSnapshot> snapshots = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            CharacterRowSnapshot snapshot = pending.remove(id);
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+        if (snapshots.isEmpty()) {
+            stripes.forEach(stripe -> locks[stripe].unlock());
+            return;
+        }
+        long startNanos = System.nanoTime();
+        // Anything left uncommitted is rolled back when the connection goes back to the pool.
+        try (Connection con = DatabaseConnection.borrowConnection()) {
+            con.setAutoCommit(false);
+            List<CharacterRowSnapshot> written = new ArrayList<>(snapshots.size());
+            long queueNanos = 0L;
+            try (PreparedStatement ps = con.prepareStatement(MapleCharacter.UPDATE_CHARACTER_SQL)) {
+                for (CharacterRowSnapshot snapshot : snapshots) {
+                    Long forced = forcedSequences.get(snapshot.getCharacterId());
+                    if (forced != null) {
+                        if (forced > snapshot.getSequence()) {
+                            // A synchronous save has already written newer data.
+                            snapshotsDiscarded.incrementAndGet();
+                            continue;
+                        }
+                        // This snapshot is newer than the synchronous save, and so is anything after it.
+                        forcedSequences.remove(snapshot.getCharacterId(), forced);
+                    }
+                    snapshot.bindUpdate(ps);
+                    ps.addBatch();
+                    queueNanos += startNanos - snapshot.getCreatedNanos();
+                    written.add(snapshot);
+                }
+                if (!written.isEmpty()) {
+                    ps.executeBatch();
+                }
+            }
+            con.commit();
+            for (CharacterRowSnapshot snapshot : written) {
+                RankingReporter.getInstance().report(snapshot.getRankingEntry());
+            }
+            snapshotsWritten.addAndGet(written.size());
+            totalQueueNanos.addAndGet(queueNanos);
+        } catch (SQLException sqle) {
+            failedWrites.addAndGet(snapshots.size());
+            log.error("Error writing " + snapshots.size() + " queued character saves", sqle);
+        } finally {
+            stripes.forEach(stripe -> locks[stripe].unlock());
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        flushCount.incrementAndGet();
+        totalFlushNanos.addAndGet(elapsed);
+        maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+    }
+
+    private static int stripeOf(int characterId) {
+        return Math.floorMod(characterId, LOCK_STRIPES);
+    }
+
+    private ReentrantLock lockFor(int characterId) {
+        return locks[stripeOf(characterId)];
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getWriterCount() {
+        return writerCount;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    @Override
+    public long getSnapshotsQueued() {
+        return snapshotsQueued.get();
+    }
+
+    @Override
+    public long getSnapshotsCoalesced() {
+        return snapshotsCoalesced.get();
+    }
+
+    @Override
+    public long getSnapshotsWritten() {
+        return snapshotsWritten.get();
+    }
+
+    @Override
+    public long getSnapshotsDiscarded() {
+        return snapshotsDiscarded.get();
+    }
+
+    @Override
+    public long getFailedWrites() {
+        return failedWrites.get();
+    }
+
+    @Override
+    public long getForcedSaves() {
+        return forcedSaves.get();
+    }
+
+    @Override
+    public double getCoalesceRatio() {
+        long queued = snapshotsQueued.get();
+        return queued == 0L ? 0.0d : (double) snapshotsCoalesced.get() / queued;
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    @Override
+    public double getAverageFlushLatencyMillis() {
+        long flushes = flushCount.get();
+        return flushes == 0L ? 0.0d : totalFlushNanos.get() / 1000000.0d / flushes;
+    }
+
+    @Override
+    public double getMaxFlushLatencyMillis() {
+        return maxFlushNanos.get() / 1000000.0d;
+    }
+
+    @Override
+    public double getAverageQueueTimeMillis() {
+        long written = snapshotsWritten.get();
+        return written == 0L ? 0.0d : totalQueueNanos.get() / 1000000.0d / written;
+    }
+}
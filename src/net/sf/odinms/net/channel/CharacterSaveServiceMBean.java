@@ -0,0 +1,31 @@
+package net.sf.odinms.net.channel;
+
+public interface CharacterSaveServiceMBean {
+    boolean isRunning();
+
+    int getWriterCount();
+
+    int getQueueDepth();
+
+    long getSnapshotsQueued();
+
+    long getSnapshotsCoalesced();
+
+    long getSnapshotsWritten();
+
+    long getSnapshotsDiscarded();
+
+    long getFailedWrites();
+
+    long getForcedSaves();
+
+    double getCoalesceRatio();
+
+    long getFlushCount();
+
+    double getAverageFlushLatencyMillis();
+
+    double getMaxFlushLatencyMillis();
+
+    double getAverageQueueTimeMillis();
+}
@@ -499,6 +499,7 @@ public class PartyQuestMapInstance {
 
         public void close() {
             reactor.setPosition(closed);
+            map.updateMapObjectPosition(reactor);
             if (!reactor.isAlive()) {
                 reactor.setState((byte) 0);
                 reactor.setAlive(true);
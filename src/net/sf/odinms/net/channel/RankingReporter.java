@@ -0,0 +1,82 @@
+package net.sf.odinms.net.channel;
+
+import net.sf.odinms.net.world.remote.RankingEntry;
+import net.sf.odinms.server.TimerManager;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Collects the ranking keys (reborns, level, exp, ...) of the characters
+ * saved on this server, and sends them to the world server every so often,
+ * from where the login server's <code>RankingWorker</code> picks them up.
+ * Only the newest entry of each character is sent.
+ */
+public class RankingReporter {
+    private static final RankingReporter instance = new RankingReporter();
+    private final Map<Integer, RankingEntry> changed = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> task;
+
+    private RankingReporter() {
+    }
+
+    public static RankingReporter getInstance() {
+        return instance;
+    }
+
+    public synchronized void start(long intervalMillis) {
+        if (task == null) {
+            task = TimerManager.getInstance().register(this::flush, intervalMillis, intervalMillis);
+        }
+    }
+
+    /**
+     * Records a character's ranking key once its save has been written.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public void report(RankingEntry entry) {
+        changed.put(entry.characterId, entry);
+    }
+
+    /**
+     * Sends everything that has been reported so far to the world server.
+     * If that fails, the entries are kept to be sent the next time, unless
+     * newer ones have been reported in the meantime.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public void flush() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        Iterator<ChannelServer> channels = ChannelServer.getAllInstances().iterator();
+        if (!channels.hasNext()) {
+            return;
+        }
+        ChannelServer cserv = channels.next();
+        List<RankingEntry> entries = new ArrayList<>(changed.size());
+        for (RankingEntry entry : changed.values()) {
+            if (changed.remove(entry.characterId, entry)) {
+                entries.add(entry);
+            }
+        }
+        try {
+            cserv.getWorldInterface().reportRankingChanges(entries);
+        } catch (RemoteException re) {
+            for (RankingEntry entry : entries) {
+                changed.putIfAbsent(entry.characterId, entry);
+            }
+            cserv.reconnectWorld();
+        }
+    }
+}
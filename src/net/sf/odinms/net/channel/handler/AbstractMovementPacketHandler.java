@@ -4,6 +4,7 @@ import net.sf.odinms.net.AbstractMaplePacketHandler;
 import net.sf.odinms.server.maps.AnimatedMapleMapObject;
 import net.sf.odinms.server.movement.*;
 import net.sf.odinms.tools.data.input.LittleEndianAccessor;
+import net.sf.odinms.tools.data.input.SeekableLittleEndianAccessor;
 
 import java.awt.*;
 import java.util.ArrayList;
@@ -119,6 +120,93 @@ public abstract class AbstractMovementPacketHandler extends AbstractMaplePacketH
         return res;
     }
 
+    /**
+     * Reads a movement path like <code>parseMovement</code> does, but in a
+     * single pass over the bytes, without building any
+     * <code>LifeMovementFragment</code>s: only the final position and stance
+     * are kept, along with the raw bytes of the path so that they can be
+     * relayed to other players as they are.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @param slea The packet, positioned at the command count of the path.
+     * @return The path, or <code>null</code> if it contains an unknown command.
+     */
+    protected RawMovement scanMovement(SeekableLittleEndianAccessor slea) {
+        long start = slea.getPosition();
+        boolean moved = false;
+        int x = 0, y = 0;
+        int stance = RawMovement.NO_STANCE;
+        int numCommands = slea.readByte();
+        for (int i = 0; i < numCommands; ++i) {
+            int command = slea.readByte();
+            switch (command) {
+                case 0: // Normal move
+                case 5:
+                case 17: // Float
+                    x = slea.readShort();
+                    y = slea.readShort();
+                    moved = true;
+                    slea.skip(6); // Wobble, unk
+                    stance = slea.readByte();
+                    slea.skip(2); // Duration
+                    break;
+                case 1:
+                case 2:
+                case 6: // FJ
+                case 12:
+                case 13: // Shot-jump-back
+                case 16: // Float
+                    slea.skip(4); // Relative movement
+                    stance = slea.readByte();
+                    slea.skip(2);
+                    break;
+                case 3:
+                case 4: // Teleport
+                case 7: // Assaulter
+                case 8: // Assassinate
+                case 9: // Rush
+                case 14:
+                    x = slea.readShort();
+                    y = slea.readShort();
+                    moved = true;
+                    slea.skip(4); // Wobble
+                    stance = slea.readByte();
+                    break;
+                case 10: // Change equip
+                    slea.skip(1);
+                    break;
+                case 11: // Chair
+                    slea.skip(6);
+                    stance = slea.readByte();
+                    slea.skip(2);
+                    break;
+                case 15: // Jump down
+                    slea.skip(12);
+                    stance = slea.readByte();
+                    slea.skip(2);
+                    break;
+                default:
+                    return null;
+            }
+        }
+        int length = (int) (slea.getPosition() - start);
+        slea.seek(start);
+        return new RawMovement(slea.read(length), moved, x, y, stance);
+    }
+
+    protected void updatePosition(RawMovement movement, AnimatedMapleMapObject target, int yoffset) {
+        if (movement.hasPosition()) {
+            target.setPosition(new Point(movement.getX(), movement.getY() + yoffset));
+        }
+        if (movement.getStance() != RawMovement.NO_STANCE) {
+            target.setStance(movement.getStance());
+        }
+    }
+
     protected void updatePosition(List<LifeMovementFragment> movement, AnimatedMapleMapObject target, int yoffset) {
         for (LifeMovementFragment move : movement) {
             if (move instanceof LifeMovement) {
@@ -5,6 +5,7 @@ import net.sf.odinms.client.MapleCharacter;
 import net.sf.odinms.client.MapleClient;
 import net.sf.odinms.net.AbstractMaplePacketHandler;
 import net.sf.odinms.net.channel.ChannelServer;
+import net.sf.odinms.net.channel.CharacterSaveService;
 import net.sf.odinms.net.world.MapleMessengerCharacter;
 import net.sf.odinms.net.world.WorldServer;
 import net.sf.odinms.net.world.remote.WorldChannelInterface;
@@ -107,7 +108,7 @@ public class ChangeChannelHandler extends AbstractMaplePacketHandler {
         } catch (RemoteException e) {
             c.getChannelServer().reconnectWorld();
         }
-        player.saveToDB(true, true);
+        CharacterSaveService.getInstance().saveNow(player, true);
         if (player.getCheatTracker() != null) {
             player.getCheatTracker().dispose();
         }
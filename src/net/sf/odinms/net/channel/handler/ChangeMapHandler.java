@@ -6,6 +6,7 @@ import net.sf.odinms.client.MapleClient;
 import net.sf.odinms.net.AbstractMaplePacketHandler;
 import net.sf.odinms.net.MaplePacket;
 import net.sf.odinms.net.channel.ChannelServer;
+import net.sf.odinms.net.channel.CharacterSaveService;
 import net.sf.odinms.server.MaplePortal;
 import net.sf.odinms.server.maps.MapleMap;
 import net.sf.odinms.tools.MaplePacketCreator;
@@ -29,11 +30,11 @@ public class ChangeMapHandler extends AbstractMaplePacketHandler {
             String ip = ChannelServer.getInstance(c.getChannel()).getIP(channel);
             String[] socket = ip.split(":");
             if (player.inCS() || player.inMTS()) {
-                player.saveToDB(true, true);
+                CharacterSaveService.getInstance().saveNow(player, true);
                 player.setInCS(false);
                 player.setInMTS(false);
             } else {
-                player.saveToDB(true, false);
+                CharacterSaveService.getInstance().saveNow(player, false);
             }
             ChannelServer.getInstance(c.getChannel()).removePlayer(player);
             c.updateLoginState(MapleClient.LOGIN_SERVER_TRANSITION);
@@ -4,6 +4,7 @@ import net.sf.odinms.client.MapleBuffStat;
 import net.sf.odinms.client.MapleCharacter;
 import net.sf.odinms.client.MapleClient;
 import net.sf.odinms.net.AbstractMaplePacketHandler;
+import net.sf.odinms.net.channel.CharacterSaveService;
 import net.sf.odinms.net.world.remote.WorldChannelInterface;
 import net.sf.odinms.server.maps.FakeCharacter;
 import net.sf.odinms.server.maps.SavedLocationType;
@@ -63,7 +64,7 @@ public class EnterCashShopHandler extends AbstractMaplePacketHandler {
             c.getSession().write(MaplePacketCreator.enableCSUse3());
             c.getSession().write(MaplePacketCreator.showNXMapleTokens(player));
             c.getSession().write(MaplePacketCreator.sendWishList(player.getId(), false));
-            player.saveToDB(true, true);
+            CharacterSaveService.getInstance().saveNow(player, true);
         }
     }
 }
@@ -10,7 +10,7 @@ import net.sf.odinms.server.life.MobSkillFactory;
 import net.sf.odinms.server.maps.MapleMap;
 import net.sf.odinms.server.maps.MapleMapObject;
 import net.sf.odinms.server.maps.MapleMapObjectType;
-import net.sf.odinms.server.movement.LifeMovementFragment;
+import net.sf.odinms.server.movement.RawMovement;
 import net.sf.odinms.tools.MaplePacketCreator;
 import net.sf.odinms.tools.Pair;
 import net.sf.odinms.tools.data.input.SeekableLittleEndianAccessor;
@@ -19,7 +19,6 @@ import org.slf4j.LoggerFactory;
 
 import java.awt.*;
 import java.rmi.RemoteException;
-import java.util.List;
 import java.util.Random;
 
 public class MoveLifeHandler extends AbstractMovementPacketHandler {
@@ -41,7 +40,7 @@ public class MoveLifeHandler extends AbstractMovementPacketHandler {
             return;
         }
         MapleMonster monster = (MapleMonster) mmo;
-        List<LifeMovementFragment> res;
+        RawMovement res;
         int skillByte = slea.readByte();
         int skill = slea.readByte();
         int skill_1 = slea.readByte() & 0xFF;
@@ -71,7 +70,7 @@ public class MoveLifeHandler extends AbstractMovementPacketHandler {
         int start_x = slea.readShort();
         int start_y = slea.readShort();
         Point startPos = new Point(start_x, start_y);
-        res = parseMovement(slea);
+        res = scanMovement(slea);
         if (monster.getController() != c.getPlayer()) {
             if (monster.isAttackedBy(c.getPlayer())) { // Aggro and controller change.
                 monster.switchController(c.getPlayer(), true);
@@ -122,7 +121,16 @@ public class MoveLifeHandler extends AbstractMovementPacketHandler {
                 }
                 return;
             }
-            MaplePacket packet = MaplePacketCreator.moveMonster(skillByte, skill, skill_1, skill_2, skill_3, objectid, startPos, res);
+            MaplePacket packet = MaplePacketCreator.moveMonster(
+                skillByte,
+                skill,
+                skill_1,
+                skill_2,
+                skill_3,
+                objectid,
+                startPos,
+                res.getBytes()
+            );
             map.broadcastMessage(c.getPlayer(), packet, monster.getPosition());
             updatePosition(res, monster, -1);
             map.moveMonster(monster, monster.getPosition());
@@ -8,7 +8,10 @@ import net.sf.odinms.server.TimerManager;
 import net.sf.odinms.server.maps.FakeCharacter;
 import net.sf.odinms.server.movement.AbsoluteLifeMovement;
 import net.sf.odinms.server.movement.LifeMovementFragment;
+import net.sf.odinms.server.movement.RawMovement;
 import net.sf.odinms.tools.MaplePacketCreator;
+import net.sf.odinms.tools.data.input.ByteArrayByteStream;
+import net.sf.odinms.tools.data.input.GenericLittleEndianAccessor;
 import net.sf.odinms.tools.data.input.SeekableLittleEndianAccessor;
 
 import java.util.List;
@@ -27,12 +30,13 @@ public class MovePlayerHandler extends AbstractMovementPacketHandler {
             return;
         }
         //log.trace("Movement command received: unk1 {} unk2 {}", new Object[] { unk1, unk2 });
-        final List<LifeMovementFragment> res = parseMovement(slea);
-        if (res == null) return;
+        // The path is relayed as it was sent; it is only parsed into fragments when the anti-cheat needs them.
+        final RawMovement movement = scanMovement(slea);
+        if (movement == null) return;
         if (slea.available() != 18) {
             return;
         }
-        MaplePacket packet = MaplePacketCreator.movePlayer(player.getId(), res);
+        MaplePacket packet = MaplePacketCreator.movePlayer(player.getId(), movement.getBytes());
         if (!player.isHidden()) {
             player.getMap().broadcastMessage(player, packet, false);
         } else {
@@ -40,9 +44,13 @@ public class MovePlayerHandler extends AbstractMovementPacketHandler {
         }
         //c.getSession().write(MaplePacketCreator.movePlayer(30000, res));
         if (CheatingOffense.FAST_MOVE.isEnabled() || CheatingOffense.HIGH_JUMP.isEnabled()) {
-            checkMovementSpeed(player, res);
+            List<LifeMovementFragment> res =
+                parseMovement(new GenericLittleEndianAccessor(new ByteArrayByteStream(movement.getBytes())));
+            if (res != null) {
+                checkMovementSpeed(player, res);
+            }
         }
-        updatePosition(res, player, 0);
+        updatePosition(movement, player, 0);
         player.getMap().movePlayer(player, player.getPosition());
 
         if (player.hasFakeChar()) {
@@ -56,11 +64,11 @@ public class MovePlayerHandler extends AbstractMovementPacketHandler {
                               ch.getFakeChar(),
                               MaplePacketCreator.movePlayer(
                                   ch.getFakeChar().getId(),
-                                  res
+                                  movement.getBytes()
                               ),
                               false
                           );
-                        updatePosition(res, ch.getFakeChar(), 0);
+                        updatePosition(movement, ch.getFakeChar(), 0);
                         ch.getFakeChar().getMap().movePlayer(ch.getFakeChar(), ch.getFakeChar().getPosition());
                     }, i * 300);
                     i++;
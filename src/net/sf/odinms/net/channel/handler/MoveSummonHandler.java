@@ -31,6 +31,7 @@ MoveSummonHandler extends AbstractMovementPacketHandler {
         }
         if (summon != null) {
             updatePosition(res, summon, 0);
+            player.getMap().updateMapObjectPosition(summon);
             // player = ((MapleCharacter) c.getPlayer().getMap().getMapObject(30000));
             player.getMap().broadcastMessage(player, MaplePacketCreator.moveSummon(player.getId(), oid, startPos, res), summon.getPosition());
         } else {
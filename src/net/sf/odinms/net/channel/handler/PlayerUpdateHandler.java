@@ -2,11 +2,12 @@ package net.sf.odinms.net.channel.handler;
 
 import net.sf.odinms.client.MapleClient;
 import net.sf.odinms.net.AbstractMaplePacketHandler;
+import net.sf.odinms.net.channel.CharacterSaveService;
 import net.sf.odinms.tools.data.input.SeekableLittleEndianAccessor;
 
 public class PlayerUpdateHandler extends AbstractMaplePacketHandler {
     @Override
     public void handlePacket(SeekableLittleEndianAccessor slea, MapleClient c) {
-        c.getPlayer().saveToDB(true, false);
+        CharacterSaveService.getInstance().queueSave(c.getPlayer());
     }
 }
@@ -25,9 +25,6 @@ import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -94,23 +91,20 @@ public class LoginServer implements Runnable, LoginServerMBean {
         return channelServer.get(channel);
     }
 
+    /**
+     * Gets the number of users that may still log in before the world is
+     * full, counted by the world server rather than in the database.
+     */
     @Override
     public int getPossibleLogins() {
         int ret = 0;
         try {
-            Connection con = DatabaseConnection.getConnection();
-            PreparedStatement limitCheck = con.prepareStatement("SELECT COUNT(*) FROM accounts WHERE loggedin > 1 AND gm = 0");
-            ResultSet rs = limitCheck.executeQuery();
-            if (rs.next()) {
-                int usersOn = rs.getInt(1);
-                if (usersOn < userLimit) {
-                    ret = userLimit - usersOn;
-                }
+            int usersOn = getWorldInterface().getOnlineUsers();
+            if (usersOn < userLimit) {
+                ret = userLimit - usersOn;
             }
-            rs.close();
-            limitCheck.close();
-        } catch (Exception ex) {
-            System.err.println("loginlimit error: " + ex);
+        } catch (RemoteException re) {
+            reconnectWorld();
         }
         return ret;
     }
@@ -233,7 +227,10 @@ public class LoginServer implements Runnable, LoginServerMBean {
         loginInterval = Integer.parseInt(prop.getProperty("net.sf.odinms.login.interval"));
         tMan.register(LoginWorker.getInstance(), loginInterval);
         long rankingInterval = Long.parseLong(prop.getProperty("net.sf.odinms.login.ranking.interval"));
-        tMan.register(new RankingWorker(), rankingInterval);
+        RankingWorker.getInstance().setRebuildEvery(
+            Integer.parseInt(prop.getProperty("net.sf.odinms.login.ranking.rebuildEvery", "24"))
+        );
+        tMan.register(RankingWorker.getInstance(), rankingInterval);
         try {
             acceptor
                 .bind(
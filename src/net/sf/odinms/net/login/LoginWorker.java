@@ -10,11 +10,18 @@ import java.rmi.RemoteException;
 import java.util.*;
 import java.util.Map.Entry;
 
+/**
+ * The login queue. Clients are let in as soon as the world has room for
+ * them: when they join the queue, and whenever the world server reports that
+ * a user went offline. The periodic run only updates the channel load, and
+ * lets clients in in case a notification got lost.
+ */
 public class LoginWorker implements Runnable {
     private static final LoginWorker instance = new LoginWorker();
     private final Deque<MapleClient> waiting;
     private final Set<String> waitingNames;
     private final List<Integer> possibleLoginHistory = new LinkedList<>();
+    private final Object admitLock = new Object();
     public static Logger log = LoggerFactory.getLogger(LoginWorker.class);
 
     private LoginWorker() {
@@ -34,6 +41,7 @@ public class LoginWorker implements Runnable {
                 c.updateLoginState(MapleClient.LOGIN_WAITING);
             }
         }
+        admit();
     }
 
     public void registerGMClient(MapleClient c) {
@@ -44,40 +52,66 @@ public class LoginWorker implements Runnable {
                 c.updateLoginState(MapleClient.LOGIN_WAITING);
             }
         }
+        admit();
     }
 
     public void deregisterClient(MapleClient c) {
+        boolean wasWaiting;
         synchronized (waiting) {
-            waiting.remove(c);
+            wasWaiting = waiting.remove(c);
             if (c.getAccountName() != null) {
                 waitingNames.remove(c.getAccountName().toLowerCase());
             }
         }
+        if (wasWaiting) {
+            // Left the queue before getting in, so the account is free again.
+            c.updateLoginState(MapleClient.LOGIN_NOTLOGGEDIN);
+        }
     }
 
-    public void run() {
-        try {
-            int possibleLogins = LoginServer.getInstance().getPossibleLogins();
-            LoginServer.getInstance().getWorldInterface().isAvailable();
-
-            if (possibleLoginHistory.size() >= (5 * 60 * 1000) / LoginServer.getInstance().getLoginInterval()) {
-                possibleLoginHistory.remove(0);
-            }
-            possibleLoginHistory.add(possibleLogins);
+    /**
+     * Called when the world server reports that a user slot has freed up.
+     * The queue is worked through on the timer, not on the caller's (RMI)
+     * thread.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public void capacityFreed() {
+        TimerManager.getInstance().schedule(this::admit, 0);
+    }
 
-            //log.info("Possible logins: " + possibleLogins + " (Waiting: " + waiting.size() + ")");
-            if (possibleLogins == 0 && waiting.peek().isGm()) { // Server is full but front of a queue is a GM.
-                possibleLogins = 1;
-            }
-            for (int i = 0; i < possibleLogins; ++i) {
+    /**
+     * Lets in as many clients from the front of the queue as the world has
+     * room for. GMs don't take up room.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    private void admit() {
+        synchronized (admitLock) {
+            int possibleLogins = -1;
+            while (true) {
                 final MapleClient client;
                 synchronized (waiting) {
-                    if (waiting.isEmpty()) {
+                    client = waiting.peek();
+                    if (client == null) {
                         break;
                     }
-                    client = waiting.removeFirst();
+                    if (!client.isGm()) {
+                        if (possibleLogins < 0) {
+                            possibleLogins = LoginServer.getInstance().getPossibleLogins();
+                        }
+                        if (possibleLogins == 0) {
+                            break;
+                        }
+                        possibleLogins--;
+                    }
+                    waiting.removeFirst();
+                    waitingNames.remove(client.getAccountName().toLowerCase());
                 }
-                waitingNames.remove(client.getAccountName().toLowerCase());
                 if (client.finishLogin(true) == 0) {
                     if (!client.isGuest()) {
                         client.getSession().write(MaplePacketCreator.getAuthSuccessRequestPin(client.getAccountName()));
@@ -87,6 +121,21 @@ public class LoginWorker implements Runnable {
                     client.getSession().write(MaplePacketCreator.getLoginFailed(7));
                 }
             }
+        }
+    }
+
+    public void run() {
+        try {
+            int possibleLogins = LoginServer.getInstance().getPossibleLogins();
+            LoginServer.getInstance().getWorldInterface().isAvailable();
+
+            if (possibleLoginHistory.size() >= (5 * 60 * 1000) / LoginServer.getInstance().getLoginInterval()) {
+                possibleLoginHistory.remove(0);
+            }
+            possibleLoginHistory.add(possibleLogins);
+
+            //log.info("Possible logins: " + possibleLogins + " (Waiting: " + waiting.size() + ")");
+            admit();
 
             Map<Integer, Integer> load = LoginServer.getInstance().getWorldInterface().getChannelLoad();
             double loadFactor = 1200 / ((double) LoginServer.getInstance().getUserLimit() / load.size());
@@ -37,4 +37,8 @@ public class LoginWorldInterfaceImpl extends UnicastRemoteObject implements Logi
     public int getWaitingUsers() throws RemoteException {
         return LoginWorker.getInstance().getWaitingUsers();
     }
+
+    public void loginCapacityFreed() throws RemoteException {
+        LoginWorker.getInstance().capacityFreed();
+    }
 }
\ No newline at end of file
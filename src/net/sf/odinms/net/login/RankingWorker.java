@@ -2,80 +2,465 @@ package net.sf.odinms.net.login;
 
 import net.sf.odinms.client.MapleJob;
 import net.sf.odinms.database.DatabaseConnection;
+import net.sf.odinms.net.world.remote.RankingEntry;
+import net.sf.odinms.tools.OrderStatisticTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.rmi.RemoteException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+/**
+ * Keeps the overall and per-job-branch rankings of all (non-GM) characters
+ * in memory, ordered by reborns, level, exp, fame and meso.
+ *
+ * The rankings are loaded from the database once. After that, each run only
+ * applies the characters whose ranking keys changed since the last run (as
+ * reported by the channel servers through the world server, or deleted on
+ * this server), and only writes the ranks that actually moved, in batches.
+ * So a run costs time in proportion to how much changed, rather than to how
+ * many characters there are.
+ *
+ * Every <code>rebuildEvery</code> runs the rankings are loaded again from
+ * scratch, which also picks up characters that were created since.
+ */
 public class RankingWorker implements Runnable {
-    private Connection con;
-    private long lastUpdate = System.currentTimeMillis();
     private static final Logger log = LoggerFactory.getLogger(RankingWorker.class);
+    private static final RankingWorker instance = new RankingWorker();
+    private static final MapleJob[] BRANCHES = {
+        MapleJob.BEGINNER,
+        MapleJob.WARRIOR,
+        MapleJob.MAGICIAN,
+        MapleJob.BOWMAN,
+        MapleJob.THIEF,
+        MapleJob.PIRATE
+    };
+    private static final int IN_CLAUSE_SIZE = 500;
+    /** Highest first; ties are broken by ID so that the order is total. */
+    private static final Comparator<Ranked> ORDER =
+        Comparator.comparingInt((Ranked r) -> -r.entry.reborns)
+                  .thenComparingInt(r -> -r.entry.level)
+                  .thenComparingInt(r -> -r.entry.exp)
+                  .thenComparingInt(r -> -r.entry.fame)
+                  .thenComparingInt(r -> -r.entry.meso)
+                  .thenComparingInt(r -> r.entry.characterId);
+    private final Map<Integer, Ranked> characters = new HashMap<>();
+    private final OrderStatisticTree<Ranked> overall = new OrderStatisticTree<>(ORDER);
+    private final Map<Integer, OrderStatisticTree<Ranked>> branches = new HashMap<>();
+    private final Queue<Integer> deleted = new ConcurrentLinkedQueue<>();
+    private long lastUpdate = System.currentTimeMillis();
+    private boolean loaded = false;
+    private int rebuildEvery = 0;
+    private int runsSinceRebuild = 0;
+
+    /**
+     * A character, with the ranks that are in the database for it.
+     */
+    private static class Ranked {
+        private RankingEntry entry;
+        private int rank, rankMove, jobRank, jobRankMove;
+        private boolean overallDirty, jobDirty;
+
+        Ranked(RankingEntry entry) {
+            this.entry = entry;
+        }
+
+        int getBranch() {
+            return entry.job / 100;
+        }
+    }
+
+    private RankingWorker() {
+        for (MapleJob branch : BRANCHES) {
+            branches.put(branch.getId() / 100, new OrderStatisticTree<>(ORDER));
+        }
+    }
 
-    public void run() {
+    public static RankingWorker getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param rebuildEvery After how many runs to load the rankings from the database again; 0 for never.
+     */
+    public void setRebuildEvery(int rebuildEvery) {
+        this.rebuildEvery = rebuildEvery;
+    }
+
+    /**
+     * Takes a deleted character out of the rankings on the next run.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public void characterDeleted(int characterId) {
+        deleted.add(characterId);
+    }
+
+    @Override
+    public synchronized void run() {
         try {
-            con = DatabaseConnection.getConnection();
-            con.setAutoCommit(false);
-            updateRanking(null);
-            updateRanking(MapleJob.BEGINNER);
-            updateRanking(MapleJob.WARRIOR);
-            updateRanking(MapleJob.MAGICIAN);
-            updateRanking(MapleJob.BOWMAN);
-            updateRanking(MapleJob.THIEF);
-            updateRanking(MapleJob.PIRATE);
-            con.commit();
-            con.setAutoCommit(true);
+            resetMoves();
+            if (!loaded || (rebuildEvery > 0 && runsSinceRebuild >= rebuildEvery)) {
+                rebuild();
+            } else {
+                applyChanges();
+            }
+            runsSinceRebuild++;
             lastUpdate = System.currentTimeMillis();
         } catch (SQLException sqle) {
-            try {
-                con.rollback();
-                con.setAutoCommit(true);
-                log.warn("Could not update rankings", sqle);
-            } catch (SQLException sqle2) {
-                log.error("Could not rollback unfinished ranking transaction", sqle2);
+            loaded = false; // The database may be behind the rankings now; start over next time.
+            log.warn("Could not update rankings", sqle);
+        } catch (RemoteException re) {
+            LoginServer.getInstance().reconnectWorld();
+        }
+    }
+
+    /**
+     * Zeroes the rank moves of the characters whose accounts logged in and
+     * out again since the last run, whether or not their ranks change now:
+     * a rank move is how far a character moved since its last login.
+     */
+    private void resetMoves() throws SQLException {
+        try (Connection con = DatabaseConnection.borrowConnection()) {
+            List<Integer> ids = new ArrayList<>();
+            try (PreparedStatement ps =
+                     con.prepareStatement(
+                         "SELECT c.id FROM characters AS c INNER JOIN accounts AS a ON c.accountid = a.id " +
+                             "WHERE a.loggedin = 0 AND a.lastlogin >= ? AND (c.rankMove <> 0 OR c.jobRankMove <> 0)"
+                     )) {
+                ps.setTimestamp(1, new Timestamp(lastUpdate));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getInt("id"));
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                return;
+            }
+            try (PreparedStatement ps = con.prepareStatement(
+                "UPDATE characters SET rankMove = 0, jobRankMove = 0 WHERE id = ?"
+            )) {
+                for (int id : ids) {
+                    ps.setInt(1, id);
+                    ps.addBatch();
+                    Ranked ranked = characters.get(id);
+                    if (ranked != null) {
+                        ranked.rankMove = 0;
+                        ranked.jobRankMove = 0;
+                    }
+                }
+                ps.executeBatch();
             }
         }
     }
 
-    private void updateRanking(MapleJob job) throws SQLException {
-        String sqlCharSelect =
-            "SELECT c.id, " +
-                (job != null ? "c.jobRank, c.jobRankMove" : "c.rank, c.rankMove") +
-                ", a.lastlogin AS lastlogin, a.loggedin FROM " +
-                "characters AS c LEFT JOIN accounts AS a ON c.accountid = a.id WHERE c.gm = 0 ";
-        if (job != null) {
-            sqlCharSelect += "AND c.job DIV 100 = ? ";
-        }
-        sqlCharSelect += "ORDER BY c.reborns DESC , c.level DESC , c.exp DESC , c.fame DESC , c.meso DESC";
-        PreparedStatement charSelect = con.prepareStatement(sqlCharSelect);
-        if (job != null) {
-            charSelect.setInt(1, job.getId() / 100);
-        }
-        ResultSet rs = charSelect.executeQuery();
-        PreparedStatement ps =
-            con.prepareStatement(
-                "UPDATE characters SET " +
-                    (job != null ? "jobRank = ?, jobRankMove = ? " : "rank = ?, rankMove = ? ") +
-                    "WHERE id = ?"
-            );
-        int rank = 0;
-        while (rs.next()) {
-            int rankMove = 0;
-            rank++;
-            if (rs.getLong("lastlogin") < lastUpdate || rs.getInt("loggedin") > 0) {
-                rankMove = rs.getInt((job != null ? "jobRankMove" : "rankMove"));
+    private static long lastLogin(ResultSet rs) throws SQLException {
+        Timestamp lastLogin = rs.getTimestamp("lastlogin");
+        return lastLogin == null ? 0L : lastLogin.getTime();
+    }
+
+    /**
+     * Loads all characters and ranks them from scratch.
+     */
+    private void rebuild() throws SQLException, RemoteException {
+        // Everything reported so far has been saved, so the database has it already.
+        LoginServer.getInstance().getWorldInterface().drainRankingChanges();
+        deleted.clear();
+        characters.clear();
+        overall.clear();
+        branches.values().forEach(OrderStatisticTree::clear);
+        Map<Integer, long[]> logins = new HashMap<>();
+        try (Connection con = DatabaseConnection.borrowConnection();
+             PreparedStatement ps =
+                 con.prepareStatement(
+                     "SELECT c.id, c.job, c.gm, c.reborns, c.level, c.exp, c.fame, c.meso, " +
+                         "c.rank, c.rankMove, c.jobRank, c.jobRankMove, " +
+                         "a.lastlogin AS lastlogin, a.loggedin FROM " +
+                         "characters AS c LEFT JOIN accounts AS a ON c.accountid = a.id WHERE c.gm = 0"
+                 );
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Ranked ranked =
+                    new Ranked(
+                        new RankingEntry(
+                            rs.getInt("id"),
+                            rs.getInt("job"),
+                            false,
+                            rs.getInt("reborns"),
+                            rs.getInt("level"),
+                            rs.getInt("exp"),
+                            rs.getInt("fame"),
+                            rs.getInt("meso")
+                        )
+                    );
+                ranked.rank = rs.getInt("rank");
+                ranked.rankMove = rs.getInt("rankMove");
+                ranked.jobRank = rs.getInt("jobRank");
+                ranked.jobRankMove = rs.getInt("jobRankMove");
+                ranked.overallDirty = true;
+                ranked.jobDirty = true;
+                characters.put(ranked.entry.characterId, ranked);
+                logins.put(ranked.entry.characterId, new long[] {lastLogin(rs), rs.getInt("loggedin")});
+                insert(ranked);
             }
-            rankMove += rs.getInt((job != null ? "jobRank" : "rank")) - rank;
-            ps.setInt(1, rank);
-            ps.setInt(2, rankMove);
-            ps.setInt(3, rs.getInt("id"));
-            ps.executeUpdate();
-        }
-        rs.close();
-        charSelect.close();
-        ps.close();
+        }
+        persist(new ArrayList<>(characters.values()), logins);
+        loaded = true;
+        runsSinceRebuild = 0;
+    }
+
+    /**
+     * Applies the changes since the last run, and writes the ranks that
+     * moved because of them.
+     */
+    private void applyChanges() throws SQLException, RemoteException {
+        Set<Ranked> dirty = new HashSet<>();
+        Integer characterId;
+        while ((characterId = deleted.poll()) != null) {
+            Ranked ranked = characters.remove(characterId);
+            if (ranked != null) {
+                remove(ranked, dirty);
+            }
+        }
+        for (RankingEntry entry : LoginServer.getInstance().getWorldInterface().drainRankingChanges()) {
+            Ranked ranked = characters.get(entry.characterId);
+            if (ranked == null) {
+                if (entry.gm) {
+                    continue;
+                }
+                // New since the last rebuild; what's in the database for it is read with its logins.
+                ranked = new Ranked(entry);
+                ranked.rank = Integer.MIN_VALUE;
+                ranked.jobRank = Integer.MIN_VALUE;
+                characters.put(entry.characterId, ranked);
+            } else if (sameKey(ranked.entry, entry)) {
+                continue;
+            } else if (entry.gm) {
+                characters.remove(entry.characterId);
+                remove(ranked, dirty);
+                continue;
+            } else if (entry.job / 100 == ranked.getBranch()) {
+                move(ranked, entry, dirty);
+                continue;
+            } else {
+                remove(ranked, dirty);
+                ranked.entry = entry;
+            }
+            insert(ranked, dirty);
+        }
+        if (dirty.isEmpty()) {
+            return;
+        }
+        List<Ranked> changed = new ArrayList<>();
+        for (Ranked ranked : dirty) {
+            if (ranked.overallDirty && ranked.rank != overall.indexOf(ranked) + 1 ||
+                ranked.jobDirty && ranked.jobRank != getJobRank(ranked)) {
+                changed.add(ranked);
+            } else {
+                ranked.overallDirty = false;
+                ranked.jobDirty = false;
+            }
+        }
+        if (!changed.isEmpty()) {
+            persist(changed, loadLogins(changed));
+        }
+    }
+
+    private static boolean sameKey(RankingEntry a, RankingEntry b) {
+        return a.job == b.job && a.gm == b.gm && a.reborns == b.reborns && a.level == b.level &&
+            a.exp == b.exp && a.fame == b.fame && a.meso == b.meso;
+    }
+
+    private int getJobRank(Ranked ranked) {
+        OrderStatisticTree<Ranked> branch = branches.get(ranked.getBranch());
+        return branch == null ? ranked.jobRank : branch.indexOf(ranked) + 1;
+    }
+
+    private void insert(Ranked ranked) {
+        overall.add(ranked);
+        OrderStatisticTree<Ranked> branch = branches.get(ranked.getBranch());
+        if (branch != null) {
+            branch.add(ranked);
+        }
+    }
+
+    /**
+     * Adds a character to the rankings, marking everyone whose rank that
+     * pushes down (and the character itself) as dirty.
+     */
+    private void insert(Ranked ranked, Set<Ranked> dirty) {
+        insert(ranked);
+        mark(overall, overall.indexOf(ranked), overall.size() - 1, dirty, false);
+        OrderStatisticTree<Ranked> branch = branches.get(ranked.getBranch());
+        if (branch != null) {
+            mark(branch, branch.indexOf(ranked), branch.size() - 1, dirty, true);
+        }
+    }
+
+    /**
+     * Takes a character out of the rankings, marking everyone whose rank
+     * that pulls up as dirty.
+     */
+    private void remove(Ranked ranked, Set<Ranked> dirty) {
+        int index = overall.indexOf(ranked);
+        overall.remove(ranked);
+        mark(overall, index, overall.size() - 1, dirty, false);
+        OrderStatisticTree<Ranked> branch = branches.get(ranked.getBranch());
+        if (branch != null) {
+            index = branch.indexOf(ranked);
+            branch.remove(ranked);
+            mark(branch, index, branch.size() - 1, dirty, true);
+        }
+    }
+
+    /**
+     * Moves a character within its rankings to where its new key puts it.
+     * Only the characters between its old and new place change rank.
+     */
+    private void move(Ranked ranked, RankingEntry entry, Set<Ranked> dirty) {
+        OrderStatisticTree<Ranked> branch = branches.get(ranked.getBranch());
+        int from = overall.indexOf(ranked);
+        int jobFrom = branch != null ? branch.indexOf(ranked) : -1;
+        overall.remove(ranked);
+        if (branch != null) {
+            branch.remove(ranked);
+        }
+        ranked.entry = entry;
+        insert(ranked);
+        int to = overall.indexOf(ranked);
+        mark(overall, Math.min(from, to), Math.max(from, to), dirty, false);
+        if (branch != null) {
+            int jobTo = branch.indexOf(ranked);
+            mark(branch, Math.min(jobFrom, jobTo), Math.max(jobFrom, jobTo), dirty, true);
+        }
+    }
+
+    /**
+     * Marks the characters from <code>from</code> to <code>to</code>
+     * (inclusive) in the given ranking as dirty.
+     */
+    private static void mark(OrderStatisticTree<Ranked> tree, int from, int to, Set<Ranked> dirty, boolean job) {
+        for (int i = Math.max(0, from); i <= to && i < tree.size(); ++i) {
+            Ranked ranked = tree.get(i);
+            if (job) {
+                ranked.jobDirty = true;
+            } else {
+                ranked.overallDirty = true;
+            }
+            dirty.add(ranked);
+        }
+    }
+
+    /**
+     * Gets the last login of the accounts of the given characters, which
+     * decides whether their rank moves keep adding up.
+     */
+    private Map<Integer, long[]> loadLogins(List<Ranked> rankeds) throws SQLException {
+        Map<Integer, long[]> ret = new HashMap<>();
+        try (Connection con = DatabaseConnection.borrowConnection()) {
+            for (int from = 0; from < rankeds.size(); from += IN_CLAUSE_SIZE) {
+                List<Ranked> chunk = rankeds.subList(from, Math.min(rankeds.size(), from + IN_CLAUSE_SIZE));
+                StringBuilder sql =
+                    new StringBuilder(
+                        "SELECT c.id, c.rank, c.rankMove, c.jobRank, c.jobRankMove, " +
+                            "a.lastlogin AS lastlogin, a.loggedin FROM " +
+                            "characters AS c LEFT JOIN accounts AS a ON c.accountid = a.id WHERE c.id IN ("
+                    );
+                for (int i = 0; i < chunk.size(); ++i) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                sql.append(")");
+                try (PreparedStatement ps = con.prepareStatement(sql.toString())) {
+                    for (int i = 0; i < chunk.size(); ++i) {
+                        ps.setInt(i + 1, chunk.get(i).entry.characterId);
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            int id = rs.getInt("id");
+                            Ranked ranked = characters.get(id);
+                            if (ranked != null && ranked.rank == Integer.MIN_VALUE) {
+                                ranked.rank = rs.getInt("rank");
+                                ranked.rankMove = rs.getInt("rankMove");
+                                ranked.jobRank = rs.getInt("jobRank");
+                                ranked.jobRankMove = rs.getInt("jobRankMove");
+                            }
+                            ret.put(id, new long[] {lastLogin(rs), rs.getInt("loggedin")});
+                        }
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the new ranks and rank moves of the dirty ones among the
+     * given characters whose ranks changed, in one transaction.
+     */
+    private void persist(List<Ranked> rankeds, Map<Integer, long[]> logins) throws SQLException {
+        // Anything left uncommitted is rolled back when the connection goes back to the pool.
+        try (Connection con = DatabaseConnection.borrowConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement overallPs = con.prepareStatement(
+                     "UPDATE characters SET rank = ?, rankMove = ? WHERE id = ?"
+                 );
+                 PreparedStatement jobPs = con.prepareStatement(
+                     "UPDATE characters SET jobRank = ?, jobRankMove = ? WHERE id = ?"
+                 )) {
+                int overallBatched = 0, jobBatched = 0;
+                for (Ranked ranked : rankeds) {
+                    long[] login = logins.get(ranked.entry.characterId);
+                    if (login == null) {
+                        // Deleted in the meantime.
+                        ranked.overallDirty = false;
+                        ranked.jobDirty = false;
+                        continue;
+                    }
+                    boolean keepMoves = login[0] < lastUpdate || login[1] > 0;
+                    if (ranked.overallDirty) {
+                        int rank = overall.indexOf(ranked) + 1;
+                        if (rank != ranked.rank) {
+                            ranked.rankMove = (keepMoves ? ranked.rankMove : 0) + ranked.rank - rank;
+                            ranked.rank = rank;
+                            overallPs.setInt(1, ranked.rank);
+                            overallPs.setInt(2, ranked.rankMove);
+                            overallPs.setInt(3, ranked.entry.characterId);
+                            overallPs.addBatch();
+                            overallBatched++;
+                        }
+                        ranked.overallDirty = false;
+                    }
+                    if (ranked.jobDirty) {
+                        int jobRank = getJobRank(ranked);
+                        if (jobRank != ranked.jobRank) {
+                            ranked.jobRankMove = (keepMoves ? ranked.jobRankMove : 0) + ranked.jobRank - jobRank;
+                            ranked.jobRank = jobRank;
+                            jobPs.setInt(1, ranked.jobRank);
+                            jobPs.setInt(2, ranked.jobRankMove);
+                            jobPs.setInt(3, ranked.entry.characterId);
+                            jobPs.addBatch();
+                            jobBatched++;
+                        }
+                        ranked.jobDirty = false;
+                    }
+                }
+                if (overallBatched > 0) {
+                    overallPs.executeBatch();
+                }
+                if (jobBatched > 0) {
+                    jobPs.executeBatch();
+                }
+            }
+            con.commit();
+        }
     }
 }
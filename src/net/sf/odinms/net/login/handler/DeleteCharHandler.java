@@ -2,6 +2,7 @@ package net.sf.odinms.net.login.handler;
 
 import net.sf.odinms.client.MapleClient;
 import net.sf.odinms.net.AbstractMaplePacketHandler;
+import net.sf.odinms.net.login.RankingWorker;
 import net.sf.odinms.tools.MaplePacketCreator;
 import net.sf.odinms.tools.data.input.SeekableLittleEndianAccessor;
 
@@ -22,7 +23,9 @@ public class DeleteCharHandler extends AbstractMaplePacketHandler {
         int state = 0x12;
         if (shallDelete) {
             state = 0;
-            if (!c.deleteCharacter(cid)) {
+            if (c.deleteCharacter(cid)) {
+                RankingWorker.getInstance().characterDeleted(cid);
+            } else {
                 state = 1;
             }
         }
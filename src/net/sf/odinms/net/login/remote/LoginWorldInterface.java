@@ -10,4 +10,5 @@ public interface LoginWorldInterface extends Remote {
     boolean isAvailable() throws RemoteException;
     double getPossibleLoginAverage() throws RemoteException;
     int getWaitingUsers() throws RemoteException;
+    void loginCapacityFreed() throws RemoteException;
 }
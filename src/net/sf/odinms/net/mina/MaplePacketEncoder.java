@@ -1,7 +1,10 @@
 package net.sf.odinms.net.mina;
 
 import net.sf.odinms.client.MapleClient;
+import net.sf.odinms.net.ByteArrayMaplePacket;
 import net.sf.odinms.net.MaplePacket;
+import net.sf.odinms.net.PacketMetrics;
+import net.sf.odinms.tools.MapleAESOFB;
 import net.sf.odinms.tools.MapleCustomEncryption;
 import org.apache.mina.common.ByteBuffer;
 import org.apache.mina.common.IoSession;
@@ -16,22 +19,38 @@ public class MaplePacketEncoder implements ProtocolEncoder {
         MapleClient client = (MapleClient) session.getAttribute(MapleClient.CLIENT_KEY);
 
         if (client != null) {
+            PacketMetrics metrics = PacketMetrics.getInstance();
+            boolean timed = metrics.isEnabled();
+            long start = timed ? System.nanoTime() : 0L;
+            // The packet's bytes may be shared by a broadcast, so they are copied once, behind room for the header,
+            // and encrypted in place there. The custom encryption does not depend on the session, so broadcast
+            // packets do it once for all recipients.
             byte[] input = ((MaplePacket) message).getBytes();
-            byte[] unencrypted = new byte[input.length];
-            System.arraycopy(input, 0, unencrypted, 0, input.length);
-
-            byte[] ret = new byte[unencrypted.length + 4];
-
-            byte[] header = client.getSendCrypto().getPacketHeader(unencrypted.length);
-            synchronized(client.getSendCrypto()){
-                MapleCustomEncryption.encryptData(unencrypted);
-                client.getSendCrypto().crypt(unencrypted);
+            byte[] customEncrypted = null;
+            if (message instanceof ByteArrayMaplePacket) {
+                customEncrypted = ((ByteArrayMaplePacket) message).getCustomEncrypted();
+            }
+            byte[] ret = new byte[input.length + 4];
+            if (customEncrypted != null) {
+                System.arraycopy(customEncrypted, 0, ret, 4, input.length);
+            } else {
+                System.arraycopy(input, 0, ret, 4, input.length);
+                MapleCustomEncryption.encryptData(ret, 4, input.length);
+            }
 
-                System.arraycopy(header, 0, ret, 0, 4);
-                System.arraycopy(unencrypted, 0, ret, 4, unencrypted.length);
+            MapleAESOFB sendCrypto = client.getSendCrypto();
+            synchronized (sendCrypto) {
+                sendCrypto.writePacketHeader(input.length, ret, 0);
+                sendCrypto.crypt(ret, 4, input.length);
 
-                ByteBuffer out_buffer = ByteBuffer.wrap(ret);
-                out.write(out_buffer);
+                out.write(ByteBuffer.wrap(ret));
+            }
+            if (timed && input.length >= 2) {
+                metrics.recordSent(
+                    (input[0] & 0xFF) | ((input[1] & 0xFF) << 8),
+                    input.length,
+                    System.nanoTime() - start
+                );
             }
         } else { // no client object created yet, send unencrypted (hello)
                 out.write(ByteBuffer.wrap(((MaplePacket) message).getBytes()));
@@ -41,4 +60,4 @@ public class MaplePacketEncoder implements ProtocolEncoder {
     @Override
     public void dispose(IoSession session) throws Exception {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,194 @@
+package net.sf.odinms.net.world;
+
+import net.sf.odinms.client.MapleClient;
+import net.sf.odinms.net.login.remote.LoginWorldInterface;
+import net.sf.odinms.net.world.remote.AccountLoginState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The login states of all accounts that are logged in to (or waiting to
+ * log in to, or moving between servers of) this world, as reported by the
+ * login and channel servers.
+ *
+ * This is what the login queue counts online users with, so that it
+ * doesn't have to count them in the database. The <code>loggedin</code>
+ * column of <code>accounts</code> is still written, but only read for
+ * accounts that this registry doesn't know about (e.g. after the world
+ * server restarted).
+ *
+ * Whenever a (non-GM) user goes offline, the login servers are told, so
+ * that they can let the next user in the queue log in right away.
+ */
+public class AccountSessionRegistry {
+    private static final Logger log = LoggerFactory.getLogger(AccountSessionRegistry.class);
+    /** How long an account may take to move to a channel server before it counts as logged off. */
+    private static final long TRANSITION_TIMEOUT = 30000L;
+    private final ConcurrentMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger onlineUsers = new AtomicInteger();
+    private final AtomicInteger transitions = new AtomicInteger();
+    private final AtomicBoolean notifyPending = new AtomicBoolean(false);
+    private final ExecutorService notifier = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "AccountSessionNotifier");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static class Session {
+        private final int state;
+        private final boolean gm;
+        private final int channel;
+        private final long since = System.currentTimeMillis();
+
+        Session(int state, boolean gm, int channel) {
+            this.state = state;
+            this.gm = gm;
+            this.channel = channel;
+        }
+
+        /**
+         * Whether the session takes up one of the world's user slots: GMs
+         * never do, and users waiting in the login queue don't yet.
+         */
+        boolean isCounted() {
+            return !gm && (state == MapleClient.LOGIN_LOGGEDIN || state == MapleClient.LOGIN_SERVER_TRANSITION);
+        }
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return The login state of the account, or <code>null</code> if no server has reported one.
+     */
+    public AccountLoginState getLoginState(int accountId) {
+        Session session = sessions.get(accountId);
+        if (session == null) {
+            return null;
+        }
+        return new AccountLoginState(
+            session.state,
+            session.gm,
+            session.channel,
+            System.currentTimeMillis() - session.since
+        );
+    }
+
+    /**
+     * Records the new login state of an account.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param accountId The account.
+     * @param gm Whether the account is a GM account; once an account is
+     *           known to be one, it stays one until it logs off.
+     * @param state The new state, one of the <code>MapleClient.LOGIN_*</code> constants.
+     * @param channel The channel that the account is on, or -1 for the login server.
+     */
+    public void setLoginState(int accountId, boolean gm, int state, int channel) {
+        final Session[] old = new Session[1];
+        Session now = sessions.compute(accountId, (id, current) -> {
+            old[0] = current;
+            if (state == MapleClient.LOGIN_NOTLOGGEDIN) {
+                return null;
+            }
+            return new Session(state, gm || (current != null && current.gm), channel);
+        });
+        updateCounts(old[0], now);
+    }
+
+    private void updateCounts(Session old, Session now) {
+        boolean wasCounted = old != null && old.isCounted();
+        boolean isCounted = now != null && now.isCounted();
+        if (old != null && old.state == MapleClient.LOGIN_SERVER_TRANSITION) {
+            transitions.decrementAndGet();
+        }
+        if (now != null && now.state == MapleClient.LOGIN_SERVER_TRANSITION) {
+            transitions.incrementAndGet();
+        }
+        if (wasCounted && !isCounted) {
+            onlineUsers.decrementAndGet();
+            notifyCapacityFreed();
+        } else if (!wasCounted && isCounted) {
+            onlineUsers.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the number of non-GM users that are logged in (or moving between
+     * servers), which is what the world's user limit applies to.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public int getOnlineUsers() {
+        if (transitions.get() > 0) {
+            expireTransitions();
+        }
+        return onlineUsers.get();
+    }
+
+    /**
+     * Forgets the accounts that were on a channel (or login server, for -1)
+     * which went away, e.g. because it was restarted.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public void clearChannel(int channel) {
+        for (Iterator<Map.Entry<Integer, Session>> it = sessions.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Session> entry = it.next();
+            if (entry.getValue().channel == channel && sessions.remove(entry.getKey(), entry.getValue())) {
+                updateCounts(entry.getValue(), null);
+            }
+        }
+    }
+
+    private void expireTransitions() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Integer, Session> entry : sessions.entrySet()) {
+            Session session = entry.getValue();
+            if (session.state == MapleClient.LOGIN_SERVER_TRANSITION && session.since + TRANSITION_TIMEOUT < now) {
+                if (sessions.remove(entry.getKey(), session)) {
+                    updateCounts(session, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells the login servers that a user slot has freed up. Calls made
+     * while a notification is still waiting to go out are folded into it.
+     */
+    private void notifyCapacityFreed() {
+        if (!notifyPending.compareAndSet(false, true)) {
+            return;
+        }
+        notifier.execute(() -> {
+            notifyPending.set(false);
+            for (LoginWorldInterface lwi : WorldRegistryImpl.getInstance().getLoginServer()) {
+                try {
+                    lwi.loginCapacityFreed();
+                } catch (RemoteException re) {
+                    log.warn("Could not notify login server of freed capacity", re);
+                }
+            }
+        });
+    }
+}
@@ -1,5 +1,6 @@
 package net.sf.odinms.net.world;
 
+import net.sf.odinms.client.MapleClient;
 import net.sf.odinms.database.DatabaseConnection;
 import net.sf.odinms.net.MaplePacket;
 import net.sf.odinms.net.channel.remote.ChannelWorldInterface;
@@ -7,7 +8,9 @@ import net.sf.odinms.net.login.remote.LoginWorldInterface;
 import net.sf.odinms.net.world.guild.MapleAlliance;
 import net.sf.odinms.net.world.guild.MapleGuild;
 import net.sf.odinms.net.world.guild.MapleGuildCharacter;
+import net.sf.odinms.net.world.remote.AccountLoginState;
 import net.sf.odinms.net.world.remote.CheaterData;
+import net.sf.odinms.net.world.remote.RankingEntry;
 import net.sf.odinms.net.world.remote.WorldChannelInterface;
 import net.sf.odinms.net.world.remote.WorldLocation;
 import net.sf.odinms.server.DeathBot;
@@ -297,6 +300,29 @@ public class WorldChannelInterfaceImpl extends UnicastRemoteObject implements Wo
         return true;
     }
 
+    @Override
+    public AccountLoginState getLoginState(int accountId) throws RemoteException {
+        return WorldRegistryImpl.getInstance().getAccountSessions().getLoginState(accountId);
+    }
+
+    @Override
+    public void setLoginState(int accountId, boolean gm, int state, int channel) throws RemoteException {
+        WorldRegistryImpl.getInstance().getAccountSessions().setLoginState(accountId, gm, state, channel);
+    }
+
+    @Override
+    public void setLoginStates(int channel, Map<Integer, Boolean> gmByAccountId) throws RemoteException {
+        AccountSessionRegistry accountSessions = WorldRegistryImpl.getInstance().getAccountSessions();
+        gmByAccountId.forEach((accountId, gm) ->
+            accountSessions.setLoginState(accountId, gm, MapleClient.LOGIN_LOGGEDIN, channel)
+        );
+    }
+
+    @Override
+    public void reportRankingChanges(List<RankingEntry> entries) throws RemoteException {
+        WorldRegistryImpl.getInstance().addRankingChanges(entries);
+    }
+
     @Override
     public WorldLocation getLocation(String charName) throws RemoteException {
         for (int i : WorldRegistryImpl.getInstance().getChannelServer()) {
@@ -2,6 +2,8 @@ package net.sf.odinms.net.world;
 
 import net.sf.odinms.net.channel.remote.ChannelWorldInterface;
 import net.sf.odinms.net.world.guild.MapleGuildCharacter;
+import net.sf.odinms.net.world.remote.AccountLoginState;
+import net.sf.odinms.net.world.remote.RankingEntry;
 import net.sf.odinms.net.world.remote.WorldLoginInterface;
 
 import javax.rmi.ssl.SslRMIClientSocketFactory;
@@ -9,6 +11,7 @@ import javax.rmi.ssl.SslRMIServerSocketFactory;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -34,6 +37,26 @@ public class WorldLoginInterfaceImpl extends UnicastRemoteObject implements Worl
         return true;
     }
 
+    @Override
+    public AccountLoginState getLoginState(int accountId) throws RemoteException {
+        return WorldRegistryImpl.getInstance().getAccountSessions().getLoginState(accountId);
+    }
+
+    @Override
+    public void setLoginState(int accountId, boolean gm, int state, int channel) throws RemoteException {
+        WorldRegistryImpl.getInstance().getAccountSessions().setLoginState(accountId, gm, state, channel);
+    }
+
+    @Override
+    public int getOnlineUsers() throws RemoteException {
+        return WorldRegistryImpl.getInstance().getAccountSessions().getOnlineUsers();
+    }
+
+    @Override
+    public List<RankingEntry> drainRankingChanges() throws RemoteException {
+        return WorldRegistryImpl.getInstance().drainRankingChanges();
+    }
+
     @Override
     public Map<Integer, Integer> getChannelLoad() throws RemoteException {
         Map<Integer, Integer> ret = new LinkedHashMap<>();
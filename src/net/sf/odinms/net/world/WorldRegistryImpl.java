@@ -7,6 +7,7 @@ import net.sf.odinms.net.login.remote.LoginWorldInterface;
 import net.sf.odinms.net.world.guild.MapleAlliance;
 import net.sf.odinms.net.world.guild.MapleGuild;
 import net.sf.odinms.net.world.guild.MapleGuildCharacter;
+import net.sf.odinms.net.world.remote.RankingEntry;
 import net.sf.odinms.net.world.remote.WorldChannelInterface;
 import net.sf.odinms.net.world.remote.WorldLoginInterface;
 import net.sf.odinms.net.world.remote.WorldRegistry;
@@ -24,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class WorldRegistryImpl extends UnicastRemoteObject implements WorldRegistry {
@@ -39,6 +41,8 @@ public class WorldRegistryImpl extends UnicastRemoteObject implements WorldRegis
     private final Map<Integer, MapleGuild> guilds = new LinkedHashMap<>();
     private final PlayerBuffStorage buffStorage = new PlayerBuffStorage();
     private final Map<Integer, MapleAlliance> alliances = new LinkedHashMap<>(); // Contains ID and alliance info
+    private final AccountSessionRegistry accountSessions = new AccountSessionRegistry();
+    private final Map<Integer, RankingEntry> rankingChanges = new ConcurrentHashMap<>();
 
     private WorldRegistryImpl() throws RemoteException {
         super(0, new SslRMIClientSocketFactory(), new SslRMIServerSocketFactory());
@@ -119,6 +123,7 @@ public class WorldRegistryImpl extends UnicastRemoteObject implements WorldRegis
                     }
                 }
                 channelServer.put(channelId, cb);
+                accountSessions.clearChannel(channelId);
                 cb.setChannelId(channelId);
                 WorldChannelInterface ret = new WorldChannelInterfaceImpl(cb, rs.getInt("channelid"));
                 rs.close();
@@ -136,6 +141,7 @@ public class WorldRegistryImpl extends UnicastRemoteObject implements WorldRegis
     @Override
     public void deregisterChannelServer(int channel) throws RemoteException {
         channelServer.remove(channel);
+        accountSessions.clearChannel(channel);
         for (LoginWorldInterface wli : loginServer) {
             wli.channelOffline(channel);
         }
@@ -156,6 +162,7 @@ public class WorldRegistryImpl extends UnicastRemoteObject implements WorldRegis
             ResultSet rs = ps.executeQuery();
             if (rs.next()) {
                 loginServer.add(cb);
+                accountSessions.clearChannel(-1);
                 for (ChannelWorldInterface cwi : channelServer.values()) {
                     cb.channelOnline(cwi.getChannelId(), authKey);
                 }
@@ -174,6 +181,37 @@ public class WorldRegistryImpl extends UnicastRemoteObject implements WorldRegis
         loginServer.remove(cb);
     }
 
+    public AccountSessionRegistry getAccountSessions() {
+        return accountSessions;
+    }
+
+    /**
+     * Keeps the newest ranking key of each of the given characters until
+     * the login server picks them up.
+     */
+    public void addRankingChanges(List<RankingEntry> entries) {
+        for (RankingEntry entry : entries) {
+            rankingChanges.put(entry.characterId, entry);
+        }
+    }
+
+    /**
+     * Gets and forgets all ranking keys reported since the last call.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public List<RankingEntry> drainRankingChanges() {
+        List<RankingEntry> ret = new ArrayList<>(rankingChanges.size());
+        for (RankingEntry entry : rankingChanges.values()) {
+            if (rankingChanges.remove(entry.characterId, entry)) {
+                ret.add(entry);
+            }
+        }
+        return ret;
+    }
+
     public List<LoginWorldInterface> getLoginServer() {
         return new LinkedList<>(loginServer);
     }
@@ -0,0 +1,24 @@
+package net.sf.odinms.net.world.remote;
+
+import java.io.Serializable;
+
+/**
+ * The login state of an account, as the world server knows it: one of the
+ * <code>MapleClient.LOGIN_*</code> constants, and how long the account has
+ * been in that state (measured by the world server, so that the clocks of
+ * the login and channel servers don't matter).
+ */
+public class AccountLoginState implements Serializable {
+    private static final long serialVersionUID = -3281402466735160523L;
+    public final int state;
+    public final boolean gm;
+    public final int channel;
+    public final long millisInState;
+
+    public AccountLoginState(int state, boolean gm, int channel, long millisInState) {
+        this.state = state;
+        this.gm = gm;
+        this.channel = channel;
+        this.millisInState = millisInState;
+    }
+}
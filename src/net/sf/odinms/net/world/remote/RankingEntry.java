@@ -0,0 +1,23 @@
+package net.sf.odinms.net.world.remote;
+
+import java.io.Serializable;
+
+/**
+ * What the rankings order a character by, as of its last save.
+ */
+public class RankingEntry implements Serializable {
+    private static final long serialVersionUID = 6710435526118283187L;
+    public final int characterId, job, reborns, level, exp, fame, meso;
+    public final boolean gm;
+
+    public RankingEntry(int characterId, int job, boolean gm, int reborns, int level, int exp, int fame, int meso) {
+        this.characterId = characterId;
+        this.job = job;
+        this.gm = gm;
+        this.reborns = reborns;
+        this.level = level;
+        this.exp = exp;
+        this.fame = fame;
+        this.meso = meso;
+    }
+}
@@ -38,6 +38,19 @@ public interface WorldChannelInterface extends Remote, WorldChannelCommonOperati
 
     boolean isAvailable() throws RemoteException;
 
+    AccountLoginState getLoginState(int accountId) throws RemoteException;
+
+    void setLoginState(int accountId, boolean gm, int state, int channel) throws RemoteException;
+
+    /**
+     * Reports all accounts that are logged in to a channel at once, with
+     * whether each is a GM account, e.g. after registering with a world
+     * server that was restarted and so doesn't know about them.
+     */
+    void setLoginStates(int channel, Map<Integer, Boolean> gmByAccountId) throws RemoteException;
+
+    void reportRankingChanges(List<RankingEntry> entries) throws RemoteException;
+
     ChannelWorldInterface getChannelInterface(int channel) throws RemoteException;
 
     WorldLocation getLocation(String name) throws RemoteException;
@@ -4,6 +4,7 @@ import net.sf.odinms.net.world.guild.MapleGuildCharacter;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -12,6 +13,10 @@ public interface WorldLoginInterface extends Remote {
     Properties getWorldProperties() throws RemoteException;
     Map<Integer, Integer> getChannelLoad() throws RemoteException;
     boolean isAvailable() throws RemoteException;
+    AccountLoginState getLoginState(int accountId) throws RemoteException;
+    void setLoginState(int accountId, boolean gm, int state, int channel) throws RemoteException;
+    int getOnlineUsers() throws RemoteException;
+    List<RankingEntry> drainRankingChanges() throws RemoteException;
 
     void deleteGuildCharacter(MapleGuildCharacter mgc) throws RemoteException;
 }
\ No newline at end of file
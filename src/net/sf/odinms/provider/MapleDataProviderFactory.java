@@ -1,13 +1,18 @@
 package net.sf.odinms.provider;
 
+import net.sf.odinms.provider.binwz.BinaryWZFile;
 import net.sf.odinms.provider.wz.WZFile;
 import net.sf.odinms.provider.xmlwz.XMLWZFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 
 public class MapleDataProviderFactory {
+    private static final Logger log = LoggerFactory.getLogger(MapleDataProviderFactory.class);
     private static final String wzPath = System.getProperty("net.sf.odinms.wzpath");
+    private static final boolean useBinary = Boolean.getBoolean("net.sf.odinms.wzbinary");
 
     private static MapleDataProvider getWZ(Object in, boolean provideImages) {
         if (in instanceof File) {
@@ -18,7 +23,25 @@ public class MapleDataProviderFactory {
                 } catch (IOException e) {
                     throw new RuntimeException("Loading WZ File failed", e);
                 }
+            } else if (fileIn.getName().endsWith(".bin") && !fileIn.isDirectory()) {
+                try {
+                    return new BinaryWZFile(
+                        fileIn,
+                        new File(fileIn.getPath().substring(0, fileIn.getPath().length() - 4))
+                    );
+                } catch (IOException e) {
+                    throw new RuntimeException("Loading binary WZ file failed", e);
+                }
             } else {
+                // Prefer the compiled form of an XML WZ directory, if enabled and there is one:
+                File compiled = new File(fileIn.getPath() + ".bin");
+                if (useBinary && compiled.isFile()) {
+                    try {
+                        return new BinaryWZFile(compiled, fileIn);
+                    } catch (IOException e) {
+                        log.warn("Loading " + compiled + " failed, falling back to XML", e);
+                    }
+                }
                 // always provides images as we do this lazily and it's
                 // therefore cheap (assuming that the images don't get loaded
                 // for fun)
@@ -39,4 +62,4 @@ public class MapleDataProviderFactory {
     public static File fileInWZPath(String filename) {
         return new File(wzPath, filename);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,145 @@
+package net.sf.odinms.provider.binwz;
+
+import net.sf.odinms.provider.MapleData;
+import net.sf.odinms.provider.MapleDataEntity;
+import net.sf.odinms.provider.wz.MapleDataType;
+import net.sf.odinms.provider.xmlwz.FileStoredPngMapleCanvas;
+
+import java.awt.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A node of a <code>BinaryWZFile</code>: just the file and the offset of
+ * the node in it, everything else is read from the file when asked for.
+ */
+public class BinaryMapleData implements MapleData {
+    private final BinaryWZFile file;
+    private final int offset;
+
+    BinaryMapleData(BinaryWZFile file, int offset) {
+        this.file = file;
+        this.offset = offset;
+    }
+
+    @Override
+    public String getName() {
+        return file.getString(file.getInt(offset));
+    }
+
+    @Override
+    public MapleDataType getType() {
+        return file.getType(offset);
+    }
+
+    @Override
+    public List<MapleData> getChildren() {
+        int table = file.getChildTable(offset);
+        int count = file.getInt(table);
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<MapleData> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            ret.add(new BinaryMapleData(file, file.getInt(table + 4 + i * 8 + 4)));
+        }
+        return ret;
+    }
+
+    @Override
+    public MapleData getChildByPath(String path) {
+        int node = offset;
+        int start = 0;
+        int length = path.length();
+        while (true) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end - start == 2 && path.startsWith("..", start)) {
+                node = file.getParent(node);
+            } else {
+                int nameId = file.findString(path, start, end);
+                node = nameId < 0 ? -1 : file.findChild(node, nameId);
+            }
+            if (node < 0) {
+                return null;
+            }
+            if (end == length) {
+                return new BinaryMapleData(file, node);
+            }
+            start = end + 1;
+        }
+    }
+
+    @Override
+    public Object getData() {
+        int value = file.getValueOffset(offset);
+        switch (getType()) {
+            case SHORT:
+                return file.getShort(value);
+            case INT:
+                return file.getInt(value);
+            case FLOAT:
+                return file.getFloat(value);
+            case DOUBLE:
+                return file.getDouble(value);
+            case STRING:
+            case UOL:
+                return file.getString(file.getInt(value));
+            case VECTOR:
+                return new Point(file.getInt(value), file.getInt(value + 4));
+            case CANVAS:
+                return new FileStoredPngMapleCanvas(
+                    file.getInt(value),
+                    file.getInt(value + 4),
+                    new File(file.getImageRoot(), getPath() + ".png")
+                );
+        }
+        return null;
+    }
+
+    /**
+     * Gets the path of this node from the root of the WZ directory, e.g.
+     * <code>Map/Map1/100000000.img/back/0</code>.
+     */
+    private String getPath() {
+        StringBuilder path = new StringBuilder();
+        int node = offset;
+        int parent;
+        while ((parent = file.getParent(node)) >= 0) {
+            path.insert(0, "/" + file.getString(file.getInt(node)));
+            node = parent;
+        }
+        return path.insert(0, file.getImagePath(-parent - 1)).toString();
+    }
+
+    @Override
+    public MapleDataEntity getParent() {
+        int parent = file.getParent(offset);
+        if (parent < 0) {
+            return null;
+        }
+        return new BinaryMapleData(file, parent);
+    }
+
+    @Override
+    public Iterator<MapleData> iterator() {
+        return getChildren().iterator();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BinaryMapleData &&
+               ((BinaryMapleData) o).file == file &&
+               ((BinaryMapleData) o).offset == offset;
+    }
+
+    @Override
+    public int hashCode() {
+        return offset;
+    }
+}
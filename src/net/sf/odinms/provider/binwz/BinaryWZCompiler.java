@@ -0,0 +1,320 @@
+package net.sf.odinms.provider.binwz;
+
+import net.sf.odinms.provider.*;
+import net.sf.odinms.provider.wz.MapleDataType;
+import net.sf.odinms.provider.xmlwz.XMLWZFile;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Compiles the data of a <code>MapleDataProvider</code> (normally an XML WZ
+ * directory) into the binary format read by <code>BinaryWZFile</code>.
+ *
+ * The output consists of a header, the nodes of every image (in pre-order,
+ * each image's nodes together), a table of interned strings together with a
+ * hash table over them, and an index of images by path:
+ *
+ * <pre>
+ * header:  int magic, int version, int stringCount, int stringTableOffset,
+ *          int hashTableOffset, int hashTableSize, int imageCount, int imageIndexOffset
+ * node:    int nameId, byte type, int parentOffset, value, int childCount,
+ *          childCount * (int nameId, int offset), childCount * int index
+ * strings: stringCount * (int length, UTF-8 bytes), stringCount * int offset
+ * hash:    hashTableSize * int stringId, -1 for empty slots
+ * images:  imageCount * (int pathId, int rootOffset)
+ * </pre>
+ *
+ * The second child table holds the indexes into the first one, sorted by
+ * name ID (then by position), for binary search. The parent offset of an
+ * image's root node is <code>-(imageIndex + 1)</code>.
+ *
+ * Usage: <code>BinaryWZCompiler &lt;wz directory&gt; [&lt;wz directory&gt; ...]</code>,
+ * which writes e.g. <code>wz/Map.wz.bin</code> for <code>wz/Map.wz</code>.
+ */
+public class BinaryWZCompiler {
+    static final int MAGIC = 0x4F575A42; // "OWZB"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final List<int[]> images = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: BinaryWZCompiler <wz directory> [<wz directory> ...]");
+            System.exit(1);
+        }
+        for (String arg : args) {
+            File in = new File(arg);
+            File out = new File(in.getPath() + ".bin");
+            long start = System.currentTimeMillis();
+            MapleDataProvider source =
+                in.isDirectory() ? new XMLWZFile(in) : MapleDataProviderFactory.getDataProvider(in);
+            int imageCount = compile(source, out);
+            System.out.println(
+                "Compiled " + imageCount + " images of " + in + " into " + out + " (" + out.length() +
+                    " bytes) in " + (System.currentTimeMillis() - start) + " ms"
+            );
+        }
+    }
+
+    /**
+     * Compiles all images of the given provider into the given file.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param source The provider to read the images from.
+     * @param out The file to write.
+     * @return The number of images compiled.
+     *
+     * @throws IOException when writing fails, or the output would exceed 2 GiB.
+     */
+    public static int compile(MapleDataProvider source, File out) throws IOException {
+        return new BinaryWZCompiler().write(source, out);
+    }
+
+    private int write(MapleDataProvider source, File out) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(out)) {
+            CountingOutput data = new CountingOutput(new BufferedOutputStream(fos, 1 << 16));
+            data.write(new byte[HEADER_SIZE]);
+
+            List<String> imagePaths = new ArrayList<>();
+            collectImages(source.getRoot(), "", imagePaths);
+            for (String imagePath : imagePaths) {
+                MapleData image = source.getData(imagePath);
+                if (image == null) {
+                    continue;
+                }
+                int imageIndex = images.size();
+                int rootOffset = data.position();
+                images.add(new int[] {intern(imagePath), rootOffset});
+                Node root = Node.of(image, this);
+                root.layout(rootOffset, -(imageIndex + 1));
+                root.writeTo(data);
+            }
+
+            // Strings, then their offsets:
+            int[] stringOffsets = new int[strings.size()];
+            for (int i = 0; i < strings.size(); ++i) {
+                stringOffsets[i] = data.position();
+                byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                data.writeInt(bytes.length);
+                data.write(bytes);
+            }
+            int stringTableOffset = data.position();
+            for (int offset : stringOffsets) {
+                data.writeInt(offset);
+            }
+
+            int hashTableSize = Integer.highestOneBit(Math.max(1, strings.size()) * 2 - 1) << 1;
+            int[] hashTable = new int[hashTableSize];
+            Arrays.fill(hashTable, -1);
+            for (int i = 0; i < strings.size(); ++i) {
+                int slot = strings.get(i).hashCode() & (hashTableSize - 1);
+                while (hashTable[slot] != -1) {
+                    slot = (slot + 1) & (hashTableSize - 1);
+                }
+                hashTable[slot] = i;
+            }
+            int hashTableOffset = data.position();
+            for (int id : hashTable) {
+                data.writeInt(id);
+            }
+
+            int imageIndexOffset = data.position();
+            for (int[] image : images) {
+                data.writeInt(image[0]);
+                data.writeInt(image[1]);
+            }
+            data.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC)
+                  .putInt(VERSION)
+                  .putInt(strings.size())
+                  .putInt(stringTableOffset)
+                  .putInt(hashTableOffset)
+                  .putInt(hashTableSize)
+                  .putInt(images.size())
+                  .putInt(imageIndexOffset);
+            header.flip();
+            fos.getChannel().write(header, 0L);
+        }
+        return images.size();
+    }
+
+    private static void collectImages(MapleDataDirectoryEntry dir, String prefix, List<String> paths) {
+        for (MapleDataFileEntry file : dir.getFiles()) {
+            paths.add(prefix + file.getName());
+        }
+        for (MapleDataDirectoryEntry subdir : dir.getSubdirectories()) {
+            collectImages(subdir, prefix + subdir.getName() + "/", paths);
+        }
+    }
+
+    int intern(String s) {
+        Integer id = stringIds.get(s);
+        if (id == null) {
+            id = strings.size();
+            stringIds.put(s, id);
+            strings.add(s);
+        }
+        return id;
+    }
+
+    static int valueSize(MapleDataType type) {
+        switch (type) {
+            case SHORT:
+                return 2;
+            case INT:
+            case FLOAT:
+            case STRING:
+            case UOL:
+                return 4;
+            case DOUBLE:
+            case VECTOR:
+            case CANVAS:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * One node of the image being compiled.
+     */
+    private static class Node {
+        private final int nameId;
+        private final MapleDataType type;
+        private final Object value;
+        private final int valueId;
+        private final List<Node> children = new ArrayList<>();
+        private int offset, parentOffset;
+
+        private Node(int nameId, MapleDataType type, Object value, int valueId) {
+            this.nameId = nameId;
+            this.type = type;
+            this.value = value;
+            this.valueId = valueId;
+        }
+
+        static Node of(MapleData data, BinaryWZCompiler compiler) {
+            MapleDataType type = data.getType();
+            if (type == null) {
+                type = MapleDataType.NONE;
+            }
+            Object value = valueSize(type) > 0 ? data.getData() : null;
+            if (value == null && valueSize(type) > 0) {
+                type = MapleDataType.NONE;
+            }
+            int valueId =
+                (type == MapleDataType.STRING || type == MapleDataType.UOL) ? compiler.intern((String) value) : -1;
+            Node node = new Node(compiler.intern(data.getName()), type, value, valueId);
+            for (MapleData child : data.getChildren()) {
+                node.children.add(of(child, compiler));
+            }
+            return node;
+        }
+
+        int size() {
+            return 4 + 1 + 4 + valueSize(type) + 4 + children.size() * 12;
+        }
+
+        /**
+         * Assigns offsets to this node and its descendants, in pre-order.
+         *
+         * @return The offset just past the last descendant.
+         */
+        int layout(int offset, int parentOffset) {
+            this.offset = offset;
+            this.parentOffset = parentOffset;
+            int next = offset + size();
+            for (Node child : children) {
+                next = child.layout(next, offset);
+            }
+            return next;
+        }
+
+        void writeTo(CountingOutput out) throws IOException {
+            if (out.position() != offset) {
+                throw new IllegalStateException("Node written at " + out.position() + ", laid out at " + offset);
+            }
+            out.writeInt(nameId);
+            out.writeByte(type.ordinal());
+            out.writeInt(parentOffset);
+            switch (type) {
+                case SHORT:
+                    out.writeShort((Short) value);
+                    break;
+                case INT:
+                    out.writeInt((Integer) value);
+                    break;
+                case FLOAT:
+                    out.writeFloat((Float) value);
+                    break;
+                case DOUBLE:
+                    out.writeDouble((Double) value);
+                    break;
+                case STRING:
+                case UOL:
+                    out.writeInt(valueId);
+                    break;
+                case VECTOR: {
+                    Point p = (Point) value;
+                    out.writeInt(p.x);
+                    out.writeInt(p.y);
+                    break;
+                }
+                case CANVAS: {
+                    MapleCanvas canvas = (MapleCanvas) value;
+                    out.writeInt(canvas.getWidth());
+                    out.writeInt(canvas.getHeight());
+                    break;
+                }
+            }
+            out.writeInt(children.size());
+            for (Node child : children) {
+                out.writeInt(child.nameId);
+                out.writeInt(child.offset);
+            }
+            Integer[] sorted = new Integer[children.size()];
+            for (int i = 0; i < sorted.length; ++i) {
+                sorted[i] = i;
+            }
+            Arrays.sort(
+                sorted,
+                Comparator.comparingInt((Integer i) -> children.get(i).nameId).thenComparingInt(i -> i)
+            );
+            for (Integer i : sorted) {
+                out.writeInt(i);
+            }
+            for (Node child : children) {
+                child.writeTo(out);
+            }
+        }
+    }
+
+    /**
+     * A <code>DataOutputStream</code> that refuses to grow past what an
+     * <code>int</code> offset can address.
+     */
+    private static class CountingOutput extends DataOutputStream {
+        CountingOutput(OutputStream out) {
+            super(out);
+        }
+
+        int position() throws IOException {
+            if (written < 0 || written == Integer.MAX_VALUE) {
+                throw new IOException("Binary WZ files are limited to 2 GiB");
+            }
+            return written;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package net.sf.odinms.provider.binwz;
+
+import net.sf.odinms.provider.MapleData;
+import net.sf.odinms.provider.MapleDataDirectoryEntry;
+import net.sf.odinms.provider.MapleDataEntry;
+import net.sf.odinms.provider.MapleDataProvider;
+import net.sf.odinms.provider.wz.MapleDataType;
+import net.sf.odinms.provider.wz.WZDirectoryEntry;
+import net.sf.odinms.provider.wz.WZFileEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A <code>MapleDataProvider</code> over a file written by
+ * <code>BinaryWZCompiler</code>.
+ *
+ * The file is memory-mapped, and its nodes are read in place: getting an
+ * image or looking up a child does no parsing and builds no tree, it only
+ * follows offsets. Child lookups binary search the node's sorted child table
+ * for the interned ID of the name, which is found through the file's string
+ * hash table. The only things kept on the heap are the image index and the
+ * strings that have been decoded so far.
+ *
+ * Canvases are not part of the binary file; their images are read from the
+ * same place as with the XML data, i.e. from <code>imageRoot</code>.
+ */
+public class BinaryWZFile implements MapleDataProvider {
+    static final MapleDataType[] TYPES = MapleDataType.values();
+    private final ByteBuffer buffer;
+    private final File imageRoot;
+    private final String[] strings;
+    private final int stringTableOffset;
+    private final int hashTableOffset;
+    private final int hashTableMask;
+    private final int imageIndexOffset;
+    private final Map<String, Integer> images = new HashMap<>();
+    private final WZDirectoryEntry root;
+
+    /**
+     * @param file The compiled file.
+     * @param imageRoot The XML WZ directory that canvas images are read from; may be <code>null</code>.
+     *
+     * @throws IOException when the file cannot be mapped or is not a binary WZ file.
+     */
+    public BinaryWZFile(File file, File imageRoot) throws IOException {
+        this.imageRoot = imageRoot;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+        }
+        if (buffer.limit() < BinaryWZCompiler.HEADER_SIZE ||
+            buffer.getInt(0) != BinaryWZCompiler.MAGIC ||
+            buffer.getInt(4) != BinaryWZCompiler.VERSION) {
+            throw new IOException(file + " is not a binary WZ file of version " + BinaryWZCompiler.VERSION);
+        }
+        strings = new String[buffer.getInt(8)];
+        stringTableOffset = buffer.getInt(12);
+        hashTableOffset = buffer.getInt(16);
+        hashTableMask = buffer.getInt(20) - 1;
+        int imageCount = buffer.getInt(24);
+        imageIndexOffset = buffer.getInt(28);
+
+        String name = file.getName();
+        root = new WZDirectoryEntry(name.endsWith(".bin") ? name.substring(0, name.length() - 4) : name, 0, 0, null);
+        for (int i = 0; i < imageCount; ++i) {
+            String path = getString(buffer.getInt(imageIndexOffset + i * 8));
+            images.put(path, buffer.getInt(imageIndexOffset + i * 8 + 4));
+            addToDirectory(path);
+        }
+    }
+
+    private void addToDirectory(String path) {
+        WZDirectoryEntry dir = root;
+        int start = 0, end;
+        while ((end = path.indexOf('/', start)) >= 0) {
+            String dirName = path.substring(start, end);
+            MapleDataEntry entry = dir.getEntry(dirName);
+            if (!(entry instanceof WZDirectoryEntry)) {
+                WZDirectoryEntry newDir = new WZDirectoryEntry(dirName, 0, 0, dir);
+                dir.addDirectory(newDir);
+                entry = newDir;
+            }
+            dir = (WZDirectoryEntry) entry;
+            start = end + 1;
+        }
+        dir.addFile(new WZFileEntry(path.substring(start), 0, 0, dir));
+    }
+
+    @Override
+    public MapleData getData(String path) {
+        Integer offset = images.get(path);
+        if (offset == null) {
+            return null;
+        }
+        return new BinaryMapleData(this, offset);
+    }
+
+    @Override
+    public MapleDataDirectoryEntry getRoot() {
+        return root;
+    }
+
+    File getImageRoot() {
+        return imageRoot;
+    }
+
+    String getImagePath(int imageIndex) {
+        return getString(buffer.getInt(imageIndexOffset + imageIndex * 8));
+    }
+
+    /**
+     * Gets the string with the given ID, decoding it on first use. Racing
+     * decodes of the same string are harmless.
+     */
+    String getString(int id) {
+        String s = strings[id];
+        if (s == null) {
+            int offset = buffer.getInt(stringTableOffset + id * 4);
+            byte[] bytes = new byte[buffer.getInt(offset)];
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset + 4);
+            view.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            strings[id] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Finds the ID of the string equal to <code>path.substring(start, end)</code>,
+     * without creating that substring.
+     *
+     * @return The ID of the string, or <code>-1</code> if there is no such string in the file.
+     */
+    int findString(String path, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + path.charAt(i);
+        }
+        int length = end - start;
+        for (int slot = hash & hashTableMask; ; slot = (slot + 1) & hashTableMask) {
+            int id = buffer.getInt(hashTableOffset + slot * 4);
+            if (id == -1) {
+                return -1;
+            }
+            String candidate = getString(id);
+            if (candidate.length() == length && candidate.regionMatches(0, path, start, length)) {
+                return id;
+            }
+        }
+    }
+
+    int getInt(int offset) {
+        return buffer.getInt(offset);
+    }
+
+    short getShort(int offset) {
+        return buffer.getShort(offset);
+    }
+
+    float getFloat(int offset) {
+        return buffer.getFloat(offset);
+    }
+
+    double getDouble(int offset) {
+        return buffer.getDouble(offset);
+    }
+
+    MapleDataType getType(int node) {
+        return TYPES[buffer.get(node + 4)];
+    }
+
+    int getParent(int node) {
+        return buffer.getInt(node + 5);
+    }
+
+    int getValueOffset(int node) {
+        return node + 9;
+    }
+
+    int getChildTable(int node) {
+        return node + 9 + BinaryWZCompiler.valueSize(getType(node));
+    }
+
+    /**
+     * Finds the first child of the given node with the given name ID.
+     *
+     * @return The offset of the child, or <code>-1</code> if there is none.
+     */
+    int findChild(int node, int nameId) {
+        int table = getChildTable(node);
+        int count = buffer.getInt(table);
+        int pairs = table + 4;
+        int sorted = pairs + count * 8;
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int childName = buffer.getInt(pairs + buffer.getInt(sorted + mid * 4) * 8);
+            if (childName < nameId) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo < count) {
+            int pair = pairs + buffer.getInt(sorted + lo * 4) * 8;
+            if (buffer.getInt(pair) == nameId) {
+                return buffer.getInt(pair + 4);
+            }
+        }
+        return -1;
+    }
+}
@@ -4,52 +4,47 @@ import net.sf.odinms.client.MapleClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import java.io.File;
-import java.io.FileReader;
-
 public abstract class AbstractScriptManager {
-    protected ScriptEngine engine;
-    private final ScriptEngineManager sem;
     protected static final Logger log = LoggerFactory.getLogger(AbstractScriptManager.class);
 
     protected AbstractScriptManager() {
-        sem = new ScriptEngineManager();
     }
 
-    protected Invocable getInvocable(String path, MapleClient c) {
-        try {
-            path = "scripts/" + path;
-            engine = null;
-            if (c != null) {
-                engine = c.getScriptEngine(path);
+    /**
+     * Gets the instance of the given script that belongs to the given client,
+     * creating it from the shared <code>ScriptCache</code> if the client
+     * does not have one yet.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @param path The path of the script, relative to the scripts directory.
+     * @param c The client that the instance belongs to; <code>null</code>
+     *          for an instance that is not tied to a client.
+     * @return The instance, or <code>null</code> if the script does not exist
+     *         or cannot be evaluated.
+     */
+    protected ScriptInstance getInvocable(String path, MapleClient c) {
+        ScriptInstance iv = null;
+        if (c != null) {
+            iv = c.getScriptInstance(path);
+        }
+        if (iv == null) {
+            iv = ScriptCache.getInstance().newInstance(path, null);
+            if (iv == null) {
+                System.err.println("path0: scripts/" + path);
+                return null;
             }
-            if (engine == null) {
-                File scriptFile = new File(path);
-                if (!scriptFile.exists()) {
-                    System.err.println("path0: " + path);
-                    return null;
-                }
-                engine = sem.getEngineByName("javascript");
-                if (c != null) {
-                    c.setScriptEngine(path, engine);
-                }
-                FileReader fr = new FileReader(scriptFile);
-                engine.eval(fr);
-                fr.close();
+            if (c != null) {
+                c.setScriptInstance(path, iv);
             }
-            return (Invocable) engine;
-        } catch (Exception e) {
-            log.error("Error executing script. ", e);
-            System.err.println("path1: " + path);
-            return null;
         }
+        return iv;
     }
 
     protected void resetContext(String path, MapleClient c) {
-        path = "scripts/" + path;
-        c.removeScriptEngine(path);
+        c.removeScriptInstance(path);
     }
 }
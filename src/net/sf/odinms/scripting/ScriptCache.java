@@ -0,0 +1,191 @@
+package net.sf.odinms.scripting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.*;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Process-wide cache of compiled scripts, shared by all of the script
+ * managers.
+ *
+ * There is a single script engine for the whole process. Scripts are compiled
+ * once (through <code>Compilable</code>) and then evaluated into fresh
+ * bindings for every <code>ScriptInstance</code>, instead of every client
+ * getting its own engine that re-reads and re-evaluates the file.
+ *
+ * A cached script is recompiled when the modification time or size of its
+ * file changes; files are checked at most once every
+ * <code>RELOAD_CHECK_INTERVAL</code> milliseconds.
+ */
+public class ScriptCache {
+    private static final Logger log = LoggerFactory.getLogger(ScriptCache.class);
+    private static final ScriptCache instance = new ScriptCache();
+    private static final String SCRIPT_ROOT = "scripts/";
+    private static final long RELOAD_CHECK_INTERVAL = 2000L;
+    private final ScriptEngine engine;
+    private final Map<String, CachedScript> scripts = new ConcurrentHashMap<>();
+
+    private ScriptCache() {
+        engine = new ScriptEngineManager().getEngineByName("javascript");
+        if (engine == null) {
+            log.error("No javascript engine available, scripts will not run.");
+        }
+    }
+
+    public static ScriptCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Gets the compiled form of the given script, compiling it if it is not
+     * cached yet or if its file has changed since it was compiled.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @param path The path of the script, relative to the scripts directory,
+     *             e.g. <code>"npc/9010000.js"</code>.
+     * @return The compiled script, or <code>null</code> if there is no such
+     *         file or it does not compile.
+     */
+    public CompiledScript getCompiled(String path) {
+        CachedScript cached = scripts.get(path);
+        long now = System.currentTimeMillis();
+        if (cached != null && now - cached.checkedMillis < RELOAD_CHECK_INTERVAL) {
+            return cached.compiled;
+        }
+        File file = new File(SCRIPT_ROOT + path);
+        long lastModified = file.lastModified(); // 0 if the file does not exist.
+        long length = file.length();
+        if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+            cached.checkedMillis = now;
+            return cached.compiled;
+        }
+        cached = scripts.compute(path, (p, old) -> {
+            if (old != null && old.lastModified == lastModified && old.length == length) {
+                return old;
+            }
+            return new CachedScript(compile(file), lastModified, length, now);
+        });
+        return cached.compiled;
+    }
+
+    /**
+     * Creates a new instance of the given script: the compiled script is
+     * evaluated into fresh bindings, which hold the given variables before
+     * the script's top-level code runs.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @param path The path of the script, relative to the scripts directory.
+     * @param variables Global variables to set up before evaluation; may be <code>null</code>.
+     * @return The new instance, or <code>null</code> if the script does not exist or fails to evaluate.
+     */
+    public ScriptInstance newInstance(String path, Map<String, Object> variables) {
+        CompiledScript compiled = getCompiled(path);
+        if (compiled == null) {
+            return null;
+        }
+        Bindings bindings = engine.createBindings();
+        if (variables != null) {
+            bindings.putAll(variables);
+        }
+        try {
+            compiled.eval(bindings);
+        } catch (ScriptException se) {
+            log.error("Error evaluating script " + path, se);
+            return null;
+        }
+        return new ScriptInstance(path, (Invocable) engine, bindings);
+    }
+
+    /**
+     * Compiles every script under the scripts directory that is not cached
+     * yet, in parallel, so that the first use of a script does not have to
+     * pay for compiling it.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @return The number of scripts that compiled successfully.
+     */
+    public int warmup() {
+        if (engine == null) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        Path root = Paths.get(SCRIPT_ROOT);
+        List<String> paths;
+        try (Stream<Path> files = Files.walk(root)) {
+            paths =
+                files.filter(f -> f.toString().endsWith(".js"))
+                     .map(f -> root.relativize(f).toString().replace(File.separatorChar, '/'))
+                     .collect(Collectors.toList());
+        } catch (IOException ioe) {
+            log.error("Error listing scripts for warmup", ioe);
+            return 0;
+        }
+        int compiled = (int) paths.parallelStream().filter(p -> getCompiled(p) != null).count();
+        log.info(
+            "Compiled " + compiled + " of " + paths.size() + " scripts in " +
+                (System.currentTimeMillis() - start) + " ms"
+        );
+        return compiled;
+    }
+
+    /**
+     * Drops all compiled scripts, so that they are recompiled on next use.
+     */
+    public void clear() {
+        scripts.clear();
+    }
+
+    public int size() {
+        return scripts.size();
+    }
+
+    private CompiledScript compile(File file) {
+        if (engine == null || !file.isFile()) {
+            return null;
+        }
+        try (Reader reader = new FileReader(file)) {
+            return ((Compilable) engine).compile(reader);
+        } catch (ScriptException | IOException e) {
+            log.error("Error compiling script " + file.getPath(), e);
+            return null;
+        }
+    }
+
+    private static class CachedScript {
+        public final CompiledScript compiled;
+        public final long lastModified;
+        public final long length;
+        public volatile long checkedMillis;
+
+        CachedScript(CompiledScript compiled, long lastModified, long length, long checkedMillis) {
+            this.compiled = compiled;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.checkedMillis = checkedMillis;
+        }
+    }
+}
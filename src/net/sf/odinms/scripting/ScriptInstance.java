@@ -0,0 +1,68 @@
+package net.sf.odinms.scripting;
+
+import javax.script.Bindings;
+import javax.script.Invocable;
+import javax.script.ScriptException;
+
+/**
+ * One evaluation of a cached, compiled script, in a global scope of its own.
+ *
+ * Each instance has its own bindings, so that the state a script keeps in
+ * its global variables (e.g. the <code>status</code> of an NPC conversation)
+ * is private to the instance, while the compiled code and the engine are
+ * shared with every other instance of the same script.
+ *
+ * Top-level functions of the script are invoked as methods of its global
+ * object, through the shared engine.
+ */
+public class ScriptInstance implements Invocable {
+    private final String path;
+    private final Invocable engine;
+    private final Bindings bindings;
+
+    ScriptInstance(String path, Invocable engine, Bindings bindings) {
+        this.path = path;
+        this.engine = engine;
+        this.bindings = bindings;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Sets a global variable of this instance, e.g. the <code>cm</code> of an
+     * NPC conversation.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param name The name of the variable.
+     * @param value The value of the variable.
+     */
+    public void put(String name, Object value) {
+        bindings.put(name, value);
+    }
+
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args)
+        throws ScriptException, NoSuchMethodException {
+        return engine.invokeMethod(thiz, name, args);
+    }
+
+    @Override
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+        return engine.invokeMethod(bindings, name, args);
+    }
+
+    @Override
+    public <T> T getInterface(Class<T> clasz) {
+        return engine.getInterface(bindings, clasz);
+    }
+
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> clasz) {
+        return engine.getInterface(thiz, clasz);
+    }
+}
@@ -4,14 +4,12 @@ import net.sf.odinms.client.MapleCharacter;
 import net.sf.odinms.database.DatabaseConnection;
 import net.sf.odinms.net.world.MapleParty;
 import net.sf.odinms.net.world.MaplePartyCharacter;
-import net.sf.odinms.provider.MapleDataProviderFactory;
 import net.sf.odinms.server.TimerManager;
 import net.sf.odinms.server.life.MapleMonster;
 import net.sf.odinms.server.maps.MapleMap;
 import net.sf.odinms.server.maps.MapleMapFactory;
 
 import javax.script.ScriptException;
-import java.io.File;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -32,19 +30,7 @@ public class EventInstanceManager {
     public EventInstanceManager(EventManager em, String name) {
         this.em = em;
         this.name = name;
-        mapFactory =
-            new MapleMapFactory(
-                MapleDataProviderFactory.getDataProvider(
-                    new File(
-                        System.getProperty("net.sf.odinms.wzpath") + "/Map.wz"
-                    )
-                ),
-                MapleDataProviderFactory.getDataProvider(
-                    new File(
-                        System.getProperty("net.sf.odinms.wzpath") + "/String.wz"
-                    )
-                )
-            );
+        mapFactory = new MapleMapFactory();
         mapFactory.setChannel(em.getChannelServer().getChannel());
     }
 
@@ -168,6 +154,9 @@ public class EventInstanceManager {
         chars.clear();
         mobs.clear();
         killCount.clear();
+        if (mapFactory != null) {
+            mapFactory.disposeAll();
+        }
         mapFactory = null;
         if (em != null) em.disposeInstance(name);
         em = null;
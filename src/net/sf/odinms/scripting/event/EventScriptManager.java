@@ -2,9 +2,8 @@ package net.sf.odinms.scripting.event;
 
 import net.sf.odinms.net.channel.ChannelServer;
 import net.sf.odinms.scripting.AbstractScriptManager;
+import net.sf.odinms.scripting.ScriptInstance;
 
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -14,10 +13,10 @@ import java.util.logging.Logger;
 public class EventScriptManager extends AbstractScriptManager {
     private class EventEntry {
         public final String script;
-        public final Invocable iv;
+        public final ScriptInstance iv;
         public final EventManager em;
 
-        public EventEntry(String script, Invocable iv, EventManager em) {
+        public EventEntry(String script, ScriptInstance iv, EventManager em) {
             this.script = script;
             this.iv = iv;
             this.em = em;
@@ -30,7 +29,7 @@ public class EventScriptManager extends AbstractScriptManager {
         super();
         for (String script : scripts) {
             if (!script.equals("")) {
-                Invocable iv = getInvocable("event/" + script + ".js", null);
+                ScriptInstance iv = getInvocable("event/" + script + ".js", null);
                 events.put(script, new EventEntry(script, iv, new EventManager(cserv, iv, script)));
             }
         }
@@ -47,7 +46,7 @@ public class EventScriptManager extends AbstractScriptManager {
     public void init() {
         for (EventEntry entry : events.values()) {
             try {
-                ((ScriptEngine) entry.iv).put("em", entry.em);
+                entry.iv.put("em", entry.em);
                 entry.iv.invokeFunction("init", (Object) null);
             } catch (ScriptException | NoSuchMethodException e) {
                 Logger.getLogger(EventScriptManager.class.getName()).log(Level.SEVERE, null, e);
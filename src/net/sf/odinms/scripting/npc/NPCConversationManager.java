@@ -13,6 +13,7 @@ import net.sf.odinms.scripting.AbstractPlayerInteraction;
 import net.sf.odinms.scripting.event.EventManager;
 import net.sf.odinms.server.*;
 import net.sf.odinms.server.life.MapleLifeFactory;
+import net.sf.odinms.server.life.MapleMonsterInformationProvider;
 import net.sf.odinms.server.life.MapleMonster;
 import net.sf.odinms.server.life.MobSkill;
 import net.sf.odinms.server.life.MobSkillFactory;
@@ -35,6 +36,8 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 public class NPCConversationManager extends AbstractPlayerInteraction {
+    /** The most items that {@link #searchItem(String)} lists; the NPC chat window can't show many more. */
+    private static final int SEARCH_ITEM_LIMIT = 100;
     private final MapleClient c;
     private final int npc;
     private final String fileName;
@@ -1067,28 +1070,31 @@ public class NPCConversationManager extends AbstractPlayerInteraction {
         }
     }
 
+    /**
+     * Makes a menu of the items whose names contain the given string, best
+     * match first; at most {@link #SEARCH_ITEM_LIMIT} of them.
+     */
     public String searchItem(String item) {
-        MapleItemInformationProvider ii = MapleItemInformationProvider.getInstance();
         StringBuilder message = new StringBuilder("Choose the item you want:");
         getPlayer().getMap().broadcastMessage(
             getPlayer(),
             MaplePacketCreator.showJobChange(getPlayer().getId()),
             false
         );
-        for (Map.Entry<Integer, String> itemEntry : ii.getAllItems().entrySet()) {
-            if (itemEntry.getValue().toLowerCase().contains(item.toLowerCase())) {
-                message.append("\r\n#L")
-                       .append(itemEntry.getKey())
-                       .append("##i")
-                       .append(itemEntry.getKey())
-                       .append("# - #b")
-                       .append(itemEntry.getValue())
-                       .append("#k#l");
-            }
-        }
-        if (!message.toString().contains("#L")) {
+        List<Pair<Integer, String>> matches =
+            NameSearchIndex.getInstance().search(NameSearchIndex.Type.ITEM, item, SEARCH_ITEM_LIMIT);
+        if (matches.isEmpty()) {
             return "No items found.";
         }
+        for (Pair<Integer, String> match : matches) {
+            message.append("\r\n#L")
+                   .append(match.getLeft())
+                   .append("##i")
+                   .append(match.getLeft())
+                   .append("# - #b")
+                   .append(match.getRight())
+                   .append("#k#l");
+        }
         return message.toString();
     }
 
@@ -1754,35 +1760,19 @@ public class NPCConversationManager extends AbstractPlayerInteraction {
     }
 
     public String whoDrops(int searchid) {
-        StringBuilder dropString_ = new StringBuilder();
-        try {
-            Set<String> retMobs = new LinkedHashSet<>();
-            Connection con = DatabaseConnection.getConnection();
-            PreparedStatement ps = con.prepareStatement("SELECT monsterid FROM monsterdrops WHERE itemid = ?");
-            ps.setInt(1, searchid);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                int mobId = rs.getInt("monsterid");
-                MapleMonster mob = MapleLifeFactory.getMonster(mobId);
-                if (mob != null) {
-                    retMobs.add(mob.getName());
-                }
-            }
-            rs.close();
-            ps.close();
-            if (!retMobs.isEmpty()) {
-                for (String singleRetMob : retMobs) {
-                    dropString_.append(singleRetMob).append("\r\n");
-                }
-            } else {
-                return "No mobs drop this item.";
+        Set<String> retMobs = new LinkedHashSet<>();
+        for (int mobId : MapleMonsterInformationProvider.getInstance().getMonstersDropping(searchid)) {
+            String mobName = MapleLifeFactory.getMonsterName(mobId);
+            if (mobName != null) {
+                retMobs.add(mobName);
             }
-        } catch (SQLException sqle) {
-            System.err.print("NPCConversationManager#whoDrops failed: " + sqle);
-            dropString_ =
-                new StringBuilder("NPCConversationManager#whoDrops failed:\r\n\r\n#r")
-                    .append(sqle)
-                    .append("#k");
+        }
+        if (retMobs.isEmpty()) {
+            return "No mobs drop this item.";
+        }
+        StringBuilder dropString_ = new StringBuilder();
+        for (String singleRetMob : retMobs) {
+            dropString_.append(singleRetMob).append("\r\n");
         }
         return dropString_.toString();
     }
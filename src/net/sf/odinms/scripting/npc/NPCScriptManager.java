@@ -3,9 +3,9 @@ package net.sf.odinms.scripting.npc;
 import net.sf.odinms.client.MapleCharacter;
 import net.sf.odinms.client.MapleClient;
 import net.sf.odinms.scripting.AbstractScriptManager;
+import net.sf.odinms.scripting.ScriptInstance;
 import net.sf.odinms.tools.Pair;
 
-import javax.script.Invocable;
 import java.util.*;
 
 public class NPCScriptManager extends AbstractScriptManager {
@@ -30,10 +30,7 @@ public class NPCScriptManager extends AbstractScriptManager {
                 return;
             }
             cms.put(c, cm);
-            Invocable iv = getInvocable("npc/" + npc + ".js", c);
-            if (filename != null) {
-                iv = getInvocable("npc/" + filename + ".js", c);
-            }
+            ScriptInstance iv = getInvocable("npc/" + (filename != null ? filename : npc) + ".js", c);
             if (iv == null || NPCScriptManager.getInstance() == null) {
                 if (iv == null) {
                     cm.sendOk("Hey, I hope you're having a good time on our server!");
@@ -42,7 +39,7 @@ public class NPCScriptManager extends AbstractScriptManager {
                 return;
             }
             addNpcTalkTimes(c.getPlayer().getId(), npc);
-            engine.put("cm", cm);
+            iv.put("cm", cm);
             NPCScript ns = iv.getInterface(NPCScript.class);
             scripts.put(c, ns);
             iv.invokeFunction("start");
@@ -1,60 +1,42 @@
 package net.sf.odinms.scripting.portal;
 
 import net.sf.odinms.client.MapleClient;
+import net.sf.odinms.scripting.ScriptCache;
+import net.sf.odinms.scripting.ScriptInstance;
 import net.sf.odinms.server.MaplePortal;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import javax.script.*;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.LinkedHashMap;
+import javax.script.CompiledScript;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PortalScriptManager {
-    private static final Logger log = LoggerFactory.getLogger(PortalScriptManager.class);
     private static final PortalScriptManager instance = new PortalScriptManager();
-    private final Map<String, PortalScript> scripts = new LinkedHashMap<>();
-    private final ScriptEngineFactory sef;
+    private final Map<String, PortalEntry> scripts = new ConcurrentHashMap<>();
 
     private PortalScriptManager() {
-        ScriptEngineManager sem = new ScriptEngineManager();
-        sef = sem.getEngineByName("javascript").getFactory();
     }
 
     public static PortalScriptManager getInstance() {
         return instance;
     }
 
+    /**
+     * Gets the (shared) instance of the given portal script, re-instantiating
+     * it when the <code>ScriptCache</code> has recompiled the script.
+     */
     private PortalScript getPortalScript(String scriptName) {
-        if (scripts.containsKey(scriptName)) {
-            return scripts.get(scriptName);
-        }
-        File scriptFile = new File("scripts/portal/" + scriptName + ".js");
-        if (!scriptFile.exists()) {
-            scripts.put(scriptName, null);
+        String path = "portal/" + scriptName + ".js";
+        CompiledScript compiled = ScriptCache.getInstance().getCompiled(path);
+        if (compiled == null) {
             return null;
         }
-        FileReader fr = null;
-        ScriptEngine portal = sef.getScriptEngine();
-        try {
-            fr = new FileReader(scriptFile);
-            CompiledScript compiled = ((Compilable) portal).compile(fr);
-            compiled.eval();
-        } catch (ScriptException | IOException e) {
-            log.error("THROW", e);
-        } finally {
-            if (fr != null) {
-                try {
-                    fr.close();
-                } catch (IOException ioe) {
-                    log.error("ERROR CLOSING", ioe);
-                }
-            }
+        PortalEntry entry = scripts.get(scriptName);
+        if (entry != null && entry.compiled == compiled) {
+            return entry.script;
         }
-        PortalScript script = ((Invocable) portal).getInterface(PortalScript.class);
-        scripts.put(scriptName, script);
+        ScriptInstance portal = ScriptCache.getInstance().newInstance(path, null);
+        PortalScript script = portal != null ? portal.getInterface(PortalScript.class) : null;
+        scripts.put(scriptName, new PortalEntry(compiled, script));
         return script;
     }
 
@@ -67,4 +49,14 @@ public class PortalScriptManager {
     public void clearScripts() {
         scripts.clear();
     }
+
+    private static class PortalEntry {
+        public final CompiledScript compiled;
+        public final PortalScript script;
+
+        PortalEntry(CompiledScript compiled, PortalScript script) {
+            this.compiled = compiled;
+            this.script = script;
+        }
+    }
 }
@@ -2,8 +2,8 @@ package net.sf.odinms.scripting.quest;
 
 import net.sf.odinms.client.MapleClient;
 import net.sf.odinms.scripting.AbstractScriptManager;
+import net.sf.odinms.scripting.ScriptInstance;
 
-import javax.script.Invocable;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,12 +23,12 @@ public class QuestScriptManager extends AbstractScriptManager {
                 return;
             }
             qms.put(c, qm);
-            Invocable iv = getInvocable("quest/" + quest + ".js", c);
+            ScriptInstance iv = getInvocable("quest/" + quest + ".js", c);
             if (iv == null) {
                 qm.dispose();
                 return;
             }
-            engine.put("qm", qm);
+            iv.put("qm", qm);
             QuestScript qs = iv.getInterface(QuestScript.class);
             scripts.put(c, qs);
             qs.start((byte) 1, (byte) 0, 0);
@@ -57,12 +57,12 @@ public class QuestScriptManager extends AbstractScriptManager {
                 return;
             }
             qms.put(c, qm);
-            Invocable iv = getInvocable("quest/" + quest + ".js", c);
+            ScriptInstance iv = getInvocable("quest/" + quest + ".js", c);
             if (iv == null) {
                 qm.dispose();
                 return;
             }
-            engine.put("qm", qm);
+            iv.put("qm", qm);
             QuestScript qs = iv.getInterface(QuestScript.class);
             scripts.put(c, qs);
             qs.end((byte) 1, (byte) 0, 0);
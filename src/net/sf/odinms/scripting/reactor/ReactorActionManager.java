@@ -3,11 +3,11 @@ package net.sf.odinms.scripting.reactor;
 import net.sf.odinms.client.*;
 import net.sf.odinms.net.channel.ChannelServer;
 import net.sf.odinms.scripting.AbstractPlayerInteraction;
+import net.sf.odinms.scripting.reactor.ReactorScriptManager.DropEntry;
 import net.sf.odinms.server.MapleItemInformationProvider;
 import net.sf.odinms.server.MaplePortal;
 import net.sf.odinms.server.life.MapleLifeFactory;
 import net.sf.odinms.server.life.MapleMonster;
-import net.sf.odinms.server.life.MapleMonsterInformationProvider.DropEntry;
 import net.sf.odinms.server.maps.BossMapMonitor;
 import net.sf.odinms.server.maps.MapleMap;
 import net.sf.odinms.server.maps.MapleReactor;
@@ -3,10 +3,9 @@ package net.sf.odinms.scripting.reactor;
 import net.sf.odinms.client.MapleClient;
 import net.sf.odinms.database.DatabaseConnection;
 import net.sf.odinms.scripting.AbstractScriptManager;
-import net.sf.odinms.server.life.MapleMonsterInformationProvider.DropEntry;
+import net.sf.odinms.scripting.ScriptInstance;
 import net.sf.odinms.server.maps.MapleReactor;
 
-import javax.script.Invocable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -16,6 +15,21 @@ import java.util.List;
 import java.util.Map;
 
 public class ReactorScriptManager extends AbstractScriptManager {
+    /** An item that a reactor drops, with a 1 in <code>chance</code> chance. */
+    public static class DropEntry {
+        public final int itemId, chance;
+
+        public DropEntry(int itemId, int chance) {
+            this.itemId = itemId;
+            this.chance = chance;
+        }
+
+        @Override
+        public String toString() {
+            return itemId + " chance: " + chance;
+        }
+    }
+
     private static final ReactorScriptManager instance = new ReactorScriptManager();
     private final Map<Integer, List<DropEntry>> drops = new LinkedHashMap<>();
 
@@ -26,11 +40,11 @@ public class ReactorScriptManager extends AbstractScriptManager {
     public void act(MapleClient c, MapleReactor reactor) {
         try {
             ReactorActionManager rm = new ReactorActionManager(c, reactor);
-            Invocable iv = getInvocable("reactor/" + reactor.getId() + ".js", c);
+            ScriptInstance iv = getInvocable("reactor/" + reactor.getId() + ".js", c);
             if (iv == null) {
                 return;
             }
-            engine.put("rm", rm);
+            iv.put("rm", rm);
             ReactorScript rs = iv.getInterface(ReactorScript.class);
             rs.act();
         } catch (Exception e) {
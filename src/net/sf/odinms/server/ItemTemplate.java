@@ -0,0 +1,332 @@
+package net.sf.odinms.server;
+
+import net.sf.odinms.client.MapleInventoryType;
+import net.sf.odinms.provider.MapleData;
+import net.sf.odinms.provider.MapleDataTool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What the item data (Item.wz or Character.wz) says about one item, read
+ * out once when <code>MapleItemInformationProvider</code> builds its index.
+ *
+ * Values that an item doesn't have are given the same defaults that the
+ * provider's getters used to fall back to.
+ */
+public final class ItemTemplate {
+    private final int itemId;
+    private final MapleInventoryType inventoryType;
+    /** Where the item's data is: the .img file, and whether the item is a child of it. */
+    private final String dataPath;
+    private final boolean bundled, equipData;
+    private final boolean hasInfo, hasIcon;
+    private final short slotMax;
+    private final boolean slotMaxSet;
+    private final double price;
+    private final int wholePrice, meso, exp, projectileWatk;
+    private final boolean cash, tradeBlock, quest, pickupRestricted;
+    private final Map<String, Integer> equipStats;
+    private final int masterLevel, reqSkillLevel;
+    private final int[] skills, scrollReqs, petsCanConsume;
+    private final int[][] summonMobs;
+
+    private ItemTemplate(int itemId, MapleInventoryType inventoryType, MapleData item, String dataPath,
+                         boolean bundled, boolean equipData) {
+        this.itemId = itemId;
+        this.inventoryType = inventoryType;
+        this.dataPath = dataPath;
+        this.bundled = bundled;
+        this.equipData = equipData;
+        MapleData info = item == null ? null : item.getChildByPath("info");
+        hasInfo = info != null;
+        boolean icon = false;
+        if (info != null) {
+            for (MapleData data : info.getChildren()) {
+                if (data.getName().equalsIgnoreCase("icon")) {
+                    icon = true;
+                    break;
+                }
+            }
+        }
+        hasIcon = icon;
+
+        MapleData slotMaxData = info == null ? null : info.getChildByPath("slotMax");
+        slotMaxSet = slotMaxData != null;
+        if (slotMaxData != null) {
+            slotMax = (short) MapleDataTool.getInt(slotMaxData);
+        } else {
+            slotMax = (short) (inventoryType == MapleInventoryType.EQUIP ? 1 : 100);
+        }
+
+        MapleData priceData = info == null ? null : info.getChildByPath("price");
+        MapleData unitPriceData = info == null ? null : info.getChildByPath("unitPrice");
+        wholePrice = priceData == null ? -1 : MapleDataTool.getInt(priceData);
+        if (unitPriceData != null) {
+            double unitPrice;
+            try {
+                unitPrice = MapleDataTool.getDouble(unitPriceData);
+            } catch (Exception e) {
+                unitPrice = (double) MapleDataTool.getInt(unitPriceData);
+            }
+            price = unitPrice;
+        } else {
+            price = wholePrice;
+        }
+        MapleData mesoData = info == null ? null : info.getChildByPath("meso");
+        meso = mesoData == null ? -1 : MapleDataTool.getInt(mesoData);
+        MapleData expData = item == null ? null : item.getChildByPath("spec/exp");
+        exp = expData == null ? 0 : MapleDataTool.getInt(expData);
+
+        if (info != null) {
+            Map<String, Integer> stats = new LinkedHashMap<>();
+            for (MapleData data : info.getChildren()) {
+                if (data.getName().startsWith("inc")) {
+                    stats.put(data.getName().substring(3), MapleDataTool.getIntConvert(data));
+                }
+            }
+            stats.put("tuc", MapleDataTool.getInt("tuc", info, 0));
+            stats.put("reqLevel", MapleDataTool.getInt("reqLevel", info, 0));
+            stats.put("cursed", MapleDataTool.getInt("cursed", info, 0));
+            stats.put("success", MapleDataTool.getInt("success", info, 0));
+            equipStats = Collections.unmodifiableMap(stats);
+            projectileWatk = MapleDataTool.getInt("incPAD", info, 0);
+            cash = MapleDataTool.getInt("cash", info, 0) == 1;
+            tradeBlock = MapleDataTool.getIntConvert("tradeBlock", info, 0) == 1;
+            quest = MapleDataTool.getIntConvert("quest", info, 0) == 1;
+            pickupRestricted = MapleDataTool.getIntConvert("only", info, 0) == 1;
+            masterLevel = MapleDataTool.getInt("masterLevel", info, 0);
+            reqSkillLevel = MapleDataTool.getInt("reqSkillLevel", info, 0);
+            MapleData skill = info.getChildByPath("skill");
+            if (skill != null) {
+                int size = skill.getChildren().size(), n = 0;
+                int[] ids = new int[size];
+                while (n < size && (ids[n] = MapleDataTool.getInt(Integer.toString(n), skill, 0)) != 0) {
+                    n++;
+                }
+                skills = n == size ? ids : Arrays.copyOf(ids, n);
+            } else {
+                skills = null;
+            }
+        } else {
+            equipStats = null;
+            projectileWatk = 0;
+            cash = false;
+            tradeBlock = false;
+            quest = false;
+            pickupRestricted = false;
+            masterLevel = 0;
+            reqSkillLevel = 0;
+            skills = null;
+        }
+
+        MapleData req = item == null ? null : item.getChildByPath("req");
+        if (req != null) {
+            scrollReqs = new int[req.getChildren().size()];
+            int i = 0;
+            for (MapleData data : req.getChildren()) {
+                scrollReqs[i++] = MapleDataTool.getInt(data);
+            }
+        } else {
+            scrollReqs = new int[0];
+        }
+
+        MapleData mob = item == null ? null : item.getChildByPath("mob");
+        if (mob != null) {
+            summonMobs = new int[mob.getChildren().size()][2];
+            for (int x = 0; x < summonMobs.length; ++x) {
+                summonMobs[x][0] = MapleDataTool.getIntConvert("mob/" + x + "/id", item);
+                summonMobs[x][1] = MapleDataTool.getIntConvert("mob/" + x + "/prob", item);
+            }
+        } else {
+            summonMobs = null;
+        }
+
+        // Pet food lists the pets that can eat it as spec/0, spec/1, ...; only as many are looked at as
+        // the item has children.
+        int size = item == null ? 0 : item.getChildren().size(), n = 0;
+        int[] pets = new int[size];
+        while (n < size && (pets[n] = MapleDataTool.getInt("spec/" + n, item, 0)) != 0) {
+            n++;
+        }
+        petsCanConsume = n == size ? pets : Arrays.copyOf(pets, n);
+    }
+
+    /**
+     * Reads an item out of its data.
+     *
+     * @param dataPath The .img file that the item is in, relative to its .wz.
+     * @param bundled Whether the item is a child of that file (e.g. Consume/0200.img/02000000) rather than all of it.
+     * @param equipData Whether the file is in Character.wz rather than Item.wz.
+     */
+    static ItemTemplate fromData(int itemId, MapleInventoryType inventoryType, MapleData item, String dataPath,
+                                 boolean bundled, boolean equipData) {
+        return new ItemTemplate(itemId, inventoryType, item, dataPath, bundled, equipData);
+    }
+
+    /**
+     * An item whose data isn't read when building the index (faces and
+     * hairs, whose files are large and hold nothing that the server uses);
+     * it gets the defaults of an item without an <code>info</code>.
+     */
+    static ItemTemplate withoutData(int itemId, MapleInventoryType inventoryType, String dataPath, boolean equipData) {
+        return new ItemTemplate(itemId, inventoryType, null, dataPath, false, equipData);
+    }
+
+    public int getItemId() {
+        return itemId;
+    }
+
+    public MapleInventoryType getInventoryType() {
+        return inventoryType;
+    }
+
+    String getDataPath() {
+        return dataPath;
+    }
+
+    boolean isBundled() {
+        return bundled;
+    }
+
+    boolean isEquipData() {
+        return equipData;
+    }
+
+    public boolean hasInfo() {
+        return hasInfo;
+    }
+
+    public boolean hasIcon() {
+        return hasIcon;
+    }
+
+    /**
+     * @return <code>info/slotMax</code>, or 1 for equips and 100 for other items when there is none.
+     */
+    public short getSlotMax() {
+        return slotMax;
+    }
+
+    /**
+     * @return Whether the item has an <code>info/slotMax</code>; only then do skills raise it.
+     */
+    public boolean isSlotMaxSet() {
+        return slotMaxSet;
+    }
+
+    /**
+     * @return <code>info/unitPrice</code>, or else <code>info/price</code>, or else -1.
+     */
+    public double getPrice() {
+        return price;
+    }
+
+    /**
+     * @return <code>info/price</code>, or -1.
+     */
+    public int getWholePrice() {
+        return wholePrice;
+    }
+
+    /**
+     * @return <code>info/meso</code>, or -1.
+     */
+    public int getMeso() {
+        return meso;
+    }
+
+    /**
+     * @return <code>spec/exp</code>, or 0.
+     */
+    public int getExp() {
+        return exp;
+    }
+
+    public int getProjectileWatk() {
+        return projectileWatk;
+    }
+
+    public boolean isCash() {
+        return cash;
+    }
+
+    public boolean isTradeBlock() {
+        return tradeBlock;
+    }
+
+    public boolean isQuest() {
+        return quest;
+    }
+
+    public boolean isPickupRestricted() {
+        return pickupRestricted;
+    }
+
+    /**
+     * <ul>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return The <code>inc*</code> stats (without the <code>inc</code>),
+     *         plus <code>tuc</code>, <code>reqLevel</code>, <code>cursed</code> and
+     *         <code>success</code>; unmodifiable. <code>null</code> if the item has no <code>info</code>.
+     */
+    public Map<String, Integer> getEquipStats() {
+        return equipStats;
+    }
+
+    public int getMasterLevel() {
+        return masterLevel;
+    }
+
+    public int getReqSkillLevel() {
+        return reqSkillLevel;
+    }
+
+    /**
+     * <ul>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return The skills in <code>info/skill</code> (a copy), or <code>null</code> if there is none.
+     */
+    public int[] getSkills() {
+        return skills == null ? null : skills.clone();
+    }
+
+    /**
+     * @return The items in <code>req</code> (a copy).
+     */
+    public int[] getScrollReqs() {
+        return scrollReqs.clone();
+    }
+
+    /**
+     * @return The pets that can eat the item (a copy).
+     */
+    public int[] getPetsCanConsume() {
+        return petsCanConsume.clone();
+    }
+
+    /**
+     * <ul>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return Pairs of monster ID and probability, from <code>mob</code>;
+     *         <code>null</code> if the item has none.
+     */
+    public int[][] getSummonMobs() {
+        if (summonMobs == null) {
+            return null;
+        }
+        int[][] ret = new int[summonMobs.length][];
+        for (int i = 0; i < ret.length; ++i) {
+            ret[i] = summonMobs[i].clone();
+        }
+        return ret;
+    }
+}
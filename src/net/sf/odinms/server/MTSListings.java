@@ -0,0 +1,749 @@
+package net.sf.odinms.server;
+
+import net.sf.odinms.client.Equip;
+import net.sf.odinms.client.IItem;
+import net.sf.odinms.client.Item;
+import net.sf.odinms.database.DatabaseConnection;
+import net.sf.odinms.tools.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntPredicate;
+
+/**
+ * The MTS listings (<code>mts_items</code>) and carts
+ * (<code>mts_cart</code>), read from the database once and then kept in
+ * memory. All changes to them go through here: the database is written
+ * first, and the listings in memory are only changed once that succeeds.
+ *
+ * Reads never touch the database. They look at a snapshot that is never
+ * changed once published (a new one is built on every change, which is
+ * rare next to how often pages are viewed), in which the listings for sale
+ * are kept per tab and per tab and type, and the listings of each seller
+ * and the cart of each character, as arrays of listing IDs, newest first.
+ * A page is then a range of one of those arrays. Search results are kept
+ * with the snapshot they were made from, so paging through them doesn't
+ * search again, and a change to the listings throws them away.
+ */
+public class MTSListings {
+    public static final int PAGE_SIZE = 16;
+    /** The most search results that are kept per snapshot. */
+    private static final int MAX_CACHED_SEARCHES = 256;
+    private static final Logger log = LoggerFactory.getLogger(MTSListings.class);
+    private static final MTSListings instance = new MTSListings();
+
+    /** One row of <code>mts_items</code>. */
+    public static final class Listing {
+        private final int id, tab, type, itemId, seller, price;
+        private final boolean transfer;
+        private final String sellerName, sellEnds;
+        private final IItem item;
+
+        private Listing(int id, int tab, int type, int seller, int price, boolean transfer,
+                        String sellerName, String sellEnds, IItem item) {
+            this.id = id;
+            this.tab = tab;
+            this.type = type;
+            this.itemId = item.getItemId();
+            this.seller = seller;
+            this.price = price;
+            this.transfer = transfer;
+            this.sellerName = sellerName;
+            this.sellEnds = sellEnds;
+            this.item = item;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getItemId() {
+            return itemId;
+        }
+
+        /**
+         * @return The character who is selling the item or, once it's in a transfer inventory, who has it there.
+         */
+        public int getSeller() {
+            return seller;
+        }
+
+        /**
+         * @return The price that the seller asked for, without taxes.
+         */
+        public int getPrice() {
+            return price;
+        }
+
+        /**
+         * @return Whether the item is in its seller's transfer inventory rather than for sale.
+         */
+        public boolean isTransfer() {
+            return transfer;
+        }
+
+        /**
+         * <ul>
+         * <li>pure?: true</li>
+         * <li>nullable?: false</li>
+         * </ul>
+         *
+         * @return A copy of the listed item.
+         */
+        public IItem copyItem() {
+            return item.copy();
+        }
+
+        private MTSItemInfo toInfo() {
+            return new MTSItemInfo(item.copy(), price, id, seller, sellerName, sellEnds);
+        }
+
+        private Listing transferredTo(int cid) {
+            return new Listing(id, tab, type, cid, price, true, sellerName, sellEnds, item);
+        }
+    }
+
+    /** One page of listings, and how many pages there are in all. */
+    public static final class Page {
+        private final List<MTSItemInfo> items;
+        private final int pages;
+
+        private Page(List<MTSItemInfo> items, int pages) {
+            this.items = items;
+            this.pages = pages;
+        }
+
+        public List<MTSItemInfo> getItems() {
+            return items;
+        }
+
+        public int getPages() {
+            return pages;
+        }
+    }
+
+    /**
+     * The listings and carts at one time. Never changes once published,
+     * apart from the search results that are cached in it.
+     */
+    private static final class Snapshot {
+        private static final int[] NONE = new int[0];
+        private final Map<Integer, Listing> byId;
+        /** The listings for sale, by {@link #key(int, int)}; type 0 for all of a tab. */
+        private final Map<Long, int[]> forSale = new HashMap<>();
+        /** All listings of each seller, for sale or in their transfer inventory. */
+        private final Map<Integer, int[]> bySeller = new HashMap<>();
+        private final Map<Integer, int[]> carts = new HashMap<>();
+        private final ConcurrentMap<String, int[]> searches = new ConcurrentHashMap<>();
+
+        /**
+         * @param listings By ID, in ascending order.
+         * @param carts The listing IDs in each cart, newest first.
+         */
+        Snapshot(TreeMap<Integer, Listing> listings, Map<Integer, List<Integer>> carts) {
+            byId = new HashMap<>(listings);
+            Map<Long, List<Integer>> forSale = new HashMap<>();
+            Map<Integer, List<Integer>> bySeller = new HashMap<>();
+            for (Listing listing : listings.descendingMap().values()) {
+                bySeller.computeIfAbsent(listing.seller, k -> new ArrayList<>()).add(listing.id);
+                if (!listing.transfer) {
+                    forSale.computeIfAbsent(key(listing.tab, 0), k -> new ArrayList<>()).add(listing.id);
+                    forSale.computeIfAbsent(key(listing.tab, listing.type), k -> new ArrayList<>()).add(listing.id);
+                }
+            }
+            forSale.forEach((key, ids) -> this.forSale.put(key, toArray(ids)));
+            bySeller.forEach((cid, ids) -> this.bySeller.put(cid, toArray(ids)));
+            carts.forEach((cid, ids) -> this.carts.put(cid, toArray(ids)));
+        }
+
+        private static long key(int tab, int type) {
+            return (long) tab << 32 | type & 0xFFFFFFFFL;
+        }
+
+        private static int[] toArray(List<Integer> ids) {
+            int[] ret = new int[ids.size()];
+            for (int i = 0; i < ret.length; ++i) {
+                ret[i] = ids.get(i);
+            }
+            return ret;
+        }
+
+        int[] forSale(int tab, int type) {
+            return forSale.getOrDefault(key(tab, type), NONE);
+        }
+
+        List<MTSItemInfo> toInfos(int[] ids, int from, int to, IntPredicate filter) {
+            List<MTSItemInfo> ret = new ArrayList<>();
+            for (int i = from; i < to; ++i) {
+                Listing listing = byId.get(ids[i]);
+                if (listing != null && (filter == null || filter.test(ids[i]))) {
+                    ret.add(listing.toInfo());
+                }
+            }
+            return ret;
+        }
+
+        Page page(int[] ids, int page) {
+            int pages = (ids.length + PAGE_SIZE - 1) / PAGE_SIZE;
+            if (page < 0 || page >= pages) {
+                return new Page(Collections.emptyList(), pages);
+            }
+            int from = page * PAGE_SIZE;
+            return new Page(toInfos(ids, from, Math.min(from + PAGE_SIZE, ids.length), null), pages);
+        }
+    }
+
+    /** What the snapshot is built from; only changed while holding the lock on this. */
+    private final TreeMap<Integer, Listing> listings = new TreeMap<>();
+    private final Map<Integer, List<Integer>> carts = new HashMap<>();
+    private volatile Snapshot snapshot;
+
+    private MTSListings() {
+    }
+
+    public static MTSListings getInstance() {
+        return instance;
+    }
+
+    private Snapshot snapshot() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    load();
+                }
+                s = snapshot;
+            }
+        }
+        return s;
+    }
+
+    private void publish() {
+        snapshot = new Snapshot(listings, carts);
+    }
+
+    /**
+     * Reads the listings and carts from the database, replacing the ones in
+     * memory. If they can't be read, the ones in memory are kept (or, if
+     * there are none yet, the MTS is empty).
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public synchronized void load() {
+        TreeMap<Integer, Listing> newListings = new TreeMap<>();
+        Map<Integer, List<Integer>> newCarts = new HashMap<>();
+        try (Connection con = DatabaseConnection.borrowConnection()) {
+            try (PreparedStatement ps = con.prepareStatement("SELECT * FROM mts_items");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Listing listing =
+                        new Listing(
+                            rs.getInt("id"),
+                            rs.getInt("tab"),
+                            rs.getInt("type"),
+                            rs.getInt("seller"),
+                            rs.getInt("price"),
+                            rs.getInt("transfer") != 0,
+                            rs.getString("sellername"),
+                            rs.getString("sell_ends"),
+                            readItem(rs)
+                        );
+                    newListings.put(listing.id, listing);
+                }
+            }
+            try (PreparedStatement ps = con.prepareStatement("SELECT cid, itemid FROM mts_cart ORDER BY id DESC");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    newCarts.computeIfAbsent(rs.getInt("cid"), k -> new ArrayList<>()).add(rs.getInt("itemid"));
+                }
+            }
+        } catch (SQLException sqle) {
+            log.error("Error reading MTS listings", sqle);
+            if (snapshot == null) {
+                publish();
+            }
+            return;
+        }
+        listings.clear();
+        listings.putAll(newListings);
+        carts.clear();
+        carts.putAll(newCarts);
+        publish();
+        log.info("Loaded {} MTS listings", listings.size());
+    }
+
+    /**
+     * Makes the item of a row of <code>mts_items</code>: an equip (type 1)
+     * with its stats, or any other item with its quantity.
+     */
+    private static IItem readItem(ResultSet rs) throws SQLException {
+        if (rs.getInt("type") != 1) {
+            Item i = new Item(rs.getInt("itemid"), (byte) 0, (short) rs.getInt("quantity"));
+            i.setOwner(rs.getString("owner"));
+            return i;
+        }
+        Equip equip = new Equip(rs.getInt("itemid"), (byte) rs.getInt("position"), -1);
+        equip.setOwner(rs.getString("owner"));
+        equip.setQuantity((short) 1);
+        equip.setAcc((short) rs.getInt("acc"));
+        equip.setAvoid((short) rs.getInt("avoid"));
+        equip.setDex((short) rs.getInt("dex"));
+        equip.setHands((short) rs.getInt("hands"));
+        equip.setHp((short) rs.getInt("hp"));
+        equip.setInt((short) rs.getInt("int"));
+        equip.setJump((short) rs.getInt("jump"));
+        equip.setLuk((short) rs.getInt("luk"));
+        equip.setMatk((short) rs.getInt("matk"));
+        equip.setMdef((short) rs.getInt("mdef"));
+        equip.setMp((short) rs.getInt("mp"));
+        equip.setSpeed((short) rs.getInt("speed"));
+        equip.setStr((short) rs.getInt("str"));
+        equip.setWatk((short) rs.getInt("watk"));
+        equip.setWdef((short) rs.getInt("wdef"));
+        equip.setUpgradeSlots((byte) rs.getInt("upgradeslots"));
+        equip.setLocked((byte) rs.getInt("locked"));
+        equip.setLevel((byte) rs.getInt("level"));
+        return equip;
+    }
+
+    /**
+     * The same item as {@link #readItem(ResultSet)} makes when reading back
+     * what {@link #list} writes.
+     */
+    private static IItem listedItem(IItem item, short quantity) {
+        if (item.getType() == 2) {
+            Item i = new Item(item.getItemId(), (byte) 0, quantity);
+            i.setOwner(item.getOwner());
+            return i;
+        }
+        Equip from = (Equip) item;
+        Equip equip = new Equip(from.getItemId(), (byte) 0, -1);
+        equip.setOwner(from.getOwner());
+        equip.setQuantity((short) 1);
+        equip.setAcc(from.getAcc());
+        equip.setAvoid(from.getAvoid());
+        equip.setDex(from.getDex());
+        equip.setHands(from.getHands());
+        equip.setHp(from.getHp());
+        equip.setInt(from.getInt());
+        equip.setJump(from.getJump());
+        equip.setLuk(from.getLuk());
+        equip.setMatk(from.getMatk());
+        equip.setMdef(from.getMdef());
+        equip.setMp(from.getMp());
+        equip.setSpeed(from.getSpeed());
+        equip.setStr(from.getStr());
+        equip.setWatk(from.getWatk());
+        equip.setWdef(from.getWdef());
+        equip.setUpgradeSlots(from.getUpgradeSlots());
+        equip.setLocked(from.getLocked());
+        equip.setLevel(from.getLevel());
+        return equip;
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return The listing with the given ID, or <code>null</code> if there is none.
+     */
+    public Listing getListing(int id) {
+        return snapshot().byId.get(id);
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @param type The type of item, or 0 for all types.
+     * @param page Which page, from 0.
+     */
+    public Page getPage(int tab, int type, int page) {
+        Snapshot s = snapshot();
+        return s.page(s.forSale(tab, type), page);
+    }
+
+    /**
+     * Searches the listings for sale by the names of the items (found with
+     * the {@link NameSearchIndex}) or of the sellers; either ignoring case.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @param type The type of item, or 0 for all types.
+     * @param byItemName Whether to search the names of items rather than of sellers.
+     * @param page Which page of the results, from 0.
+     */
+    public Page search(int tab, int type, boolean byItemName, String search, int page) {
+        Snapshot s = snapshot();
+        String query = search.toLowerCase();
+        String key = tab + "/" + type + "/" + byItemName + "/" + query;
+        int[] ids = s.searches.get(key);
+        if (ids == null) {
+            IntPredicate matches;
+            if (byItemName) {
+                Set<Integer> itemIds = new HashSet<>();
+                for (Pair<Integer, String> item :
+                    NameSearchIndex.getInstance().search(NameSearchIndex.Type.ITEM, search, Integer.MAX_VALUE)) {
+                    itemIds.add(item.getLeft());
+                }
+                matches = id -> itemIds.contains(s.byId.get(id).itemId);
+            } else {
+                matches = id -> s.byId.get(id).sellerName.toLowerCase().contains(query);
+            }
+            int[] candidates = s.forSale(tab, type);
+            int[] found = new int[candidates.length];
+            int n = 0;
+            for (int id : candidates) {
+                if (matches.test(id)) {
+                    found[n++] = id;
+                }
+            }
+            ids = n == found.length ? found : Arrays.copyOf(found, n);
+            if (s.searches.size() < MAX_CACHED_SEARCHES) {
+                s.searches.putIfAbsent(key, ids);
+            }
+        }
+        return s.page(ids, page);
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @return The items that a character is selling, newest first.
+     */
+    public List<MTSItemInfo> getNotYetSold(int cid) {
+        Snapshot s = snapshot();
+        int[] ids = s.bySeller.getOrDefault(cid, Snapshot.NONE);
+        return s.toInfos(ids, 0, ids.length, id -> !s.byId.get(id).transfer);
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @return The items in a character's transfer inventory, newest first.
+     */
+    public List<MTSItemInfo> getTransfer(int cid) {
+        Snapshot s = snapshot();
+        int[] ids = s.bySeller.getOrDefault(cid, Snapshot.NONE);
+        return s.toInfos(ids, 0, ids.length, id -> s.byId.get(id).transfer);
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @return The listings in a character's cart, last added first, and how many pages that is.
+     */
+    public Page getCart(int cid) {
+        Snapshot s = snapshot();
+        int[] ids = s.carts.getOrDefault(cid, Snapshot.NONE);
+        return new Page(s.toInfos(ids, 0, ids.length, null), (ids.length + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     *
+     * @return How many listings a character has, for sale or in their transfer inventory.
+     */
+    public int countListings(int cid) {
+        return snapshot().bySeller.getOrDefault(cid, Snapshot.NONE).length;
+    }
+
+    /**
+     * Puts an item up for sale, on the first tab.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @param type The type of the listing: 1 for equips, 2 for other items.
+     * @param sellEnds When the sale ends, as <code>yyyy-mm-dd</code>.
+     * @return The new listing.
+     */
+    public synchronized Listing list(IItem item, int type, short quantity, int seller, String sellerName,
+                                     int price, String sellEnds) throws SQLException {
+        snapshot();
+        int id;
+        try (Connection con = DatabaseConnection.borrowConnection()) {
+            PreparedStatement ps;
+            if (item.getType() == 2) {
+                ps = con.prepareStatement(
+                    "INSERT INTO mts_items (tab, type, itemid, quantity, seller, price, owner, sellername, " +
+                        "sell_ends) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS
+                );
+                ps.setInt(1, 1);
+                ps.setInt(2, type);
+                ps.setInt(3, item.getItemId());
+                ps.setInt(4, quantity);
+                ps.setInt(5, seller);
+                ps.setInt(6, price);
+                ps.setString(7, item.getOwner());
+                ps.setString(8, sellerName);
+                ps.setString(9, sellEnds);
+            } else {
+                Equip equip = (Equip) item;
+                ps = con.prepareStatement(
+                    "INSERT INTO mts_items (tab, type, itemid, quantity, seller, price, upgradeslots, level, str, " +
+                        "dex, `int`, luk, hp, mp, watk, matk, wdef, mdef, acc, avoid, hands, speed, jump, locked, " +
+                        "owner, sellername, sell_ends) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS
+                );
+                ps.setInt(1, 1);
+                ps.setInt(2, type);
+                ps.setInt(3, equip.getItemId());
+                ps.setInt(4, quantity);
+                ps.setInt(5, seller);
+                ps.setInt(6, price);
+                ps.setInt(7, equip.getUpgradeSlots());
+                ps.setInt(8, equip.getLevel());
+                ps.setInt(9, equip.getStr());
+                ps.setInt(10, equip.getDex());
+                ps.setInt(11, equip.getInt());
+                ps.setInt(12, equip.getLuk());
+                ps.setInt(13, equip.getHp());
+                ps.setInt(14, equip.getMp());
+                ps.setInt(15, equip.getWatk());
+                ps.setInt(16, equip.getMatk());
+                ps.setInt(17, equip.getWdef());
+                ps.setInt(18, equip.getMdef());
+                ps.setInt(19, equip.getAcc());
+                ps.setInt(20, equip.getAvoid());
+                ps.setInt(21, equip.getHands());
+                ps.setInt(22, equip.getSpeed());
+                ps.setInt(23, equip.getJump());
+                ps.setInt(24, equip.getLocked());
+                ps.setString(25, equip.getOwner());
+                ps.setString(26, sellerName);
+                ps.setString(27, sellEnds);
+            }
+            try {
+                ps.executeUpdate();
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    if (!rs.next()) {
+                        throw new SQLException("No ID was generated for the MTS listing");
+                    }
+                    id = rs.getInt(1);
+                }
+            } finally {
+                ps.close();
+            }
+        }
+        Listing listing =
+            new Listing(id, 1, type, seller, price, false, sellerName, sellEnds, listedItem(item, quantity));
+        listings.put(id, listing);
+        publish();
+        return listing;
+    }
+
+    /**
+     * Takes an item off sale and puts it in its seller's transfer
+     * inventory, and out of every cart.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @return Whether the character was selling such an item. If the
+     *         database says it isn't for sale any more, it isn't.
+     */
+    public synchronized boolean cancel(int id, int seller) throws SQLException {
+        snapshot();
+        Listing listing = listings.get(id);
+        if (listing == null || listing.seller != seller || listing.transfer) {
+            return false;
+        }
+        // Anything left uncommitted is rolled back when the connection goes back to the pool.
+        try (Connection con = DatabaseConnection.borrowConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement(
+                "UPDATE mts_items SET transfer = 1 WHERE id = ? AND seller = ? AND transfer = 0"
+            )) {
+                ps.setInt(1, id);
+                ps.setInt(2, seller);
+                if (ps.executeUpdate() == 0) {
+                    return false;
+                }
+            }
+            deleteFromCarts(con, id);
+            con.commit();
+        }
+        listings.put(id, listing.transferredTo(seller));
+        removeFromCarts(id);
+        publish();
+        return true;
+    }
+
+    /**
+     * Sells an item: it goes into the buyer's transfer inventory, and out of
+     * every cart. Paying for it is up to the caller.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return The listing as it was before it was sold, or <code>null</code> if the item isn't for sale (any more),
+     *         in memory or in the database.
+     */
+    public synchronized Listing buy(int id, int buyer) throws SQLException {
+        snapshot();
+        Listing listing = listings.get(id);
+        if (listing == null || listing.transfer) {
+            return null;
+        }
+        // Anything left uncommitted is rolled back when the connection goes back to the pool.
+        try (Connection con = DatabaseConnection.borrowConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement(
+                "UPDATE mts_items SET seller = ?, transfer = 1 WHERE id = ? AND transfer = 0"
+            )) {
+                ps.setInt(1, buyer);
+                ps.setInt(2, id);
+                if (ps.executeUpdate() == 0) {
+                    return null;
+                }
+            }
+            deleteFromCarts(con, id);
+            con.commit();
+        }
+        listings.put(id, listing.transferredTo(buyer));
+        removeFromCarts(id);
+        publish();
+        return listing;
+    }
+
+    /**
+     * Takes an item out of a character's transfer inventory, removing the listing.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return The listing, or <code>null</code> if the character has no such item in their transfer inventory.
+     */
+    public synchronized Listing takeOut(int id, int cid) throws SQLException {
+        snapshot();
+        Listing listing = listings.get(id);
+        if (listing == null || listing.seller != cid || !listing.transfer) {
+            return null;
+        }
+        try (Connection con = DatabaseConnection.borrowConnection();
+             PreparedStatement ps = con.prepareStatement(
+                 "DELETE FROM mts_items WHERE id = ? AND seller = ? AND transfer = 1"
+             )) {
+            ps.setInt(1, id);
+            ps.setInt(2, cid);
+            ps.executeUpdate();
+        }
+        listings.remove(id);
+        publish();
+        return listing;
+    }
+
+    /**
+     * Adds a listing to a character's cart, unless it's theirs or already in it.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public synchronized void addToCart(int cid, int id) throws SQLException {
+        snapshot();
+        Listing listing = listings.get(id);
+        List<Integer> cart = carts.get(cid);
+        if (listing == null || listing.seller == cid || cart != null && cart.contains(id)) {
+            return;
+        }
+        try (Connection con = DatabaseConnection.borrowConnection();
+             PreparedStatement ps = con.prepareStatement("INSERT INTO mts_cart (cid, itemid) VALUES (?, ?)")) {
+            ps.setInt(1, cid);
+            ps.setInt(2, id);
+            ps.executeUpdate();
+        }
+        carts.computeIfAbsent(cid, k -> new ArrayList<>()).add(0, id);
+        publish();
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public synchronized void removeFromCart(int cid, int id) throws SQLException {
+        snapshot();
+        try (Connection con = DatabaseConnection.borrowConnection();
+             PreparedStatement ps = con.prepareStatement("DELETE FROM mts_cart WHERE itemid = ? AND cid = ?")) {
+            ps.setInt(1, id);
+            ps.setInt(2, cid);
+            ps.executeUpdate();
+        }
+        List<Integer> cart = carts.get(cid);
+        if (cart != null && cart.remove(Integer.valueOf(id))) {
+            if (cart.isEmpty()) {
+                carts.remove(cid);
+            }
+            publish();
+        }
+    }
+
+    /**
+     * Takes a listing out of every cart in the database; memory is up to
+     * <code>removeFromCarts</code>, once the caller's transaction has committed.
+     */
+    private void deleteFromCarts(Connection con, int id) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("DELETE FROM mts_cart WHERE itemid = ?")) {
+            ps.setInt(1, id);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Takes a listing out of every cart in memory; the caller publishes.
+     */
+    private void removeFromCarts(int id) {
+        Integer boxed = id;
+        carts.values().removeIf(cart -> {
+            cart.removeIf(boxed::equals);
+            return cart.isEmpty();
+        });
+    }
+}
@@ -3,7 +3,10 @@ package net.sf.odinms.server;
 import net.sf.odinms.client.*;
 import net.sf.odinms.net.channel.ChannelServer;
 import net.sf.odinms.provider.*;
+import net.sf.odinms.tools.CopyOnWriteIntMap;
 import net.sf.odinms.tools.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.*;
@@ -11,7 +14,8 @@ import java.util.Map.Entry;
 import java.util.stream.Collectors;
 
 public class MapleItemInformationProvider {
-    private static MapleItemInformationProvider instance;
+    private static final Logger log = LoggerFactory.getLogger(MapleItemInformationProvider.class);
+    private static final List<String> UNREAD_EQUIP_DIRS = Arrays.asList("Face", "Hair");
     protected final MapleDataProvider itemData;
     protected final MapleDataProvider equipData;
     protected final MapleDataProvider stringData;
@@ -21,23 +25,19 @@ public class MapleItemInformationProvider {
     protected final MapleData etcStringData;
     protected final MapleData insStringData;
     protected final MapleData petStringData;
-    protected final Map<Integer, MapleInventoryType> inventoryTypeCache = new HashMap<>();
-    protected final Map<Integer, Short> slotMaxCache = new HashMap<>();
-    protected final Map<Integer, MapleStatEffect> itemEffects = new HashMap<>();
-    protected final Map<Integer, Map<String, Integer>> equipStatsCache = new HashMap<>();
-    protected final Map<Integer, Boolean> cashCache = new HashMap<>();
-    protected final Map<Integer, Equip> equipCache = new HashMap<>();
-    protected final Map<Integer, Double> priceCache = new HashMap<>();
-    protected final Map<Integer, Integer> wholePriceCache = new HashMap<>();
-    protected final Map<Integer, Integer> projectileWatkCache = new HashMap<>();
-    protected final Map<Integer, String> nameCache = new LinkedHashMap<>();
-    protected final Map<Integer, String> descCache = new HashMap<>();
-    protected final Map<Integer, String> msgCache = new HashMap<>();
-    protected final Map<Integer, Boolean> dropRestrictionCache = new HashMap<>();
-    protected final Map<Integer, Boolean> pickupRestrictionCache = new HashMap<>();
-    protected final Map<Integer, Integer> getMesoCache = new HashMap<>();
-    protected final Map<Integer, Integer> getExpCache = new HashMap<>();
-    protected final Map<Integer, Boolean> isQuestItemCache = new HashMap<>();
+    /*
+     * These are read from every thread that handles items, so they are
+     * CopyOnWriteIntMaps: reads take no lock and don't box the item ID.
+     */
+    /** Every item in Item.wz and Character.wz; built when the provider is created, and not changed after. */
+    protected final CopyOnWriteIntMap<ItemTemplate> templates = new CopyOnWriteIntMap<>();
+    /** The inventory type of each bundle of Item.wz (e.g. "0200" for Consume/0200.img). */
+    protected final Map<String, MapleInventoryType> bundleTypes = new HashMap<>();
+    protected final CopyOnWriteIntMap<MapleStatEffect> itemEffects = new CopyOnWriteIntMap<>();
+    protected final CopyOnWriteIntMap<Equip> equipCache = new CopyOnWriteIntMap<>();
+    protected final CopyOnWriteIntMap<String> nameCache = new CopyOnWriteIntMap<>();
+    protected final CopyOnWriteIntMap<String> descCache = new CopyOnWriteIntMap<>();
+    protected final CopyOnWriteIntMap<String> msgCache = new CopyOnWriteIntMap<>();
     private static final Random rand = new Random();
     private static final List<List<Integer>> maleFaceCache = new ArrayList<>();
     private static final List<List<Integer>> femaleFaceCache = new ArrayList<>();
@@ -49,7 +49,9 @@ public class MapleItemInformationProvider {
     private static boolean hairsCached = false;
     private static final Map<String, Integer> cashEquips = new LinkedHashMap<>();
     private static boolean cashEquipsCached = false;
-    private boolean namesCached = false;
+    // Last, so that the other static fields are set when the index is built.
+    private static final MapleItemInformationProvider instance = new MapleItemInformationProvider();
+    private volatile Map<Integer, String> allItems = null;
 
     /** Creates a new instance of MapleItemInformationProvider */
     protected MapleItemInformationProvider() {
@@ -62,52 +64,119 @@ public class MapleItemInformationProvider {
         etcStringData = MapleDataProviderFactory.getDataProvider(new File(System.getProperty("net.sf.odinms.wzpath") + "/String.wz")).getData("Etc.img");
         insStringData = MapleDataProviderFactory.getDataProvider(new File(System.getProperty("net.sf.odinms.wzpath") + "/String.wz")).getData("Ins.img");
         petStringData = MapleDataProviderFactory.getDataProvider(new File(System.getProperty("net.sf.odinms.wzpath") + "/String.wz")).getData("Pet.img");
+        buildIndex();
     }
 
     public static MapleItemInformationProvider getInstance() {
-        if (instance == null) {
-            instance = new MapleItemInformationProvider();
-        }
         return instance;
     }
 
-    /** Returns the inventory type for the specified item ID. */
-    public MapleInventoryType getInventoryType(int itemId) {
-        if (inventoryTypeCache.containsKey(itemId)) {
-            return inventoryTypeCache.get(itemId);
-        }
-        MapleInventoryType ret;
-        String idStr = "0" + String.valueOf(itemId);
-        // First look in items
-        MapleDataDirectoryEntry root = itemData.getRoot();
-        for (MapleDataDirectoryEntry topDir : root.getSubdirectories()) {
-            // We should have .img files here beginning with the first 4 IID
+    /**
+     * Reads every item out of Item.wz and Character.wz into
+     * <code>templates</code>, so that looking an item up doesn't have to
+     * search the directories and parse its .img again. An item found in
+     * more than one place keeps the first, in the order that the
+     * directories used to be searched in.
+     */
+    private void buildIndex() {
+        long start = System.currentTimeMillis();
+        Map<Integer, ItemTemplate> index = new HashMap<>();
+        for (MapleDataDirectoryEntry topDir : itemData.getRoot().getSubdirectories()) {
+            MapleInventoryType type = MapleInventoryType.getByWZName(topDir.getName());
             for (MapleDataFileEntry iFile : topDir.getFiles()) {
-                if (iFile.getName().equals(idStr.substring(0, 4) + ".img")) {
-                    ret = MapleInventoryType.getByWZName(topDir.getName());
-                    inventoryTypeCache.put(itemId, ret);
-                    return ret;
-                } else if (iFile.getName().equals(idStr.substring(1) + ".img")) {
-                    ret = MapleInventoryType.getByWZName(topDir.getName());
-                    inventoryTypeCache.put(itemId, ret);
-                    return ret;
+                String name = iFile.getName();
+                if (!name.endsWith(".img")) {
+                    continue;
+                }
+                String id = name.substring(0, name.length() - 4);
+                String path = topDir.getName() + "/" + name;
+                if (id.length() == 4) {
+                    // A bundle of all items whose ID (with a leading 0) starts with its name.
+                    bundleTypes.putIfAbsent(id, type);
+                    MapleData bundle = itemData.getData(path);
+                    if (bundle == null) {
+                        continue;
+                    }
+                    for (MapleData item : bundle.getChildren()) {
+                        addTemplate(index, item.getName(), type, item, path, true, false);
+                    }
+                } else {
+                    addTemplate(index, id, type, itemData.getData(path), path, false, false);
                 }
             }
         }
-        // Not found? maybe it's an equip
-        root = equipData.getRoot();
-        for (MapleDataDirectoryEntry topDir : root.getSubdirectories()) {
+        for (MapleDataDirectoryEntry topDir : equipData.getRoot().getSubdirectories()) {
+            boolean read = !UNREAD_EQUIP_DIRS.contains(topDir.getName());
             for (MapleDataFileEntry iFile : topDir.getFiles()) {
-                if (iFile.getName().equals(idStr + ".img")) {
-                    ret = MapleInventoryType.EQUIP;
-                    inventoryTypeCache.put(itemId, ret);
-                    return ret;
+                String name = iFile.getName();
+                if (name.length() != 12 || !name.endsWith(".img")) {
+                    continue;
                 }
+                String path = topDir.getName() + "/" + name;
+                addTemplate(
+                    index,
+                    name.substring(0, 8),
+                    MapleInventoryType.EQUIP,
+                    read ? equipData.getData(path) : null,
+                    path,
+                    false,
+                    true
+                );
             }
         }
-        ret = MapleInventoryType.UNDEFINED;
-        inventoryTypeCache.put(itemId, ret);
-        return ret;
+        templates.putAll(index);
+        log.info("Indexed {} items in {} ms", templates.size(), System.currentTimeMillis() - start);
+    }
+
+    private static void addTemplate(Map<Integer, ItemTemplate> index, String id, MapleInventoryType type,
+                                    MapleData item, String path, boolean bundled, boolean equip) {
+        int itemId;
+        try {
+            itemId = Integer.parseInt(id);
+        } catch (NumberFormatException nfe) {
+            return;
+        }
+        if (index.containsKey(itemId)) {
+            return;
+        }
+        try {
+            if (item == null) {
+                index.put(itemId, ItemTemplate.withoutData(itemId, type, path, equip));
+            } else {
+                index.put(itemId, ItemTemplate.fromData(itemId, type, item, path, bundled, equip));
+            }
+        } catch (RuntimeException re) {
+            log.warn("Could not read the data of item " + itemId, re);
+        }
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return What the item data says about the item, or <code>null</code> if there is no such item.
+     */
+    public ItemTemplate getTemplate(int itemId) {
+        return templates.get(itemId);
+    }
+
+    private boolean hasItemIcon(int itemId) {
+        ItemTemplate template = templates.get(itemId);
+        return template != null && template.hasIcon();
+    }
+
+    /** Returns the inventory type for the specified item ID. */
+    public MapleInventoryType getInventoryType(int itemId) {
+        ItemTemplate template = templates.get(itemId);
+        if (template != null) {
+            return template.getInventoryType();
+        }
+        // Not an item, but in the range of one of the bundles.
+        String idStr = "0" + itemId;
+        MapleInventoryType ret = idStr.length() < 4 ? null : bundleTypes.get(idStr.substring(0, 4));
+        return ret == null ? MapleInventoryType.UNDEFINED : ret;
     }
 
     public List<Pair<Integer, String>> getAllConsume() {
@@ -123,74 +192,29 @@ public class MapleItemInformationProvider {
         if (Character.isLetter(initial)) {
             initial = Character.toUpperCase(initial);
             for (MapleData itemFolder : itemsData.getChildren()) {
-                boolean hasIcon = false;
                 String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
                 if (Character.toUpperCase(itemName.charAt(0)) == initial) {
                     int itemId = Integer.parseInt(itemFolder.getName());
-                    MapleData item = getItemData(itemId);
-                    if (item == null) {
-                        continue;
-                    }
-                    MapleData info = item.getChildByPath("info");
-                    if (info == null) {
-                        continue;
-                    }
-                    for (MapleData data : info.getChildren()) {
-                        if (data.getName().equalsIgnoreCase("icon")) {
-                            hasIcon = true;
-                            break;
-                        }
-                    }
-                    if (hasIcon) {
+                    if (hasItemIcon(itemId)) {
                         itemPairs.add(new Pair<>(itemId, itemName));
                     }
                 }
             }
         } else if (initial == '#') {
             for (MapleData itemFolder : itemsData.getChildren()) {
-                boolean hasicon = false;
                 String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
                 if (!Character.isLetter(itemName.charAt(0))) {
                     int itemId = Integer.parseInt(itemFolder.getName());
-                    MapleData item = getItemData(itemId);
-                    if (item == null) {
-                        continue;
-                    }
-                    MapleData info = item.getChildByPath("info");
-                    if (info == null) {
-                        continue;
-                    }
-                    for (MapleData data : info.getChildren()) {
-                        if (data.getName().equalsIgnoreCase("icon")) {
-                            hasicon = true;
-                            break;
-                        }
-                    }
-                    if (hasicon) {
+                    if (hasItemIcon(itemId)) {
                         itemPairs.add(new Pair<>(itemId, itemName));
                     }
                 }
             }
         } else {
             for (MapleData itemFolder : itemsData.getChildren()) {
-                boolean hasicon = false;
                 String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
                 int itemId = Integer.parseInt(itemFolder.getName());
-                MapleData item = getItemData(itemId);
-                if (item == null) {
-                    continue;
-                }
-                MapleData info = item.getChildByPath("info");
-                if (info == null) {
-                    continue;
-                }
-                for (MapleData data : info.getChildren()) {
-                    if (data.getName().equalsIgnoreCase("icon")) {
-                        hasicon = true;
-                        break;
-                    }
-                }
-                if (hasicon) {
+                if (hasItemIcon(itemId)) {
                     itemPairs.add(new Pair<>(itemId, itemName));
                 }
             }
@@ -199,45 +223,7 @@ public class MapleItemInformationProvider {
     }
 
     public Pair<Integer, String> getConsumeByName(String searchstring) {
-        Pair<Integer, String> ret = null;
-        MapleData itemsData;
-
-        itemsData = stringData.getData("Consume.img");
-
-        if (searchstring.isEmpty()) {
-            return null;
-        }
-        searchstring = searchstring.toUpperCase();
-        for (MapleData itemFolder : itemsData.getChildren()) {
-            boolean hasicon = false;
-            String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
-            if (itemName.toUpperCase().startsWith(searchstring)) {
-                int itemId = Integer.parseInt(itemFolder.getName());
-                MapleData item = getItemData(itemId);
-                if (item == null) {
-                    continue;
-                }
-                MapleData info = item.getChildByPath("info");
-                if (info == null) {
-                    continue;
-                }
-                for (MapleData data : info.getChildren()) {
-                    if (data.getName().equalsIgnoreCase("icon")) {
-                        hasicon = true;
-                        break;
-                    }
-                }
-                if (hasicon) {
-                    if (ret == null) {
-                        ret = new Pair<>(itemId, itemName);
-                    } else if (ret.getRight().length() > itemName.length()) {
-                        ret = new Pair<>(itemId, itemName);
-                    }
-                }
-            }
-        }
-
-        return ret;
+        return getByName(searchstring, 2);
     }
 
     public List<Pair<Integer, String>> getAllEqp() {
@@ -253,25 +239,10 @@ public class MapleItemInformationProvider {
             initial = Character.toUpperCase(initial);
             for (MapleData eqpType : itemsData.getChildren()) {
                 for (MapleData itemFolder : eqpType.getChildren()) {
-                    boolean hasicon = false;
                     String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
                     if (Character.toUpperCase(itemName.charAt(0)) == initial) {
                         int itemId = Integer.parseInt(itemFolder.getName());
-                        MapleData item = getItemData(itemId);
-                        if (item == null) {
-                            continue;
-                        }
-                        MapleData info = item.getChildByPath("info");
-                        if (info == null) {
-                            continue;
-                        }
-                        for (MapleData data : info.getChildren()) {
-                            if (data.getName().equalsIgnoreCase("icon")) {
-                                hasicon = true;
-                                break;
-                            }
-                        }
-                        if (hasicon) {
+                        if (hasItemIcon(itemId)) {
                             itemPairs.add(new Pair<>(itemId, itemName));
                         }
                     }
@@ -280,25 +251,10 @@ public class MapleItemInformationProvider {
         } else if (initial == '#') {
             for (MapleData eqpType : itemsData.getChildren()) {
                 for (MapleData itemFolder : eqpType.getChildren()) {
-                    boolean hasicon = false;
                     String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
                     if (!Character.isLetter(itemName.charAt(0))) {
                         int itemId = Integer.parseInt(itemFolder.getName());
-                        MapleData item = getItemData(itemId);
-                        if (item == null) {
-                            continue;
-                        }
-                        MapleData info = item.getChildByPath("info");
-                        if (info == null) {
-                            continue;
-                        }
-                        for (MapleData data : info.getChildren()) {
-                            if (data.getName().equalsIgnoreCase("icon")) {
-                                hasicon = true;
-                                break;
-                            }
-                        }
-                        if (hasicon) {
+                        if (hasItemIcon(itemId)) {
                             itemPairs.add(new Pair<>(itemId, itemName));
                         }
                     }
@@ -307,24 +263,9 @@ public class MapleItemInformationProvider {
         } else {
             for (MapleData eqpType : itemsData.getChildren()) {
                 for (MapleData itemFolder : eqpType.getChildren()) {
-                    boolean hasicon = false;
                     String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
                     int itemId = Integer.parseInt(itemFolder.getName());
-                    MapleData item = getItemData(itemId);
-                    if (item == null) {
-                        continue;
-                    }
-                    MapleData info = item.getChildByPath("info");
-                    if (info == null) {
-                        continue;
-                    }
-                    for (MapleData data : info.getChildren()) {
-                        if (data.getName().equalsIgnoreCase("icon")) {
-                            hasicon = true;
-                            break;
-                        }
-                    }
-                    if (hasicon) {
+                    if (hasItemIcon(itemId)) {
                         itemPairs.add(new Pair<>(itemId, itemName));
                     }
                 }
@@ -334,47 +275,7 @@ public class MapleItemInformationProvider {
     }
 
     public Pair<Integer, String> getEqpByName(String searchstring) {
-        Pair<Integer, String> ret = null;
-        MapleData itemsData;
-
-        itemsData = stringData.getData("Eqp.img").getChildByPath("Eqp");
-
-        if (searchstring.isEmpty()) {
-            return null;
-        }
-        searchstring = searchstring.toUpperCase();
-        for (MapleData eqpType : itemsData.getChildren()) {
-            for (MapleData itemFolder : eqpType.getChildren()) {
-                boolean hasicon = false;
-                String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
-                if (itemName.toUpperCase().startsWith(searchstring)) {
-                    int itemId = Integer.parseInt(itemFolder.getName());
-                    MapleData item = getItemData(itemId);
-                    if (item == null) {
-                        continue;
-                    }
-                    MapleData info = item.getChildByPath("info");
-                    if (info == null) {
-                        continue;
-                    }
-                    for (MapleData data : info.getChildren()) {
-                        if (data.getName().equalsIgnoreCase("icon")) {
-                            hasicon = true;
-                            break;
-                        }
-                    }
-                    if (hasicon) {
-                        if (ret == null) {
-                            ret = new Pair<>(itemId, itemName);
-                        } else if (ret.getRight().length() > itemName.length()) {
-                            ret = new Pair<>(itemId, itemName);
-                        }
-                    }
-                }
-            }
-        }
-
-        return ret;
+        return getByName(searchstring, 1);
     }
 
     public List<Pair<Integer, String>> getAllEtc() {
@@ -389,74 +290,29 @@ public class MapleItemInformationProvider {
         if (Character.isLetter(initial)) {
             initial = Character.toUpperCase(initial);
             for (MapleData itemFolder : itemsData.getChildren()) {
-                boolean hasicon = false;
                 String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
                 if (Character.toUpperCase(itemName.charAt(0)) == initial) {
                     int itemId = Integer.parseInt(itemFolder.getName());
-                    MapleData item = getItemData(itemId);
-                    if (item == null) {
-                        continue;
-                    }
-                    MapleData info = item.getChildByPath("info");
-                    if (info == null) {
-                        continue;
-                    }
-                    for (MapleData data : info.getChildren()) {
-                        if (data.getName().equalsIgnoreCase("icon")) {
-                            hasicon = true;
-                            break;
-                        }
-                    }
-                    if (hasicon) {
+                    if (hasItemIcon(itemId)) {
                         itemPairs.add(new Pair<>(itemId, itemName));
                     }
                 }
             }
         } else if (initial == '#') {
             for (MapleData itemFolder : itemsData.getChildren()) {
-                boolean hasicon = false;
                 String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
                 if (!Character.isLetter(itemName.charAt(0))) {
                     int itemId = Integer.parseInt(itemFolder.getName());
-                    MapleData item = getItemData(itemId);
-                    if (item == null) {
-                        continue;
-                    }
-                    MapleData info = item.getChildByPath("info");
-                    if (info == null) {
-                        continue;
-                    }
-                    for (MapleData data : info.getChildren()) {
-                        if (data.getName().equalsIgnoreCase("icon")) {
-                            hasicon = true;
-                            break;
-                        }
-                    }
-                    if (hasicon) {
+                    if (hasItemIcon(itemId)) {
                         itemPairs.add(new Pair<>(itemId, itemName));
                     }
                 }
             }
         } else {
             for (MapleData itemFolder : itemsData.getChildren()) {
-                boolean hasicon = false;
                 String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
                 int itemId = Integer.parseInt(itemFolder.getName());
-                MapleData item = getItemData(itemId);
-                if (item == null) {
-                    continue;
-                }
-                MapleData info = item.getChildByPath("info");
-                if (info == null) {
-                    continue;
-                }
-                for (MapleData data : info.getChildren()) {
-                    if (data.getName().equalsIgnoreCase("icon")) {
-                        hasicon = true;
-                        break;
-                    }
-                }
-                if (hasicon) {
+                if (hasItemIcon(itemId)) {
                     itemPairs.add(new Pair<>(itemId, itemName));
                 }
             }
@@ -465,66 +321,63 @@ public class MapleItemInformationProvider {
     }
 
     public Pair<Integer, String> getEtcByName(String searchstring) {
-        Pair<Integer, String> ret = null;
-        MapleData itemsData;
-
-        itemsData = stringData.getData("Etc.img").getChildByPath("Etc");
-
+        return getByName(searchstring, 4);
+    }
+
+    /**
+     * Finds the item with the shortest name that starts with the given
+     * string (ignoring case), among those of one category that have an icon.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @param category The first digit of the item IDs, e.g. 2 for use items.
+     */
+    private Pair<Integer, String> getByName(String searchstring, int category) {
         if (searchstring.isEmpty()) {
             return null;
         }
-        searchstring = searchstring.toUpperCase();
-        for (MapleData itemFolder : itemsData.getChildren()) {
-            boolean hasIcon = false;
-            String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
-            if (itemName.toUpperCase().startsWith(searchstring)) {
-                int itemId = Integer.parseInt(itemFolder.getName());
-                MapleData item = getItemData(itemId);
-                if (item == null) {
-                    continue;
-                }
-                MapleData info = item.getChildByPath("info");
-                if (info == null) {
-                    continue;
-                }
-                for (MapleData data : info.getChildren()) {
-                    if (data.getName().equalsIgnoreCase("icon")) {
-                        hasIcon = true;
-                        break;
-                    }
-                }
-                if (hasIcon) {
-                    if (ret == null) {
-                        ret = new Pair<>(itemId, itemName);
-                    } else if (ret.getRight().length() > itemName.length()) {
-                        ret = new Pair<>(itemId, itemName);
-                    }
-                }
-            }
-        }
-
-        return ret;
-    }
-
+        List<Pair<Integer, String>> ret =
+            NameSearchIndex.getInstance().searchPrefix(
+                NameSearchIndex.Type.ITEM,
+                searchstring,
+                1,
+                itemId -> itemId / 1000000 == category && hasItemIcon(itemId)
+            );
+        return ret.isEmpty() ? null : ret.get(0);
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @return The names of all items in String.wz, in the order that they're in there; unmodifiable.
+     */
     public Map<Integer, String> getAllItems() {
-        if (namesCached) {
-            return nameCache;
+        Map<Integer, String> ret = allItems;
+        if (ret != null) {
+            return ret;
         }
 
+        Map<Integer, String> names = new LinkedHashMap<>();
         MapleData itemsData;
 
         itemsData = stringData.getData("Cash.img");
         for (MapleData itemFolder : itemsData.getChildren()) {
             int itemId = Integer.parseInt(itemFolder.getName());
             String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
-            nameCache.put(itemId, itemName);
+            names.put(itemId, itemName);
         }
 
         itemsData = stringData.getData("Consume.img");
         for (MapleData itemFolder : itemsData.getChildren()) {
             int itemId = Integer.parseInt(itemFolder.getName());
             String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
-            nameCache.put(itemId, itemName);
+            names.put(itemId, itemName);
         }
 
         itemsData = stringData.getData("Eqp.img").getChildByPath("Eqp");
@@ -532,7 +385,7 @@ public class MapleItemInformationProvider {
             for (MapleData itemFolder : eqpType.getChildren()) {
                 int itemId = Integer.parseInt(itemFolder.getName());
                 String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
-                nameCache.put(itemId, itemName);
+                names.put(itemId, itemName);
             }
         }
 
@@ -540,25 +393,26 @@ public class MapleItemInformationProvider {
         for (MapleData itemFolder : itemsData.getChildren()) {
             int itemId = Integer.parseInt(itemFolder.getName());
             String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
-            nameCache.put(itemId, itemName);
+            names.put(itemId, itemName);
         }
 
         itemsData = stringData.getData("Ins.img");
         for (MapleData itemFolder : itemsData.getChildren()) {
             int itemId = Integer.parseInt(itemFolder.getName());
             String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
-            nameCache.put(itemId, itemName);
+            names.put(itemId, itemName);
         }
 
         itemsData = stringData.getData("Pet.img");
         for (MapleData itemFolder : itemsData.getChildren()) {
             int itemId = Integer.parseInt(itemFolder.getName());
             String itemName = MapleDataTool.getString("name", itemFolder, "NO-NAME");
-            nameCache.put(itemId, itemName);
+            names.put(itemId, itemName);
         }
 
-        namesCached = true;
-        return nameCache;
+        nameCache.putAll(names);
+        allItems = ret = Collections.unmodifiableMap(names);
+        return ret;
     }
 
     protected MapleData getStringData(int itemId) {
@@ -631,34 +485,20 @@ public class MapleItemInformationProvider {
         }
     }
 
+    /**
+     * Reads the data of an item from the place that the index found it in.
+     * Only needed for what isn't in the item's {@link ItemTemplate}.
+     */
     protected MapleData getItemData(int itemId) {
-        MapleData ret;
-        String idStr = "0" + String.valueOf(itemId);
-        MapleDataDirectoryEntry root = itemData.getRoot();
-        for (MapleDataDirectoryEntry topDir : root.getSubdirectories()) {
-            // We should have .img files here beginning with the first 4 IID
-            for (MapleDataFileEntry iFile : topDir.getFiles()) {
-                if (iFile.getName().equals(idStr.substring(0, 4) + ".img")) {
-                    ret = itemData.getData(topDir.getName() + "/" + iFile.getName());
-                    if (ret == null) {
-                        return null;
-                    }
-                    ret = ret.getChildByPath(idStr);
-                    return ret;
-                } else if (iFile.getName().equals(idStr.substring(1) + ".img")) {
-                    return itemData.getData(topDir.getName() + "/" + iFile.getName());
-                }
-            }
+        ItemTemplate template = templates.get(itemId);
+        if (template == null || template.getDataPath() == null) {
+            return null;
         }
-        root = equipData.getRoot();
-        for (MapleDataDirectoryEntry topDir : root.getSubdirectories()) {
-            for (MapleDataFileEntry iFile : topDir.getFiles()) {
-                if (iFile.getName().equals(idStr + ".img")) {
-                    return equipData.getData(topDir.getName() + "/" + iFile.getName());
-                }
-            }
+        MapleData ret = (template.isEquipData() ? equipData : itemData).getData(template.getDataPath());
+        if (ret == null || !template.isBundled()) {
+            return ret;
         }
-        return null;
+        return ret.getChildByPath("0" + itemId);
     }
 
     /** Called by Coco NPC the first time someone starts a conversation with them. */
@@ -874,167 +714,49 @@ public class MapleItemInformationProvider {
 
     /** Returns the maximum of items in one slot. */
     public short getSlotMax(MapleClient c, int itemId) {
-        if (slotMaxCache.containsKey(itemId)) {
-            return slotMaxCache.get(itemId);
+        ItemTemplate template = templates.get(itemId);
+        if (template == null) {
+            return 0;
         }
-        short ret = 0;
-        MapleData item = getItemData(itemId);
-        if (item != null) {
-            MapleData smEntry = item.getChildByPath("info/slotMax");
-            if (smEntry == null) {
-                if (getInventoryType(itemId).getType() == MapleInventoryType.EQUIP.getType()) {
-                    ret = 1;
-                } else {
-                    ret = 100;
-                }
-            } else {
-                /*
-                if (isThrowingStar(itemId) || isBullet(itemId) || (MapleDataTool.getInt(smEntry) == 0)) {
-                    ret = 1;
-                }
-                */
-                ret = (short) MapleDataTool.getInt(smEntry);
-                if (isThrowingStar(itemId)) {
-                    ret += c.getPlayer().getSkillLevel(SkillFactory.getSkill(4100000)) * 10;
-                } else {
-                    ret += c.getPlayer().getSkillLevel(SkillFactory.getSkill(5200000)) * 10;
-                }
-
+        short ret = template.getSlotMax();
+        if (template.isSlotMaxSet()) {
+            if (isThrowingStar(itemId)) {
+                ret += c.getPlayer().getSkillLevel(SkillFactory.getSkill(4100000)) * 10;
+            } else if (isBullet(itemId)) {
+                ret += c.getPlayer().getSkillLevel(SkillFactory.getSkill(5200000)) * 10;
             }
         }
-        if (!isThrowingStar(itemId) && !isBullet(itemId)) {
-            slotMaxCache.put(itemId, ret);
-        }
-
         return ret;
     }
 
     public int getMeso(int itemId) {
-        if (getMesoCache.containsKey(itemId)) {
-            return getMesoCache.get(itemId);
-        }
-        MapleData item = getItemData(itemId);
-        if (item == null) {
-            return -1;
-        }
-        int pEntry;
-        MapleData pData = item.getChildByPath("info/meso");
-        if (pData == null) {
-            return -1;
-        }
-        pEntry = MapleDataTool.getInt(pData);
-
-        getMesoCache.put(itemId, pEntry);
-        return pEntry;
+        ItemTemplate template = templates.get(itemId);
+        return template == null ? -1 : template.getMeso();
     }
 
     public int getExpCache(int itemId) {
-        if (this.getExpCache.containsKey(itemId)) {
-            return getExpCache.get(itemId);
-        }
-        MapleData item = getItemData(itemId);
-        if (item == null) {
-            return 0;
-        }
-        int pEntry;
-        MapleData pData = item.getChildByPath("spec/exp");
-        if (pData == null) {
-            return 0;
-        }
-        pEntry = MapleDataTool.getInt(pData);
-
-        getExpCache.put(itemId, pEntry);
-        return pEntry;
+        ItemTemplate template = templates.get(itemId);
+        return template == null ? 0 : template.getExp();
     }
 
     public int getWholePrice(int itemId) {
-        if (wholePriceCache.containsKey(itemId)) {
-            return wholePriceCache.get(itemId);
-        }
-        MapleData item = getItemData(itemId);
-        if (item == null) {
-            return -1;
-        }
-
-        int pEntry;
-        MapleData pData = item.getChildByPath("info/price");
-        if (pData == null) {
-            return -1;
-        }
-        pEntry = MapleDataTool.getInt(pData);
-
-        wholePriceCache.put(itemId, pEntry);
-        return pEntry;
+        ItemTemplate template = templates.get(itemId);
+        return template == null ? -1 : template.getWholePrice();
     }
 
     public double getPrice(int itemId) {
-        if (priceCache.containsKey(itemId)) {
-            return priceCache.get(itemId);
-        }
-        MapleData item = getItemData(itemId);
-        if (item == null) {
-            return -1;
-        }
-
-        double pEntry;
-        MapleData pData = item.getChildByPath("info/unitPrice");
-        if (pData != null) {
-            try {
-                pEntry = MapleDataTool.getDouble(pData);
-            } catch (Exception e) {
-                pEntry = (double) MapleDataTool.getInt(pData);
-            }
-        } else {
-            pData = item.getChildByPath("info/price");
-            if (pData == null) {
-                return -1;
-            }
-            pEntry = (double) MapleDataTool.getInt(pData);
-        }
-
-        priceCache.put(itemId, pEntry);
-        return pEntry;
+        ItemTemplate template = templates.get(itemId);
+        return template == null ? -1 : template.getPrice();
     }
 
     protected Map<String, Integer> getEquipStats(int itemId) {
-        if (equipStatsCache.containsKey(itemId)) {
-            return equipStatsCache.get(itemId);
-        }
-        Map<String, Integer> ret = new LinkedHashMap<>();
-        MapleData item = getItemData(itemId);
-        if (item == null) {
-            return null;
-        }
-        MapleData info = item.getChildByPath("info");
-        if (info == null) {
-            return null;
-        }
-        for (MapleData data : info.getChildren()) {
-            if (data.getName().startsWith("inc")) {
-                ret.put(data.getName().substring(3), MapleDataTool.getIntConvert(data));
-            }
-        }
-        ret.put("tuc", MapleDataTool.getInt("tuc", info, 0));
-        ret.put("reqLevel", MapleDataTool.getInt("reqLevel", info, 0));
-        ret.put("cursed", MapleDataTool.getInt("cursed", info, 0));
-        ret.put("success", MapleDataTool.getInt("success", info, 0));
-        equipStatsCache.put(itemId, ret);
-        return ret;
+        ItemTemplate template = templates.get(itemId);
+        return template == null ? null : template.getEquipStats();
     }
 
     public boolean isCash(int itemId) {
-        if (cashCache.containsKey(itemId)) {
-            return cashCache.get(itemId);
-        }
-        MapleData item = getItemData(itemId);
-        MapleData info = item.getChildByPath("info");
-        if (info == null) {
-            cashCache.put(itemId, false);
-            return false;
-        }
-        boolean cash = MapleDataTool.getInt("cash", info, 0) == 1;
-        cashCache.put(itemId, cash);
-        return cash;
+        ItemTemplate template = templates.get(itemId);
+        return template != null && template.isCash();
     }
 
     public void cacheCashEquips() {
@@ -1159,16 +881,11 @@ public class MapleItemInformationProvider {
     }
 
     public List<Integer> getScrollReqs(int itemId) {
-        List<Integer> ret = new ArrayList<>();
-        MapleData data = getItemData(itemId);
-        data = data.getChildByPath("req");
-        if (data == null) {
-            return ret;
-        }
-        for (MapleData req : data.getChildren()) {
-            ret.add(MapleDataTool.getInt(req));
+        ItemTemplate template = templates.get(itemId);
+        if (template == null) {
+            return new ArrayList<>();
         }
-        return ret;
+        return Arrays.stream(template.getScrollReqs()).boxed().collect(Collectors.toCollection(ArrayList::new));
     }
 
     public boolean isWeapon(int itemId) {
@@ -1418,8 +1135,9 @@ public class MapleItemInformationProvider {
     }
 
     public IItem getEquipById(int equipId, int ringId) {
-        if (equipCache.containsKey(equipId)) {
-            return equipCache.get(equipId).copy();
+        Equip cached = equipCache.get(equipId);
+        if (cached != null) {
+            return cached.copy();
         }
         Equip nEquip;
         nEquip = new Equip(equipId, (byte) 0, ringId);
@@ -1461,8 +1179,8 @@ public class MapleItemInformationProvider {
                 }*/
             }
         }
-        equipCache.put(equipId, nEquip);
-        return nEquip.copy();
+        cached = equipCache.putIfAbsent(equipId, nEquip);
+        return (cached != null ? cached : nEquip).copy();
     }
 
     private short getRandStat(short defaultValue, int maxRange, short additionalStats) {
@@ -1515,28 +1233,18 @@ public class MapleItemInformationProvider {
     }
 
     public MapleStatEffect getItemEffect(int itemId) {
-        MapleStatEffect ret = itemEffects.get(itemId);
-        if (ret == null) {
-            MapleData item = getItemData(itemId);
+        return itemEffects.computeIfAbsent(itemId, id -> {
+            MapleData item = getItemData(id);
             if (item == null) {
                 return null;
             }
-            MapleData spec = item.getChildByPath("spec");
-            ret = MapleStatEffect.loadItemEffectFromData(spec, itemId);
-            itemEffects.put(itemId, ret);
-        }
-        return ret;
+            return MapleStatEffect.loadItemEffectFromData(item.getChildByPath("spec"), id);
+        });
     }
 
     public int[][] getSummonMobs(int itemId) {
-        MapleData data = getItemData(itemId);
-        int theInt = data.getChildByPath("mob").getChildren().size();
-        int[][] mobs2spawn = new int[theInt][2];
-        for (int x = 0; x < theInt; ++x) {
-            mobs2spawn[x][0] = MapleDataTool.getIntConvert("mob/" + x + "/id", data);
-            mobs2spawn[x][1] = MapleDataTool.getIntConvert("mob/" + x + "/prob", data);
-        }
-        return mobs2spawn;
+        ItemTemplate template = templates.get(itemId);
+        return template == null ? null : template.getSummonMobs();
     }
 
     public boolean isThrowingStar(int itemId) {
@@ -1596,14 +1304,8 @@ public class MapleItemInformationProvider {
     }
 
     public int getWatkForProjectile(int itemId) {
-        Integer atk = projectileWatkCache.get(itemId);
-        if (atk != null) {
-            return atk;
-        }
-        MapleData data = getItemData(itemId);
-        atk = MapleDataTool.getInt("info/incPAD", data, 0);
-        projectileWatkCache.put(itemId, atk);
-        return atk;
+        ItemTemplate template = templates.get(itemId);
+        return template == null ? 0 : template.getProjectileWatk();
     }
 
     public boolean canScroll(int scrollid, int itemid) {
@@ -1613,103 +1315,86 @@ public class MapleItemInformationProvider {
     }
 
     public String getName(int itemId) {
-        if (nameCache.containsKey(itemId)) {
-            return nameCache.get(itemId);
+        String ret = nameCache.get(itemId);
+        if (ret != null || nameCache.containsKey(itemId)) {
+            return ret;
         }
         MapleData strings = getStringData(itemId);
         if (strings == null) {
             return null;
         }
-        String ret = MapleDataTool.getString("name", strings, null);
-        nameCache.put(itemId, ret);
+        ret = MapleDataTool.getString("name", strings, null);
+        nameCache.putIfAbsent(itemId, ret);
         return ret;
     }
 
     public String getDesc(int itemId) {
-        if (descCache.containsKey(itemId)) {
-            return descCache.get(itemId);
+        String ret = descCache.get(itemId);
+        if (ret != null || descCache.containsKey(itemId)) {
+            return ret;
         }
         MapleData strings = getStringData(itemId);
         if (strings == null) {
             return null;
         }
-        String ret = MapleDataTool.getString("desc", strings, null);
-        descCache.put(itemId, ret);
+        ret = MapleDataTool.getString("desc", strings, null);
+        descCache.putIfAbsent(itemId, ret);
         return ret;
     }
 
     public String getMsg(int itemId) {
-        if (msgCache.containsKey(itemId)) {
-            return msgCache.get(itemId);
+        String ret = msgCache.get(itemId);
+        if (ret != null || msgCache.containsKey(itemId)) {
+            return ret;
         }
         MapleData strings = getStringData(itemId);
         if (strings == null) {
             return null;
         }
-        String ret = MapleDataTool.getString("msg", strings, null);
-        msgCache.put(itemId, ret);
+        ret = MapleDataTool.getString("msg", strings, null);
+        msgCache.putIfAbsent(itemId, ret);
         return ret;
     }
 
     public boolean isDropRestricted(int itemId) {
-        if (dropRestrictionCache.containsKey(itemId)) {
-            return dropRestrictionCache.get(itemId);
-        }
-
-        MapleData data = getItemData(itemId);
-
-        boolean bRestricted = MapleDataTool.getIntConvert("info/tradeBlock", data, 0) == 1;
-        if (!bRestricted) {
-            bRestricted = MapleDataTool.getIntConvert("info/quest", data, 0) == 1;
-        }
-        dropRestrictionCache.put(itemId, bRestricted);
-
-        return bRestricted;
+        ItemTemplate template = templates.get(itemId);
+        return template != null && (template.isTradeBlock() || template.isQuest());
     }
 
     public boolean isPickupRestricted(int itemId) {
-        if (pickupRestrictionCache.containsKey(itemId)) {
-            return pickupRestrictionCache.get(itemId);
-        }
-
-        MapleData data = getItemData(itemId);
-        boolean bRestricted = MapleDataTool.getIntConvert("info/only", data, 0) == 1;
-
-        pickupRestrictionCache.put(itemId, bRestricted);
-        return bRestricted;
+        ItemTemplate template = templates.get(itemId);
+        return template != null && template.isPickupRestricted();
     }
 
     public Map<String, Integer> getSkillStats(int itemId, double playerJob) {
-        Map<String, Integer> ret = new LinkedHashMap<>();
-        MapleData item = getItemData(itemId);
-        if (item == null) {
-            return null;
-        }
-        MapleData info = item.getChildByPath("info");
-        if (info == null) {
+        ItemTemplate template = templates.get(itemId);
+        if (template == null || !template.hasInfo()) {
             return null;
         }
-        for (MapleData data : info.getChildren()) {
-            if (data.getName().startsWith("inc")) {
-                ret.put(data.getName().substring(3), MapleDataTool.getIntConvert(data));
+        Map<String, Integer> ret = new LinkedHashMap<>();
+        for (Entry<String, Integer> stat : template.getEquipStats().entrySet()) {
+            switch (stat.getKey()) {
+                case "tuc":
+                case "reqLevel":
+                case "cursed":
+                case "success":
+                    break;
+                default:
+                    ret.put(stat.getKey(), stat.getValue());
             }
         }
-        ret.put("masterLevel", MapleDataTool.getInt("masterLevel", info, 0));
-        ret.put("reqSkillLevel", MapleDataTool.getInt("reqSkillLevel", info, 0));
-        ret.put("success", MapleDataTool.getInt("success", info, 0));
-
-        MapleData skill = info.getChildByPath("skill");
-        int curskill;
-        int size = skill.getChildren().size();
-        for (int i = 0; i < size; ++i) {
-            curskill = MapleDataTool.getInt(Integer.toString(i), skill, 0);
-            if (curskill == 0) {
-                break;
-            }
-            double skillJob = Math.floor(curskill / 10000);
-            if (skillJob == playerJob) {
-                ret.put("skillid", curskill);
-                break;
+        ret.put("masterLevel", template.getMasterLevel());
+        ret.put("reqSkillLevel", template.getReqSkillLevel());
+        ret.put("success", template.getEquipStats().get("success"));
+
+        int[] skills = template.getSkills();
+        if (skills != null) {
+            for (int curskill : skills) {
+                double skillJob = Math.floor(curskill / 10000);
+                if (skillJob == playerJob) {
+                    ret.put("skillid", curskill);
+                    break;
+                }
             }
         }
 
@@ -1719,27 +1404,15 @@ public class MapleItemInformationProvider {
     }
 
     public List<Integer> petsCanConsume(int itemId) {
-        List<Integer> ret = new ArrayList<>();
-        MapleData data = getItemData(itemId);
-        int curPetId;
-        int size = data.getChildren().size();
-        for (int i = 0; i < size; ++i) {
-            curPetId = MapleDataTool.getInt("spec/" + Integer.toString(i), data, 0);
-            if (curPetId == 0) {
-                break;
-            }
-            ret.add(curPetId);
+        ItemTemplate template = templates.get(itemId);
+        if (template == null) {
+            return new ArrayList<>();
         }
-        return ret;
+        return Arrays.stream(template.getPetsCanConsume()).boxed().collect(Collectors.toCollection(ArrayList::new));
     }
 
     public boolean isQuestItem(int itemId) {
-        if (isQuestItemCache.containsKey(itemId)) {
-            return isQuestItemCache.get(itemId);
-        }
-        MapleData data = getItemData(itemId);
-        boolean questItem = MapleDataTool.getIntConvert("info/quest", data, 0) == 1;
-        isQuestItemCache.put(itemId, questItem);
-        return questItem;
+        ItemTemplate template = templates.get(itemId);
+        return template != null && template.isQuest();
     }
 }
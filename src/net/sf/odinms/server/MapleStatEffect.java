@@ -957,21 +957,18 @@ public class MapleStatEffect implements Serializable {
                     affected != applyFrom &&
                     (isGmBuff() || applyFrom.getParty().equals(affected.getParty()))
                 ) {
-                    boolean isResurrection = isResurrection();
-                    if ((isResurrection && !affected.isAlive()) || (!isResurrection && affected.isAlive())) {
-                        if (isResurrection) {
-                            if (applyFrom.getPosition().distanceSq(affected.getPosition()) < closestDistance && affected.getLevel() >= 110) {
+                    // Whom a resurrection revives is picked below, through the map's object index.
+                    if (!isResurrection() && affected.isAlive()) {
+                        affectedp.add(affected);
+                        if (potentiallySamsara) {
+                            if (
+                                !affected.isAlive() &&
+                                applyFrom.getPosition().distanceSq(affected.getPosition()) < closestDistance &&
+                                affected.getLevel() >= 110
+                            ) {
                                 closestDistance = applyFrom.getPosition().distanceSq(affected.getPosition());
                                 closestPlayer = affected;
                             }
-                        } else {
-                            affectedp.add(affected);
-                            if (potentiallySamsara) {
-                                if (!affected.isAlive() && applyFrom.getPosition().distanceSq(affected.getPosition()) < closestDistance && affected.getLevel() >= 110) {
-                                    closestDistance = applyFrom.getPosition().distanceSq(affected.getPosition());
-                                    closestPlayer = affected;
-                                }
-                            }
                         }
                     }
                     if (isTimeLeap()) {
@@ -983,6 +980,21 @@ public class MapleStatEffect implements Serializable {
                     }
                 }
             }
+            if (isResurrection()) {
+                closestPlayer = (MapleCharacter) applyFrom.getMap().getNearestMapObject(
+                    applyFrom.getPosition(),
+                    Double.POSITIVE_INFINITY,
+                    MapleMapObjectType.PLAYER,
+                    mmo -> {
+                        MapleCharacter dead = (MapleCharacter) mmo;
+                        return dead != applyFrom &&
+                               !dead.isAlive() &&
+                               dead.getLevel() >= 110 &&
+                               bounds.contains(dead.getPosition()) &&
+                               (isGmBuff() || applyFrom.getParty().equals(dead.getParty()));
+                    }
+                );
+            }
             if (closestPlayer != null) {
                 if (potentiallySamsara) {
                     applyFrom.setLastSamsara(System.currentTimeMillis());
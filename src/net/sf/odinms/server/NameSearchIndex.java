@@ -0,0 +1,117 @@
+package net.sf.odinms.server;
+
+import net.sf.odinms.provider.MapleData;
+import net.sf.odinms.provider.MapleDataProvider;
+import net.sf.odinms.provider.MapleDataProviderFactory;
+import net.sf.odinms.provider.MapleDataTool;
+import net.sf.odinms.tools.Pair;
+import net.sf.odinms.tools.SubstringIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Searches the names in String.wz (of items, monsters, maps, NPCs and
+ * skills) by what they contain or start with, for commands, NPC scripts
+ * and the MTS. The names are all read and indexed once, the first time
+ * that the index is used (which the channel server does when it starts);
+ * after that, a search doesn't look at String.wz at all.
+ *
+ * See {@link SubstringIndex} for how matches are ranked.
+ */
+public class NameSearchIndex {
+    public enum Type {
+        ITEM, MONSTER, MAP, NPC, SKILL
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(NameSearchIndex.class);
+    private static final NameSearchIndex instance = new NameSearchIndex();
+    private final Map<Type, SubstringIndex> indexes = new EnumMap<>(Type.class);
+
+    private NameSearchIndex() {
+        long start = System.currentTimeMillis();
+        MapleDataProvider stringData = MapleDataProviderFactory.getDataProvider(
+            new File(System.getProperty("net.sf.odinms.wzpath") + "/String.wz")
+        );
+        indexes.put(Type.ITEM, new SubstringIndex(MapleItemInformationProvider.getInstance().getAllItems()));
+        indexes.put(Type.MONSTER, new SubstringIndex(readNames(stringData.getData("Mob.img"))));
+        indexes.put(Type.NPC, new SubstringIndex(readNames(stringData.getData("Npc.img"))));
+        indexes.put(Type.SKILL, new SubstringIndex(readNames(stringData.getData("Skill.img"))));
+        Map<Integer, String> maps = new LinkedHashMap<>();
+        for (MapleData area : stringData.getData("Map.img").getChildren()) {
+            for (MapleData map : area.getChildren()) {
+                maps.putIfAbsent(
+                    Integer.parseInt(map.getName()),
+                    MapleDataTool.getString(map.getChildByPath("streetName"), "NO-NAME") +
+                        " - " +
+                        MapleDataTool.getString(map.getChildByPath("mapName"), "NO-NAME")
+                );
+            }
+        }
+        indexes.put(Type.MAP, new SubstringIndex(maps));
+        log.info("Indexed names in {} ms", System.currentTimeMillis() - start);
+    }
+
+    private static Map<Integer, String> readNames(MapleData data) {
+        Map<Integer, String> names = new LinkedHashMap<>();
+        for (MapleData child : data.getChildren()) {
+            names.putIfAbsent(
+                Integer.parseInt(child.getName()),
+                MapleDataTool.getString(child.getChildByPath("name"), "NO-NAME")
+            );
+        }
+        return names;
+    }
+
+    public static NameSearchIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * Finds the names that contain the query, ignoring case.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @return Up to <code>limit</code> pairs of ID and name, best match first.
+     */
+    public List<Pair<Integer, String>> search(Type type, String query, int limit) {
+        return indexes.get(type).search(query, false, limit, null);
+    }
+
+    /**
+     * Finds the names that start with the query, ignoring case, and whose
+     * IDs pass the filter.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @param filter Which IDs may match; <code>null</code> for all.
+     * @return Up to <code>limit</code> pairs of ID and name, best match first.
+     */
+    public List<Pair<Integer, String>> searchPrefix(Type type, String query, int limit, IntPredicate filter) {
+        return indexes.get(type).search(query, true, limit, filter);
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @return All names of the type, as pairs of ID and name, in the order that they're in String.wz.
+     */
+    public List<Pair<Integer, String>> getAll(Type type) {
+        return indexes.get(type).getAll();
+    }
+}
@@ -44,4 +44,32 @@ public class PortalFactory {
             portal.setId(Integer.parseInt(portalData.getName()));
         }
     }
+
+    /**
+     * Makes a copy of the given portal, e.g. one of a
+     * <code>MapleMapTemplate</code>, for a new map.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @param prototype The portal to copy.
+     * @return The copy.
+     */
+    public static MaplePortal copyPortal(MaplePortal prototype) {
+        MapleGenericPortal ret;
+        if (prototype.getType() == MaplePortal.MAP_PORTAL) {
+            ret = new MapleMapPortal();
+        } else {
+            ret = new MapleGenericPortal(prototype.getType());
+        }
+        ret.setName(prototype.getName());
+        ret.setTarget(prototype.getTarget());
+        ret.setTargetMapId(prototype.getTargetMapId());
+        ret.setPosition(new Point(prototype.getPosition()));
+        ret.setScriptName(prototype.getScriptName());
+        ret.setId(prototype.getId());
+        return ret;
+    }
 }
@@ -2,6 +2,8 @@ package net.sf.odinms.server;
 
 import net.sf.odinms.database.DatabaseConnection;
 import net.sf.odinms.net.channel.ChannelServer;
+import net.sf.odinms.net.channel.CharacterSaveService;
+import net.sf.odinms.server.maps.MapTickService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +55,8 @@ public class ShutdownServer implements Runnable {
         }
         if (allShutdownFinished) {
             TimerManager.getInstance().stop();
+            MapTickService.getInstance().stop();
+            CharacterSaveService.getInstance().stop();
             try {
                 DatabaseConnection.closeAll();
             } catch (SQLException e) {
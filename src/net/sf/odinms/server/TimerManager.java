@@ -7,16 +7,15 @@ import org.slf4j.LoggerFactory;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import java.lang.management.ManagementFactory;
+import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class TimerManager implements TimerManagerMBean {
     private static final Logger log = LoggerFactory.getLogger(TimerManager.class);
     private static final TimerManager instance = new TimerManager();
-    private ScheduledThreadPoolExecutor ses;
+    private static final int SHARD_COUNT = 4;
+    private static final long TICK_MILLIS = 10L;
+    private TimingWheel wheel;
 
     private TimerManager() {
         MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
@@ -32,38 +31,26 @@ public class TimerManager implements TimerManagerMBean {
     }
 
     public void start() {
-        if (ses != null && !ses.isShutdown() && !ses.isTerminated()) {
+        if (wheel != null && !wheel.isShutdown()) {
             return; // Starting the same TimerManager twice is no-op
         }
-        ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(4, new ThreadFactory() {
-            private final AtomicInteger threadNumber = new AtomicInteger(1);
-
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread t = new Thread(r);
-                t.setName("Timermanager-Worker-" + threadNumber.getAndIncrement());
-                return t;
-            }
-        });
-        stpe.setMaximumPoolSize(4);
-        stpe.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
-        ses = stpe;
+        wheel = new TimingWheel(SHARD_COUNT, TICK_MILLIS, "Timermanager-Worker-");
     }
 
     public void stop() {
-        ses.shutdown();
+        wheel.shutdown();
     }
 
     public ScheduledFuture<?> register(Runnable r, long repeatTime, long delay) {
-        return ses.scheduleAtFixedRate(new LoggingSaveRunnable(r), delay, repeatTime, TimeUnit.MILLISECONDS);
+        return wheel.scheduleAtFixedRate(r, delay, repeatTime);
     }
 
     public ScheduledFuture<?> register(Runnable r, long repeatTime) {
-        return ses.scheduleAtFixedRate(new LoggingSaveRunnable(r), 0, repeatTime, TimeUnit.MILLISECONDS);
+        return wheel.scheduleAtFixedRate(r, 0, repeatTime);
     }
 
     public ScheduledFuture<?> schedule(Runnable r, long delay) {
-        return ses.schedule(new LoggingSaveRunnable(r), delay, TimeUnit.MILLISECONDS);
+        return wheel.schedule(r, delay);
     }
 
     public ScheduledFuture<?> scheduleAtTimestamp(Runnable r, long timestamp) {
@@ -73,69 +60,89 @@ public class TimerManager implements TimerManagerMBean {
     public void dropDebugInfo(MessageCallback callback) {
         StringBuilder builder = new StringBuilder();
         builder.append("Terminated: ");
-        builder.append(ses.isTerminated());
+        builder.append(wheel.isTerminated());
         builder.append(" Shutdown: ");
-        builder.append(ses.isShutdown());
+        builder.append(wheel.isShutdown());
         callback.dropMessage(builder.toString());
 
         builder = new StringBuilder();
         builder.append("Completed Tasks: ");
-        builder.append(ses.getCompletedTaskCount());
+        builder.append(wheel.getCompletedCount());
         builder.append(" Active Tasks: ");
-        builder.append(ses.getActiveCount());
+        builder.append(wheel.getRunningCount());
         builder.append(" Task Count: ");
-        builder.append(ses.getTaskCount());
+        builder.append(wheel.getScheduledCount());
         callback.dropMessage(builder.toString());
 
         builder = new StringBuilder();
         builder.append("Queued Tasks: ");
-        builder.append(ses.getQueue().toArray().length);
+        builder.append(wheel.getPendingCount());
+        builder.append(" Cancelled Tasks: ");
+        builder.append(wheel.getCancelledCount());
+        callback.dropMessage(builder.toString());
+
+        builder = new StringBuilder();
+        builder.append("Tick Lag (ms): last ");
+        builder.append(String.format("%.2f", wheel.getLastTickLagMillis()));
+        builder.append(" avg ");
+        builder.append(String.format("%.2f", wheel.getAverageTickLagMillis()));
+        builder.append(" max ");
+        builder.append(String.format("%.2f", wheel.getMaxTickLagMillis()));
         callback.dropMessage(builder.toString());
     }
 
     @Override
     public long getActiveCount() {
-        return ses.getActiveCount();
+        return wheel.getRunningCount();
     }
 
     @Override
     public long getCompletedTaskCount() {
-        return ses.getCompletedTaskCount();
+        return wheel.getCompletedCount();
     }
 
     @Override
     public int getQueuedTasks() {
-        return ses.getQueue().toArray().length;
+        return (int) wheel.getPendingCount();
     }
 
     @Override
     public long getTaskCount() {
-        return ses.getTaskCount();
+        return wheel.getScheduledCount();
+    }
+
+    @Override
+    public long getCancelledTaskCount() {
+        return wheel.getCancelledCount();
     }
 
     @Override
     public boolean isShutdown() {
-        return ses.isShutdown();
+        return wheel.isShutdown();
     }
 
     @Override
     public boolean isTerminated() {
-        return ses.isTerminated();
+        return wheel.isTerminated();
     }
 
-    private static class LoggingSaveRunnable implements Runnable {
-        final Runnable r;
-        public LoggingSaveRunnable(Runnable r) {
-            this.r = r;
-        }
+    @Override
+    public double getLastTickLagMillis() {
+        return wheel.getLastTickLagMillis();
+    }
 
-        @Override
-        public void run() {
-            try {
-                r.run();
-            } catch (Throwable t) {
-                log.error("ERROR ", t);
-            }
-        }
+    @Override
+    public double getAverageTickLagMillis() {
+        return wheel.getAverageTickLagMillis();
+    }
+
+    @Override
+    public double getMaxTickLagMillis() {
+        return wheel.getMaxTickLagMillis();
+    }
+
+    @Override
+    public Map<String, Long> getQueuedTasksByType() {
+        return wheel.getPendingByType();
     }
 }
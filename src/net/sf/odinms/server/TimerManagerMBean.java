@@ -1,5 +1,7 @@
 package net.sf.odinms.server;
 
+import java.util.Map;
+
 public interface TimerManagerMBean {
     boolean isTerminated();
     boolean isShutdown();
@@ -7,4 +9,9 @@ public interface TimerManagerMBean {
     long getActiveCount();
     long getTaskCount();
     int getQueuedTasks();
-}
\ No newline at end of file
+    long getCancelledTaskCount();
+    double getLastTickLagMillis();
+    double getAverageTickLagMillis();
+    double getMaxTickLagMillis();
+    Map<String, Long> getQueuedTasksByType();
+}
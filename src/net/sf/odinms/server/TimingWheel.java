@@ -0,0 +1,531 @@
+package net.sf.odinms.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A hashed timing wheel scheduler, sharded over a fixed number of threads.
+ *
+ * Each shard owns a wheel of <code>WHEEL_SIZE</code> buckets that is advanced
+ * by one bucket per tick by the shard's thread. A task is hashed into the
+ * bucket of its deadline tick, with a count of the remaining wheel rotations
+ * for deadlines further out than one rotation, so that scheduling and
+ * cancelling are O(1) no matter how many tasks are pending. On every tick,
+ * the shard collects the expired tasks of the current bucket, and then runs
+ * them as one batch on its own thread.
+ *
+ * New and cancelled tasks are handed to the owning shard through lock-free
+ * queues and are linked into (or unlinked from) the wheel by the shard thread
+ * itself, so buckets never need locking, and cancelled tasks are dropped
+ * within one tick rather than lingering until their deadline.
+ *
+ * Tasks are spread over the shards round robin. Like a task of a
+ * <code>ScheduledThreadPoolExecutor</code>, a long-running task delays the
+ * other tasks of its own thread; the per-tick lag reported by the wheel shows
+ * when that happens.
+ */
+public class TimingWheel {
+    private static final Logger log = LoggerFactory.getLogger(TimingWheel.class);
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int PENDING = 0, RUNNING = 1, DONE = 2, CANCELLED = 3;
+    private static final ClassValue<String> TASK_TYPES = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            String name = type.getName();
+            int lambda = name.indexOf("$$Lambda");
+            if (lambda >= 0) {
+                return name.substring(0, lambda) + " (lambda)";
+            }
+            return name;
+        }
+    };
+    private final long tickNanos;
+    private final long startNanos;
+    private final Shard[] shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final Map<String, LongAdder> pendingByType = new ConcurrentHashMap<>();
+    private final AtomicLong scheduledCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicInteger runningCount = new AtomicInteger();
+    private final AtomicLong lastTickLagNanos = new AtomicLong();
+    private final AtomicLong maxTickLagNanos = new AtomicLong();
+    private final AtomicLong totalTickLagNanos = new AtomicLong();
+    private final AtomicLong tickCount = new AtomicLong();
+    private final CountDownLatch terminated;
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates and starts a new wheel.
+     *
+     * @param shardCount The number of shards, i.e. threads.
+     * @param tickMillis The tick duration, i.e. the scheduling resolution, in milliseconds.
+     * @param threadName The prefix of the names of the shard threads.
+     */
+    public TimingWheel(int shardCount, long tickMillis, String threadName) {
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, tickMillis));
+        startNanos = System.nanoTime();
+        shards = new Shard[Math.max(1, shardCount)];
+        terminated = new CountDownLatch(shards.length);
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = new Shard();
+            Thread t = new Thread(shards[i]);
+            t.setName(threadName + (i + 1));
+            t.start();
+        }
+    }
+
+    /**
+     * Schedules a one-shot task.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param r The task to run.
+     * @param delay The delay in milliseconds; negative delays count as 0.
+     * @return A future that can be used to cancel the task.
+     *
+     * @throws RejectedExecutionException when the wheel has been shut down.
+     */
+    public ScheduledFuture<?> schedule(Runnable r, long delay) {
+        return submit(r, delay, 0L);
+    }
+
+    /**
+     * Schedules a task at a fixed rate: the n-th run is due at
+     * <code>delay + n * period</code>, independent of how long the runs take.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param r The task to run.
+     * @param delay The delay of the first run in milliseconds.
+     * @param period The period in milliseconds; must be positive.
+     * @return A future that can be used to cancel the task.
+     *
+     * @throws RejectedExecutionException when the wheel has been shut down.
+     * @throws IllegalArgumentException when <code>period</code> is not positive.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable r, long delay, long period) {
+        if (period <= 0L) {
+            throw new IllegalArgumentException("Period must be positive, got: " + period);
+        }
+        return submit(r, delay, period);
+    }
+
+    /**
+     * Stops the shard threads. Pending tasks are cancelled without running.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean isTerminated() {
+        return terminated.getCount() == 0L;
+    }
+
+    public long getScheduledCount() {
+        return scheduledCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public int getRunningCount() {
+        return runningCount.get();
+    }
+
+    public long getTickCount() {
+        return tickCount.get();
+    }
+
+    public double getLastTickLagMillis() {
+        return lastTickLagNanos.get() / 1000000.0d;
+    }
+
+    public double getMaxTickLagMillis() {
+        return maxTickLagNanos.get() / 1000000.0d;
+    }
+
+    public double getAverageTickLagMillis() {
+        long ticks = tickCount.get();
+        return ticks == 0L ? 0.0d : totalTickLagNanos.get() / 1000000.0d / ticks;
+    }
+
+    /**
+     * Gets the number of pending tasks, by task type. The type of a task is
+     * the class of its <code>Runnable</code>, with lambdas reported under
+     * the class that defines them.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     *
+     * @return A new, sorted map from task type to the number of its pending tasks.
+     */
+    public Map<String, Long> getPendingByType() {
+        Map<String, Long> ret = new TreeMap<>();
+        pendingByType.forEach((type, count) -> {
+            long pending = count.sum();
+            if (pending > 0L) {
+                ret.put(type, pending);
+            }
+        });
+        return ret;
+    }
+
+    private ScheduledFuture<?> submit(Runnable r, long delay, long period) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Timing wheel has been shut down.");
+        }
+        Shard shard = shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)];
+        long deadline = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0L, delay));
+        Timeout timeout = new Timeout(
+            shard,
+            r,
+            TASK_TYPES.get(r.getClass()),
+            deadline,
+            TimeUnit.MILLISECONDS.toNanos(period)
+        );
+        pendingByType.computeIfAbsent(timeout.type, t -> new LongAdder()).increment();
+        pendingCount.incrementAndGet();
+        scheduledCount.incrementAndGet();
+        shard.added.offer(timeout);
+        return timeout;
+    }
+
+    private void taskFinished(Timeout timeout) {
+        pendingByType.get(timeout.type).decrement();
+        pendingCount.decrementAndGet();
+    }
+
+    private class Shard implements Runnable {
+        private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+        private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+        private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+        private final List<Timeout> expired = new ArrayList<>();
+        private long tick = 0L;
+
+        Shard() {
+            for (int i = 0; i < WHEEL_SIZE; ++i) {
+                wheel[i] = new Bucket();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown) {
+                    long now = waitForNextTick();
+                    if (now < 0L) {
+                        break;
+                    }
+                    removeCancelled();
+                    transferAdded();
+                    wheel[(int) (tick & WHEEL_MASK)].expire(now, expired);
+                    for (Timeout timeout : expired) {
+                        timeout.run();
+                    }
+                    expired.clear();
+                    tick++;
+                }
+            } finally {
+                for (Bucket bucket : wheel) {
+                    bucket.clear();
+                }
+                Timeout timeout;
+                while ((timeout = added.poll()) != null) {
+                    timeout.cancel(false);
+                }
+                terminated.countDown();
+            }
+        }
+
+        /**
+         * Sleeps until the current tick is due, and records how late it is
+         * actually being processed.
+         *
+         * @return The current time relative to the start of the wheel, or -1 if interrupted.
+         */
+        private long waitForNextTick() {
+            long due = tickNanos * (tick + 1);
+            while (true) {
+                long now = System.nanoTime() - startNanos;
+                long sleepNanos = due - now;
+                if (sleepNanos <= 0L) {
+                    long lag = now - due;
+                    lastTickLagNanos.set(lag);
+                    maxTickLagNanos.accumulateAndGet(lag, Math::max);
+                    totalTickLagNanos.addAndGet(lag);
+                    tickCount.incrementAndGet();
+                    return now;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException ie) {
+                    if (shutdown) {
+                        return -1L;
+                    }
+                }
+            }
+        }
+
+        private void removeCancelled() {
+            Timeout timeout;
+            while ((timeout = cancelled.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+
+        private void transferAdded() {
+            Timeout timeout;
+            while ((timeout = added.poll()) != null) {
+                if (timeout.state.get() != CANCELLED) {
+                    insert(timeout, tick);
+                }
+            }
+        }
+
+        /**
+         * Links the given timeout into the bucket of its deadline tick. Must
+         * only be called from the shard thread.
+         *
+         * @param firstTick The first tick whose bucket is yet to be
+         *                  processed; deadlines that have already passed
+         *                  go into its bucket.
+         */
+        void insert(Timeout timeout, long firstTick) {
+            long targetTick = Math.max(timeout.deadline / tickNanos, firstTick);
+            timeout.remainingRounds = (targetTick - firstTick) / WHEEL_SIZE;
+            wheel[(int) (targetTick & WHEEL_MASK)].add(timeout);
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts, only ever touched by its shard's thread.
+     */
+    private static class Bucket {
+        private Timeout head, tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        /**
+         * Moves the timeouts of this bucket that are due into
+         * <code>expired</code>, and counts down the rounds of the others.
+         */
+        void expire(long now, List<Timeout> expired) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0L && timeout.deadline <= now) {
+                    remove(timeout);
+                    expired.add(timeout);
+                } else if (timeout.remainingRounds > 0L) {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void clear() {
+            Timeout timeout;
+            while ((timeout = head) != null) {
+                remove(timeout);
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    private class Timeout implements ScheduledFuture<Object> {
+        private final Shard shard;
+        private final Runnable task;
+        private final String type;
+        private final long period;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private volatile long deadline;
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev, next;
+
+        Timeout(Shard shard, Runnable task, String type, long deadline, long period) {
+            this.shard = shard;
+            this.task = task;
+            this.type = type;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * Runs the task on the shard thread. Periodic tasks are put back into
+         * the wheel for their next run, unless they were cancelled meanwhile.
+         */
+        void run() {
+            if (!state.compareAndSet(PENDING, RUNNING)) {
+                return;
+            }
+            runningCount.incrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                log.error("Error running scheduled task " + type, t);
+            } finally {
+                runningCount.decrementAndGet();
+            }
+            if (period > 0L) {
+                if (state.compareAndSet(RUNNING, PENDING)) {
+                    deadline += period;
+                    // The current bucket has already been processed.
+                    shard.insert(this, shard.tick + 1);
+                }
+                completedCount.incrementAndGet();
+                return;
+            }
+            if (state.compareAndSet(RUNNING, DONE)) {
+                completedCount.incrementAndGet();
+                taskFinished(this);
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            while (true) {
+                int current = state.get();
+                if (current == DONE || current == CANCELLED) {
+                    return false;
+                }
+                // A running periodic task is cancelled by not being rescheduled.
+                if (current == RUNNING && period == 0L) {
+                    return false;
+                }
+                if (state.compareAndSet(current, CANCELLED)) {
+                    break;
+                }
+            }
+            cancelledCount.incrementAndGet();
+            taskFinished(this);
+            shard.cancelled.offer(this);
+            synchronized (this) {
+                notifyAll();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        @Override
+        public boolean isDone() {
+            int current = state.get();
+            return current == DONE || current == CANCELLED;
+        }
+
+        @Override
+        public Object get() throws InterruptedException, ExecutionException {
+            synchronized (this) {
+                while (!isDone()) {
+                    wait();
+                }
+            }
+            if (isCancelled()) {
+                throw new CancellationException();
+            }
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException,
+                                                              ExecutionException,
+                                                              TimeoutException {
+            long end = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (this) {
+                while (!isDone()) {
+                    long left = end - System.nanoTime();
+                    if (left <= 0L) {
+                        throw new TimeoutException();
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+            }
+            if (isCancelled()) {
+                throw new CancellationException();
+            }
+            return null;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - (System.nanoTime() - startNanos), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package net.sf.odinms.server.life;
 
 import net.sf.odinms.provider.MapleData;
+import net.sf.odinms.provider.MapleDataFileEntry;
 import net.sf.odinms.provider.MapleDataProvider;
 import net.sf.odinms.provider.MapleDataProviderFactory;
 import net.sf.odinms.provider.MapleDataTool;
@@ -13,6 +14,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MapleLifeFactory {
     private static final Logger log = LoggerFactory.getLogger(MapleMapFactory.class);
@@ -26,7 +28,9 @@ public class MapleLifeFactory {
         );
     private static final MapleData mobStringData = stringDataWZ.getData("Mob.img");
     private static final MapleData npcStringData = stringDataWZ.getData("Npc.img");
-    private static final Map<Integer, MapleMonsterStats> monsterStats = new HashMap<>();
+    private static final Map<Integer, MapleMonsterStats> monsterStats = new ConcurrentHashMap<>();
+    /** The names of all monsters in Mob.wz; read the first time that one is asked for. */
+    private static volatile Map<Integer, String> monsterNames;
 
     public static AbstractLoadedMapleLife getLife(int id, String type) {
         if (type.equalsIgnoreCase("n")) {
@@ -66,7 +70,9 @@ public class MapleLifeFactory {
             stats.setUndead(MapleDataTool.getIntConvert("undead", monsterInfoData, 0) > 0);
             //
             try {
-                stats.setName(MapleDataTool.getString(mid + "/name", mobStringData, "MISSINGNO"));
+                synchronized (mobStringData) {
+                    stats.setName(MapleDataTool.getString(mid + "/name", mobStringData, "MISSINGNO"));
+                }
             } catch (Exception e) {
                 stats.setName("MISSINGNO");
                 System.err.println(e + "   !ID!:  " + mid);
@@ -162,12 +168,55 @@ public class MapleLifeFactory {
     }
 
     public static MapleNPC getNPC(int nid) {
-        return new MapleNPC(
-            nid,
-            new MapleNPCStats(
-                MapleDataTool.getString(nid + "/name", npcStringData, "MISSINGNO")
-            )
-        );
+        // Maps are loaded concurrently, and reading the shared string DOM is not thread-safe.
+        synchronized (npcStringData) {
+            return new MapleNPC(
+                nid,
+                new MapleNPCStats(
+                    MapleDataTool.getString(nid + "/name", npcStringData, "MISSINGNO")
+                )
+            );
+        }
+    }
+
+    /**
+     * Gets the name of a monster without loading the monster, for when
+     * that's all that's needed (e.g. to list the monsters that drop
+     * something).
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return The same name that {@link #getMonster(int)} would give the
+     *         monster, or <code>null</code> if there is no such monster (when
+     *         <code>getMonster</code> would return <code>null</code>).
+     */
+    public static String getMonsterName(int mid) {
+        Map<Integer, String> names = monsterNames;
+        if (names == null) {
+            synchronized (MapleLifeFactory.class) {
+                names = monsterNames;
+                if (names == null) {
+                    names = new HashMap<>();
+                    synchronized (mobStringData) {
+                        for (MapleDataFileEntry file : data.getRoot().getFiles()) {
+                            String fileName = file.getName();
+                            int id;
+                            try {
+                                id = Integer.parseInt(fileName.substring(0, fileName.length() - 4));
+                            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                                continue;
+                            }
+                            names.put(id, MapleDataTool.getString(id + "/name", mobStringData, "MISSINGNO"));
+                        }
+                    }
+                    monsterNames = names;
+                }
+            }
+        }
+        return names.get(mid);
     }
 
     public static Map<Integer, MapleMonsterStats> readMonsterStats() {
@@ -10,11 +10,9 @@ import net.sf.odinms.net.world.MaplePartyCharacter;
 import net.sf.odinms.scripting.event.EventInstanceManager;
 import net.sf.odinms.server.MapleStatEffect;
 import net.sf.odinms.server.TimerManager;
-import net.sf.odinms.server.life.MapleMonsterInformationProvider.DropEntry;
 import net.sf.odinms.server.maps.MapleMap;
 import net.sf.odinms.server.maps.MapleMapObject;
 import net.sf.odinms.server.maps.MapleMapObjectType;
-import net.sf.odinms.server.quest.MapleQuest;
 import net.sf.odinms.tools.ArrayMap;
 import net.sf.odinms.tools.MaplePacketCreator;
 import net.sf.odinms.tools.Pair;
@@ -24,7 +22,6 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 public class MapleMonster extends AbstractLoadedMapleLife {
     private MapleMonsterStats stats, overrideStats;
@@ -87,37 +84,7 @@ public class MapleMonster extends AbstractLoadedMapleLife {
     }
 
     public int getDrop(final MapleCharacter owner) {
-        MapleMonsterInformationProvider mi = MapleMonsterInformationProvider.getInstance();
-        int lastAssigned = -1;
-        int minChance = 1;
-        List<DropEntry> dl =
-            mi.retrieveDropChances(getId())
-              .stream()
-              .filter(de ->
-                  de.questId < 1 ||
-                  owner.getQuest(MapleQuest.getInstance(de.questId))
-                       .getStatus()
-                       .equals(MapleQuestStatus.Status.STARTED)
-              )
-              .collect(Collectors.toCollection(ArrayList::new));
-        for (DropEntry d : dl) {
-            if (d.chance > minChance) {
-                minChance = d.chance;
-            }
-        }
-        for (DropEntry d : dl) {
-            d.assignedRangeStart = lastAssigned + 1;
-            d.assignedRangeLength = (int) Math.ceil((1.0d / (double) d.chance) * minChance);
-            lastAssigned += d.assignedRangeLength;
-        }
-        Random r = new Random();
-        int c = r.nextInt(minChance);
-        for (DropEntry d : dl) {
-            if (c >= d.assignedRangeStart && c < d.assignedRangeStart + d.assignedRangeLength) {
-                return d.itemId;
-            }
-        }
-        return -1;
+        return MapleMonsterInformationProvider.getInstance().getDrops(getId()).roll(owner);
     }
 
     public int getHp() {
@@ -1,107 +1,355 @@
 package net.sf.odinms.server.life;
 
+import net.sf.odinms.client.MapleCharacter;
+import net.sf.odinms.client.MapleQuestStatus;
 import net.sf.odinms.database.DatabaseConnection;
+import net.sf.odinms.server.quest.MapleQuest;
+import net.sf.odinms.tools.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * The monster drop tables (<code>monsterdrops</code> and
+ * <code>monsterquestdrops</code>), read from the database all at once.
+ *
+ * Rows with a <code>monsterid</code> of 0 or less are global drops, which
+ * every monster has; for negative ones, the chance goes up by the monster's
+ * level times the <code>monsterid</code>. Each monster's drops (its own and
+ * the global ones, with the chances of the latter already scaled) are put
+ * together into a {@link MonsterDrops} the first time that it is asked for.
+ *
+ * The tables are also indexed the other way around, by item, for commands
+ * and NPCs that tell players who drops what; that index only has the
+ * monsters' own drops, not the global ones.
+ */
 public class MapleMonsterInformationProvider {
-    public static class DropEntry {
-        public DropEntry(int itemId, int chance) {
-            this(itemId, chance, 0);
+    /**
+     * The drops of one monster, as parallel arrays in the order of the rows
+     * in the database (normal drops first, then quest drops).
+     */
+    public static class MonsterDrops {
+        private static final MonsterDrops NONE = new MonsterDrops(new int[0], new int[0], new int[0]);
+        private final int[] itemIds, chances, questIds;
+        private final boolean hasQuestDrops;
+        /** The highest chance and the range lengths for when every drop applies. */
+        private final int maxChance;
+        private final int[] rangeLengths;
+
+        private MonsterDrops(int[] itemIds, int[] chances, int[] questIds) {
+            this.itemIds = itemIds;
+            this.chances = chances;
+            this.questIds = questIds;
+            boolean quest = false;
+            int max = 1;
+            for (int i = 0; i < itemIds.length; ++i) {
+                quest |= questIds[i] > 0;
+                if (chances[i] > max) {
+                    max = chances[i];
+                }
+            }
+            hasQuestDrops = quest;
+            maxChance = max;
+            rangeLengths = new int[itemIds.length];
+            for (int i = 0; i < itemIds.length; ++i) {
+                rangeLengths[i] = rangeLength(chances[i], max);
+            }
+        }
+
+        private static int rangeLength(int chance, int maxChance) {
+            return (int) Math.ceil((1.0d / (double) chance) * maxChance);
+        }
+
+        private boolean applies(int i, MapleCharacter owner) {
+            return questIds[i] < 1 ||
+                owner != null &&
+                owner.getQuest(MapleQuest.getInstance(questIds[i])).getStatus() == MapleQuestStatus.Status.STARTED;
+        }
+
+        /**
+         * Picks one drop. Each drop that applies (i.e. isn't for a quest
+         * that the owner hasn't started) gets a range of
+         * <code>ceil(highest chance / chance)</code> numbers, one after
+         * another, and a random number below the highest chance decides the
+         * drop. A chance of 1 in <code>chance</code>, then, as long as the
+         * ranges all fit.
+         *
+         * <ul>
+         * <li>pure?: false</li>
+         * </ul>
+         *
+         * @param owner The character who gets the drop; may be <code>null</code>, in which case no quest drops apply.
+         * @return The item ID, or -1 for no drop.
+         */
+        public int roll(MapleCharacter owner) {
+            if (itemIds.length == 0) {
+                return -1;
+            }
+            if (!hasQuestDrops) {
+                int c = ThreadLocalRandom.current().nextInt(maxChance);
+                int start = 0;
+                for (int i = 0; i < itemIds.length; ++i) {
+                    if (c >= start && c < start + rangeLengths[i]) {
+                        return itemIds[i];
+                    }
+                    start += rangeLengths[i];
+                }
+                return -1;
+            }
+            int max = 1;
+            for (int i = 0; i < itemIds.length; ++i) {
+                if (chances[i] > max && applies(i, owner)) {
+                    max = chances[i];
+                }
+            }
+            int c = ThreadLocalRandom.current().nextInt(max);
+            int start = 0;
+            for (int i = 0; i < itemIds.length; ++i) {
+                if (!applies(i, owner)) {
+                    continue;
+                }
+                int length = rangeLength(chances[i], max);
+                if (c >= start && c < start + length) {
+                    return itemIds[i];
+                }
+                start += length;
+            }
+            return -1;
         }
 
-        public DropEntry(int itemId, int chance, int questId) {
+        /**
+         * <ul>
+         * <li>pure?: true</li>
+         * </ul>
+         */
+        public int size() {
+            return itemIds.length;
+        }
+    }
+
+    /**
+     * One row of a drop table; <code>row</code> is its position among the
+     * rows read from that table.
+     */
+    private static class DropRow {
+        private final int row, monsterId, itemId, chance, questId;
+
+        DropRow(int row, int monsterId, int itemId, int chance, int questId) {
+            this.row = row;
+            this.monsterId = monsterId;
             this.itemId = itemId;
             this.chance = chance;
             this.questId = questId;
         }
+    }
+
+    /**
+     * Everything that was read from the drop tables at one time. Never
+     * changes after it is built, apart from the drops put together for
+     * each monster, which only depend on what was read.
+     */
+    private static class DropTable {
+        private final Map<Integer, List<DropRow>> drops = new HashMap<>(), questDrops = new HashMap<>();
+        private final List<DropRow> globalDrops = new ArrayList<>(), globalQuestDrops = new ArrayList<>();
+        private final ConcurrentMap<Integer, MonsterDrops> compiled = new ConcurrentHashMap<>();
+        /** By item: the monsters that drop it (each once), and the monsters and quests that it's a quest drop for. */
+        private final Map<Integer, List<Integer>> droppers = new HashMap<>();
+        private final Map<Integer, List<Pair<Integer, Integer>>> questDroppers = new HashMap<>();
 
-        public final int itemId, chance, questId;
-        public int assignedRangeStart, assignedRangeLength;
+        void add(DropRow row, boolean quest) {
+            if (row.monsterId <= 0) {
+                (quest ? globalQuestDrops : globalDrops).add(row);
+                return;
+            }
+            (quest ? questDrops : drops).computeIfAbsent(row.monsterId, id -> new ArrayList<>()).add(row);
+            if (quest) {
+                questDroppers.computeIfAbsent(row.itemId, id -> new ArrayList<>())
+                             .add(new Pair<>(row.monsterId, row.questId));
+            } else {
+                List<Integer> monsters = droppers.computeIfAbsent(row.itemId, id -> new ArrayList<>());
+                if (!monsters.contains(row.monsterId)) {
+                    monsters.add(row.monsterId);
+                }
+            }
+        }
 
-        @Override
-        public String toString() {
-            return itemId + " chance: " + chance;
+        MonsterDrops compile(int monsterId) {
+            List<DropRow> own = drops.getOrDefault(monsterId, Collections.emptyList());
+            List<DropRow> ownQuest = questDrops.getOrDefault(monsterId, Collections.emptyList());
+            int size = own.size() + globalDrops.size() + ownQuest.size() + globalQuestDrops.size();
+            if (size == 0) {
+                return MonsterDrops.NONE;
+            }
+            int[] itemIds = new int[size], chances = new int[size], questIds = new int[size];
+            int level = -1;
+            int n = 0;
+            for (int table = 0; table < 2; ++table) {
+                List<DropRow> a = table == 0 ? own : ownQuest;
+                List<DropRow> b = table == 0 ? globalDrops : globalQuestDrops;
+                // Merged back into the order that the rows were read in.
+                for (int i = 0, j = 0; i < a.size() || j < b.size(); ++n) {
+                    DropRow row =
+                        j >= b.size() || i < a.size() && a.get(i).row < b.get(j).row ? a.get(i++) : b.get(j++);
+                    int chance = row.chance;
+                    if (row.monsterId < 0) {
+                        if (level < 0) {
+                            MapleMonster monster = MapleLifeFactory.getMonster(monsterId);
+                            level = monster == null ? 0 : monster.getLevel();
+                        }
+                        chance += level * row.monsterId;
+                    }
+                    itemIds[n] = row.itemId;
+                    chances[n] = chance;
+                    questIds[n] = row.questId;
+                }
+            }
+            return new MonsterDrops(itemIds, chances, questIds);
         }
     }
 
     public static final int APPROX_FADE_DELAY = 90;
-    private static MapleMonsterInformationProvider instance;
-    private final Map<Integer, List<DropEntry>> drops = new HashMap<>();
+    private static final MapleMonsterInformationProvider instance = new MapleMonsterInformationProvider();
+    private volatile DropTable table;
     private static final Logger log = LoggerFactory.getLogger(MapleMonsterInformationProvider.class);
 
     private MapleMonsterInformationProvider() {
     }
 
     public static MapleMonsterInformationProvider getInstance() {
-        if (instance == null) instance = new MapleMonsterInformationProvider();
         return instance;
     }
 
-    public List<DropEntry> retrieveDropChances(int monsterId) {
-        if (drops.containsKey(monsterId)) return drops.get(monsterId);
-        List<DropEntry> ret = new ArrayList<>();
-        try {
-            Connection con = DatabaseConnection.getConnection();
-            PreparedStatement ps1 =
-                con.prepareStatement(
-                    "SELECT itemid, chance, monsterid FROM monsterdrops " +
-                        "WHERE (monsterid = ? AND chance >= 0) OR (monsterid <= 0)"
-                );
-            ps1.setInt(1, monsterId);
-            ResultSet rs1 = ps1.executeQuery();
-            MapleMonster theMonster = null;
-            while (rs1.next()) {
-                int rowMonsterId = rs1.getInt("monsterid");
-                int chance = rs1.getInt("chance");
-                if (rowMonsterId != monsterId && rowMonsterId != 0) {
-                    if (theMonster == null) {
-                        theMonster = MapleLifeFactory.getMonster(monsterId);
-                    }
-                    chance += theMonster.getLevel() * rowMonsterId;
-                }
-                ret.add(new DropEntry(rs1.getInt("itemid"), chance));
-            }
-            rs1.close();
-            ps1.close();
-
-            PreparedStatement ps2 =
-                con.prepareStatement(
-                    "SELECT itemid, monsterid, chance, questid FROM monsterquestdrops " +
-                        "WHERE (monsterid = ? AND chance >= 0) OR (monsterid <= 0)"
-                );
-            ps2.setInt(1, monsterId);
-            ResultSet rs2 = ps2.executeQuery();
-            theMonster = null;
-            while (rs2.next()) {
-                int rowMonsterId = rs2.getInt("monsterid");
-                int chance = rs2.getInt("chance");
-                if (rowMonsterId != monsterId && rowMonsterId != 0) {
-                    if (theMonster == null) {
-                        theMonster = MapleLifeFactory.getMonster(monsterId);
-                    }
-                    chance += theMonster.getLevel() * rowMonsterId;
+    /**
+     * Gets the drops of a monster, reading the drop tables first if that
+     * hasn't been done yet.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     */
+    public MonsterDrops getDrops(int monsterId) {
+        DropTable t = table();
+        return t.compiled.computeIfAbsent(monsterId, t::compile);
+    }
+
+    private DropTable table() {
+        DropTable t = table;
+        if (t == null) {
+            synchronized (this) {
+                if (table == null) {
+                    reload();
                 }
-                ret.add(new DropEntry(rs2.getInt("itemid"), chance, rs2.getInt("questid")));
+                t = table;
             }
-            rs2.close();
-            ps2.close();
-        } catch (Exception e) {
-            log.error("Error retrieving drops for monster " + monsterId, e);
         }
-        drops.put(monsterId, ret);
-        return ret;
+        return t;
     }
 
-    public void clearDrops() {
-        drops.clear();
+    /**
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @return The items in a monster's own (not quest, not global) drops, in
+     *         the order of the rows; unmodifiable.
+     */
+    public List<Integer> getItemsDroppedBy(int monsterId) {
+        List<DropRow> rows = table().drops.getOrDefault(monsterId, Collections.emptyList());
+        List<Integer> ret = new ArrayList<>(rows.size());
+        for (DropRow row : rows) {
+            ret.add(row.itemId);
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @return The monsters that have an item among their own (not quest,
+     *         not global) drops, each once, in the order of the rows; unmodifiable.
+     */
+    public List<Integer> getMonstersDropping(int itemId) {
+        return Collections.unmodifiableList(table().droppers.getOrDefault(itemId, Collections.emptyList()));
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @return Pairs of monster and quest ID for every (not global) quest
+     *         drop of an item, in the order of the rows; unmodifiable.
+     */
+    public List<Pair<Integer, Integer>> getQuestDroppers(int itemId) {
+        return Collections.unmodifiableList(table().questDroppers.getOrDefault(itemId, Collections.emptyList()));
+    }
+
+    /**
+     * Reads the drop tables again, and switches to them once they have
+     * been read; until then, drops keep coming from the old ones. If they
+     * can't be read, the old ones are kept (or, if there are none yet,
+     * monsters drop nothing).
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public synchronized void reload() {
+        DropTable t = new DropTable();
+        try (Connection con = DatabaseConnection.borrowConnection()) {
+            try (PreparedStatement ps =
+                     con.prepareStatement(
+                         "SELECT monsterid, itemid, chance FROM monsterdrops WHERE chance >= 0 OR monsterid <= 0"
+                     );
+                 ResultSet rs = ps.executeQuery()) {
+                for (int row = 0; rs.next(); ++row) {
+                    t.add(new DropRow(row, rs.getInt("monsterid"), rs.getInt("itemid"), rs.getInt("chance"), 0), false);
+                }
+            }
+            try (PreparedStatement ps =
+                     con.prepareStatement(
+                         "SELECT monsterid, itemid, chance, questid FROM monsterquestdrops " +
+                             "WHERE chance >= 0 OR monsterid <= 0"
+                     );
+                 ResultSet rs = ps.executeQuery()) {
+                for (int row = 0; rs.next(); ++row) {
+                    t.add(
+                        new DropRow(
+                            row,
+                            rs.getInt("monsterid"),
+                            rs.getInt("itemid"),
+                            rs.getInt("chance"),
+                            rs.getInt("questid")
+                        ),
+                        true
+                    );
+                }
+            }
+        } catch (SQLException sqle) {
+            log.error("Error reading monster drops", sqle);
+            if (table == null) {
+                table = new DropTable();
+            }
+            return;
+        }
+        table = t;
     }
 }
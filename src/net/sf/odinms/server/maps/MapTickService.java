@@ -0,0 +1,206 @@
+package net.sf.odinms.server.maps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opt-in "map tick" mode: instead of every map (and every drop, mist and
+ * periodic monster drop on it) owning futures of its own in the
+ * <code>TimerManager</code>, each loaded map is assigned to one of a fixed
+ * number of map threads, which calls <code>MapleMap.tick</code> on all of its
+ * maps once per tick.
+ *
+ * A map always ticks on the same thread, so that respawns, item expiry, mist
+ * ticks, periodic monster drops and dynamic spawns of one map never run
+ * concurrently with each other.
+ *
+ * Maps only tick in this mode if the service is running when they are
+ * created; maps created before that keep using the <code>TimerManager</code>.
+ */
+public class MapTickService implements MapTickServiceMBean {
+    private static final Logger log = LoggerFactory.getLogger(MapTickService.class);
+    private static final MapTickService instance = new MapTickService();
+    private final AtomicLong tickCount = new AtomicLong();
+    private final AtomicLong failedTicks = new AtomicLong();
+    private final AtomicLong totalTickNanos = new AtomicLong();
+    private final AtomicLong maxTickNanos = new AtomicLong();
+    private Shard[] shards = new Shard[0];
+    private long tickMillis;
+    private volatile boolean running = false;
+
+    private MapTickService() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.registerMBean(this, new ObjectName("net.sf.odinms.server.maps:type=MapTickService"));
+        } catch (Exception e) {
+            log.error("Error registering MBean ", e);
+        }
+    }
+
+    public static MapTickService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts the map threads. Starting an already running service is a
+     * no-op.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param threadCount The number of map threads; at least 1.
+     * @param tickMillis How often every map ticks, in milliseconds; at least 10.
+     */
+    public synchronized void start(int threadCount, long tickMillis) {
+        if (running) {
+            return;
+        }
+        this.tickMillis = Math.max(10L, tickMillis);
+        shards = new Shard[Math.max(1, threadCount)];
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = new Shard(i + 1);
+        }
+        running = true;
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Shard shard : shards) {
+            shard.executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts ticking the given map, on the map thread with the fewest maps.
+     * Registering a map twice has no effect.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param map The map to tick; must have been created while the service was running.
+     */
+    public synchronized void register(MapleMap map) {
+        if (!running) {
+            return;
+        }
+        Shard target = shards[0];
+        for (Shard shard : shards) {
+            if (shard.maps.contains(map)) {
+                return;
+            }
+            if (shard.maps.size() < target.maps.size()) {
+                target = shard;
+            }
+        }
+        target.maps.add(map);
+    }
+
+    /**
+     * Stops ticking the given map.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param map The map to stop ticking.
+     */
+    public synchronized void unregister(MapleMap map) {
+        for (Shard shard : shards) {
+            if (shard.maps.remove(map)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int getThreadCount() {
+        return shards.length;
+    }
+
+    @Override
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    @Override
+    public int getMapCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.maps.size();
+        }
+        return count;
+    }
+
+    @Override
+    public long getTickCount() {
+        return tickCount.get();
+    }
+
+    @Override
+    public long getFailedTickCount() {
+        return failedTicks.get();
+    }
+
+    @Override
+    public double getAverageTickMillis() {
+        long ticks = tickCount.get();
+        return ticks == 0L ? 0.0d : totalTickNanos.get() / (double) ticks / 1000000.0d;
+    }
+
+    @Override
+    public double getMaxTickMillis() {
+        return maxTickNanos.get() / 1000000.0d;
+    }
+
+    /**
+     * One map thread, together with the maps that it ticks.
+     */
+    private class Shard implements Runnable {
+        private final List<MapleMap> maps = new CopyOnWriteArrayList<>();
+        private final ScheduledExecutorService executor;
+
+        Shard(int number) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r);
+                t.setName("MapTickService-Worker-" + number);
+                return t;
+            });
+            executor.scheduleAtFixedRate(this, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            long now = System.currentTimeMillis();
+            for (MapleMap map : maps) {
+                try {
+                    map.tick(now);
+                } catch (Throwable t) {
+                    failedTicks.incrementAndGet();
+                    log.error("Error ticking map " + map.getId(), t);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            tickCount.incrementAndGet();
+            totalTickNanos.addAndGet(elapsed);
+            maxTickNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package net.sf.odinms.server.maps;
+
+public interface MapTickServiceMBean {
+    boolean isRunning();
+    int getThreadCount();
+    long getTickMillis();
+    int getMapCount();
+    long getTickCount();
+    long getFailedTickCount();
+    double getAverageTickMillis();
+    double getMaxTickMillis();
+}
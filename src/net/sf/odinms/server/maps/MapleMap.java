@@ -13,6 +13,7 @@ import net.sf.odinms.server.MaplePortal;
 import net.sf.odinms.server.MapleStatEffect;
 import net.sf.odinms.server.TimerManager;
 import net.sf.odinms.server.life.*;
+import net.sf.odinms.server.life.MapleMonsterInformationProvider.MonsterDrops;
 import net.sf.odinms.server.maps.pvp.PvPLibrary;
 import net.sf.odinms.server.quest.MapleQuest;
 import net.sf.odinms.tools.Direction;
@@ -28,8 +29,12 @@ import java.text.DecimalFormat;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -44,6 +49,7 @@ public class MapleMap {
             MapleMapObjectType.REACTOR
         );
     private final Map<Integer, MapleMapObject> mapObjects = new ConcurrentHashMap<>(15, 0.7f, 2);
+    private final MapleMapObjectGrid objectGrid = new MapleMapObjectGrid();
     private final Collection<SpawnPoint> monsterSpawn = new ArrayList<>();
     private final AtomicInteger spawnedMonstersOnMap = new AtomicInteger();
     private final Collection<MapleCharacter> characters = new LinkedHashSet<>();
@@ -74,10 +80,16 @@ public class MapleMap {
     private boolean town;
     private boolean showGate = false;
     private final List<Pair<PeriodicMonsterDrop, ScheduledFuture<?>>> periodicMonsterDrops = new ArrayList<>(3);
-    private final List<DynamicSpawnWorker> dynamicSpawnWorkers = new ArrayList<>(2);
+    private final List<DynamicSpawnWorker> dynamicSpawnWorkers = new CopyOnWriteArrayList<>();
     private static final Map<Integer, Integer> lastLatanicaTimes = new ConcurrentHashMap<>(5, 0.85f, 1);
     private PartyQuestMapInstance partyQuestInstance;
     private ScheduledFuture<?> respawnWorker;
+    private final boolean ticked = MapTickService.getInstance().isRunning();
+    private volatile boolean respawns = false;
+    private volatile long nextRespawnMillis = 0L;
+    private final Queue<Pair<Long, MapleMapItem>> expiringItems = new ConcurrentLinkedQueue<>();
+    private final Queue<TickedMist> tickedMists = new ConcurrentLinkedQueue<>();
+    private volatile long lastActiveMillis = System.currentTimeMillis();
     private Set<FieldLimit> fieldLimits;
     private boolean damageMuted = false;
     private ScheduledFuture<?> damageMuteCancelTask, damageMuteHintTask;
@@ -99,7 +111,11 @@ public class MapleMap {
             if (hasElevatedSpawn(mapid)) {
                 this.monsterRate /= 2.0f;
             }
-            respawnWorker = TimerManager.getInstance().register(new RespawnWorker(), 5000L);
+            if (ticked) {
+                respawns = true;
+            } else {
+                respawnWorker = TimerManager.getInstance().register(new RespawnWorker(), 5000L);
+            }
         }
     }
 
@@ -220,11 +236,151 @@ public class MapleMap {
         }
     }
 
+    /**
+     * Whether this map runs its periodic work from <code>MapTickService</code>
+     * ticks, rather than from tasks of its own in the <code>TimerManager</code>.
+     */
+    public boolean isTicked() {
+        return ticked;
+    }
+
+    /**
+     * Marks this map as in use right now, for the purposes of idle map
+     * unloading.
+     */
+    public void touch() {
+        lastActiveMillis = System.currentTimeMillis();
+    }
+
+    public long getLastActiveMillis() {
+        return lastActiveMillis;
+    }
+
+    /**
+     * Whether this map could be unloaded without anyone noticing: there are
+     * no players on it, and no party quest instance, map timer, dynamic spawn
+     * worker, periodic monster drop, mist, hired merchant, mystic door or
+     * item drop that lives on it. Item drops expire, so a map with nothing
+     * else on it can be unloaded once they have.
+     *
+     * A mystic door refers to the maps at both of its ends, and both of them
+     * hold a door object (the town gets a copy of the one in the target map),
+     * so neither end of a live door can be unloaded.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     *
+     * @return <code>true</code> if the map can be unloaded.
+     */
+    public boolean canUnload() {
+        synchronized (characters) {
+            if (!characters.isEmpty()) {
+                return false;
+            }
+        }
+        synchronized (periodicMonsterDrops) {
+            if (!periodicMonsterDrops.isEmpty()) {
+                return false;
+            }
+        }
+        if (partyQuestInstance != null || mapTimer != null || mapEffect != null || !dynamicSpawnWorkers.isEmpty()) {
+            return false;
+        }
+        for (MapleMapObject mmo : mapObjects.values()) {
+            MapleMapObjectType type = mmo.getType();
+            if (type == MapleMapObjectType.PLAYER ||
+                type == MapleMapObjectType.MIST ||
+                type == MapleMapObjectType.HIRED_MERCHANT ||
+                type == MapleMapObjectType.SHOP ||
+                type == MapleMapObjectType.DOOR ||
+                type == MapleMapObjectType.ITEM) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes this map from the given loaded maps, provided that there is
+     * still no player on it and that it has not been used since
+     * <code>idleBefore</code>. Both are checked under the lock that adding a
+     * player takes, and the removal under the map's entry lock, which
+     * <code>MapleMapFactory.getMap</code> touches the map under, so that a map
+     * is never unloaded while someone is entering it.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param loadedMaps The loaded maps of this map's factory, by ID.
+     * @param idleBefore The time that this map must have been last used before, in milliseconds.
+     * @return <code>true</code> if this map was removed.
+     */
+    public boolean unloadFrom(ConcurrentMap<Integer, MapleMap> loadedMaps, long idleBefore) {
+        synchronized (characters) {
+            if (!characters.isEmpty()) {
+                return false;
+            }
+            boolean[] removed = {false};
+            loadedMaps.computeIfPresent(mapid, (id, loaded) -> {
+                if (loaded != this || lastActiveMillis > idleBefore) {
+                    return loaded;
+                }
+                removed[0] = true;
+                return null;
+            });
+            return removed[0];
+        }
+    }
+
+    /**
+     * Cancels everything that this map has scheduled and drops its objects,
+     * once it has been unloaded from its factory. The map must not be used
+     * afterwards.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public void dispose() {
+        respawns = false;
+        if (respawnWorker != null) {
+            respawnWorker.cancel(false);
+            respawnWorker = null;
+        }
+        if (ticked) {
+            MapTickService.getInstance().unregister(this);
+        }
+        if (damageMuteCancelTask != null) {
+            damageMuteCancelTask.cancel(false);
+        }
+        if (damageMuteHintTask != null) {
+            damageMuteHintTask.cancel(false);
+        }
+        disposeAllDynamicSpawnWorkers();
+        cancelAllPeriodicMonsterDrops();
+        clearMapTimer();
+        expiringItems.clear();
+        tickedMists.clear();
+        synchronized (mapObjects) {
+            mapObjects.clear();
+            objectGrid.clear();
+        }
+        monsterSpawn.clear();
+        spawnedMonstersOnMap.set(0);
+    }
+
     public boolean isDamageMuted() {
         return damageMuted;
     }
 
     public void restartRespawnWorker() {
+        if (ticked) {
+            nextRespawnMillis = 0L;
+            respawns = true;
+            return;
+        }
         if (respawnWorker != null) respawnWorker.cancel(false);
         respawnWorker = TimerManager.getInstance().register(new RespawnWorker(), 5000);
     }
@@ -281,11 +437,24 @@ public class MapleMap {
     public void addMapObject(MapleMapObject mapobject) {
         synchronized (mapObjects) {
             mapobject.setObjectId(runningOid);
-            mapObjects.put(runningOid, mapobject);
+            putMapObject(runningOid, mapobject);
             incrementRunningOid();
         }
     }
 
+    /**
+     * Puts the given object into <code>mapObjects</code> under the given
+     * object ID, keeping the spatial index in sync. Callers must hold the
+     * <code>mapObjects</code> lock.
+     */
+    private void putMapObject(int oid, MapleMapObject mapobject) {
+        MapleMapObject replaced = mapObjects.put(oid, mapobject);
+        if (replaced != null && replaced != mapobject) {
+            objectGrid.remove(replaced);
+        }
+        objectGrid.add(mapobject);
+    }
+
     private void spawnAndAddRangedMapObject(MapleMapObject mapobject,
                                             DelayedPacketCreation packetbakery,
                                             SpawnCondition condition) {
@@ -301,7 +470,7 @@ public class MapleMap {
                     }
                 }
             }
-            mapObjects.put(runningOid, mapobject);
+            putMapObject(runningOid, mapobject);
             incrementRunningOid();
         }
     }
@@ -325,7 +494,10 @@ public class MapleMap {
 
     public void removeMapObject(int num) {
         synchronized (mapObjects) {
-            mapObjects.remove(num);
+            MapleMapObject removed = mapObjects.remove(num);
+            if (removed != null) {
+                objectGrid.remove(removed);
+            }
         }
     }
 
@@ -333,6 +505,16 @@ public class MapleMap {
         removeMapObject(obj.getObjectId());
     }
 
+    /**
+     * Re-buckets the given object in this map's spatial index after its
+     * position has been changed by something other than
+     * <code>movePlayer</code> or <code>moveMonster</code>. Does nothing if
+     * the object is not on this map.
+     */
+    public void updateMapObjectPosition(MapleMapObject mapobject) {
+        objectGrid.update(mapobject);
+    }
+
     private Point calcPointBelow(Point initial) {
         MapleFoothold fh = footholds.findBelow(initial);
         if (fh == null) {
@@ -375,9 +557,10 @@ public class MapleMap {
         } else {
             maxDrops = 4 * cserv.getDropRate();
         }
-        List<Integer> toDrop = new ArrayList<>();
+        List<Integer> toDrop = new ArrayList<>(maxDrops);
+        MonsterDrops drops = MapleMonsterInformationProvider.getInstance().getDrops(monster.getId());
         for (int i = 0; i < maxDrops; ++i) {
-            toDrop.add(monster.getDrop(dropOwner));
+            toDrop.add(drops.roll(dropOwner));
         }
         //
         if (dropOwner != null && dropOwner.getEventInstance() == null && dropOwner.getPartyQuest() == null) {
@@ -656,7 +839,7 @@ public class MapleMap {
                                  dropPos,
                                  (byte) 1)
                              ), null);
-                        tMan.schedule(new ExpireMapItemJob(mdrop), dropLife);
+                        scheduleItemExpiry(mdrop);
                     }, monster.getAnimationTime("die1"));
                 }
             }
@@ -672,9 +855,14 @@ public class MapleMap {
     }
 
     public void startPeriodicMonsterDrop(MapleCharacter chr, MapleMonster monster, long period, long duration) {
-        TimerManager timerManager = TimerManager.getInstance();
-
         final PeriodicMonsterDrop pmd = new PeriodicMonsterDrop(chr, monster);
+        if (ticked) {
+            pmd.setSchedule(period, System.currentTimeMillis(), duration);
+            addPeriodicMonsterDrop(pmd, null);
+            return;
+        }
+
+        TimerManager timerManager = TimerManager.getInstance();
         final ScheduledFuture<?> dropTask = timerManager.register(pmd, period, period);
         pmd.setTask(dropTask);
         final Runnable cancelTask = () -> dropTask.cancel(false);
@@ -683,7 +871,9 @@ public class MapleMap {
     }
 
     private void addPeriodicMonsterDrop(PeriodicMonsterDrop pmd, ScheduledFuture<?> cancelTask) {
-        periodicMonsterDrops.add(new Pair<>(pmd, cancelTask));
+        synchronized (periodicMonsterDrops) {
+            periodicMonsterDrops.add(new Pair<>(pmd, cancelTask));
+        }
     }
 
     public DynamicSpawnWorker registerDynamicSpawnWorker(int monsterId, Point spawnPoint, int period) {
@@ -1082,6 +1272,7 @@ public class MapleMap {
                 MapleMapObject o = mmoiter2.next();
                 if (o.getType() == MapleMapObjectType.REACTOR) {
                     o.setPosition(points.remove(points.size() - 1));
+                    objectGrid.update(o);
                 }
             }
         }
@@ -1350,28 +1541,14 @@ public class MapleMap {
     public void spawnMist(final MapleMist mist, final int duration, boolean poison, boolean fake) {
         addMapObject(mist);
         broadcastMessage(fake ? mist.makeFakeSpawnData(30) : mist.makeSpawnData());
+        if (ticked) {
+            tickedMists.add(new TickedMist(mist, duration, poison, System.currentTimeMillis()));
+            return;
+        }
         TimerManager tMan = TimerManager.getInstance();
         final ScheduledFuture<?> poisonSchedule;
         if (poison) {
-            Runnable poisonTask = () -> {
-                List<MapleMapObject> affectedMonsters =
-                    getMapObjectsInRect(
-                        mist.getBox(),
-                        MapleMapObjectType.MONSTER
-                    );
-                for (MapleMapObject mo : affectedMonsters) {
-                    if (mist.makeChanceResult()) {
-                        MonsterStatusEffect poisonEffect =
-                            new MonsterStatusEffect(
-                                Collections.singletonMap(MonsterStatus.POISON, 1),
-                                mist.getSourceSkill(),
-                                false
-                            );
-                        ((MapleMonster) mo).applyStatus(mist.getOwner(), poisonEffect, true, duration);
-                    }
-                }
-            };
-            poisonSchedule = tMan.register(poisonTask, 2000, 2500);
+            poisonSchedule = tMan.register(() -> poisonMonsters(mist, duration), 2000, 2500);
         } else {
             poisonSchedule = null;
         }
@@ -1384,6 +1561,25 @@ public class MapleMap {
         }, duration);
     }
 
+    private void poisonMonsters(MapleMist mist, int duration) {
+        List<MapleMapObject> affectedMonsters =
+            getMapObjectsInRect(
+                mist.getBox(),
+                MapleMapObjectType.MONSTER
+            );
+        for (MapleMapObject mo : affectedMonsters) {
+            if (mist.makeChanceResult()) {
+                MonsterStatusEffect poisonEffect =
+                    new MonsterStatusEffect(
+                        Collections.singletonMap(MonsterStatus.POISON, 1),
+                        mist.getSourceSkill(),
+                        false
+                    );
+                ((MapleMonster) mo).applyStatus(mist.getOwner(), poisonEffect, true, duration);
+            }
+        }
+    }
+
     public void disappearingItemDrop(final MapleMapObject dropper,
                                      final MapleCharacter owner,
                                      final IItem item,
@@ -1410,7 +1606,6 @@ public class MapleMap {
                               Point pos,
                               final boolean ffaDrop,
                               final boolean expire) {
-        TimerManager tMan = TimerManager.getInstance();
         final Point droppos = calcDropPos(pos, pos);
         final MapleMapItem drop = new MapleMapItem(item, droppos, dropper, owner);
         spawnAndAddRangedMapObject(drop, c ->
@@ -1434,7 +1629,7 @@ public class MapleMap {
             (byte) 0
         ), drop.getPosition());
         if (expire) {
-            tMan.schedule(new ExpireMapItemJob(drop), dropLife);
+            scheduleItemExpiry(drop);
         }
         activateItemReactors(drop);
     }
@@ -1446,7 +1641,7 @@ public class MapleMap {
     private void cancelCancelPeriodicMonsterDrop(final int monsterOid) {
         synchronized (periodicMonsterDrops) {
             periodicMonsterDrops.forEach((pmdh) -> {
-                if (pmdh.getLeft().getMonsterOid() == monsterOid) {
+                if (pmdh.getLeft().getMonsterOid() == monsterOid && pmdh.getRight() != null) {
                     pmdh.getRight().cancel(false);
                 }
             });
@@ -1481,7 +1676,7 @@ public class MapleMap {
                     break;
                 }
             }
-            if (pmdh != null) {
+            if (pmdh != null && pmdh.getRight() != null) {
                 pmdh.getRight().cancel(false);
             }
             periodicMonsterDrops.remove(pmdh);
@@ -1636,7 +1831,6 @@ public class MapleMap {
                               final MapleMapObject dropper,
                               final MapleCharacter owner,
                               final boolean ffaLoot) {
-        TimerManager tMan = TimerManager.getInstance();
         final Point droppos = calcDropPos(position, position);
         final MapleMapItem mdrop = new MapleMapItem(meso, displayMeso, droppos, dropper, owner);
         spawnAndAddRangedMapObject(mdrop, c ->
@@ -1651,7 +1845,7 @@ public class MapleMap {
                     (byte) 1
                 )
             ), null);
-        tMan.schedule(new ExpireMapItemJob(mdrop), dropLife);
+        scheduleItemExpiry(mdrop);
     }
 
     public void startMapEffect(String msg, int itemId) {
@@ -1669,6 +1863,7 @@ public class MapleMap {
         synchronized (characters) {
             characters.add(chr);
         }
+        touch();
         synchronized (mapObjects) {
             if (!chr.isHidden()) {
                 broadcastMessage(chr, (MaplePacketCreator.spawnPlayerMapobject(chr)), false);
@@ -1717,7 +1912,7 @@ public class MapleMap {
             if (chr.getChalkboard() != null) {
                 chr.getClient().getSession().write((MaplePacketCreator.useChalkboard(chr, false)));
             }
-            mapObjects.put(chr.getObjectId(), chr);
+            putMapObject(chr.getObjectId(), chr);
         }
         MapleStatEffect summonStat = chr.getStatForBuff(MapleBuffStat.SUMMON);
         if (summonStat != null) {
@@ -1770,6 +1965,7 @@ public class MapleMap {
         synchronized (characters) {
             characters.remove(chr);
         }
+        touch();
         removeMapObject(chr.getObjectId());
         broadcastMessage(MaplePacketCreator.removePlayerFromMap(chr.getId()));
         for (MapleMonster monster : chr.getControlledMonsters()) {
@@ -1921,83 +2117,42 @@ public class MapleMap {
     }
 
     public List<MapleMapObject> getMapObjectsInRange(Point from, double rangeSq, List<MapleMapObjectType> types) {
-        List<MapleMapObject> ret = new ArrayList<>();
-        synchronized (mapObjects) {
-            Iterator<MapleMapObject> mmoiter = mapObjects.values().iterator();
-            while (mmoiter.hasNext()) {
-                MapleMapObject l = mmoiter.next();
-                if (types.contains(l.getType())) {
-                    if (from.distanceSq(l.getPosition()) <= rangeSq) {
-                        ret.add(l);
-                    }
-                }
-            }
-        }
-        return ret;
+        return objectGrid.getInRange(from, rangeSq, types);
     }
 
     public List<MapleMapObject> getMapObjectsInRange(Point from, double rangeSq, MapleMapObjectType type) {
-        List<MapleMapObject> ret = new ArrayList<>();
-        synchronized (mapObjects) {
-            Iterator<MapleMapObject> mmoiter = mapObjects.values().iterator();
-            while (mmoiter.hasNext()) {
-                MapleMapObject l = mmoiter.next();
-                if (type.equals(l.getType())) {
-                    if (from.distanceSq(l.getPosition()) <= rangeSq) {
-                        ret.add(l);
-                    }
-                }
-            }
-        }
-        return ret;
+        return objectGrid.getInRange(from, rangeSq, Collections.singletonList(type));
     }
 
     public List<MapleMapObject> getItemsInRange(Point from, double rangeSq) {
-        List<MapleMapObject> ret = new ArrayList<>();
-        synchronized (mapObjects) {
-            Iterator<MapleMapObject> mmoiter = mapObjects.values().iterator();
-            while (mmoiter.hasNext()) {
-                MapleMapObject l = mmoiter.next();
-                if (l.getType() == MapleMapObjectType.ITEM) {
-                    if (from.distanceSq(l.getPosition()) <= rangeSq) {
-                        ret.add(l);
-                    }
-                }
-            }
-        }
-        return ret;
+        return getMapObjectsInRange(from, rangeSq, MapleMapObjectType.ITEM);
     }
 
     public List<MapleMapObject> getMapObjectsInRect(Rectangle box, List<MapleMapObjectType> types) {
-        List<MapleMapObject> ret = new ArrayList<>();
-        synchronized (mapObjects) {
-            Iterator<MapleMapObject> mmoiter = mapObjects.values().iterator();
-            while (mmoiter.hasNext()) {
-                MapleMapObject l = mmoiter.next();
-                if (types.contains(l.getType())) {
-                    if (box.contains(l.getPosition())) {
-                        ret.add(l);
-                    }
-                }
-            }
-        }
-        return ret;
+        return objectGrid.getInRect(box, types);
     }
 
     public List<MapleMapObject> getMapObjectsInRect(Rectangle box, MapleMapObjectType type) {
-        List<MapleMapObject> ret = new ArrayList<>();
-        synchronized (mapObjects) {
-            Iterator<MapleMapObject> mmoiter = mapObjects.values().iterator();
-            while (mmoiter.hasNext()) {
-                MapleMapObject l = mmoiter.next();
-                if (type.equals(l.getType())) {
-                    if (box.contains(l.getPosition())) {
-                        ret.add(l);
-                    }
-                }
-            }
-        }
-        return ret;
+        return objectGrid.getInRect(box, Collections.singletonList(type));
+    }
+
+    /**
+     * Gets the object of the given type on this map that is closest to
+     * <code>from</code> and matches <code>filter</code>, within a squared
+     * distance of <code>rangeSq</code>.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return The closest such object, or <code>null</code> if there is none.
+     */
+    public MapleMapObject getNearestMapObject(Point from,
+                                              double rangeSq,
+                                              MapleMapObjectType type,
+                                              Predicate<MapleMapObject> filter) {
+        return objectGrid.getNearest(from, rangeSq, type, filter);
     }
 
     public List<MapleCharacter> getPlayersInRect(Rectangle box, List<MapleCharacter> chr) {
@@ -2119,6 +2274,7 @@ public class MapleMap {
 
     public void moveMonster(MapleMonster monster, Point reportedPos) {
         monster.setPosition(reportedPos);
+        objectGrid.update(monster);
         synchronized (characters) {
             for (MapleCharacter chr : characters) {
                 updateMapObjectVisibility(chr, monster);
@@ -2128,9 +2284,11 @@ public class MapleMap {
 
     public void movePlayer(final MapleCharacter player, Point newPosition) {
         if (player.isFake()) {
+            objectGrid.update(player);
             return;
         }
         player.setPosition(newPosition);
+        objectGrid.update(player);
 
         List<MapleMapObject> visibleObjectsNow = new ArrayList<>();
         //Set<MapleMapObject> visibleObjects = player.getVisibleMapObjects();
@@ -2371,6 +2529,111 @@ public class MapleMap {
         return character;
     }
 
+    private void scheduleItemExpiry(MapleMapItem mapitem) {
+        if (ticked) {
+            expiringItems.add(new Pair<>(System.currentTimeMillis() + dropLife, mapitem));
+        } else {
+            TimerManager.getInstance().schedule(new ExpireMapItemJob(mapitem), dropLife);
+        }
+    }
+
+    private void expireItem(MapleMapItem mapitem) {
+        if (mapitem != null && mapitem == getMapObject(mapitem.getObjectId())) {
+            synchronized (mapitem) {
+                if (mapitem.isPickedUp()) {
+                    return;
+                }
+                broadcastMessage(
+                    MaplePacketCreator.removeItemFromMap(mapitem.getObjectId(), 0, 0),
+                    mapitem.getPosition()
+                );
+                removeMapObject(mapitem);
+                mapitem.setPickedUp(true);
+            }
+        }
+    }
+
+    /**
+     * Runs everything that is due on this map in map tick mode: respawns,
+     * item expiry, mist ticks, periodic monster drops and dynamic spawns.
+     * Only called by <code>MapTickService</code>, and always from the same
+     * thread for a given map.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param now The time of this tick, in milliseconds since the epoch.
+     */
+    void tick(long now) {
+        if (respawns && now >= nextRespawnMillis) {
+            nextRespawnMillis = nextDue(nextRespawnMillis, 5000L, now);
+            new RespawnWorker().run();
+        }
+
+        // Every drop lives for dropLife, so the queue is (nearly) in expiry order.
+        Pair<Long, MapleMapItem> expiring;
+        while ((expiring = expiringItems.peek()) != null && expiring.getLeft() <= now) {
+            expiringItems.poll();
+            expireItem(expiring.getRight());
+        }
+
+        for (Iterator<TickedMist> it = tickedMists.iterator(); it.hasNext(); ) {
+            TickedMist tm = it.next();
+            if (now >= tm.endMillis) {
+                it.remove();
+                removeMapObject(tm.mist);
+                broadcastMessage(tm.mist.makeDestroyData());
+            } else if (tm.poison && now >= tm.nextPoisonMillis) {
+                tm.nextPoisonMillis = nextDue(tm.nextPoisonMillis, 2500L, now);
+                poisonMonsters(tm.mist, tm.duration);
+            }
+        }
+
+        List<PeriodicMonsterDrop> dueDrops = null;
+        synchronized (periodicMonsterDrops) {
+            for (Pair<PeriodicMonsterDrop, ScheduledFuture<?>> pmdh : periodicMonsterDrops) {
+                if (pmdh.getLeft().isDue(now)) {
+                    if (dueDrops == null) dueDrops = new ArrayList<>(2);
+                    dueDrops.add(pmdh.getLeft());
+                }
+            }
+        }
+        if (dueDrops != null) {
+            dueDrops.forEach(pmd -> pmd.tick(now));
+        }
+
+        for (DynamicSpawnWorker dsw : dynamicSpawnWorkers) {
+            dsw.tick(now);
+        }
+    }
+
+    /**
+     * Gets the next time that something running every <code>period</code>
+     * milliseconds is due, skipping runs that were missed altogether rather
+     * than running them all at once.
+     */
+    private static long nextDue(long due, long period, long now) {
+        due += period;
+        return due > now ? due : now + period;
+    }
+
+    private static class TickedMist {
+        public final MapleMist mist;
+        public final int duration;
+        public final boolean poison;
+        public final long endMillis;
+        public long nextPoisonMillis;
+
+        TickedMist(MapleMist mist, int duration, boolean poison, long startMillis) {
+            this.mist = mist;
+            this.duration = duration;
+            this.poison = poison;
+            endMillis = startMillis + duration;
+            nextPoisonMillis = startMillis + 2000L;
+        }
+    }
+
     private class ExpireMapItemJob implements Runnable {
         private final MapleMapItem mapitem;
 
@@ -2380,16 +2643,7 @@ public class MapleMap {
 
         @Override
         public void run() {
-            if (mapitem != null && mapitem == getMapObject(mapitem.getObjectId())) {
-                synchronized (mapitem) {
-                    if (mapitem.isPickedUp()) {
-                        return;
-                    }
-                    MapleMap.this.broadcastMessage(MaplePacketCreator.removeItemFromMap(mapitem.getObjectId(), 0, 0), mapitem.getPosition());
-                    MapleMap.this.removeMapObject(mapitem);
-                    mapitem.setPickedUp(true);
-                }
-            }
+            expireItem(mapitem);
         }
     }
 
@@ -2459,6 +2713,7 @@ public class MapleMap {
         private final MapleCharacter chr;
         private final MapleMonster monster;
         private ScheduledFuture<?> task;
+        private long period = 0L, nextDropMillis, endMillis;
 
         public PeriodicMonsterDrop(MapleCharacter chr, MapleMonster monster) {
             this.chr = chr;
@@ -2480,6 +2735,29 @@ public class MapleMap {
             this.task = task;
         }
 
+        /**
+         * Sets up this drop to be run by the map's tick instead of by a task
+         * of its own.
+         */
+        public void setSchedule(long period, long startMillis, long duration) {
+            this.period = period;
+            nextDropMillis = startMillis + period;
+            endMillis = startMillis + duration;
+        }
+
+        public boolean isDue(long now) {
+            return period > 0L && (now >= nextDropMillis || now >= endMillis);
+        }
+
+        public void tick(long now) {
+            if (now >= endMillis) {
+                selfCancel();
+                return;
+            }
+            nextDropMillis = nextDue(nextDropMillis, period, now);
+            run();
+        }
+
         public int getMonsterOid() {
             return monster.getObjectId();
         }
@@ -2488,6 +2766,8 @@ public class MapleMap {
             if (task != null) {
                 MapleMap.this.cancelPeriodicMonsterDrop(this);
                 task.cancel(false);
+            } else if (period > 0L) {
+                MapleMap.this.cancelPeriodicMonsterDrop(this);
             }
         }
     }
@@ -2500,6 +2780,8 @@ public class MapleMap {
         private int monsterDropPeriod;
         private final MapleMonsterStats overrideStats;
         private ScheduledFuture<?> spawnTask, cancelTask;
+        private volatile boolean started = false;
+        private long nextSpawnMillis, endMillis;
 
         public DynamicSpawnWorker(int monsterId, Point spawnPoint, int period) {
             this(monsterId, spawnPoint, period, 0, false, 0);
@@ -2542,60 +2824,70 @@ public class MapleMap {
         }
 
         public void start() {
+            if (ticked) {
+                if (!started) {
+                    long now = System.currentTimeMillis();
+                    nextSpawnMillis = now;
+                    endMillis = duration > 0 ? now + duration : 0L;
+                    started = true;
+                }
+                return;
+            }
             if (spawnTask == null) {
                 TimerManager tMan = TimerManager.getInstance();
-                if (spawnArea != null) {
-                    spawnTask = tMan.register(() -> {
-                        final MapleMonster toSpawn = MapleLifeFactory.getMonster(monsterId);
-                        if (overrideStats != null) {
-                            toSpawn.setOverrideStats(overrideStats);
-                            if (overrideStats.getHp() > 0) {
-                                toSpawn.setHp(overrideStats.getHp());
-                            }
-                            if (overrideStats.getMp() > 0) {
-                                toSpawn.setMp(overrideStats.getMp());
-                            }
-                        }
+                spawnTask = tMan.register(this::spawn, period);
+
+                if (duration > 0) {
+                    cancelTask = tMan.schedule(() -> MapleMap.this.disposeDynamicSpawnWorker(this), duration);
+                }
+            }
+        }
 
-                        for (int i = 0; i < 10; ++i) {
-                            try {
-                                int x = (int) (spawnArea.x + Math.random() * (spawnArea.getWidth() + 1));
-                                int y = (int) (spawnArea.y + Math.random() * (spawnArea.getHeight() + 1));
-                                toSpawn.setPosition(new Point(x, y));
-                                MapleMap.this.spawnMonster(toSpawn);
+        public void tick(long now) {
+            if (!started) return;
+            if (endMillis > 0L && now >= endMillis) {
+                MapleMap.this.disposeDynamicSpawnWorker(this);
+                return;
+            }
+            if (now >= nextSpawnMillis) {
+                nextSpawnMillis = nextDue(nextSpawnMillis, period, now);
+                spawn();
+            }
+        }
 
-                                if (putPeriodicMonsterDrops) {
-                                    MapleMap.this.startPeriodicMonsterDrop(toSpawn, monsterDropPeriod, 3000000);
-                                }
-                                break;
-                            } catch (Exception ignored) {
-                            }
-                        }
-                    }, period);
-                } else {
-                    spawnTask = tMan.register(() -> {
-                        final MapleMonster toSpawn = MapleLifeFactory.getMonster(monsterId);
-                        if (overrideStats != null) {
-                            toSpawn.setOverrideStats(overrideStats);
-                            if (overrideStats.getHp() > 0) {
-                                toSpawn.setHp(overrideStats.getHp());
-                            }
-                            if (overrideStats.getMp() > 0) {
-                                toSpawn.setMp(overrideStats.getMp());
-                            }
-                        }
+        private void spawn() {
+            final MapleMonster toSpawn = MapleLifeFactory.getMonster(monsterId);
+            if (overrideStats != null) {
+                toSpawn.setOverrideStats(overrideStats);
+                if (overrideStats.getHp() > 0) {
+                    toSpawn.setHp(overrideStats.getHp());
+                }
+                if (overrideStats.getMp() > 0) {
+                    toSpawn.setMp(overrideStats.getMp());
+                }
+            }
 
-                        toSpawn.setPosition(spawnPoint);
+            if (spawnArea != null) {
+                for (int i = 0; i < 10; ++i) {
+                    try {
+                        int x = (int) (spawnArea.x + Math.random() * (spawnArea.getWidth() + 1));
+                        int y = (int) (spawnArea.y + Math.random() * (spawnArea.getHeight() + 1));
+                        toSpawn.setPosition(new Point(x, y));
                         MapleMap.this.spawnMonster(toSpawn);
 
                         if (putPeriodicMonsterDrops) {
                             MapleMap.this.startPeriodicMonsterDrop(toSpawn, monsterDropPeriod, 3000000);
                         }
-                    }, period);
+                        break;
+                    } catch (Exception ignored) {
+                    }
                 }
+            } else {
+                toSpawn.setPosition(spawnPoint);
+                MapleMap.this.spawnMonster(toSpawn);
 
-                if (duration > 0) {
-                    cancelTask = tMan.schedule(() -> MapleMap.this.disposeDynamicSpawnWorker(this), duration);
+                if (putPeriodicMonsterDrops) {
+                    MapleMap.this.startPeriodicMonsterDrop(toSpawn, monsterDropPeriod, 3000000);
                 }
             }
         }
@@ -2636,6 +2928,7 @@ public class MapleMap {
         }
 
         public void dispose() {
+            started = false;
             if (spawnTask != null) spawnTask.cancel(false);
             if (cancelTask != null) cancelTask.cancel(false);
             cancelTask = null;
@@ -2695,7 +2988,7 @@ public class MapleMap {
             } else {
                 broadcastGMMessage(chr, (MaplePacketCreator.spawnPlayerMapobject(chr)), false);
             }
-            this.mapObjects.put(chr.getObjectId(), chr);
+            putMapObject(chr.getObjectId(), chr);
         }
     }
 
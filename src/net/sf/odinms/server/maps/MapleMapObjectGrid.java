@@ -0,0 +1,332 @@
+package net.sf.odinms.server.maps;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Uniform grid spatial index over the objects of a single <code>MapleMap</code>.
+ *
+ * Objects are bucketed by their <code>MapleMapObjectType</code> and by the
+ * square cell that their position falls into, so that range, rectangle and
+ * nearest-object queries only have to look at the objects in the cells that
+ * the query actually touches, instead of at every object on the map.
+ *
+ * The grid does not observe positions by itself: whoever moves an object that
+ * is already indexed must call <code>update</code> so that the object gets
+ * re-bucketed. All methods are synchronized on the grid.
+ */
+public class MapleMapObjectGrid {
+    /**
+     * Half of the maximum view range, so that a view range query only ever
+     * touches a 5x5 block of cells.
+     */
+    public static final int DEFAULT_CELL_SIZE = 425;
+    private final int cellSize;
+    private final Map<MapleMapObjectType, Map<Long, List<MapleMapObject>>> cells =
+        new EnumMap<>(MapleMapObjectType.class);
+    private final Map<MapleMapObject, Long> indexedCells = new IdentityHashMap<>();
+    private final Map<MapleMapObjectType, Integer> typeCounts = new EnumMap<>(MapleMapObjectType.class);
+
+    public MapleMapObjectGrid() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public MapleMapObjectGrid(int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Grid cell size must be positive, got: " + cellSize);
+        }
+        this.cellSize = cellSize;
+        for (MapleMapObjectType type : MapleMapObjectType.values()) {
+            cells.put(type, new HashMap<>());
+            typeCounts.put(type, 0);
+        }
+    }
+
+    /**
+     * Adds the given object to the grid, using its current position. If the
+     * object is already indexed, this is equivalent to <code>update</code>.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param mmo The object to index.
+     */
+    public synchronized void add(MapleMapObject mmo) {
+        if (indexedCells.containsKey(mmo)) {
+            update(mmo);
+            return;
+        }
+        long cell = cellOf(mmo.getPosition());
+        cells.get(mmo.getType()).computeIfAbsent(cell, c -> new ArrayList<>(4)).add(mmo);
+        indexedCells.put(mmo, cell);
+        typeCounts.merge(mmo.getType(), 1, Integer::sum);
+    }
+
+    /**
+     * Removes the given object from the grid, if it is indexed.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param mmo The object to remove.
+     * @return <code>true</code> if the object was indexed, <code>false</code> otherwise.
+     */
+    public synchronized boolean remove(MapleMapObject mmo) {
+        Long cell = indexedCells.remove(mmo);
+        if (cell == null) {
+            return false;
+        }
+        removeFromCell(mmo, cell);
+        typeCounts.merge(mmo.getType(), -1, Integer::sum);
+        return true;
+    }
+
+    /**
+     * Re-buckets the given object according to its current position. Objects
+     * that are not indexed are ignored.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param mmo The object that has (possibly) moved.
+     */
+    public synchronized void update(MapleMapObject mmo) {
+        Long oldCell = indexedCells.get(mmo);
+        if (oldCell == null) {
+            return;
+        }
+        long newCell = cellOf(mmo.getPosition());
+        if (oldCell == newCell) {
+            return;
+        }
+        removeFromCell(mmo, oldCell);
+        cells.get(mmo.getType()).computeIfAbsent(newCell, c -> new ArrayList<>(4)).add(mmo);
+        indexedCells.put(mmo, newCell);
+    }
+
+    public synchronized boolean contains(MapleMapObject mmo) {
+        return indexedCells.containsKey(mmo);
+    }
+
+    public synchronized int size() {
+        return indexedCells.size();
+    }
+
+    public synchronized void clear() {
+        cells.values().forEach(Map::clear);
+        indexedCells.clear();
+        typeCounts.replaceAll((type, count) -> 0);
+    }
+
+    /**
+     * Gets all indexed objects of any of the given types whose squared
+     * distance from <code>from</code> is at most <code>rangeSq</code>.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     *
+     * @param from The center of the query.
+     * @param rangeSq The squared query radius; may be <code>Double.POSITIVE_INFINITY</code>.
+     * @param types The types of object to look for.
+     * @return A new list of the matching objects, in no particular order.
+     */
+    public synchronized List<MapleMapObject> getInRange(Point from,
+                                                        double rangeSq,
+                                                        Collection<MapleMapObjectType> types) {
+        List<MapleMapObject> ret = new ArrayList<>();
+        if (rangeSq < 0.0d) {
+            return ret;
+        }
+        double range = Math.sqrt(rangeSq);
+        for (MapleMapObjectType type : types) {
+            forEachCandidate(
+                type,
+                from.x - range,
+                from.y - range,
+                from.x + range,
+                from.y + range,
+                mmo -> {
+                    if (from.distanceSq(mmo.getPosition()) <= rangeSq) {
+                        ret.add(mmo);
+                    }
+                }
+            );
+        }
+        return ret;
+    }
+
+    /**
+     * Gets all indexed objects of any of the given types whose position is
+     * contained in <code>box</code>, in the sense of <code>Rectangle.contains(Point)</code>.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     *
+     * @param box The area to query.
+     * @param types The types of object to look for.
+     * @return A new list of the matching objects, in no particular order.
+     */
+    public synchronized List<MapleMapObject> getInRect(Rectangle box, Collection<MapleMapObjectType> types) {
+        List<MapleMapObject> ret = new ArrayList<>();
+        if (box.width < 0 || box.height < 0) {
+            return ret;
+        }
+        for (MapleMapObjectType type : types) {
+            forEachCandidate(
+                type,
+                box.x,
+                box.y,
+                (double) box.x + box.width,
+                (double) box.y + box.height,
+                mmo -> {
+                    if (box.contains(mmo.getPosition())) {
+                        ret.add(mmo);
+                    }
+                }
+            );
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the indexed object of the given type that is closest to
+     * <code>from</code> and matches <code>filter</code>, provided that its
+     * squared distance is at most <code>rangeSq</code>.
+     *
+     * The search walks outwards in square rings of cells, and stops as soon as
+     * no unvisited cell can contain anything closer than the best candidate.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @param from The point to measure distance from.
+     * @param rangeSq The maximum squared distance; may be <code>Double.POSITIVE_INFINITY</code>.
+     * @param type The type of object to look for.
+     * @param filter Which objects to consider; called while holding the grid's lock.
+     * @return The closest matching object, or <code>null</code> if there is none.
+     */
+    public synchronized MapleMapObject getNearest(Point from,
+                                                  double rangeSq,
+                                                  MapleMapObjectType type,
+                                                  Predicate<MapleMapObject> filter) {
+        Map<Long, List<MapleMapObject>> typeCells = cells.get(type);
+        int remaining = typeCounts.get(type);
+        if (remaining == 0 || rangeSq < 0.0d) {
+            return null;
+        }
+        int cx = Math.floorDiv(from.x, cellSize);
+        int cy = Math.floorDiv(from.y, cellSize);
+        MapleMapObject best = null;
+        double bestDistSq = rangeSq;
+        for (int ring = 0; remaining > 0; ++ring) {
+            /*
+             * Anything in this ring or further out is at least
+             * (ring - 1) * cellSize away from the query point.
+             */
+            double ringDist = (double) (ring - 1) * cellSize;
+            if (ring > 0 && ringDist * ringDist > bestDistSq) {
+                break;
+            }
+            for (int x = cx - ring; x <= cx + ring; ++x) {
+                for (int y = cy - ring; y <= cy + ring; ++y) {
+                    if (ring > 0 && x != cx - ring && x != cx + ring && y != cy - ring && y != cy + ring) {
+                        continue;
+                    }
+                    List<MapleMapObject> cell = typeCells.get(cellKey(x, y));
+                    if (cell == null) {
+                        continue;
+                    }
+                    remaining -= cell.size();
+                    for (MapleMapObject mmo : cell) {
+                        double distSq = from.distanceSq(mmo.getPosition());
+                        if (distSq <= bestDistSq && filter.test(mmo)) {
+                            best = mmo;
+                            bestDistSq = distSq;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Feeds every object of the given type that lives in a cell overlapping
+     * the given bounds to <code>consumer</code>. When the bounds span more
+     * cells than there are occupied cells of that type (e.g. for infinite
+     * ranges), the occupied cells are walked directly instead.
+     */
+    private void forEachCandidate(MapleMapObjectType type,
+                                  double minX,
+                                  double minY,
+                                  double maxX,
+                                  double maxY,
+                                  Consumer<MapleMapObject> consumer) {
+        Map<Long, List<MapleMapObject>> typeCells = cells.get(type);
+        if (typeCells.isEmpty()) {
+            return;
+        }
+        double minCx = Math.floor(minX / cellSize);
+        double minCy = Math.floor(minY / cellSize);
+        double maxCx = Math.floor(maxX / cellSize);
+        double maxCy = Math.floor(maxY / cellSize);
+        double spannedCells = (maxCx - minCx + 1.0d) * (maxCy - minCy + 1.0d);
+        if (!(spannedCells <= typeCells.size())) {
+            for (Map.Entry<Long, List<MapleMapObject>> cell : typeCells.entrySet()) {
+                long key = cell.getKey();
+                int x = (int) (key >> 32);
+                int y = (int) key;
+                if (x >= minCx && x <= maxCx && y >= minCy && y <= maxCy) {
+                    cell.getValue().forEach(consumer);
+                }
+            }
+            return;
+        }
+        for (int x = (int) minCx; x <= (int) maxCx; ++x) {
+            for (int y = (int) minCy; y <= (int) maxCy; ++y) {
+                List<MapleMapObject> cell = typeCells.get(cellKey(x, y));
+                if (cell != null) {
+                    cell.forEach(consumer);
+                }
+            }
+        }
+    }
+
+    private void removeFromCell(MapleMapObject mmo, long cell) {
+        Map<Long, List<MapleMapObject>> typeCells = cells.get(mmo.getType());
+        List<MapleMapObject> bucket = typeCells.get(cell);
+        if (bucket == null) {
+            return;
+        }
+        // Identity removal; cells are small, so a linear scan is cheap.
+        for (int i = 0; i < bucket.size(); ++i) {
+            if (bucket.get(i) == mmo) {
+                int last = bucket.size() - 1;
+                bucket.set(i, bucket.get(last));
+                bucket.remove(last);
+                break;
+            }
+        }
+        if (bucket.isEmpty()) {
+            typeCells.remove(cell);
+        }
+    }
+
+    private long cellOf(Point p) {
+        return cellKey(Math.floorDiv(p.x, cellSize), Math.floorDiv(p.y, cellSize));
+    }
+
+    private static long cellKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+}
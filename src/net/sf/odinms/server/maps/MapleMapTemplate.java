@@ -0,0 +1,365 @@
+package net.sf.odinms.server.maps;
+
+import net.sf.odinms.database.DatabaseConnection;
+import net.sf.odinms.provider.MapleData;
+import net.sf.odinms.provider.MapleDataTool;
+import net.sf.odinms.server.MaplePortal;
+import net.sf.odinms.server.PortalFactory;
+import net.sf.odinms.server.life.AbstractLoadedMapleLife;
+import net.sf.odinms.server.life.MapleLifeFactory;
+import net.sf.odinms.server.life.MapleMonster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything about a map that comes from Map.wz, String.wz and the
+ * <code>spawns</code> and <code>playernpcs</code> tables, parsed once: the
+ * portals, footholds, areas, life and reactor placement, names and flags.
+ *
+ * A template is immutable, and is shared by every channel and event
+ * instance that loads the map; <code>instantiate</code> makes a fresh
+ * <code>MapleMap</code> out of it. The foothold tree is shared by all maps
+ * made from the template, since nothing changes it after it is built.
+ */
+public class MapleMapTemplate {
+    private static final Logger log = LoggerFactory.getLogger(MapleMapTemplate.class);
+    private final int mapId;
+    private final int returnMapId;
+    private final float monsterRate;
+    private final List<MaplePortal> portals = new ArrayList<>();
+    private final MapleFootholdTree footholds;
+    private final List<Rectangle> areas = new ArrayList<>();
+    private final List<LifeSpawn> dbLife = new ArrayList<>();
+    private final List<PlayerNPCs> playerNpcs = new ArrayList<>();
+    private final List<LifeSpawn> life = new ArrayList<>();
+    private final List<ReactorSpawn> reactors = new ArrayList<>();
+    private final String mapName, streetName;
+    private final boolean clock, everlast, town, boat;
+    private final int decHP, protectItem, forcedReturn, fieldLimit, timeLimit;
+
+    MapleMapTemplate(int mapId, MapleData mapData, String mapName, String streetName) {
+        this.mapId = mapId;
+        returnMapId = MapleDataTool.getInt("info/returnMap", mapData);
+        MapleData mobRate = mapData.getChildByPath("info/mobRate");
+        monsterRate = mobRate != null ? (Float) mobRate.getData() : 0.0f;
+
+        PortalFactory portalFactory = new PortalFactory();
+        for (MapleData portal : mapData.getChildByPath("portal")) {
+            int type = MapleDataTool.getInt(portal.getChildByPath("pt"));
+            portals.add(portalFactory.makePortal(type, portal));
+        }
+
+        List<MapleFoothold> allFootholds = new ArrayList<>();
+        Point lBound = new Point();
+        Point uBound = new Point();
+        for (MapleData footRoot : mapData.getChildByPath("foothold")) {
+            for (MapleData footCat : footRoot) {
+                for (MapleData footHold : footCat) {
+                    int x1 = MapleDataTool.getInt(footHold.getChildByPath("x1"));
+                    int y1 = MapleDataTool.getInt(footHold.getChildByPath("y1"));
+                    int x2 = MapleDataTool.getInt(footHold.getChildByPath("x2"));
+                    int y2 = MapleDataTool.getInt(footHold.getChildByPath("y2"));
+                    MapleFoothold fh = new MapleFoothold(
+                        new Point(x1, y1),
+                        new Point(x2, y2),
+                        Integer.parseInt(footHold.getName())
+                    );
+                    fh.setPrev(MapleDataTool.getInt(footHold.getChildByPath("prev")));
+                    fh.setNext(MapleDataTool.getInt(footHold.getChildByPath("next")));
+
+                    if (fh.getX1() < lBound.x) {
+                        lBound.x = fh.getX1();
+                    }
+                    if (fh.getX2() > uBound.x) {
+                        uBound.x = fh.getX2();
+                    }
+                    if (fh.getY1() < lBound.y) {
+                        lBound.y = fh.getY1();
+                    }
+                    if (fh.getY2() > uBound.y) {
+                        uBound.y = fh.getY2();
+                    }
+                    allFootholds.add(fh);
+                }
+            }
+        }
+        footholds = new MapleFootholdTree(lBound, uBound);
+        for (MapleFoothold fh : allFootholds) {
+            footholds.insert(fh);
+        }
+
+        // Load areas (e.g. PQ platforms)
+        if (mapData.getChildByPath("area") != null) {
+            for (MapleData area : mapData.getChildByPath("area")) {
+                int x1 = MapleDataTool.getInt(area.getChildByPath("x1"));
+                int y1 = MapleDataTool.getInt(area.getChildByPath("y1"));
+                int x2 = MapleDataTool.getInt(area.getChildByPath("x2"));
+                int y2 = MapleDataTool.getInt(area.getChildByPath("y2"));
+                areas.add(new Rectangle(x1, y1, (x2 - x1), (y2 - y1)));
+            }
+        }
+
+        try {
+            Connection con = DatabaseConnection.getConnection();
+            PreparedStatement ps = con.prepareStatement("SELECT * FROM spawns WHERE mid = ?");
+            ps.setInt(1, mapId);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                dbLife.add(
+                    new LifeSpawn(
+                        rs.getInt("idd"),
+                        rs.getString("type"),
+                        rs.getInt("f"),
+                        0,
+                        rs.getInt("fh"),
+                        rs.getInt("cy"),
+                        rs.getInt("rx0"),
+                        rs.getInt("rx1"),
+                        rs.getInt("x"),
+                        rs.getInt("y"),
+                        rs.getInt("mobtime")
+                    )
+                );
+            }
+            ps.close();
+            rs.close();
+            PreparedStatement ps2 = con.prepareStatement("SELECT * FROM playernpcs WHERE map = ?");
+            ps2.setInt(1, mapId);
+            ResultSet rs2 = ps2.executeQuery();
+            while (rs2.next()) {
+                playerNpcs.add(new PlayerNPCs(rs2));
+            }
+            rs2.close();
+            ps2.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        // Load life data (NPCs, monsters)
+        for (MapleData lifeData : mapData.getChildByPath("life")) {
+            int hide = MapleDataTool.getInt("hide", lifeData, 0);
+            if (hide > 1) {
+                log.warn("Hide > 1 ({})", hide);
+            }
+            MapleData dF = lifeData.getChildByPath("f");
+            life.add(
+                new LifeSpawn(
+                    Integer.parseInt(MapleDataTool.getString(lifeData.getChildByPath("id"))),
+                    MapleDataTool.getString(lifeData.getChildByPath("type")),
+                    dF != null ? MapleDataTool.getInt(dF) : 0,
+                    hide,
+                    MapleDataTool.getInt(lifeData.getChildByPath("fh")),
+                    MapleDataTool.getInt(lifeData.getChildByPath("cy")),
+                    MapleDataTool.getInt(lifeData.getChildByPath("rx0")),
+                    MapleDataTool.getInt(lifeData.getChildByPath("rx1")),
+                    MapleDataTool.getInt(lifeData.getChildByPath("x")),
+                    MapleDataTool.getInt(lifeData.getChildByPath("y")),
+                    MapleDataTool.getInt("mobTime", lifeData, 0)
+                )
+            );
+        }
+
+        // Load reactor data
+        if (mapData.getChildByPath("reactor") != null) {
+            for (MapleData reactor : mapData.getChildByPath("reactor")) {
+                String id = MapleDataTool.getString(reactor.getChildByPath("id"));
+                if (id != null) {
+                    reactors.add(
+                        new ReactorSpawn(
+                            Integer.parseInt(id),
+                            MapleDataTool.getInt(reactor.getChildByPath("x")),
+                            MapleDataTool.getInt(reactor.getChildByPath("y")),
+                            MapleDataTool.getInt(reactor.getChildByPath("reactorTime")) * 1000,
+                            MapleDataTool.getString(reactor.getChildByPath("name"), "")
+                        )
+                    );
+                }
+            }
+        }
+
+        this.mapName = mapName;
+        this.streetName = streetName;
+        clock = mapData.getChildByPath("clock") != null;
+        everlast = mapData.getChildByPath("everlast") != null;
+        town = mapData.getChildByPath("town") != null;
+        decHP = MapleDataTool.getIntConvert("decHP", mapData, 0);
+        protectItem = MapleDataTool.getIntConvert("protectItem", mapData, 0);
+        forcedReturn = MapleDataTool.getInt(mapData.getChildByPath("info/forcedReturn"), 999999999);
+        fieldLimit = MapleDataTool.getInt(mapData.getChildByPath("info/fieldLimit"), 0);
+        boat = mapData.getChildByPath("shipObj") != null;
+        timeLimit = MapleDataTool.getIntConvert("timeLimit", mapData.getChildByPath("info"), -1);
+    }
+
+    /**
+     * Makes a new map out of this template, with its own portals, areas,
+     * life and reactors.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @param channel The channel that the map is on.
+     * @param respawns Whether monsters respawn on the map.
+     * @param npcs Whether to place the NPCs of Map.wz on the map.
+     * @param spawnReactors Whether to place reactors on the map.
+     * @return The new map.
+     */
+    public MapleMap instantiate(int channel, boolean respawns, boolean npcs, boolean spawnReactors) {
+        MapleMap map = new MapleMap(mapId, channel, returnMapId, respawns ? monsterRate : 0.0f);
+        for (MaplePortal portal : portals) {
+            map.addPortal(PortalFactory.copyPortal(portal));
+        }
+        map.setFootholds(footholds);
+        for (Rectangle area : areas) {
+            map.addMapleArea(new Rectangle(area));
+        }
+        for (LifeSpawn spawn : dbLife) {
+            AbstractLoadedMapleLife myLife = spawn.create();
+            if (myLife == null) {
+                continue;
+            }
+            if (spawn.type.equals("n")) {
+                map.addMapObject(myLife);
+            } else if (spawn.type.equals("m")) {
+                map.addMonsterSpawn((MapleMonster) myLife, spawn.mobTime);
+            }
+        }
+        for (PlayerNPCs playerNpc : playerNpcs) {
+            map.addMapObject(new PlayerNPCs(playerNpc));
+        }
+        for (LifeSpawn spawn : life) {
+            if (!npcs && spawn.type.equals("n")) {
+                continue;
+            }
+            AbstractLoadedMapleLife myLife = spawn.create();
+            if (myLife instanceof MapleMonster) {
+                MapleMonster monster = (MapleMonster) myLife;
+                if (monster.getId() == 9400568) { // Turkey Commando
+                    continue;
+                }
+                int mobTime = spawn.mobTime;
+                if (monster.isBoss()) {
+                    mobTime += (mobTime / 10) * (2.5d + 10.0d * Math.random());
+                }
+                if (mobTime == -1 && respawns) { // Does not respawn, force spawn once
+                    map.spawnMonster(monster);
+                } else {
+                    map.addMonsterSpawn(monster, mobTime);
+                }
+            } else if (myLife != null) {
+                map.addMapObject(myLife);
+            }
+        }
+        if (spawnReactors) {
+            for (ReactorSpawn spawn : reactors) {
+                map.spawnReactor(spawn.create());
+            }
+        }
+        map.setMapName(mapName);
+        map.setStreetName(streetName);
+        map.setClock(clock);
+        map.setEverlast(everlast);
+        map.setTown(town);
+        map.setHPDec(decHP);
+        map.setHPDecProtect(protectItem);
+        map.setForcedReturnMap(forcedReturn);
+        map.setFieldLimit(fieldLimit);
+        map.setBoat(boat);
+        map.setTimeLimit(timeLimit);
+        return map;
+    }
+
+    public int getMapId() {
+        return mapId;
+    }
+
+    public String getMapName() {
+        return mapName;
+    }
+
+    public String getStreetName() {
+        return streetName;
+    }
+
+    public List<MaplePortal> getPortals() {
+        return Collections.unmodifiableList(portals);
+    }
+
+    public MapleFootholdTree getFootholds() {
+        return footholds;
+    }
+
+    /**
+     * One NPC or monster placement, from Map.wz or the <code>spawns</code> table.
+     */
+    private static class LifeSpawn {
+        private final int id;
+        private final String type;
+        private final int f, hide, fh, cy, rx0, rx1, x, y, mobTime;
+
+        LifeSpawn(int id, String type, int f, int hide, int fh, int cy, int rx0, int rx1, int x, int y, int mobTime) {
+            this.id = id;
+            this.type = type;
+            this.f = f;
+            this.hide = hide;
+            this.fh = fh;
+            this.cy = cy;
+            this.rx0 = rx0;
+            this.rx1 = rx1;
+            this.x = x;
+            this.y = y;
+            this.mobTime = mobTime;
+        }
+
+        AbstractLoadedMapleLife create() {
+            AbstractLoadedMapleLife myLife = MapleLifeFactory.getLife(id, type);
+            if (myLife == null) {
+                System.err.println("Missing mob data: " + id);
+                return null;
+            }
+            myLife.setCy(cy);
+            myLife.setF(f);
+            myLife.setFh(fh);
+            myLife.setRx0(rx0);
+            myLife.setRx1(rx1);
+            myLife.setPosition(new Point(x, y));
+            myLife.setHide(hide == 1);
+            return myLife;
+        }
+    }
+
+    /**
+     * One reactor placement from Map.wz.
+     */
+    private static class ReactorSpawn {
+        private final int id, x, y, delay;
+        private final String name;
+
+        ReactorSpawn(int id, int x, int y, int delay, String name) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+            this.delay = delay;
+            this.name = name;
+        }
+
+        MapleReactor create() {
+            MapleReactor myReactor = new MapleReactor(MapleReactorFactory.getReactor(id), id);
+            myReactor.setPosition(new Point(x, y));
+            myReactor.setDelay(delay);
+            myReactor.setState((byte) 0);
+            myReactor.setName(name);
+            return myReactor;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package net.sf.odinms.server.maps;
+
+import net.sf.odinms.provider.MapleData;
+import net.sf.odinms.provider.MapleDataDirectoryEntry;
+import net.sf.odinms.provider.MapleDataFileEntry;
+import net.sf.odinms.provider.MapleDataProvider;
+import net.sf.odinms.provider.MapleDataProviderFactory;
+import net.sf.odinms.provider.MapleDataTool;
+import net.sf.odinms.tools.StringUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parses and caches <code>MapleMapTemplate</code>s. There is one of these
+ * per server, so every channel and event instance shares the same Map.wz and
+ * String.wz providers and the same parsed maps.
+ */
+public class MapleMapTemplateFactory {
+    private static final MapleMapTemplateFactory instance = new MapleMapTemplateFactory();
+    private final MapleDataProvider source =
+        MapleDataProviderFactory.getDataProvider(new File(System.getProperty("net.sf.odinms.wzpath") + "/Map.wz"));
+    private final MapleData nameData =
+        MapleDataProviderFactory.getDataProvider(new File(System.getProperty("net.sf.odinms.wzpath") + "/String.wz"))
+                                .getData("Map.img");
+    private final ConcurrentMap<Integer, CompletableFuture<MapleMapTemplate>> templates = new ConcurrentHashMap<>();
+
+    private MapleMapTemplateFactory() {
+    }
+
+    public static MapleMapTemplateFactory getInstance() {
+        return instance;
+    }
+
+    /**
+     * Gets the template of the given map, parsing it if this is the first
+     * time that it is asked for. Only one thread parses a given map; others
+     * that want it at the same time wait for that.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @param mapId The ID of the map.
+     * @return The template, or <code>null</code> if there is no such map.
+     */
+    public MapleMapTemplate getTemplate(int mapId) {
+        CompletableFuture<MapleMapTemplate> template = templates.get(mapId);
+        if (template == null) {
+            CompletableFuture<MapleMapTemplate> load = new CompletableFuture<>();
+            template = templates.putIfAbsent(mapId, load);
+            if (template == null) {
+                try {
+                    load.complete(loadTemplate(mapId));
+                } catch (RuntimeException re) {
+                    templates.remove(mapId, load);
+                    load.completeExceptionally(re);
+                    throw re;
+                }
+                template = load;
+            }
+        }
+        try {
+            return template.join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ce.getCause();
+            }
+            throw ce;
+        }
+    }
+
+    private MapleMapTemplate loadTemplate(int mapId) {
+        String mapName = getMapName(mapId);
+        MapleData mapData = source.getData(mapName);
+        if (mapData == null) {
+            System.err.println(
+                "No mapData available for mapName: " +
+                    mapName +
+                    ", source.getData(mapName) == null"
+            );
+            return null;
+        }
+        String name, street;
+        // The name data is shared by all loads, and reading a DOM is not thread-safe.
+        synchronized (nameData) {
+            try {
+                name = MapleDataTool.getString("mapName", nameData.getChildByPath(getMapStringName(mapId)), "");
+                street = MapleDataTool.getString("streetName", nameData.getChildByPath(getMapStringName(mapId)), "");
+            } catch (Exception e) {
+                name = "";
+                street = "";
+            }
+        }
+        return new MapleMapTemplate(mapId, mapData, name, street);
+    }
+
+    /**
+     * Drops the cached template of the given map, e.g. after its rows in the
+     * <code>spawns</code> or <code>playernpcs</code> tables have changed, so
+     * that it is parsed again the next time that the map is loaded. Maps that
+     * are loaded already are not affected.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @param mapId The ID of the map.
+     */
+    public void invalidate(int mapId) {
+        templates.remove(mapId);
+    }
+
+    public int getTemplateCount() {
+        return templates.size();
+    }
+
+    /**
+     * Gets the IDs of all maps in the map data, i.e. every
+     * <code>Map/Map#/#########.img</code> of Map.wz.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @return The IDs of all maps.
+     */
+    public List<Integer> getAllMapIds() {
+        List<Integer> mapIds = new ArrayList<>();
+        for (MapleDataDirectoryEntry mapRoot : source.getRoot().getSubdirectories()) {
+            if (!mapRoot.getName().equals("Map")) {
+                continue;
+            }
+            for (MapleDataDirectoryEntry area : mapRoot.getSubdirectories()) {
+                for (MapleDataFileEntry file : area.getFiles()) {
+                    String name = file.getName();
+                    if (!name.endsWith(".img")) {
+                        continue;
+                    }
+                    try {
+                        mapIds.add(Integer.parseInt(name.substring(0, name.length() - 4)));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        return mapIds;
+    }
+
+    private static String getMapName(int mapid) {
+        int area = mapid / 100000000;
+        String mapName = StringUtil.getLeftPaddedStr(Integer.toString(mapid), '0', 9);
+        mapName = "Map/Map" + area + "/" + mapName + ".img";
+        return mapName;
+    }
+
+    private static String getMapStringName(int mapid) {
+        StringBuilder builder = new StringBuilder();
+        if (mapid < 100000000) {
+            builder.append("maple");
+        } else if (mapid >= 100000000 && mapid < 200000000) {
+            builder.append("victoria");
+        } else if (mapid >= 200000000 && mapid < 300000000) {
+            builder.append("ossyria");
+        } else if (mapid >= 540000000 && mapid < 541010110) {
+            builder.append("singapore");
+        } else if (mapid >= 600000000 && mapid < 620000000) {
+            builder.append("MasteriaGL");
+        } else if (mapid >= 670000000 && mapid < 682000000) {
+            builder.append("weddingGL");
+        } else if (mapid >= 682000000 && mapid < 683000000) {
+            builder.append("HalloweenGL");
+        } else if (mapid >= 800000000 && mapid < 900000000) {
+            builder.append("jp");
+        } else {
+            builder.append("etc");
+        }
+        builder.append("/");
+        builder.append(mapid);
+
+        return builder.toString();
+    }
+}
@@ -8,8 +8,8 @@ import net.sf.odinms.tools.Pair;
 import net.sf.odinms.tools.StringUtil;
 
 import java.io.File;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MapleReactorFactory {
     //private static Logger log = LoggerFactory.getLogger(MapleReactorFactory.class);
@@ -19,7 +19,7 @@ public class MapleReactorFactory {
                 System.getProperty("net.sf.odinms.wzpath") + "/Reactor.wz"
             )
         );
-    private static final Map<Integer, MapleReactorStats> reactorStats = new LinkedHashMap<>();
+    private static final Map<Integer, MapleReactorStats> reactorStats = new ConcurrentHashMap<>();
 
     public static MapleReactorStats getReactor(int rid) {
         MapleReactorStats stats = reactorStats.get(rid);
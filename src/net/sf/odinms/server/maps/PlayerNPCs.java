@@ -49,6 +49,23 @@ public class PlayerNPCs extends AbstractMapleMapObject {
         }
     }
 
+    public PlayerNPCs(PlayerNPCs prototype) {
+        CY = prototype.CY;
+        name = prototype.name;
+        hair = prototype.hair;
+        face = prototype.face;
+        gender = prototype.gender;
+        dir = prototype.dir;
+        mapid = prototype.mapid;
+        skin = prototype.skin;
+        FH = prototype.FH;
+        RX0 = prototype.RX0;
+        RX1 = prototype.RX1;
+        npcId = prototype.npcId;
+        setPosition(new Point(prototype.getPosition()));
+        equips.putAll(prototype.equips);
+    }
+
     public Map<Byte, Integer> getEquips() {
         return equips;
     }
@@ -0,0 +1,60 @@
+package net.sf.odinms.server.movement;
+
+/**
+ * A movement path as the client sent it: the raw bytes (the command count
+ * followed by the commands), together with where the path ends up, which is
+ * all that the server needs from it when it only relays the movement.
+ *
+ * The bytes are exactly what serializing the parsed
+ * <code>LifeMovementFragment</code>s would give, so they can be forwarded to
+ * other players as they are.
+ */
+public class RawMovement {
+    public static final int NO_STANCE = Integer.MIN_VALUE;
+    private final byte[] bytes;
+    private final boolean moved;
+    private final int x, y;
+    private final int stance;
+
+    public RawMovement(byte[] bytes, boolean moved, int x, int y, int stance) {
+        this.bytes = bytes;
+        this.moved = moved;
+        this.x = x;
+        this.y = y;
+        this.stance = stance;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Whether the path contains an absolute position (a normal move or a
+     * teleport), i.e. whether <code>getX</code> and <code>getY</code> mean
+     * anything.
+     */
+    public boolean hasPosition() {
+        return moved;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Gets the stance of the last command that has one.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     *
+     * @return The stance, or <code>NO_STANCE</code> if no command in the path has one.
+     */
+    public int getStance() {
+        return stance;
+    }
+}
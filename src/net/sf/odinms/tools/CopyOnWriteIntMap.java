@@ -0,0 +1,195 @@
+package net.sf.odinms.tools;
+
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * A map from <code>int</code> keys to objects for data that is read all
+ * the time from many threads, but hardly ever added to: e.g. caches that
+ * are filled once at startup, or lazily as items are first used.
+ *
+ * The entries live in an open-addressing hash table (linear probing, with
+ * the keys in an <code>int[]</code>, so no boxing) that is never changed
+ * once it has been published. Reads take no lock and just look at the
+ * current table. Writes copy the table, add to the copy and publish it, one
+ * writer at a time; so adding is O(n), and many entries should be added at
+ * once with {@link #putAll(Map)}.
+ *
+ * <code>null</code> values are allowed, and are told apart from missing
+ * keys by {@link #containsKey(int)}.
+ *
+ * @param <V> The type of the values.
+ */
+public class CopyOnWriteIntMap<V> {
+    /** Stands in for <code>null</code> values, since a <code>null</code> slot means that it is empty. */
+    private static final Object NULL = new Object();
+    private static final Table EMPTY = new Table(new int[2], new Object[2], 0);
+    private volatile Table table = EMPTY;
+
+    private static final class Table {
+        private final int[] keys;
+        private final Object[] values;
+        private final int size;
+
+        Table(int[] keys, Object[] values, int size) {
+            this.keys = keys;
+            this.values = values;
+            this.size = size;
+        }
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @return The slot of the key, or, if it isn't in the table, the negated
+     *         (minus one) empty slot where it would go.
+     */
+    private static int find(Table t, int key) {
+        int mask = t.keys.length - 1;
+        int i = slot(key, mask);
+        while (t.values[i] != null) {
+            if (t.keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -i - 1;
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return The value of the key, or <code>null</code> if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        Table t = table;
+        int i = find(t, key);
+        if (i < 0) {
+            return null;
+        }
+        Object value = t.values[i];
+        return value == NULL ? null : (V) value;
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     */
+    public boolean containsKey(int key) {
+        return find(table, key) >= 0;
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     */
+    public int size() {
+        return table.size;
+    }
+
+    /**
+     * Adds a value, unless the key has one already.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     *
+     * @return The value that the key had already, or <code>null</code> if it had none (or <code>null</code>).
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V putIfAbsent(int key, V value) {
+        Table t = table;
+        int i = find(t, key);
+        if (i >= 0) {
+            Object old = t.values[i];
+            return old == NULL ? null : (V) old;
+        }
+        Table copy = copy(t, 1);
+        i = -find(copy, key) - 1;
+        copy.keys[i] = key;
+        copy.values[i] = value == null ? NULL : value;
+        table = new Table(copy.keys, copy.values, t.size + 1);
+        return null;
+    }
+
+    /**
+     * Gets the value of a key, computing and adding it first if there is
+     * none. The function is called without holding any lock, so two threads
+     * may both compute a value for the same key; only the first one to be
+     * added is kept, and returned to both. If the function returns
+     * <code>null</code>, nothing is added.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * <li>nullable?: true</li>
+     * </ul>
+     */
+    public V computeIfAbsent(int key, IntFunction<? extends V> function) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        value = function.apply(key);
+        if (value == null) {
+            return null;
+        }
+        V old = putIfAbsent(key, value);
+        return old != null ? old : value;
+    }
+
+    /**
+     * Adds (or replaces) all entries of a map, in one copy.
+     *
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     */
+    public synchronized void putAll(Map<Integer, ? extends V> map) {
+        Table t = copy(table, map.size());
+        int size = t.size;
+        for (Map.Entry<Integer, ? extends V> entry : map.entrySet()) {
+            int i = find(t, entry.getKey());
+            if (i < 0) {
+                i = -i - 1;
+                t.keys[i] = entry.getKey();
+                size++;
+            }
+            t.values[i] = entry.getValue() == null ? NULL : entry.getValue();
+        }
+        table = new Table(t.keys, t.values, size);
+    }
+
+    /**
+     * Copies a table into new arrays, with room for <code>extra</code> more entries.
+     */
+    private static Table copy(Table t, int extra) {
+        int capacity = t.keys.length;
+        while ((t.size + extra) * 2 > capacity) {
+            capacity <<= 1;
+        }
+        int[] keys = new int[capacity];
+        Object[] values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < t.keys.length; ++j) {
+            if (t.values[j] != null) {
+                int i = slot(t.keys[j], mask);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = t.keys[j];
+                values[i] = t.values[j];
+            }
+        }
+        return new Table(keys, values, t.size);
+    }
+}
@@ -3,16 +3,21 @@ package net.sf.odinms.tools;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
 public class MapleAESOFB {
+    /** The key stream of a packet repeats every segment, and segments are at most 0x5B4 bytes: 92 AES blocks. */
+    private static final int KEY_STREAM_SIZE = 92 * 16;
     private byte iv[];
+    private byte nextIv[] = new byte[4];
+    private final byte[] ivBlock = new byte[16];
+    private final byte[] keyStream = new byte[KEY_STREAM_SIZE];
+    private int keyStreamLength = 0;
     private Cipher cipher;
     private final short mapleVersion;
     private static final byte[] funnyBytes = new byte[] {
@@ -87,7 +92,7 @@ public class MapleAESOFB {
         SecretKeySpec skeySpec = new SecretKeySpec(key, "AES");
         Logger log = LoggerFactory.getLogger(MapleAESOFB.class);
         try {
-            cipher = Cipher.getInstance("AES");
+            cipher = Cipher.getInstance("AES/ECB/NoPadding");
         } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
             log.error("ERROR", e);
         }
@@ -109,7 +114,8 @@ public class MapleAESOFB {
      * @param iv The new IV.
      */
     private void setIv(byte[] iv) {
-        this.iv = iv;
+        this.iv = iv.clone();
+        keyStreamLength = 0;
     }
 
     /**
@@ -128,25 +134,31 @@ public class MapleAESOFB {
      * @return The encrypted bytes.
      */
     public byte[] crypt(byte[] data) {
-        int remaining = data.length;
+        return crypt(data, 0, data.length);
+    }
+
+    /**
+     * Encrypts <code>length</code> bytes of <code>data</code>, starting at
+     * <code>offset</code>, in place, and generates a new IV.
+     *
+     * @param data The array holding the bytes to encrypt.
+     * @param offset Where the bytes start in <code>data</code>.
+     * @param length How many bytes to encrypt.
+     * @return <code>data</code>.
+     */
+    public byte[] crypt(byte[] data, int offset, int length) {
+        // Every segment of the packet starts over from the same IV, so they all XOR with the same key stream, which is
+        // only generated as far as it is needed, once per IV.
+        int remaining = length;
         int llength = 0x5B0;
-        int start = 0;
+        int start = offset;
         while (remaining > 0) {
-            byte[] myIv = BitTools.multiplyBytes(iv, 4, 4);
             if (remaining < llength) {
                 llength = remaining;
             }
-            for (int x = start; x < start + llength; ++x) {
-                if ((x - start) % myIv.length == 0) {
-                    try {
-                        byte[] newIv = cipher.doFinal(myIv);
-                        System.arraycopy(newIv, 0, myIv, 0, myIv.length);
-                        //System.out.println("Iv is now " + HexTool.toString(this.iv));
-                    } catch (IllegalBlockSizeException | BadPaddingException e) {
-                        e.printStackTrace();
-                    }
-                }
-                data[x] ^= myIv[(x - start) % myIv.length];
+            ensureKeyStream(llength);
+            for (int x = 0; x < llength; ++x) {
+                data[start + x] ^= keyStream[x];
             }
             start += llength;
             remaining -= llength;
@@ -156,11 +168,46 @@ public class MapleAESOFB {
         return data;
     }
 
+    /**
+     * Makes sure that at least <code>length</code> bytes of the key stream of
+     * the current IV have been generated.
+     */
+    private void ensureKeyStream(int length) {
+        if (keyStreamLength >= length) {
+            return;
+        }
+        try {
+            if (keyStreamLength == 0) {
+                for (int x = 0; x < 16; ++x) {
+                    ivBlock[x] = iv[x & 3];
+                }
+                cipher.update(ivBlock, 0, 16, keyStream, 0);
+                keyStreamLength = 16;
+            }
+            while (keyStreamLength < length) {
+                cipher.update(keyStream, keyStreamLength - 16, 16, keyStream, keyStreamLength);
+                keyStreamLength += 16;
+            }
+        } catch (ShortBufferException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Generates a new IV.
      */
     private void updateIv() {
-        iv = getNewIv(iv);
+        nextIv[0] = (byte) 0xf2;
+        nextIv[1] = (byte) 0x53;
+        nextIv[2] = (byte) 0x50;
+        nextIv[3] = (byte) 0xc6;
+        for (int x = 0; x < 4; ++x) {
+            funnyShit(iv[x], nextIv);
+        }
+        byte[] oldIv = iv;
+        iv = nextIv;
+        nextIv = oldIv;
+        keyStreamLength = 0;
     }
 
     /**
@@ -171,6 +218,20 @@ public class MapleAESOFB {
      * @return The header.
      */
     public byte[] getPacketHeader(int length) {
+        byte[] ret = new byte[4];
+        writePacketHeader(length, ret, 0);
+        return ret;
+    }
+
+    /**
+     * Writes the header for a packet that is <code>length</code> long into
+     * <code>out</code>, at <code>offset</code>.
+     *
+     * @param length How long the packet that this header is for is.
+     * @param out The array to write the 4 bytes of the header into.
+     * @param offset Where to write the header.
+     */
+    public void writePacketHeader(int length, byte[] out, int offset) {
         int iiv = (iv[3]) & 0xFF;
         iiv |= (iv[2] << 8) & 0xFF00;
 
@@ -178,12 +239,10 @@ public class MapleAESOFB {
         int mlength = ((length << 8) & 0xFF00) | (length >>> 8);
         int xoredIv = iiv ^ mlength;
 
-        byte[] ret = new byte[4];
-        ret[0] = (byte) ((iiv >>> 8) & 0xFF);
-        ret[1] = (byte) (iiv & 0xFF);
-        ret[2] = (byte) ((xoredIv >>> 8) & 0xFF);
-        ret[3] = (byte) (xoredIv & 0xFF);
-        return ret;
+        out[offset] = (byte) ((iiv >>> 8) & 0xFF);
+        out[offset + 1] = (byte) (iiv & 0xFF);
+        out[offset + 2] = (byte) ((xoredIv >>> 8) & 0xFF);
+        out[offset + 3] = (byte) (xoredIv & 0xFF);
     }
 
     /**
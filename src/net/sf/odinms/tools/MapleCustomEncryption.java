@@ -1,6 +1,31 @@
 package net.sf.odinms.tools;
 
+/**
+ * Maple's custom packet encryption: six passes over the data, alternating
+ * in direction. The byte rotations are looked up in tables rather than
+ * computed, and the passes are unrolled into forward/backward pairs.
+ */
 public class MapleCustomEncryption {
+    private static final byte[] ROL3 = new byte[256];
+    private static final byte[] ROR3 = new byte[256];
+    private static final byte[] ROL4 = new byte[256];
+    /** <code>ROL[(n &amp; 7) &lt;&lt; 8 | b]</code> is <code>b</code> rotated left by <code>n</code>. */
+    private static final byte[] ROL = new byte[8 * 256];
+    /** <code>ROR[(n &amp; 7) &lt;&lt; 8 | b]</code> is <code>b</code> rotated right by <code>n</code>. */
+    private static final byte[] ROR = new byte[8 * 256];
+
+    static {
+        for (int b = 0; b < 256; ++b) {
+            ROL3[b] = BitTools.rollLeft((byte) b, 3);
+            ROR3[b] = BitTools.rollRight((byte) b, 3);
+            ROL4[b] = BitTools.rollLeft((byte) b, 4);
+            for (int n = 0; n < 8; ++n) {
+                ROL[n << 8 | b] = BitTools.rollLeft((byte) b, n);
+                ROR[n << 8 | b] = BitTools.rollRight((byte) b, n);
+            }
+        }
+    }
+
     /**
      * Encrypts <code>data</code> with Maple's encryption routines.
      *
@@ -8,37 +33,41 @@ public class MapleCustomEncryption {
      * @return The encrypted data.
      */
     public static byte[] encryptData(byte data[]) {
-        for (int j = 0; j < 6; ++j) {
-            byte remember = 0;
-            byte dataLength = (byte) (data.length & 0xFF);
-            //printByteArray(data);
-            if (j % 2 == 0) {
-                for (int i = 0; i < data.length; ++i) {
-                    byte cur = data[i];
-                    cur = BitTools.rollLeft(cur, 3);
-                    cur += dataLength;
-                    cur ^= remember;
-                    remember = cur;
-                    cur = BitTools.rollRight(cur, (int) dataLength & 0xFF);
-                    cur = ((byte) ((~cur) & 0xFF));
-                    cur += 0x48;
-                    dataLength--;
-                    data[i] = cur;
-                }
-            } else {
-                for (int i = data.length - 1; i >= 0; --i) {
-                    byte cur = data[i];
-                    cur = BitTools.rollLeft(cur, 4);
-                    cur += dataLength;
-                    cur ^= remember;
-                    remember = cur;
-                    cur ^= 0x13;
-                    cur = BitTools.rollRight(cur, 3);
-                    dataLength--;
-                    data[i] = cur;
-                }
+        return encryptData(data, 0, data.length);
+    }
+
+    /**
+     * Encrypts <code>length</code> bytes of <code>data</code>, starting at
+     * <code>offset</code>, in place with Maple's encryption routines.
+     *
+     * @param data The array holding the data to encrypt.
+     * @param offset Where the data starts in <code>data</code>.
+     * @param length How many bytes to encrypt.
+     * @return <code>data</code>.
+     */
+    public static byte[] encryptData(byte data[], int offset, int length) {
+        int end = offset + length;
+        for (int j = 0; j < 3; ++j) {
+            int remember = 0;
+            int dataLength = length & 0xFF;
+            for (int i = offset; i < end; ++i) {
+                int cur = (ROL3[data[i] & 0xFF] + dataLength) & 0xFF;
+                cur ^= remember;
+                remember = cur;
+                cur = ROR[(dataLength & 7) << 8 | cur];
+                data[i] = (byte) (~cur + 0x48);
+                dataLength--;
+            }
+
+            remember = 0;
+            dataLength = length & 0xFF;
+            for (int i = end - 1; i >= offset; --i) {
+                int cur = (ROL4[data[i] & 0xFF] + dataLength) & 0xFF;
+                cur ^= remember;
+                remember = cur;
+                data[i] = ROR3[cur ^ 0x13];
+                dataLength--;
             }
-            //System.out.println("enc after iteration " + j + ": " + HexTool.toString(data) + " al: " + al);
         }
         return data;
     }
@@ -50,40 +79,30 @@ public class MapleCustomEncryption {
      * @return The decrypted data.
      */
     public static byte[] decryptData(byte data[]) {
-        for (int j = 1; j <= 6; ++j) {
-            byte remember = 0;
-            byte dataLength = (byte) (data.length & 0xFF);
-            byte nextRemember;
+        int length = data.length;
+        for (int j = 0; j < 3; ++j) {
+            int remember = 0;
+            int dataLength = length & 0xFF;
+            for (int i = length - 1; i >= 0; --i) {
+                int cur = ROL3[data[i] & 0xFF] & 0xFF ^ 0x13;
+                int nextRemember = cur;
+                cur ^= remember;
+                remember = nextRemember;
+                data[i] = ROL4[(cur - dataLength) & 0xFF];
+                dataLength--;
+            }
 
-            if (j % 2 == 0) {
-                for (int i = 0; i < data.length; ++i) {
-                    byte cur = data[i];
-                    cur -= 0x48;
-                    cur = (byte) ((~cur) & 0xFF);
-                    cur = BitTools.rollLeft(cur, (int)dataLength & 0xFF);
-                    nextRemember = cur;
-                    cur ^= remember;
-                    remember = nextRemember;
-                    cur -= dataLength;
-                    cur = BitTools.rollRight(cur, 3);
-                    data[i] = cur;
-                    dataLength--;
-                }
-            } else {
-                for (int i = data.length - 1; i >= 0; --i) {
-                    byte cur = data[i];
-                    cur = BitTools.rollLeft(cur, 3);
-                    cur ^= 0x13;
-                    nextRemember = cur;
-                    cur ^= remember;
-                    remember = nextRemember;
-                    cur -= dataLength;
-                    cur = BitTools.rollRight(cur, 4);
-                    data[i] = cur;
-                    dataLength--;
-                }
+            remember = 0;
+            dataLength = length & 0xFF;
+            for (int i = 0; i < length; ++i) {
+                int cur = ~(data[i] - 0x48) & 0xFF;
+                cur = ROL[(dataLength & 7) << 8 | cur] & 0xFF;
+                int nextRemember = cur;
+                cur ^= remember;
+                remember = nextRemember;
+                data[i] = ROR3[(cur - dataLength) & 0xFF];
+                dataLength--;
             }
-            //System.out.println("dec after iteration " + j + ": " + HexTool.toString(data));
         }
         return data;
     }
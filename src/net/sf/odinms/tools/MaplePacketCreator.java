@@ -1988,6 +1988,24 @@ public class MaplePacketCreator {
         return mplew.getPacket();
     }
 
+    /**
+     * Gets a packet relaying a player's movement as the client sent it.
+     *
+     * @param cid The ID of the moving character.
+     * @param movement The raw movement path; see <code>RawMovement</code>.
+     * @return The move player packet.
+     */
+    public static MaplePacket movePlayer(int cid, byte[] movement) {
+        MaplePacketLittleEndianWriter mplew = new MaplePacketLittleEndianWriter();
+
+        mplew.writeShort(SendPacketOpcode.MOVE_PLAYER.getValue());
+        mplew.writeInt(cid);
+        mplew.writeInt(0);
+        mplew.write(movement);
+
+        return mplew.getPacket();
+    }
+
     public static MaplePacket moveSummon(int cid, int oid, Point startPos, List<LifeMovementFragment> moves) {
         MaplePacketLittleEndianWriter mplew = new MaplePacketLittleEndianWriter();
 
@@ -2024,6 +2042,37 @@ public class MaplePacketCreator {
         return mplew.getPacket();
     }
 
+    /**
+     * Gets a packet relaying a monster's movement as its controller sent it.
+     *
+     * @param movement The raw movement path; see <code>RawMovement</code>.
+     * @return The move monster packet.
+     */
+    public static MaplePacket moveMonster(int useskill,
+                                          int skill,
+                                          int skill_1,
+                                          int skill_2,
+                                          int skill_3,
+                                          int oid,
+                                          Point startPos,
+                                          byte[] movement) {
+        MaplePacketLittleEndianWriter mplew = new MaplePacketLittleEndianWriter();
+
+        mplew.writeShort(SendPacketOpcode.MOVE_MONSTER.getValue());
+        mplew.writeInt(oid);
+        mplew.write(useskill);
+        mplew.write(skill);
+        mplew.write(skill_1);
+        mplew.write(skill_2);
+        mplew.write(skill_3);
+        mplew.write(0);
+        mplew.writeShort(startPos.x);
+        mplew.writeShort(startPos.y);
+        mplew.write(movement);
+
+        return mplew.getPacket();
+    }
+
     public static MaplePacket summonAttack(int cid, int summonSkillId, int newStance, List<SummonAttackEntry> allDamage) {
         MaplePacketLittleEndianWriter mplew = new MaplePacketLittleEndianWriter();
 
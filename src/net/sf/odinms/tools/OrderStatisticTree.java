@@ -0,0 +1,206 @@
+package net.sf.odinms.tools;
+
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * A sorted set that can also tell the position of an element in its order,
+ * and get the element at a position, in O(log n): a treap whose nodes know
+ * the size of their subtree.
+ *
+ * The comparator must be consistent with equals, and the elements must not
+ * change in a way that affects their order while they are in the tree.
+ * Not thread-safe.
+ *
+ * @param <T> The type of the elements.
+ */
+public class OrderStatisticTree<T> {
+    private final Comparator<? super T> comparator;
+    private final Random random = new Random();
+    private Node<T> root;
+
+    private static class Node<T> {
+        private final T value;
+        private final int priority;
+        private Node<T> left, right;
+        private int size = 1;
+
+        Node(T value, int priority) {
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+
+    public OrderStatisticTree(Comparator<? super T> comparator) {
+        this.comparator = comparator;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void update(Node<?> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @return Whether the element was added, i.e. wasn't in the tree yet.
+     */
+    public boolean add(T value) {
+        if (indexOf(value) >= 0) {
+            return false;
+        }
+        root = insert(root, new Node<>(value, random.nextInt()));
+        return true;
+    }
+
+    private Node<T> insert(Node<T> node, Node<T> added) {
+        if (node == null) {
+            return added;
+        }
+        if (comparator.compare(added.value, node.value) < 0) {
+            node.left = insert(node.left, added);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, added);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: false</li>
+     * </ul>
+     *
+     * @return Whether the element was removed, i.e. was in the tree.
+     */
+    public boolean remove(T value) {
+        int before = size();
+        root = delete(root, value);
+        return size() < before;
+    }
+
+    private Node<T> delete(Node<T> node, T value) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = comparator.compare(value, node.value);
+        if (cmp < 0) {
+            node.left = delete(node.left, value);
+        } else if (cmp > 0) {
+            node.right = delete(node.right, value);
+        } else {
+            return merge(node.left, node.right);
+        }
+        update(node);
+        return node;
+    }
+
+    private Node<T> merge(Node<T> left, Node<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private Node<T> rotateRight(Node<T> node) {
+        Node<T> left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private Node<T> rotateLeft(Node<T> node) {
+        Node<T> right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    /**
+     * Gets the position of the element in the tree's order.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     *
+     * @return The 0-based position, or -1 if the element isn't in the tree.
+     */
+    public int indexOf(T value) {
+        int index = 0;
+        Node<T> node = root;
+        while (node != null) {
+            int cmp = comparator.compare(value, node.value);
+            if (cmp < 0) {
+                node = node.left;
+            } else if (cmp > 0) {
+                index += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return index + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the element at a position in the tree's order.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     *
+     * @param index The 0-based position.
+     * @return The element.
+     * @throws IndexOutOfBoundsException when there is no such position.
+     */
+    public T get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node<T> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.value;
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package net.sf.odinms.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Finds the names that contain a string (or start with it) among a fixed
+ * set of named IDs, without looking at every name.
+ *
+ * The names are lower-cased and put one after another (each ended by a
+ * <code>'\0'</code>) into one text, and the positions of all suffixes of
+ * that text are sorted. The suffixes that start with the query are then
+ * next to each other, and are found by binary search.
+ *
+ * Matches are ranked by how well they match: the whole name first, then
+ * names that start with the query, then names with a word that does, then
+ * the rest; and within that, shorter names first, then in the order that
+ * the names were given in.
+ *
+ * Immutable once built, so it can be searched from any thread.
+ */
+public class SubstringIndex {
+    private final int[] ids;
+    private final String[] names;
+    /** Where each name starts in the text. */
+    private final int[] starts;
+    private final char[] text;
+    private final int[] suffixes;
+
+    /**
+     * @param names The names to index by ID, in the order that ties are broken in.
+     */
+    public SubstringIndex(Map<Integer, String> names) {
+        int n = names.size();
+        ids = new int[n];
+        this.names = new String[n];
+        starts = new int[n];
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        for (Map.Entry<Integer, String> entry : names.entrySet()) {
+            ids[i] = entry.getKey();
+            this.names[i] = entry.getValue();
+            starts[i] = sb.length();
+            sb.append(normalize(entry.getValue()).replace('\0', ' ')).append('\0');
+            i++;
+        }
+        text = sb.toString().toCharArray();
+        Integer[] positions = new Integer[text.length - n];
+        int p = 0;
+        for (int pos = 0; pos < text.length; ++pos) {
+            if (text[pos] != '\0') {
+                positions[p++] = pos;
+            }
+        }
+        Arrays.sort(positions, this::compareSuffixes);
+        suffixes = new int[positions.length];
+        for (int j = 0; j < positions.length; ++j) {
+            suffixes[j] = positions[j];
+        }
+    }
+
+    /**
+     * Lower-cases a name or query, which is all that searches ignore.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * </ul>
+     */
+    public static String normalize(String s) {
+        return s.toLowerCase();
+    }
+
+    private int compareSuffixes(int a, int b) {
+        for (int k = 0; ; ++k) {
+            char ca = text[a + k], cb = text[b + k];
+            if (ca != cb) {
+                return ca - cb;
+            }
+            if (ca == '\0') {
+                return Integer.compare(a, b);
+            }
+        }
+    }
+
+    /**
+     * Compares the suffix at <code>pos</code> with the query, up to the
+     * length of the query; 0 means that the suffix starts with the query.
+     */
+    private int compareToQuery(int pos, String query) {
+        for (int k = 0; k < query.length(); ++k) {
+            char c = text[pos + k];
+            if (c != query.charAt(k)) {
+                return c == '\0' ? -1 : c - query.charAt(k);
+            }
+        }
+        return 0;
+    }
+
+    private int nameAt(int pos) {
+        int i = Arrays.binarySearch(starts, pos);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * Searches the names.
+     *
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @param query The string to look for, in any case.
+     * @param prefixOnly Whether names have to start with the query, rather than just contain it.
+     * @param limit The most matches to return.
+     * @param filter Which IDs may match; <code>null</code> for all.
+     * @return The best matches, best first, as pairs of ID and name.
+     */
+    public List<Pair<Integer, String>> search(String query, boolean prefixOnly, int limit, IntPredicate filter) {
+        String q = normalize(query);
+        if (limit <= 0 || q.indexOf('\0') >= 0) {
+            return Collections.emptyList();
+        }
+        int lo = 0, hi = suffixes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareToQuery(suffixes[mid], q) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int from = lo;
+        hi = suffixes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareToQuery(suffixes[mid], q) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        // The best (lowest) quality that each matching name has anywhere.
+        Map<Integer, Integer> quality = new HashMap<>();
+        for (int j = from; j < lo; ++j) {
+            int pos = suffixes[j];
+            int name = nameAt(pos);
+            int offset = pos - starts[name];
+            if (prefixOnly && offset != 0) {
+                continue;
+            }
+            int value;
+            if (offset == 0) {
+                value = text[pos + q.length()] == '\0' ? 0 : 1;
+            } else {
+                value = Character.isLetterOrDigit(text[pos - 1]) ? 3 : 2;
+            }
+            Integer old = quality.get(name);
+            if (old == null) {
+                if (filter != null && !filter.test(ids[name])) {
+                    quality.put(name, Integer.MAX_VALUE);
+                    continue;
+                }
+                quality.put(name, value);
+            } else if (value < old) {
+                quality.put(name, value);
+            }
+        }
+        List<Integer> matches = new ArrayList<>(quality.size());
+        for (Map.Entry<Integer, Integer> entry : quality.entrySet()) {
+            if (entry.getValue() != Integer.MAX_VALUE) {
+                matches.add(entry.getKey());
+            }
+        }
+        matches.sort((a, b) -> {
+            int cmp = Integer.compare(quality.get(a), quality.get(b));
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = Integer.compare(names[a].length(), names[b].length());
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        });
+        List<Pair<Integer, String>> ret = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int name : matches) {
+            if (ret.size() >= limit) {
+                break;
+            }
+            ret.add(new Pair<>(ids[name], names[name]));
+        }
+        return ret;
+    }
+
+    /**
+     * <ul>
+     * <li>pure?: true</li>
+     * <li>nullable?: false</li>
+     * </ul>
+     *
+     * @return All names, as pairs of ID and name, in the order that they were given in.
+     */
+    public List<Pair<Integer, String>> getAll() {
+        List<Pair<Integer, String>> ret = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; ++i) {
+            ret.add(new Pair<>(ids[i], names[i]));
+        }
+        return ret;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+}
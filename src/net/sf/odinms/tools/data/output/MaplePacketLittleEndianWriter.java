@@ -4,16 +4,34 @@ import net.sf.odinms.net.ByteArrayMaplePacket;
 import net.sf.odinms.net.MaplePacket;
 import net.sf.odinms.tools.HexTool;
 
-import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 
+/**
+ * Writes a packet into a scratch buffer rented from a small per-thread pool,
+ * which goes back to the pool once <code>getPacket</code> has copied the
+ * packet out of it. So writing a packet normally allocates nothing but the
+ * packet's own array.
+ *
+ * The buffer is sized up front from the largest packet seen so far with the
+ * same opcode (the first short written), so that it rarely has to grow while
+ * the packet is being written.
+ */
 public class MaplePacketLittleEndianWriter extends GenericLittleEndianWriter {
-    private final ByteArrayOutputStream baos;
+    private static final int DEFAULT_SIZE = 256;
+    private static final int MAX_POOLED_SIZE = 1 << 16;
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final ThreadLocal<ArrayDeque<byte[]>> pool = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final int[] sizeHints = new int[0x10000];
+    private byte[] buf;
+    private int pos = 0;
+    private byte[] packet;
 
     /**
      * Constructor - initializes this stream with a default size.
      */
     public MaplePacketLittleEndianWriter() {
-        this(32);
+        this(DEFAULT_SIZE);
     }
 
     /**
@@ -22,8 +40,92 @@ public class MaplePacketLittleEndianWriter extends GenericLittleEndianWriter {
      * @param size The size of the underlying stream.
      */
     public MaplePacketLittleEndianWriter(int size) {
-        this.baos = new ByteArrayOutputStream(size);
-        setByteOutputStream(new BAOSByteOutputStream(baos));
+        buf = rent(size);
+        setByteOutputStream(b -> {
+            ensureCapacity(1);
+            buf[pos++] = b;
+        });
+    }
+
+    private static byte[] rent(int size) {
+        ArrayDeque<byte[]> buffers = pool.get();
+        byte[] ret = buffers.poll();
+        if (ret == null || ret.length < size) {
+            if (ret != null) {
+                buffers.push(ret);
+            }
+            ret = new byte[Math.max(size, DEFAULT_SIZE)];
+        }
+        return ret;
+    }
+
+    private static void release(byte[] buffer) {
+        ArrayDeque<byte[]> buffers = pool.get();
+        if (buffer.length <= MAX_POOLED_SIZE && buffers.size() < MAX_POOLED_BUFFERS) {
+            buffers.push(buffer);
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (buf == null) {
+            // Written to after getPacket; carry on from the packet so far.
+            byte[] written = packet != null ? packet : new byte[0];
+            buf = rent(written.length + n);
+            System.arraycopy(written, 0, buf, 0, written.length);
+            pos = written.length;
+            packet = null;
+        }
+        if (pos + n > buf.length) {
+            byte[] old = buf;
+            buf = Arrays.copyOf(old, Math.max(old.length * 2, pos + n));
+            release(old);
+        }
+    }
+
+    @Override
+    public void write(byte[] b) {
+        ensureCapacity(b.length);
+        System.arraycopy(b, 0, buf, pos, b.length);
+        pos += b.length;
+    }
+
+    @Override
+    public void write(byte b) {
+        ensureCapacity(1);
+        buf[pos++] = b;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buf[pos++] = (byte) b;
+    }
+
+    @Override
+    public void writeShort(int i) {
+        if (pos == 0) {
+            // Most likely the opcode; make room for the largest packet seen with it.
+            ensureCapacity(Math.max(2, sizeHints[i & 0xFFFF]));
+        } else {
+            ensureCapacity(2);
+        }
+        buf[pos++] = (byte) (i & 0xFF);
+        buf[pos++] = (byte) ((i >>> 8) & 0xFF);
+    }
+
+    @Override
+    public void writeInt(int i) {
+        ensureCapacity(4);
+        buf[pos++] = (byte) (i & 0xFF);
+        buf[pos++] = (byte) ((i >>> 8) & 0xFF);
+        buf[pos++] = (byte) ((i >>> 16) & 0xFF);
+        buf[pos++] = (byte) ((i >>> 24) & 0xFF);
+    }
+
+    @Override
+    public void writeLong(long l) {
+        writeInt((int) l);
+        writeInt((int) (l >>> 32));
     }
 
     /**
@@ -33,9 +135,20 @@ public class MaplePacketLittleEndianWriter extends GenericLittleEndianWriter {
      * @return A <code>MaplePacket</code> with the bytes in this stream.
      */
     public MaplePacket getPacket() {
-        //MaplePacket packet = new ByteArrayMaplePacket(baos.toByteArray());
-        //System.out.println("Packet to be sent:\n" +packet.toString() + "\n\n");
-        return new ByteArrayMaplePacket(baos.toByteArray());
+        if (buf != null) {
+            if (pos >= 2) {
+                int opcode = (buf[0] & 0xFF) | ((buf[1] & 0xFF) << 8);
+                if (pos > sizeHints[opcode] && pos <= MAX_POOLED_SIZE) {
+                    sizeHints[opcode] = pos;
+                }
+            }
+            packet = Arrays.copyOf(buf, pos);
+            release(buf);
+            buf = null;
+        } else if (packet == null) {
+            packet = new byte[0];
+        }
+        return new ByteArrayMaplePacket(packet);
     }
 
     /**
@@ -45,6 +158,6 @@ public class MaplePacketLittleEndianWriter extends GenericLittleEndianWriter {
      */
     @Override
     public String toString() {
-        return HexTool.toString(baos.toByteArray());
+        return HexTool.toString(buf != null ? Arrays.copyOf(buf, pos) : packet != null ? packet : new byte[0]);
     }
-}
\ No newline at end of file
+}